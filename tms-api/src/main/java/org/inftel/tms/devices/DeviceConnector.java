@@ -1,5 +1,7 @@
 package org.inftel.tms.devices;
 
+import java.util.List;
+
 import javax.ejb.Local;
 
 /**
@@ -10,5 +12,17 @@ import javax.ejb.Local;
 public interface DeviceConnector {
 
   CharSequence processAlertMessage(String from, String message);
-  
+
+  /**
+   * Procesa en orden varias tramas de un mismo origen recibidas en una unica peticion, como las que
+   * envia un terminal al recuperar la cobertura. Las tramas se guardan juntas y una trama erronea no
+   * impide procesar el resto.
+   *
+   * @param from el origen de los mensajes
+   * @param messages los mensajes en formato paSOS, en el orden en que se generaron
+   * @return una respuesta por mensaje y en el mismo orden: la respuesta paSOS, <code>null</code> si
+   *         el mensaje no tiene respuesta, o el error si el mensaje se ha rechazado
+   */
+  List<CharSequence> processAlertMessages(String from, List<String> messages);
+
 }
@@ -0,0 +1,86 @@
+package org.inftel.tms.devices;
+
+import org.inftel.tms.domain.AlertPriority;
+import org.inftel.tms.domain.AlertType;
+
+/**
+ * Trama grabada en una {@link TrafficRecording}: los datos necesarios para volver a enviarla
+ * (origen, contenido e instante de llegada) y el resultado que produjo, para detectar diferencias
+ * al reproducirla.
+ */
+public class RecordedFrame {
+
+    private final String origin;
+    private final String rawData;
+    private final long created;
+    private final boolean accepted;
+    private final AlertType alertType;
+    private final AlertPriority alertPriority;
+    private final String alertCause;
+
+    /**
+     * Crea una trama grabada.
+     *
+     * @param created instante de llegada en milisegundos
+     * @param accepted si el conector acepto la trama (no se descarto)
+     * @param alertType tipo de la alerta generada, <code>null</code> si no genero alerta
+     */
+    public RecordedFrame(String origin, String rawData, long created, boolean accepted,
+            AlertType alertType, AlertPriority alertPriority, String alertCause) {
+        this.origin = origin;
+        this.rawData = rawData;
+        this.created = created;
+        this.accepted = accepted;
+        this.alertType = alertType;
+        this.alertPriority = alertPriority;
+        this.alertCause = alertCause;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public String getRawData() {
+        return rawData;
+    }
+
+    /** Instante de llegada en milisegundos. */
+    public long getCreated() {
+        return created;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    /** Tipo de la alerta generada, <code>null</code> si la trama no genero alerta. */
+    public AlertType getAlertType() {
+        return alertType;
+    }
+
+    public AlertPriority getAlertPriority() {
+        return alertPriority;
+    }
+
+    public String getAlertCause() {
+        return alertCause;
+    }
+
+    /**
+     * Resultado de la trama en una cadena comparable: si se acepto y el tipo, prioridad y causa de
+     * la alerta generada.
+     */
+    public String getOutcome() {
+        if (!accepted) {
+            return "discarded";
+        }
+        return (alertType == null) ? "accepted" : "alert " + alertType + " " + alertPriority + " "
+                + alertCause;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordedFrame[ origin=" + origin + ", rawData=" + rawData + ", " + getOutcome()
+                + " ]";
+    }
+}
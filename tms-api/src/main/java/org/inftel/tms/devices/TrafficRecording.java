@@ -0,0 +1,201 @@
+package org.inftel.tms.devices;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.inftel.tms.domain.AlertPriority;
+import org.inftel.tms.domain.AlertType;
+
+/**
+ * Formato compacto para grabar el trafico recibido por el conector y reproducirlo despues. Es un
+ * flujo comprimido con gzip que empieza por la cabecera <code>TMSR</code> y una version, seguido
+ * de una entrada por trama:
+ * <ul>
+ * <li>milisegundos desde la trama anterior, como entero de longitud variable</li>
+ * <li>indice del origen en el diccionario de origenes; si es nuevo le sigue el origen, de modo
+ * que cada numero de movil se escribe una sola vez</li>
+ * <li>contenido de la trama en UTF-8</li>
+ * <li>resultado: si se acepto y, si genero alerta, su tipo, prioridad y causa</li>
+ * </ul>
+ * Las tramas de paSOS ocupan unas pocas decenas de bytes y se parecen mucho entre si, por lo que
+ * tras la compresion cada trama ocupa del orden de 10 bytes.
+ */
+public final class TrafficRecording {
+
+    private static final int MAGIC = 0x544d5352; // TMSR
+
+    private static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int ACCEPTED = 1;
+
+    private static final int ALERT = 2;
+
+    private TrafficRecording() {
+    }
+
+    /** Escribe una grabacion, las tramas deben añadirse en orden de llegada. */
+    public static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        private final Map<String, Integer> origins = new HashMap<String, Integer>();
+
+        private long last;
+
+        private int count;
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out)));
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+        }
+
+        public void write(RecordedFrame frame) throws IOException {
+            out.writeByte(1);
+            writeVarLong(Math.max(0, frame.getCreated() - last));
+            last = Math.max(last, frame.getCreated());
+            Integer origin = origins.get(frame.getOrigin());
+            if (origin == null) {
+                writeVarLong(origins.size());
+                writeString(frame.getOrigin());
+                origins.put(frame.getOrigin(), origins.size());
+            } else {
+                writeVarLong(origin);
+            }
+            writeString(frame.getRawData());
+            boolean alert = frame.getAlertType() != null;
+            out.writeByte((frame.isAccepted() ? ACCEPTED : 0) | (alert ? ALERT : 0));
+            if (alert) {
+                out.writeByte(frame.getAlertType().ordinal());
+                out.writeByte(frame.getAlertPriority() == null ? -1 : frame.getAlertPriority()
+                        .ordinal());
+                writeString(frame.getAlertCause() == null ? "" : frame.getAlertCause());
+            }
+            count++;
+        }
+
+        /** Numero de tramas escritas. */
+        public int getCount() {
+            return count;
+        }
+
+        /** Termina la grabacion sin cerrar el flujo de salida. */
+        public void finish() throws IOException {
+            out.writeByte(0);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            out.close();
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarLong(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.writeByte((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+
+    /** Lee una grabacion trama a trama, sin cargarla completa en memoria. */
+    public static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+
+        private final List<String> origins = new ArrayList<String>();
+
+        private long last;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("no es una grabacion de trafico");
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("version de grabacion no soportada: " + version);
+            }
+        }
+
+        /**
+         * Lee la siguiente trama.
+         *
+         * @return la trama o <code>null</code> al final de la grabacion
+         */
+        public RecordedFrame read() throws IOException {
+            if (in.readUnsignedByte() == 0) {
+                return null;
+            }
+            last += readVarLong();
+            int index = (int) readVarLong();
+            if (index == origins.size()) {
+                origins.add(readString());
+            } else if (index > origins.size()) {
+                throw new IOException("origen no definido: " + index);
+            }
+            String origin = origins.get(index);
+            String rawData = readString();
+            int flags = in.readUnsignedByte();
+            AlertType type = null;
+            AlertPriority priority = null;
+            String cause = null;
+            if ((flags & ALERT) != 0) {
+                type = AlertType.values()[in.readUnsignedByte()];
+                int p = in.readByte();
+                priority = (p < 0) ? null : AlertPriority.values()[p];
+                cause = readString();
+                cause = cause.length() == 0 ? null : cause;
+            }
+            return new RecordedFrame(origin, rawData, last, (flags & ACCEPTED) != 0, type,
+                    priority, cause);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[(int) readVarLong()];
+            in.readFully(bytes);
+            return new String(bytes, UTF8);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new EOFException("entero mal formado");
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.inftel.tms.domain;
 
 import java.util.List;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.JoinColumn;
@@ -14,6 +15,8 @@ import javax.persistence.OneToOne;
 import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.eclipse.persistence.annotations.Index;
+
 /**
  * Representan las alertas recibidas de los dispositivos. Que info se guarda? Lo
  * interesante es guardar un par de indices tipo/subtipo que permita hacer
@@ -25,6 +28,7 @@ import javax.xml.bind.annotation.XmlRootElement;
  */
 @Entity
 @Table(name = "alerts")
+@Index(name = "alerts_geocell", columnNames = { "geocell", "created" })
 @XmlRootElement
 @NamedQueries({
         @NamedQuery(name = "Alert.findAll", query = "SELECT a FROM Alert a"),
@@ -50,6 +54,9 @@ public class Alert extends BaseEntity {
     private String cause;
     private Double latitude;
     private Double longitude;
+    /** Geocelda de la posicion, se mantiene al cambiar las coordenadas. */
+    @Column(length = GeoCells.MAX_RESOLUTION)
+    private String geocell;
     @OneToOne
     private Device origin;
     @ManyToOne
@@ -216,6 +223,7 @@ public class Alert extends BaseEntity {
 
     public void setLatitude(Double latitude) {
         this.latitude = latitude;
+        this.geocell = GeoCells.compute(latitude, longitude);
     }
 
     public Double getLongitude() {
@@ -224,5 +232,15 @@ public class Alert extends BaseEntity {
 
     public void setLongitude(Double longitude) {
         this.longitude = longitude;
+        this.geocell = GeoCells.compute(latitude, longitude);
+    }
+
+    /**
+     * Geocelda de maxima resolucion que contiene la posicion de la alerta, ver {@link GeoCells}.
+     * 
+     * @return la geocelda o <code>null</code> si la alerta no tiene posicion
+     */
+    public String getGeocell() {
+        return geocell;
     }
 }
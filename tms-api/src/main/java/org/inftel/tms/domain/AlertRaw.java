@@ -1,6 +1,7 @@
 package org.inftel.tms.domain;
 
 import javax.persistence.Basic;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.Lob;
@@ -27,11 +28,18 @@ import javax.xml.bind.annotation.XmlRootElement;
 		@NamedQuery(name = "AlertRaw.findByCreated", query = "SELECT a FROM AlertRaw a WHERE a.created = :created"),
 		@NamedQuery(name = "AlertRaw.findByOrigin", query = "SELECT a FROM AlertRaw a WHERE a.origin = :origin"),
 		@NamedQuery(name = "AlertRaw.findByUpdated", query = "SELECT a FROM AlertRaw a WHERE a.updated = :updated"),
-		@NamedQuery(name = "AlertRaw.findByVersion", query = "SELECT a FROM AlertRaw a WHERE a.version = :version") })
+		@NamedQuery(name = "AlertRaw.findByVersion", query = "SELECT a FROM AlertRaw a WHERE a.version = :version"),
+		@NamedQuery(name = AlertRaw.FIND_BY_STATE, query = "SELECT a FROM AlertRaw a WHERE a.state = :state AND a.created < :before ORDER BY a.id") })
 public class AlertRaw extends BaseEntity {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Busca las tramas en el estado <code>state</code> recibidas antes de <code>before</code>,
+	 * ordenadas por orden de llegada.
+	 */
+	public static final String FIND_BY_STATE = "AlertRaw.findByState";
+
 	@OneToOne(optional = true, mappedBy = "raw", fetch = FetchType.LAZY)
 	private Alert alert;
 	@Basic(optional = false)
@@ -39,6 +47,10 @@ public class AlertRaw extends BaseEntity {
 	@Basic(optional = false, fetch = FetchType.EAGER)
 	@Lob
 	private String rawData;
+	@Basic(optional = false)
+	private AlertRawState state = AlertRawState.PENDING;
+	@Column(length = 100, unique = true)
+	private String fingerprint;
 
 	/**
 	 * Cadena que representa el origen de la alerta, actualmente el telefono del dispositivo. Se usa
@@ -100,7 +112,55 @@ public class AlertRaw extends BaseEntity {
 		this.rawData = rawData;
 	}
 
+	/**
+	 * Estado de procesado de la trama. Las tramas nuevas estan en estado
+	 * {@link AlertRawState#PENDING}.
+	 * 
+	 * @return el estado de procesado
+	 */
+	public AlertRawState getState() {
+		return state;
+	}
+
+	/**
+	 * Modifica el estado de procesado de la trama. Este campo es obligatorio.
+	 * 
+	 * @param state
+	 *            nuevo estado de procesado
+	 */
+	public void setState(AlertRawState state) {
+		this.state = state;
+	}
+
+	/**
+	 * Huella de la trama para detectar los reintentos del terminal: origen, contenido y el intervalo
+	 * de tiempo en que se recibio. Es unica, de modo que un reintento no puede guardarse dos veces.
+	 * Las tramas vacias o erroneas no llevan huella.
+	 * 
+	 * @return la huella o <code>null</code> si no tiene
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Establece la huella de la trama.
+	 * 
+	 * @param fingerprint
+	 *            huella de la trama, puede ser nula
+	 * @see #getFingerprint()
+	 */
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Indica si la trama ya ha pasado por la etapa de procesado, independientemente de si se
+	 * genero una alerta o se descarto.
+	 * 
+	 * @return <code>true</code> si la trama no esta pendiente
+	 */
 	public boolean isProcessed() {
-		return getAlert() == null;
+		return state != AlertRawState.PENDING;
 	}
 }
@@ -0,0 +1,29 @@
+package org.inftel.tms.domain;
+
+/**
+ * Estado de procesado de un {@link AlertRaw}. Las tramas se hacen persistentes nada mas llegar en
+ * estado {@link #PENDING} y el resto del procesamiento se realiza de forma asincrona.
+ *
+ * FIXME no puede cambiarse el orden del enumerado, se almacena como ordinal
+ */
+public enum AlertRawState {
+
+	/**
+	 * La trama se ha recibido y almacenado, pero todavia no se ha generado la alerta asociada.
+	 */
+	PENDING,
+	/**
+	 * La trama se ha procesado correctamente y, si corresponde, tiene una {@link Alert} asociada.
+	 */
+	PROCESSED,
+	/**
+	 * La trama se ha procesado pero se ha descartado, por ejemplo porque el origen no corresponde
+	 * con ningun dispositivo registrado o la clave de acceso es incorrecta.
+	 */
+	DISCARDED,
+	/**
+	 * El procesado de la trama ha fallado. Se mantiene para poder analizar el error, pero no se
+	 * vuelve a intentar procesar de forma automatica.
+	 */
+	FAILED
+}
@@ -1,6 +1,6 @@
 package org.inftel.tms.domain;
 
-import static javax.persistence.GenerationType.IDENTITY;
+import static javax.persistence.GenerationType.TABLE;
 import static javax.persistence.TemporalType.TIMESTAMP;
 
 import java.io.Serializable;
@@ -14,6 +14,7 @@ import javax.persistence.MappedSuperclass;
 import javax.persistence.PostPersist;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
+import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.Version;
 
@@ -21,6 +22,10 @@ import javax.persistence.Version;
  * Entidad base para las entidades persistentes. Permite unificar el comportamiento y facilita el
  * desarrollo de los servicios DAO.<br>
  * 
+ * Los identificadores se reservan por bloques de una tabla de secuencias en lugar de usar columnas
+ * IDENTITY. Asi el proveedor conoce el identificador antes de insertar y puede agrupar varias
+ * inserciones en un unico batch JDBC (ver <code>eclipselink.jdbc.batch-writing</code>).<br>
+ * 
  * @author ibaca
  * 
  */
@@ -35,7 +40,8 @@ public abstract class BaseEntity implements Serializable {
 	private Date created;
 
 	@Id
-	@GeneratedValue(strategy = IDENTITY)
+	@GeneratedValue(strategy = TABLE, generator = "tms_id")
+	@TableGenerator(name = "tms_id", table = "sequences", pkColumnName = "seq_name", valueColumnName = "seq_count", pkColumnValue = "tms_id", allocationSize = 100)
 	private Long id;
 
 	@Temporal(TIMESTAMP)
@@ -28,6 +28,8 @@ import javax.xml.bind.annotation.XmlRootElement;
 		@NamedQuery(name = "Device.findByCreated", query = "SELECT d FROM Device d WHERE d.created = :created"),
 		@NamedQuery(name = "Device.findByLastconnection", query = "SELECT d FROM Device d WHERE d.lastConnection = :lastconnection"),
 		@NamedQuery(name = Device.FIND_BY_MOBILE, query = "SELECT d FROM Device d WHERE d.mobileNumber = :mobile"),
+		@NamedQuery(name = Device.FIND_SNAPSHOTS, query = "SELECT d.mobileNumber, d.id, o.id, p.id FROM Device d LEFT JOIN d.owner o LEFT JOIN o.data p ORDER BY d.lastConnection DESC"),
+		@NamedQuery(name = Device.FIND_SNAPSHOT_BY_MOBILE, query = "SELECT d.mobileNumber, d.id, o.id, p.id FROM Device d LEFT JOIN d.owner o LEFT JOIN o.data p WHERE d.mobileNumber = :mobile"),
 		@NamedQuery(name = "Device.findBySimcard", query = "SELECT d FROM Device d WHERE d.simCard = :simcard"),
 		@NamedQuery(name = "Device.findByTemperature", query = "SELECT d FROM Device d WHERE d.temperature = :temperature"),
 		@NamedQuery(name = "Device.findByUpdated", query = "SELECT d FROM Device d WHERE d.updated = :updated"),
@@ -38,6 +40,15 @@ public class Device extends BaseEntity {
 
 	public final static String FIND_BY_MOBILE = "Device.findByMobilenumber";
 
+	/**
+	 * Identificadores (movil, dispositivo, afectado, persona) de todos los dispositivos, primero los
+	 * conectados mas recientemente.
+	 */
+	public final static String FIND_SNAPSHOTS = "Device.findSnapshots";
+
+	/** Identificadores (movil, dispositivo, afectado, persona) del dispositivo con el movil dado. */
+	public final static String FIND_SNAPSHOT_BY_MOBILE = "Device.findSnapshotByMobilenumber";
+
 	private String mobileNumber;
 
 	private String simCard;
@@ -0,0 +1,113 @@
+package org.inftel.tms.domain;
+
+import javax.persistence.Basic;
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Zona circular vigilada de una persona, con los mismos datos que las zonas que se configuran en
+ * el movil. En una zona de inclusion la persona debe permanecer dentro y se genera una alerta al
+ * salir; en una zona de exclusion se genera al entrar.
+ */
+@Entity
+@Table(name = "fences")
+@XmlRootElement
+@NamedQueries({
+		@NamedQuery(name = "Fence.findAll", query = "SELECT f FROM Fence f"),
+		@NamedQuery(name = Fence.FIND_BY_AFFECTED, query = "SELECT f FROM Fence f WHERE f.affected = :affected"),
+		@NamedQuery(name = Fence.FIND_SNAPSHOTS, query = "SELECT f.id, p.id, f.name, f.latitude, f.longitude, f.radius, f.inclusionZone FROM Fence f JOIN f.affected p") })
+public class Fence extends BaseEntity {
+
+	private static final long serialVersionUID = 1L;
+
+	public final static String FIND_BY_AFFECTED = "Fence.findByAffected";
+
+	/**
+	 * Datos (zona, persona, nombre, latitud, longitud, radio, inclusion) de todas las zonas, sin
+	 * cargar las entidades.
+	 */
+	public final static String FIND_SNAPSHOTS = "Fence.findSnapshots";
+
+	@ManyToOne(optional = false)
+	private Person affected;
+
+	private String name;
+
+	private double latitude;
+
+	private double longitude;
+
+	/** Radio en metros. */
+	private double radius;
+
+	@Basic(optional = false)
+	private boolean inclusionZone;
+
+	/**
+	 * Persona vigilada por la zona.
+	 *
+	 * @return persona vigilada
+	 */
+	public Person getAffected() {
+		return affected;
+	}
+
+	public void setAffected(Person affected) {
+		this.affected = affected;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+
+	/**
+	 * Radio de la zona.
+	 *
+	 * @return radio en metros
+	 */
+	public double getRadius() {
+		return radius;
+	}
+
+	public void setRadius(double radius) {
+		this.radius = radius;
+	}
+
+	/**
+	 * Si es una zona de inclusion (la persona debe permanecer dentro) o de exclusion (la persona
+	 * no debe entrar).
+	 *
+	 * @return <code>true</code> si es una zona de inclusion
+	 */
+	public boolean isInclusionZone() {
+		return inclusionZone;
+	}
+
+	public void setInclusionZone(boolean inclusionZone) {
+		this.inclusionZone = inclusionZone;
+	}
+}
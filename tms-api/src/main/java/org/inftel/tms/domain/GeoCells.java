@@ -0,0 +1,132 @@
+package org.inftel.tms.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Calculo de geoceldas con la misma codificacion que la libreria geocell usada en
+ * {@link Person}. El mundo se divide en una rejilla de 4x4 celdas, cada una se vuelve a dividir en
+ * otra rejilla de 4x4 y asi hasta {@value #MAX_RESOLUTION} niveles, y cada nivel añade un caracter
+ * hexadecimal al nombre de la celda. Todas las celdas contenidas en una celda empiezan por su
+ * nombre, por lo que una busqueda por celda es una busqueda por prefijo que puede resolverse con un
+ * indice ordinario.
+ *
+ * Las celdas se calculan con aritmetica entera sobre la posicion de la celda en la rejilla de su
+ * resolucion, de forma que el calculo de un punto y el recubrimiento de un rectangulo coinciden
+ * siempre en los bordes.
+ */
+public final class GeoCells {
+
+    /** Resolucion de las celdas que se guardan, de menos de un metro de lado. */
+    public static final int MAX_RESOLUTION = 13;
+
+    private static final int GRID_SIZE = 4;
+
+    private static final String ALPHABET = "0123456789abcdef";
+
+    private GeoCells() {
+    }
+
+    /**
+     * Celda de maxima resolucion que contiene el punto.
+     *
+     * @return la celda o <code>null</code> si falta alguna coordenada
+     */
+    public static String compute(Double latitude, Double longitude) {
+        if (latitude == null || longitude == null) {
+            return null;
+        }
+        return compute(latitude, longitude, MAX_RESOLUTION);
+    }
+
+    /** Celda de la resolucion indicada que contiene el punto. */
+    public static String compute(double latitude, double longitude, int resolution) {
+        return cell(column(longitude, resolution), row(latitude, resolution), resolution);
+    }
+
+    /**
+     * Mayor resolucion con la que el rectangulo se recubre con como mucho <code>maxCells</code>
+     * celdas. Si el rectangulo cruza el antimeridiano <code>west</code> es mayor que
+     * <code>east</code>.
+     */
+    public static int resolutionFor(double south, double west, double north, double east,
+            int maxCells) {
+        int resolution = 1;
+        while (resolution < MAX_RESOLUTION
+                && count(south, west, north, east, resolution + 1) <= maxCells) {
+            resolution++;
+        }
+        return resolution;
+    }
+
+    /**
+     * Celdas de la resolucion indicada que recubren el rectangulo, en orden.
+     */
+    public static List<String> cover(double south, double west, double north, double east,
+            int resolution) {
+        List<String> cells = new ArrayList<String>();
+        int fromRow = row(south, resolution);
+        int toRow = row(north, resolution);
+        if (west <= east) {
+            addCells(cells, column(west, resolution), column(east, resolution), fromRow, toRow,
+                    resolution);
+        } else {
+            addCells(cells, column(west, resolution), cells(resolution) - 1, fromRow, toRow,
+                    resolution);
+            addCells(cells, 0, column(east, resolution), fromRow, toRow, resolution);
+        }
+        Collections.sort(cells);
+        return cells;
+    }
+
+    private static void addCells(List<String> cells, int fromColumn, int toColumn, int fromRow,
+            int toRow, int resolution) {
+        for (int x = fromColumn; x <= toColumn; x++) {
+            for (int y = fromRow; y <= toRow; y++) {
+                cells.add(cell(x, y, resolution));
+            }
+        }
+    }
+
+    private static long count(double south, double west, double north, double east,
+            int resolution) {
+        long rows = row(north, resolution) - row(south, resolution) + 1;
+        long columns = column(east, resolution) - column(west, resolution) + 1;
+        if (west > east) {
+            columns += cells(resolution);
+        }
+        return rows * columns;
+    }
+
+    /** Numero de celdas por lado de la rejilla de una resolucion. */
+    private static int cells(int resolution) {
+        return 1 << (2 * resolution);
+    }
+
+    private static int column(double longitude, int resolution) {
+        return index((longitude + 180d) / 360d, resolution);
+    }
+
+    private static int row(double latitude, int resolution) {
+        return index((latitude + 90d) / 180d, resolution);
+    }
+
+    private static int index(double ratio, int resolution) {
+        int cells = cells(resolution);
+        int index = (int) Math.floor(ratio * cells);
+        return Math.min(Math.max(index, 0), cells - 1);
+    }
+
+    /** Nombre de la celda, cada nivel usa dos bits de la columna y dos de la fila. */
+    private static String cell(int column, int row, int resolution) {
+        char[] cell = new char[resolution];
+        for (int level = 0; level < resolution; level++) {
+            int shift = 2 * (resolution - level - 1);
+            int x = (column >> shift) & (GRID_SIZE - 1);
+            int y = (row >> shift) & (GRID_SIZE - 1);
+            cell[level] = ALPHABET.charAt((y & 2) << 2 | (x & 2) << 1 | (y & 1) << 1 | (x & 1));
+        }
+        return new String(cell);
+    }
+}
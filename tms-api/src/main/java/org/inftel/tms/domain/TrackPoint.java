@@ -0,0 +1,109 @@
+package org.inftel.tms.domain;
+
+import static javax.persistence.GenerationType.TABLE;
+import static javax.persistence.TemporalType.TIMESTAMP;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+
+import org.eclipse.persistence.annotations.Index;
+import org.eclipse.persistence.annotations.Indexes;
+
+/**
+ * Punto del recorrido de un dispositivo. Solo se guardan los puntos que sobreviven a la
+ * simplificacion del recorrido al recibirlo; las posiciones originales se conservan en las tramas
+ * ({@link AlertRaw}). A diferencia del resto de entidades no extiende {@link BaseEntity}: los
+ * puntos no se modifican y su fecha es la de la posicion, no la de la insercion. Como las alertas,
+ * guardan su geocelda para buscarlos por zona sobre un indice.
+ */
+@Entity
+@Table(name = "track_points")
+@Indexes({ @Index(name = "track_points_device", columnNames = { "deviceId", "time" }),
+        @Index(name = "track_points_geocell", columnNames = { "geocell", "time" }) })
+public class TrackPoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = TABLE, generator = "tms_id")
+    private Long id;
+
+    @Basic(optional = false)
+    private Long deviceId;
+
+    @Basic(optional = false)
+    @Temporal(TIMESTAMP)
+    private Date time;
+
+    private double latitude;
+
+    private double longitude;
+
+    @Column(length = GeoCells.MAX_RESOLUTION)
+    private String geocell;
+
+    public TrackPoint() {
+    }
+
+    public TrackPoint(Long deviceId, Date time, double latitude, double longitude) {
+        this.deviceId = deviceId;
+        this.time = time;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.geocell = GeoCells.compute(latitude, longitude, GeoCells.MAX_RESOLUTION);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    /** Identificador del {@link Device} que envio la posicion. */
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    /** Fecha de la posicion. */
+    public Date getTime() {
+        return time;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /** Geocelda de maxima resolucion que contiene la posicion, ver {@link GeoCells}. */
+    public String getGeocell() {
+        return geocell;
+    }
+
+    @Override
+    public int hashCode() {
+        return (id != null) ? id.hashCode() : 0;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof TrackPoint)) {
+            return false;
+        }
+        TrackPoint other = (TrackPoint) object;
+        return (id == null) ? this == other : id.equals(other.id);
+    }
+
+    @Override
+    public String toString() {
+        return "trackpoint [id=" + id + ", device=" + deviceId + ", time=" + time + "]";
+    }
+}
@@ -0,0 +1,79 @@
+package org.inftel.tms.services;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.inftel.tms.domain.AlertPriority;
+import org.inftel.tms.domain.AlertType;
+
+/**
+ * Vista compacta e inmutable de una alerta activa, con los datos que muestran las pantallas de los
+ * operadores. Se mantiene en memoria en {@link ActiveAlertBoard}, por lo que consultar las alertas
+ * activas no accede a la base de datos. La alerta completa puede obtenerse con
+ * {@link AlertFacade#find(Object)}.
+ */
+public final class ActiveAlert implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long id;
+    private final Date created;
+    private final AlertType type;
+    private final AlertPriority priority;
+    private final String cause;
+    private final String affectedName;
+    private final Double latitude;
+    private final Double longitude;
+
+    public ActiveAlert(Long id, Date created, AlertType type, AlertPriority priority,
+            String cause, String affectedName, Double latitude, Double longitude) {
+        this.id = id;
+        this.created = created;
+        this.type = type;
+        this.priority = priority;
+        this.cause = cause;
+        this.affectedName = affectedName;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /** Identificador de la {@link org.inftel.tms.domain.Alert}. */
+    public Long getId() {
+        return id;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public AlertType getType() {
+        return type;
+    }
+
+    public AlertPriority getPriority() {
+        return priority;
+    }
+
+    public String getCause() {
+        return cause;
+    }
+
+    /** Nombre del afectado, puede ser nulo si la alerta no tiene afectado. */
+    public String getAffectedName() {
+        return affectedName;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    @Override
+    public String toString() {
+        return "activealert [id=" + id + ", type=" + type + ", priority=" + priority
+                + ", affected=" + affectedName + "]";
+    }
+}
@@ -0,0 +1,35 @@
+package org.inftel.tms.services;
+
+import java.util.List;
+
+import javax.ejb.Local;
+
+/**
+ * Indice en memoria de las alertas activas (sin intervencion de cierre). Se actualiza cuando se
+ * confirma la creacion o el cierre de una alerta, y guarda los ultimos cambios para que las
+ * pantallas de los operadores puedan actualizarse de forma incremental.
+ */
+@Local
+public interface ActiveAlertBoard {
+
+    /** Alertas activas en orden de creacion, sin acceder a la base de datos. */
+    List<ActiveAlert> findActiveAlerts();
+
+    /** Version del ultimo cambio, 0 si no ha habido ninguno desde el arranque. */
+    long getVersion();
+
+    /**
+     * Devuelve los cambios posteriores a una version en orden.
+     *
+     * @param version ultima version conocida
+     * @return los cambios, o <code>null</code> si ya no se conservan todos y deben volver a
+     *         consultarse las alertas activas
+     */
+    List<ActiveAlertChange> findChangesSince(long version);
+
+    /** Registra una alerta recien creada, debe llamarse una vez confirmada la transaccion. */
+    void alertCreated(ActiveAlert alert);
+
+    /** Registra el cierre de una alerta, debe llamarse una vez confirmada la transaccion. */
+    void alertClosed(Long alertId);
+}
@@ -0,0 +1,36 @@
+package org.inftel.tms.services;
+
+import java.io.Serializable;
+
+/**
+ * Cambio en el conjunto de alertas activas: una alerta nueva o una alerta cerrada. Cada cambio
+ * tiene un numero de version creciente, de forma que quien recibe los cambios puede descartar los
+ * que ya ha aplicado.
+ */
+public final class ActiveAlertChange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    private final boolean added;
+    private final ActiveAlert alert;
+
+    public ActiveAlertChange(long version, boolean added, ActiveAlert alert) {
+        this.version = version;
+        this.added = added;
+        this.alert = alert;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /** @return <code>true</code> si la alerta es nueva, <code>false</code> si se ha cerrado */
+    public boolean isAdded() {
+        return added;
+    }
+
+    public ActiveAlert getAlert() {
+        return alert;
+    }
+}
@@ -28,11 +28,57 @@ public interface AlertFacade {
 
     List<Alert> findRange(int[] range);
 
+    List<Alert> findRangeAfter(Long id, int maxResults);
+
+    List<Alert> findRangeBefore(Long id, int maxResults);
+
     int count();
 
+    int estimateCount();
+
+    /**
+     * Recorre las alertas creadas en el intervalo indicado sin cargarlas todas en memoria, en
+     * orden de identificador. Pensado para exportaciones y otros tratamientos de tablas completas.
+     *
+     * @param from fecha de creacion minima, o <code>null</code> para no limitarla
+     * @param to fecha de creacion maxima (excluida), o <code>null</code> para no limitarla
+     * @param handler receptor de cada alerta, puede detener el recorrido
+     * @return numero de alertas tratadas
+     */
+    int forEach(Date from, Date to, EntityHandler<Alert> handler);
+
+    /**
+     * Recorre las alertas como {@link #forEach(Date, Date, EntityHandler)}, pero sin cargar las
+     * entidades ni sus relaciones. Cada fila tiene el id, fecha de creacion, tipo, prioridad,
+     * causa, latitud y longitud de la alerta, el movil de origen, el id del afectado y el id de la
+     * trama.
+     */
+    int forEachRow(Date from, Date to, EntityHandler<Object[]> handler);
+
     List<Alert> findActiveAlerts();
 
     List<Alert> findAlertsByAffected(Person affected);
 
     Long countByType(AlertType type, Date fromDate, Date toDate);
+
+    /**
+     * Busca las alertas con posicion dentro de un rectangulo, usando el indice de geoceldas. Si el
+     * rectangulo cruza el antimeridiano <code>west</code> es mayor que <code>east</code>.
+     *
+     * @param from fecha de creacion minima, o <code>null</code> para no limitarla
+     * @param to fecha de creacion maxima (excluida), o <code>null</code> para no limitarla
+     * @param maxResults numero maximo de alertas
+     * @return las alertas mas recientes primero
+     */
+    List<Alert> findInBox(double south, double west, double north, double east, Date from,
+            Date to, int maxResults);
+
+    /**
+     * Agrupa por geocelda las alertas con posicion dentro de un rectangulo. El tamaño de las celdas
+     * se elige segun el tamaño del rectangulo, de forma que el numero de grupos esta acotado sea
+     * cual sea el numero de alertas. Los parametros son los de
+     * {@link #findInBox(double, double, double, double, Date, Date, int)}.
+     */
+    List<GeoCluster> findClusters(double south, double west, double north, double east,
+            Date from, Date to);
 }
@@ -1,10 +1,13 @@
 package org.inftel.tms.services;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import javax.ejb.Local;
 
 import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.domain.AlertRawState;
 
 /**
  * 
@@ -15,6 +18,13 @@ public interface AlertRawFacade {
 
     void create(AlertRaw alertsRaw);
 
+    /**
+     * Hace persistentes todas las tramas en una unica transaccion.
+     * 
+     * @param alertsRaw tramas a insertar
+     */
+    void createAll(Collection<AlertRaw> alertsRaw);
+
     void edit(AlertRaw alertsRaw);
 
     void remove(AlertRaw alertsRaw);
@@ -25,5 +35,38 @@ public interface AlertRawFacade {
 
     List<AlertRaw> findRange(int[] range);
 
+    List<AlertRaw> findRangeAfter(Long id, int maxResults);
+
+    List<AlertRaw> findRangeBefore(Long id, int maxResults);
+
     int count();
+
+    int estimateCount();
+
+    /**
+     * Recorre las tramas recibidas en el intervalo indicado sin cargarlas todas en memoria.
+     *
+     * @see AlertFacade#forEach(Date, Date, EntityHandler)
+     */
+    int forEach(Date from, Date to, EntityHandler<AlertRaw> handler);
+
+    /**
+     * Recorre las tramas sin cargar las entidades. Cada fila tiene el id, fecha de creacion,
+     * origen, estado y contenido de la trama, y el id, tipo, prioridad y causa de su alerta, nulos
+     * si no tiene.
+     *
+     * @see AlertFacade#forEachRow(Date, Date, EntityHandler)
+     */
+    int forEachRow(Date from, Date to, EntityHandler<Object[]> handler);
+
+    /**
+     * Busca las tramas que se encuentran en el estado indicado y se recibieron antes de la fecha
+     * <code>before</code>, en orden de llegada.
+     * 
+     * @param state estado de procesado buscado
+     * @param before solo se devuelven tramas recibidas antes de esta fecha
+     * @param maxResults numero maximo de tramas devueltas
+     * @return lista de tramas ordenadas por identificador
+     */
+    List<AlertRaw> findByState(AlertRawState state, Date before, int maxResults);
 }
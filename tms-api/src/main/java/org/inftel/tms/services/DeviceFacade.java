@@ -24,7 +24,30 @@ public interface DeviceFacade {
 
   List<Device> findRange(int[] range);
 
+  List<Device> findRangeAfter(Long id, int maxResults);
+
+  List<Device> findRangeBefore(Long id, int maxResults);
+
   int count();
 
+  int estimateCount();
+
   public Device findByMobile(String mobile);
+
+  /**
+   * Resuelve los identificadores del dispositivo con el movil indicado. La consulta se sirve desde
+   * memoria, por lo que puede usarse en cada trama recibida sin acceder a la base de datos.
+   *
+   * @param mobile numero de movil del dispositivo
+   * @return vista del dispositivo o <code>null</code> si no esta registrado
+   */
+  DeviceSnapshot findSnapshotByMobile(String mobile);
+
+  /**
+   * Referencia al dispositivo sin cargar su estado, util para asociarlo a otras entidades.
+   *
+   * @param id identificador del dispositivo
+   * @return referencia al dispositivo
+   */
+  Device getReference(Object id);
 }
@@ -0,0 +1,58 @@
+package org.inftel.tms.services;
+
+import java.io.Serializable;
+
+/**
+ * Vista compacta e inmutable de un dispositivo y su propietario. Contiene solo los identificadores
+ * necesarios para asociar una trama a su dispositivo y afectado sin cargar las entidades, de forma
+ * que puede mantenerse en memoria para resolver el origen de las tramas sin acceder a la base de
+ * datos. Las entidades pueden obtenerse despues como referencias a partir de estos identificadores.
+ */
+public final class DeviceSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String mobileNumber;
+    private final Long deviceId;
+    private final Long affectedId;
+    private final Long personId;
+
+    public DeviceSnapshot(String mobileNumber, Long deviceId, Long affectedId, Long personId) {
+        this.mobileNumber = mobileNumber;
+        this.deviceId = deviceId;
+        this.affectedId = affectedId;
+        this.personId = personId;
+    }
+
+    /** Numero de movil del dispositivo, usado como clave de busqueda. */
+    public String getMobileNumber() {
+        return mobileNumber;
+    }
+
+    /** Identificador del {@link org.inftel.tms.domain.Device}. */
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Identificador del {@link org.inftel.tms.domain.Affected} propietario, puede ser nulo si el
+     * dispositivo no tiene propietario.
+     */
+    public Long getAffectedId() {
+        return affectedId;
+    }
+
+    /**
+     * Identificador de la {@link org.inftel.tms.domain.Person} con los datos del propietario, puede
+     * ser nulo si el dispositivo no tiene propietario.
+     */
+    public Long getPersonId() {
+        return personId;
+    }
+
+    @Override
+    public String toString() {
+        return "devicesnapshot [mobile=" + mobileNumber + ", device=" + deviceId + ", affected="
+                + affectedId + ", person=" + personId + "]";
+    }
+}
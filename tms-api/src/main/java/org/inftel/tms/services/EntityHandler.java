@@ -0,0 +1,18 @@
+package org.inftel.tms.services;
+
+/**
+ * Recibe una a una las entidades de un recorrido secuencial, como el de
+ * {@link AlertFacade#forEach(java.util.Date, java.util.Date, EntityHandler)}. Permite tratar tablas
+ * completas sin cargarlas en memoria.
+ */
+public interface EntityHandler<T> {
+
+    /**
+     * Trata la siguiente entidad. La entidad puede quedar desconectada del contexto de persistencia
+     * en cualquier momento despues de la llamada, por lo que no debe guardarse ni modificarse.
+     *
+     * @param entity entidad leida
+     * @return <code>false</code> para detener el recorrido
+     */
+    boolean handle(T entity);
+}
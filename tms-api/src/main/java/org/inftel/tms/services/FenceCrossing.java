@@ -0,0 +1,57 @@
+package org.inftel.tms.services;
+
+import java.io.Serializable;
+
+/**
+ * Entrada o salida de una persona de una de sus zonas vigiladas que debe generar una alerta: la
+ * salida de una zona de inclusion o la entrada en una zona de exclusion.
+ */
+public final class FenceCrossing implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Prefijo de la causa de las alertas generadas por cruces de zonas. */
+    private static final String CAUSE_PREFIX = "fence ";
+
+    private final Long fenceId;
+    private final String name;
+    private final boolean entered;
+
+    public FenceCrossing(Long fenceId, String name, boolean entered) {
+        this.fenceId = fenceId;
+        this.name = name;
+        this.entered = entered;
+    }
+
+    /** Identificador de la {@link org.inftel.tms.domain.Fence}. */
+    public Long getFenceId() {
+        return fenceId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** <code>true</code> si la persona ha entrado en la zona, <code>false</code> si ha salido. */
+    public boolean isEntered() {
+        return entered;
+    }
+
+    /** Causa de la alerta que genera el cruce. */
+    public String getAlertCause() {
+        return CAUSE_PREFIX + (entered ? "in: " : "out: ") + name;
+    }
+
+    /**
+     * Si la causa de una alerta corresponde a un cruce de zona detectado en el servidor. Estas
+     * alertas tienen su propia copia de la trama, que no es una trama recibida.
+     */
+    public static boolean isFenceCause(String cause) {
+        return cause != null && cause.startsWith(CAUSE_PREFIX);
+    }
+
+    @Override
+    public String toString() {
+        return "FenceCrossing[ fence=" + fenceId + ", entered=" + entered + " ]";
+    }
+}
@@ -0,0 +1,37 @@
+package org.inftel.tms.services;
+
+import java.util.List;
+
+import javax.ejb.Local;
+
+import org.inftel.tms.domain.Fence;
+import org.inftel.tms.domain.Person;
+
+/**
+ *
+ */
+@Local
+public interface FenceFacade {
+
+    void create(Fence fence);
+
+    void edit(Fence fence);
+
+    void remove(Fence fence);
+
+    Fence find(Object id);
+
+    List<Fence> findAll();
+
+    List<Fence> findByAffected(Person affected);
+
+    /**
+     * Comprueba una nueva posicion de una persona contra sus zonas vigiladas. Las zonas se
+     * mantienen en memoria, por lo que no se accede a la base de datos. Solo se detecta la salida
+     * de una zona de inclusion si la persona se ha visto dentro desde el arranque.
+     *
+     * @param personId identificador de la persona
+     * @return los cruces que deben generar una alerta, normalmente ninguno
+     */
+    List<FenceCrossing> evaluate(Long personId, double latitude, double longitude);
+}
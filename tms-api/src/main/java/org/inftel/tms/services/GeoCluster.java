@@ -0,0 +1,48 @@
+package org.inftel.tms.services;
+
+import java.io.Serializable;
+
+/**
+ * Grupo de alertas de una misma geocelda, usado para pintar en el mapa un unico marcador en lugar
+ * de todas las alertas cuando hay demasiadas. La posicion es la media de las posiciones de las
+ * alertas del grupo.
+ */
+public final class GeoCluster implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String cell;
+    private final long count;
+    private final double latitude;
+    private final double longitude;
+
+    public GeoCluster(String cell, long count, double latitude, double longitude) {
+        this.cell = cell;
+        this.count = count;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /** Geocelda del grupo, ver {@link org.inftel.tms.domain.GeoCells}. */
+    public String getCell() {
+        return cell;
+    }
+
+    /** Numero de alertas del grupo. */
+    public long getCount() {
+        return count;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    @Override
+    public String toString() {
+        return "GeoCluster[ cell=" + cell + ", count=" + count + " ]";
+    }
+}
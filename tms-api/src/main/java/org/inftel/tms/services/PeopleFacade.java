@@ -25,4 +25,12 @@ public interface PeopleFacade {
   List<Person> findRange(int[] range);
 
   int count();
+
+  /**
+   * Referencia a la persona sin cargar su estado, util para asociarla a otras entidades.
+   *
+   * @param id identificador de la persona
+   * @return referencia a la persona
+   */
+  Person getReference(Object id);
 }
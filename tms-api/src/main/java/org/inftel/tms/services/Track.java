@@ -0,0 +1,32 @@
+package org.inftel.tms.services;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.inftel.tms.domain.TrackPoint;
+
+/**
+ * Recorrido simplificado de un dispositivo, listo para pintarse como una linea.
+ */
+public final class Track implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long deviceId;
+    private final List<TrackPoint> points;
+
+    public Track(Long deviceId, List<TrackPoint> points) {
+        this.deviceId = deviceId;
+        this.points = points;
+    }
+
+    /** Identificador del {@link org.inftel.tms.domain.Device}. */
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    /** Puntos del recorrido del mas antiguo al mas reciente. */
+    public List<TrackPoint> getPoints() {
+        return points;
+    }
+}
@@ -0,0 +1,39 @@
+package org.inftel.tms.services;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.ejb.Local;
+
+/**
+ * Recorridos de los dispositivos. Las posiciones de seguimiento no generan alertas, se simplifican
+ * al recibirlas y solo se guardan los puntos necesarios para reconstruir el recorrido con el error
+ * configurado.
+ */
+@Local
+public interface TrackStore {
+
+    /**
+     * Añade una posicion al recorrido de un dispositivo. Los puntos que se guardan forman parte de
+     * la transaccion actual.
+     *
+     * @param deviceId identificador del dispositivo
+     * @param time fecha de la posicion, las posiciones deben llegar en orden
+     */
+    void record(Long deviceId, Date time, double latitude, double longitude);
+
+    /**
+     * Busca los recorridos con puntos guardados dentro de un rectangulo, incluida la ultima
+     * posicion de cada uno aunque aun no se haya guardado.
+     *
+     * @param from fecha minima de las posiciones, o <code>null</code> para no limitarla
+     * @param to fecha maxima (excluida), o <code>null</code> para no limitarla
+     * @param tolerance error maximo en metros con el que se vuelven a simplificar los recorridos,
+     *            normalmente el tamaño de un pixel en el mapa; 0 para no simplificarlos
+     * @param maxPoints numero maximo de puntos guardados que se leen de cada dispositivo, si hay
+     *            mas se descartan los mas antiguos
+     * @return un recorrido por dispositivo
+     */
+    List<Track> findTracks(double south, double west, double north, double east, Date from,
+            Date to, double tolerance, int maxPoints);
+}
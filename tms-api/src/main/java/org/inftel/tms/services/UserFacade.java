@@ -25,8 +25,14 @@ public interface UserFacade {
 
   List<User> findRange(int[] range);
 
+  List<User> findRangeAfter(Long id, int maxResults);
+
+  List<User> findRangeBefore(Long id, int maxResults);
+
   int count();
 
+  int estimateCount();
+
   List<Device> getDevices();
 
   User currentUser();
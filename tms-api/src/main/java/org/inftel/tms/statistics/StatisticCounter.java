@@ -0,0 +1,24 @@
+package org.inftel.tms.statistics;
+
+/**
+ * Contador estadistico ya resuelto, obtenido con {@link StatisticProcessor#counter(String)}.
+ * Registrar una muestra solo actualiza memoria del hilo actual, no realiza llamadas a EJBs ni crea
+ * objetos, por lo que puede usarse en los caminos criticos.
+ */
+public interface StatisticCounter {
+
+    /**
+     * Registra una muestra.
+     * 
+     * @param timeMillis instante de la muestra, en milisegundos desde epoch
+     */
+    void increment(long timeMillis);
+
+    /**
+     * Registra varias muestras simultaneas.
+     * 
+     * @param timeMillis instante de las muestras, en milisegundos desde epoch
+     * @param samples numero de muestras
+     */
+    void add(long timeMillis, long samples);
+}
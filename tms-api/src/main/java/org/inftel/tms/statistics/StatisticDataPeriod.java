@@ -1,6 +1,8 @@
 package org.inftel.tms.statistics;
 
 import static java.util.Calendar.DAY_OF_MONTH;
+import static java.util.Calendar.HOUR_OF_DAY;
+import static java.util.Calendar.MINUTE;
 import static java.util.Calendar.MONTH;
 import static java.util.Calendar.YEAR;
 
@@ -14,6 +16,11 @@ import org.apache.commons.lang3.time.DateUtils;
  * estadistico, pro ejemplo, si el periodo fuese emnsual significa que los valores estadisticos
  * almacenados corresponderían al total acumulado de ese mes.
  * 
+ * Los periodos inferiores al diario ({@link #MINUTELY} y {@link #HOURLY}) no se guardan como una
+ * fila por intervalo, sino en bloques con todos los intervalos de un dia, y se conservan solo
+ * durante un tiempo limitado. Los valores se persisten por ordinal, los nuevos periodos deben
+ * añadirse siempre al final.
+ * 
  * @author ibaca
  */
 public enum StatisticDataPeriod {
@@ -43,6 +50,24 @@ public enum StatisticDataPeriod {
         protected int getField() {
             return YEAR;
         }
+    },
+    /**
+     * Periodo estadistico para intervalo de un minuto.
+     */
+    MINUTELY {
+        @Override
+        protected int getField() {
+            return MINUTE;
+        }
+    },
+    /**
+     * Periodo estadistico para intervalo de una hora.
+     */
+    HOURLY {
+        @Override
+        protected int getField() {
+            return HOUR_OF_DAY;
+        }
     };
 
     protected abstract int getField();
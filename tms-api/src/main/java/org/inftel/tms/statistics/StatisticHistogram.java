@@ -0,0 +1,19 @@
+package org.inftel.tms.statistics;
+
+/**
+ * Estadistica de tipo histograma ya resuelta, obtenida con
+ * {@link StatisticProcessor#histogram(String)}. Ademas del acumulado y el numero de muestras, como
+ * {@link StatisticTimer}, guarda la distribucion de los valores para poder consultar percentiles,
+ * por ejemplo el p99 de un tiempo de proceso. Registrar un valor no sale de memoria.
+ */
+public interface StatisticHistogram {
+
+    /**
+     * Registra un valor, por ejemplo un tiempo de proceso en milisegundos. Los valores negativos
+     * se registran como 0.
+     * 
+     * @param timeMillis instante de la muestra, en milisegundos desde epoch
+     * @param value valor de la muestra
+     */
+    void record(long timeMillis, long value);
+}
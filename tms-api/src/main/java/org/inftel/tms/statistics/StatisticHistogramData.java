@@ -0,0 +1,23 @@
+package org.inftel.tms.statistics;
+
+/**
+ * Histograma de una estadistica para un periodo. Los valores se agrupan en intervalos
+ * logaritmicos, con un error relativo inferior al 1,6%, de forma que los histogramas de periodos
+ * distintos pueden sumarse sin perder precision. El valor estadistico ({@link #getDataValue()}) es
+ * la media.
+ */
+public interface StatisticHistogramData extends StatisticData {
+
+    /** Valor maximo registrado en el periodo. */
+    long getMaxValue();
+
+    /**
+     * Devuelve el valor por debajo del cual se encuentra el porcentaje indicado de las muestras.
+     * 
+     * @param percentile
+     *            porcentaje entre 0 y 100, por ejemplo 99 para el p99
+     * @return limite superior del intervalo que contiene el percentil, nunca mayor que el maximo, o
+     *         0 si no hay muestras
+     */
+    long getValueAtPercentile(double percentile);
+}
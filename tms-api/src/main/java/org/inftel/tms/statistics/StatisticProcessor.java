@@ -93,6 +93,37 @@ public interface StatisticProcessor {
      */
     public void process(String name, Date date);
 
+    /**
+     * Resuelve un contador estadistico. Debe obtenerse una unica vez y reutilizarse para registrar
+     * las muestras, en lugar de llamar a {@link #process(String, Date)} en cada una.
+     * 
+     * @param name
+     *            del valor estadistico en nomenclatura similar a paquetes java
+     * @return contador asociado al nombre, siempre el mismo para el mismo nombre
+     */
+    public StatisticCounter counter(String name);
+
+    /**
+     * Resuelve una estadistica de tipo acumulado, como un tiempo de proceso. Es la alternativa a
+     * {@link #process(String, Date, double)} para los caminos criticos.
+     * 
+     * @param name
+     *            del valor estadistico en nomenclatura similar a paquetes java
+     * @return acumulador asociado al nombre
+     */
+    public StatisticTimer timer(String name);
+
+    /**
+     * Resuelve una estadistica de tipo histograma, que permite consultar percentiles ademas de la
+     * media. Los valores tambien se acumulan en la estadistica del mismo nombre, igual que con
+     * {@link #timer(String)}.
+     * 
+     * @param name
+     *            del valor estadistico en nomenclatura similar a paquetes java
+     * @return histograma asociado al nombre
+     */
+    public StatisticHistogram histogram(String name);
+
     /**
      * Obtiene valores estadisticos.
      * 
@@ -110,6 +141,22 @@ public interface StatisticProcessor {
     public Map<Date, StatisticData> findStatistics(String name, StatisticDataPeriod period, Date fromDate,
             Date toDate);
 
+    /**
+     * Obtiene los histogramas de una estadistica.
+     * 
+     * @param name
+     *            nombre estadistico
+     * @param period
+     *            periodo diario, mensual o anual
+     * @param fromDate
+     *            inicio de fecha de los periodos que se quieren obtener
+     * @param toDate
+     *            fin de fecha de los periodos que se quieren obtener
+     * @return histogramas indexados por la fecha de inicio de su periodo
+     */
+    public Map<Date, StatisticHistogramData> findHistograms(String name,
+            StatisticDataPeriod period, Date fromDate, Date toDate);
+
     /**
      * Devuelve todos los nombres estadisticos que coincidan con el token pasado.
      * 
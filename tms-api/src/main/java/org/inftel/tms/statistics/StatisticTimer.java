@@ -0,0 +1,17 @@
+package org.inftel.tms.statistics;
+
+/**
+ * Estadistica de tipo acumulado ya resuelta, obtenida con {@link StatisticProcessor#timer(String)}.
+ * Cada valor registrado suma al acumulado y cuenta como una muestra, asi que el valor estadistico
+ * es la media. Al igual que {@link StatisticCounter}, registrar un valor no sale de memoria.
+ */
+public interface StatisticTimer {
+
+    /**
+     * Registra un valor, por ejemplo un tiempo de proceso en milisegundos.
+     * 
+     * @param timeMillis instante de la muestra, en milisegundos desde epoch
+     * @param value valor de la muestra
+     */
+    void record(long timeMillis, double value);
+}
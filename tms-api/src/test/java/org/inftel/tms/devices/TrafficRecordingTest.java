@@ -0,0 +1,60 @@
+package org.inftel.tms.devices;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.inftel.tms.domain.AlertPriority;
+import org.inftel.tms.domain.AlertType;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TrafficRecordingTest {
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    TrafficRecording.Writer writer = new TrafficRecording.Writer(bytes);
+    writer.write(new RecordedFrame("617001100", "", 1327660307000l, true, null, null, null));
+    writer.write(new RecordedFrame("617001100", "*$AU11&RK123456&LD20120127&LH113147#",
+            1327660308500l, true, AlertType.USER, AlertPriority.CRITICAL, "ayuda"));
+    writer.write(new RecordedFrame("617002200", "*$AU11&RK000000#", 1327660308500l, false,
+            null, null, null));
+    assertEquals(3, writer.getCount());
+    writer.close();
+
+    TrafficRecording.Reader reader = new TrafficRecording.Reader(
+            new ByteArrayInputStream(bytes.toByteArray()));
+    RecordedFrame empty = reader.read();
+    assertEquals("617001100", empty.getOrigin());
+    assertEquals("", empty.getRawData());
+    assertEquals(1327660307000l, empty.getCreated());
+    assertEquals("accepted", empty.getOutcome());
+
+    RecordedFrame alarm = reader.read();
+    assertEquals("617001100", alarm.getOrigin());
+    assertEquals(1327660308500l, alarm.getCreated());
+    assertEquals(AlertType.USER, alarm.getAlertType());
+    assertEquals(AlertPriority.CRITICAL, alarm.getAlertPriority());
+    assertEquals("ayuda", alarm.getAlertCause());
+
+    RecordedFrame discarded = reader.read();
+    assertEquals("617002200", discarded.getOrigin());
+    assertFalse(discarded.isAccepted());
+    assertEquals("discarded", discarded.getOutcome());
+
+    assertNull(reader.read());
+    reader.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotARecording() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    java.util.zip.GZIPOutputStream out = new java.util.zip.GZIPOutputStream(bytes);
+    out.write("*$AU11#".getBytes("UTF-8"));
+    out.close();
+    new TrafficRecording.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+}
@@ -0,0 +1,44 @@
+package org.inftel.tms.domain;
+
+import java.util.List;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class GeoCellsTest {
+
+  @Test
+  public void testCompute() {
+    assertEquals("c0", GeoCells.compute(0.0, 0.0, 2));
+    assertEquals("0", GeoCells.compute(-89.9, -179.9, 1));
+    assertEquals("f", GeoCells.compute(89.9, 179.9, 1));
+    assertNull(GeoCells.compute(36.72, null));
+
+    // las celdas de un punto son prefijos de su celda de maxima resolucion
+    String cell = GeoCells.compute(36.72, -4.42);
+    assertEquals(GeoCells.MAX_RESOLUTION, cell.length());
+    assertTrue(cell.startsWith(GeoCells.compute(36.72, -4.42, 5)));
+  }
+
+  @Test
+  public void testCover() {
+    int resolution = GeoCells.resolutionFor(36.5, -4.8, 37.0, -4.0, 16);
+    List<String> cells = GeoCells.cover(36.5, -4.8, 37.0, -4.0, resolution);
+    assertTrue(cells.size() <= 16);
+    assertTrue(cells.contains(GeoCells.compute(36.72, -4.42, resolution)));
+    assertFalse(cells.contains(GeoCells.compute(40.41, -3.70, resolution)));
+
+    // todo el mundo con las 16 celdas de primer nivel
+    assertEquals(1, GeoCells.resolutionFor(-90, -180, 90, 180, 16));
+    assertEquals(16, GeoCells.cover(-90, -180, 90, 180, 1).size());
+
+    // rectangulo que cruza el antimeridiano
+    resolution = GeoCells.resolutionFor(-10, 170, 10, -170, 16);
+    cells = GeoCells.cover(-10, 170, 10, -170, resolution);
+    assertTrue(cells.contains(GeoCells.compute(0.0, 179.0, resolution)));
+    assertTrue(cells.contains(GeoCells.compute(0.0, -179.0, resolution)));
+    assertFalse(cells.contains(GeoCells.compute(0.0, 0.0, resolution)));
+  }
+}
@@ -0,0 +1,245 @@
+package org.inftel.tms;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.inftel.tms.domain.AffectedType;
+import org.inftel.tms.domain.AlertPriority;
+import org.inftel.tms.domain.AlertRawState;
+import org.inftel.tms.domain.AlertType;
+import org.inftel.tms.domain.GeoCells;
+
+/**
+ * Genera un conjunto de datos DBUnit (XML plano, como <code>sample-dataset.xml</code>) del tamaño
+ * indicado para cargarlo con {@link StartupApplication}: un administrador, tantos afectados como
+ * dispositivos, cada uno con su persona y sus contactos, y un historico de alertas repartidas entre
+ * los dispositivos durante los ultimos dias.
+ *
+ * Los numeros de movil de los dispositivos son consecutivos a partir de {@link #getFirstNumber()},
+ * los mismos que usan los terminales del generador de carga del simulador. Todos los
+ * identificadores son negativos para no coincidir con los que asigna el generador de la tabla
+ * <code>sequences</code>.
+ */
+public class BenchmarkDataSet {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private final int devices;
+
+    private final int contacts;
+
+    private final int alerts;
+
+    private final int days;
+
+    private final long firstNumber;
+
+    private final Random random;
+
+    private final SimpleDateFormat timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    /** Fecha y hora en los campos LD y LH de las tramas paSOS. */
+    private final SimpleDateFormat frameDate = new SimpleDateFormat("yyyyMMdd'&LH'HHmmss");
+
+    private int rows;
+
+    /**
+     * @param devices dispositivos, y por tanto afectados
+     * @param contacts contactos de cada afectado
+     * @param alerts alertas en el historico
+     * @param days dias que abarca el historico
+     * @param firstNumber numero de movil del primer dispositivo
+     * @param seed semilla de las posiciones, tipos y fechas
+     */
+    public BenchmarkDataSet(int devices, int contacts, int alerts, int days, long firstNumber,
+            long seed) {
+        this.devices = devices;
+        this.contacts = contacts;
+        this.alerts = alerts;
+        this.days = days;
+        this.firstNumber = firstNumber;
+        this.random = new Random(seed);
+    }
+
+    public long getFirstNumber() {
+        return firstNumber;
+    }
+
+    /** Personas en el conjunto: la de cada afectado mas sus contactos. */
+    public int getPersons() {
+        return devices * (1 + contacts);
+    }
+
+    /** Filas escritas por la ultima llamada a {@link #write(File)}. */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Escribe el conjunto de datos.
+     * @param file fichero de destino, se sobrescribe si existe
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(output,
+                    "UTF-8");
+            rows = 0;
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("dataset");
+            writeUsers(xml);
+            writePeople(xml);
+            writeAffected(xml);
+            writeDevices(xml);
+            writeAlerts(xml);
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("no se pudo generar el conjunto de datos", e);
+        } finally {
+            output.close();
+        }
+    }
+
+    private void writeUsers(XMLStreamWriter xml) throws XMLStreamException {
+        start(xml, "users", -1);
+        xml.writeAttribute("fullname", "Administrador del Sistema");
+        xml.writeAttribute("nickname", "admin");
+        xml.writeAttribute("email", "admin@mail.com");
+        xml.writeAttribute("password", "admin");
+        xml.writeAttribute("userRole", "1");
+        end(xml, new Date());
+    }
+
+    /** Las personas de los afectados van de -1 a -devices, los contactos a continuacion. */
+    private void writePeople(XMLStreamWriter xml) throws XMLStreamException {
+        Date now = new Date();
+        for (int i = 1; i <= getPersons(); i++) {
+            start(xml, "people", -i);
+            xml.writeAttribute("firstname", "Nombre" + i);
+            xml.writeAttribute("lastname", "Apellido" + i);
+            xml.writeAttribute("email", "persona" + i + "@mail.com");
+            xml.writeAttribute("mobilenumber", String.valueOf(700000000L + i));
+            xml.writeAttribute("latitude", coordinate(latitude(random)));
+            xml.writeAttribute("longitude", coordinate(longitude(random)));
+            end(xml, now);
+        }
+    }
+
+    private void writeAffected(XMLStreamWriter xml) throws XMLStreamException {
+        Date now = new Date();
+        AffectedType[] types = AffectedType.values();
+        for (int i = 1; i <= devices; i++) {
+            start(xml, "affected", -i);
+            xml.writeAttribute("data_id", String.valueOf(-i));
+            xml.writeAttribute("type", String.valueOf(random.nextInt(types.length)));
+            end(xml, now);
+        }
+        for (int i = 1; i <= devices; i++) {
+            for (int c = 0; c < contacts; c++) {
+                xml.writeCharacters("\n\t");
+                xml.writeEmptyElement("affected_contacts");
+                xml.writeAttribute("contacts_id",
+                        String.valueOf(-(devices + 1 + (i - 1) * contacts + c)));
+                xml.writeAttribute("chargeof_id", String.valueOf(-i));
+                rows++;
+            }
+        }
+    }
+
+    private void writeDevices(XMLStreamWriter xml) throws XMLStreamException {
+        Date now = new Date();
+        for (int i = 1; i <= devices; i++) {
+            start(xml, "devices", -i);
+            xml.writeAttribute("owner_id", String.valueOf(-i));
+            xml.writeAttribute("mobilenumber", String.valueOf(firstNumber + i - 1));
+            xml.writeAttribute("simcard", String.valueOf(1000 + i));
+            xml.writeAttribute("batery", String.valueOf(5 + random.nextInt(95)));
+            xml.writeAttribute("temperature", String.valueOf(20 + random.nextInt(20)));
+            xml.writeAttribute("lastconnection", timestamp.format(now));
+            end(xml, now);
+        }
+    }
+
+    /**
+     * Cada alerta con su trama original ya procesada, como las deja el conector. DBUnit necesita
+     * las filas de cada tabla seguidas, asi que se recorre dos veces el historico con la misma
+     * semilla: primero las tramas y despues las alertas.
+     */
+    private void writeAlerts(XMLStreamWriter xml) throws XMLStreamException {
+        long seed = random.nextLong();
+        long now = System.currentTimeMillis();
+        Random history = new Random(seed);
+        for (int i = 1; i <= alerts; i++) {
+            int device = 1 + history.nextInt(devices);
+            Date created = new Date(now - (long) (history.nextDouble() * days * DAY));
+            double latitude = latitude(history), longitude = longitude(history);
+            start(xml, "alerts_raw", -i);
+            xml.writeAttribute("state", String.valueOf(AlertRawState.PROCESSED.ordinal()));
+            xml.writeAttribute("origin", String.valueOf(firstNumber + device - 1));
+            xml.writeAttribute("rawData", "$AU11&LD" + frameDate.format(created) + "&LT"
+                    + coordinate(latitude) + "&LN" + coordinate(longitude) + "&PB50#");
+            end(xml, created);
+        }
+        AlertType[] types = AlertType.values();
+        AlertPriority[] priorities = AlertPriority.values();
+        history = new Random(seed);
+        for (int i = 1; i <= alerts; i++) {
+            int device = 1 + history.nextInt(devices);
+            Date created = new Date(now - (long) (history.nextDouble() * days * DAY));
+            double latitude = latitude(history), longitude = longitude(history);
+            start(xml, "alerts", -i);
+            xml.writeAttribute("affected_id", String.valueOf(-device));
+            xml.writeAttribute("origin_id", String.valueOf(-device));
+            xml.writeAttribute("raw_id", String.valueOf(-i));
+            xml.writeAttribute("cause", "historico " + i);
+            xml.writeAttribute("type", String.valueOf(random.nextInt(types.length)));
+            xml.writeAttribute("priority", String.valueOf(random.nextInt(priorities.length)));
+            xml.writeAttribute("latitude", coordinate(latitude));
+            xml.writeAttribute("longitude", coordinate(longitude));
+            xml.writeAttribute("geocell", GeoCells.compute(latitude, longitude));
+            end(xml, created);
+        }
+    }
+
+    private void start(XMLStreamWriter xml, String table, long id) throws XMLStreamException {
+        xml.writeCharacters("\n\t");
+        xml.writeEmptyElement(table);
+        xml.writeAttribute("id", String.valueOf(id));
+    }
+
+    private void end(XMLStreamWriter xml, Date date) throws XMLStreamException {
+        xml.writeAttribute("created", timestamp.format(date));
+        xml.writeAttribute("updated", timestamp.format(date));
+        xml.writeAttribute("version", "1");
+        rows++;
+    }
+
+    /** Alrededor de Malaga, como el generador de carga. */
+    private static double latitude(Random random) {
+        return 36.5 + random.nextDouble() * 0.5;
+    }
+
+    private static double longitude(Random random) {
+        return -4.8 + random.nextDouble() * 0.8;
+    }
+
+    private static String coordinate(double value) {
+        return String.format(Locale.US, "%.5f", value);
+    }
+}
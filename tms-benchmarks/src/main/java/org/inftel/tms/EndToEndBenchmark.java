@@ -0,0 +1,292 @@
+package org.inftel.tms;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.InitialContext;
+import javax.sql.DataSource;
+
+import org.glassfish.embeddable.GlassFish;
+import org.glassfish.embeddable.GlassFishProperties;
+import org.glassfish.embeddable.GlassFishRuntime;
+import org.inftel.tms.simulator.controller.Fachada;
+import org.inftel.tms.simulator.load.LoadGenerator;
+import org.inftel.tms.simulator.load.LoadReport;
+
+/**
+ * Prueba de rendimiento de extremo a extremo. Arranca GlassFish embebido con la aplicacion
+ * completa (<code>tms-bundle.ear</code>) sobre su Derby embebido, carga un conjunto de datos
+ * generado con {@link BenchmarkDataSet}, y envia trafico paSOS sostenido al servlet del conector
+ * con el {@link LoadGenerator} del simulador. Al terminar escribe un informe con las tramas por
+ * segundo, los percentiles de latencia y las filas por segundo escritas en la base de datos.
+ *
+ * Las filas se cuentan en <code>alerts_raw</code>, <code>alerts</code> y
+ * <code>track_points</code>. Como la escritura es asincrona, despues de enviar el trafico se espera
+ * a que dejen de cambiar (como mucho <code>--settle</code> segundos), y las filas por segundo se
+ * calculan hasta la ultima escritura observada. Lo mismo se hace al terminar el calentamiento para
+ * que sus filas no cuenten en la medida.
+ *
+ * Uso: <code>mvn -Pe2e verify</code> en este modulo, o
+ * <code>java -cp target/benchmarks.jar org.inftel.tms.EndToEndBenchmark --ear tms-bundle.ear
+ * --devices 5000 --alerts 100000 --rate 500 --duration 300</code>. El numero de conexiones del
+ * generador se configura con la propiedad <code>tms.simulator.maxConnections</code>.
+ */
+public class EndToEndBenchmark {
+
+    private static final Logger log = Logger.getLogger(EndToEndBenchmark.class.getName());
+
+    private static final String[] TABLES = { "alerts_raw", "alerts", "track_points" };
+
+    /** Tiempo sin cambios en las tablas para dar por terminada la escritura. */
+    private static final long QUIET_MILLIS = 3000;
+
+    private File ear = new File("target/tms-bundle.ear");
+    private File report = new File("target/e2e-report.properties");
+    private int port = 8181;
+    private int devices = 1000;
+    private int contacts = 2;
+    private int alerts = 10000;
+    private int days = 30;
+    private long firstNumber = 600000000L;
+    private String rate = "200";
+    private String tracking = "0.9";
+    private long warmup = 30;
+    private long duration = 120;
+    private long settle = 60;
+    private long seed = 1;
+
+    /**
+     * Lee las opciones de la linea de comandos.
+     * @param args pares <code>--opcion valor</code>
+     */
+    public EndToEndBenchmark(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("falta el valor de " + args[i]);
+            }
+            String option = args[i], value = args[i + 1];
+            if ("--ear".equals(option)) {
+                ear = new File(value);
+            } else if ("--report".equals(option)) {
+                report = new File(value);
+            } else if ("--port".equals(option)) {
+                port = Integer.parseInt(value);
+            } else if ("--devices".equals(option)) {
+                devices = Integer.parseInt(value);
+            } else if ("--contacts".equals(option)) {
+                contacts = Integer.parseInt(value);
+            } else if ("--alerts".equals(option)) {
+                alerts = Integer.parseInt(value);
+            } else if ("--days".equals(option)) {
+                days = Integer.parseInt(value);
+            } else if ("--first-number".equals(option)) {
+                firstNumber = Long.parseLong(value);
+            } else if ("--rate".equals(option)) {
+                rate = value;
+            } else if ("--tracking".equals(option)) {
+                tracking = value;
+            } else if ("--warmup".equals(option)) {
+                warmup = Long.parseLong(value);
+            } else if ("--duration".equals(option)) {
+                duration = Long.parseLong(value);
+            } else if ("--settle".equals(option)) {
+                settle = Long.parseLong(value);
+            } else if ("--seed".equals(option)) {
+                seed = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("opcion desconocida: " + option);
+            }
+        }
+    }
+
+    /**
+     * Ejecuta la prueba completa y escribe el informe.
+     * @return resultados, los mismos que se escriben en el informe
+     * @throws Exception si no se puede desplegar la aplicacion o acceder a la base de datos
+     */
+    public Properties run() throws Exception {
+        if (!ear.isFile()) {
+            throw new IOException("no existe la aplicacion " + ear.getAbsolutePath());
+        }
+        BenchmarkDataSet dataSet = new BenchmarkDataSet(devices, contacts, alerts, days,
+                firstNumber, seed);
+        File dataSetFile = File.createTempFile("tms-e2e-", ".xml");
+        dataSetFile.deleteOnExit();
+        dataSet.write(dataSetFile);
+        log.info("conjunto de datos generado: " + dataSet.getRows() + " filas");
+        // StartupApplication lo carga al desplegar en lugar de sample-dataset.xml
+        System.setProperty("tms.core.dataSet", dataSetFile.getAbsolutePath());
+
+        GlassFishProperties properties = new GlassFishProperties();
+        properties.setPort("http-listener", port);
+        GlassFishRuntime runtime = GlassFishRuntime.bootstrap();
+        GlassFish glassfish = runtime.newGlassFish(properties);
+        glassfish.start();
+        try {
+            long deploying = System.nanoTime();
+            String application = glassfish.getDeployer().deploy(ear, "--name=tms-bundle");
+            long deployed = System.nanoTime();
+            log.info("aplicacion desplegada en " + TimeUnit.NANOSECONDS.toSeconds(deployed
+                    - deploying) + " s");
+            // cada trama se registra en el conector, no es lo que se quiere medir
+            Logger.getLogger("org.inftel.tms").setLevel(Level.WARNING);
+            DataSource dataSource = (DataSource) new InitialContext().lookup("jdbc/__default");
+            String url = "http://localhost:" + port + "/tms-web/connector";
+
+            if (warmup > 0) {
+                System.out.println("calentamiento");
+                new LoadGenerator(load(url, warmup)).run();
+                awaitWrites(dataSource, countRows(dataSource));
+            }
+            long[] before = countRows(dataSource);
+            System.out.println("medida");
+            long start = System.nanoTime();
+            LoadReport load = new LoadGenerator(load(url, duration)).run();
+            long sent = System.nanoTime();
+            Written written = awaitWrites(dataSource, before);
+
+            Properties result = new Properties();
+            result.setProperty("dataset.devices", String.valueOf(devices));
+            result.setProperty("dataset.persons", String.valueOf(dataSet.getPersons()));
+            result.setProperty("dataset.alerts", String.valueOf(alerts));
+            result.setProperty("dataset.rows", String.valueOf(dataSet.getRows()));
+            result.setProperty("deploy.seconds", format(seconds(deployed - deploying)));
+            result.setProperty("load.rate", rate);
+            result.setProperty("load.duration", String.valueOf(duration));
+            result.setProperty("frames", String.valueOf(load.getCount()));
+            result.setProperty("frames.errors", String.valueOf(load.getErrors()));
+            result.setProperty("frames.per.second", format(load.getCount() / seconds(sent
+                    - start)));
+            result.setProperty("latency.p50.ms", format(load.getLatencyAtPercentile(50) / 1000d));
+            result.setProperty("latency.p99.ms", format(load.getLatencyAtPercentile(99) / 1000d));
+            result.setProperty("latency.p999.ms",
+                    format(load.getLatencyAtPercentile(99.9) / 1000d));
+            long rows = 0;
+            for (int i = 0; i < TABLES.length; i++) {
+                long table = written.rows[i] - before[i];
+                result.setProperty("rows." + TABLES[i], String.valueOf(table));
+                rows += table;
+            }
+            result.setProperty("rows", String.valueOf(rows));
+            result.setProperty("rows.per.second", format(rows / seconds(written.at - start)));
+            result.setProperty("rows.settled", String.valueOf(written.settled));
+
+            glassfish.getDeployer().undeploy(application);
+            write(result);
+            return result;
+        } finally {
+            Fachada.shutdown();
+            glassfish.stop();
+            glassfish.dispose();
+            runtime.shutdown();
+        }
+    }
+
+    /** Opciones del {@link LoadGenerator}, un terminal por cada dispositivo del conjunto. */
+    private String[] load(String url, long seconds) {
+        return new String[] { "--url", url, "--terminals", String.valueOf(devices),
+                "--first-number", String.valueOf(firstNumber), "--rate", rate, "--duration",
+                String.valueOf(seconds), "--tracking", tracking, "--seed", String.valueOf(seed) };
+    }
+
+    /** Filas de cada tabla en el momento en que se dejo de escribir. */
+    private static final class Written {
+        long[] rows;
+        long at;
+        boolean settled;
+    }
+
+    /**
+     * Espera a que las tablas dejen de cambiar durante {@link #QUIET_MILLIS}, o como mucho
+     * <code>--settle</code> segundos.
+     */
+    private Written awaitWrites(DataSource dataSource, long[] from) throws SQLException,
+            InterruptedException {
+        Written written = new Written();
+        written.rows = from;
+        written.at = System.nanoTime();
+        long deadline = written.at + TimeUnit.SECONDS.toNanos(settle);
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(500);
+            long[] current = countRows(dataSource);
+            long now = System.nanoTime();
+            if (!Arrays.equals(current, written.rows)) {
+                written.rows = current;
+                written.at = now;
+            } else if (TimeUnit.NANOSECONDS.toMillis(now - written.at) >= QUIET_MILLIS) {
+                written.settled = true;
+                break;
+            }
+        }
+        if (!written.settled) {
+            log.warning("la escritura no ha terminado despues de " + settle + " s");
+        }
+        return written;
+    }
+
+    private static long[] countRows(DataSource dataSource) throws SQLException {
+        long[] rows = new long[TABLES.length];
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            for (int i = 0; i < TABLES.length; i++) {
+                ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM " + TABLES[i]);
+                result.next();
+                rows[i] = result.getLong(1);
+                result.close();
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        return rows;
+    }
+
+    private void write(Properties result) throws IOException {
+        File parent = report.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("no se puede crear " + parent);
+        }
+        OutputStream output = new FileOutputStream(report);
+        try {
+            result.store(output, "TMS prueba de extremo a extremo");
+        } finally {
+            output.close();
+        }
+        System.out.printf("%s tramas/s, p99 %s ms, %s filas/s -> %s%n",
+                result.getProperty("frames.per.second"), result.getProperty("latency.p99.ms"),
+                result.getProperty("rows.per.second"), report);
+    }
+
+    private static double seconds(long nanos) {
+        return Math.max(nanos, 1) / 1e9;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.1f", value);
+    }
+
+    public static void main(String[] args) {
+        int status = 0;
+        try {
+            new EndToEndBenchmark(args).run();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "la prueba de extremo a extremo ha fallado", e);
+            status = 1;
+        }
+        // GlassFish deja hilos vivos despues de dispose
+        System.exit(status);
+    }
+}
@@ -0,0 +1,105 @@
+package org.inftel.tms.devices;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.statistics.BenchmarkStatisticProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Clasificacion y parseo de tramas paSOS en el conector, con una mezcla de tramas como la que
+ * llega en produccion: sobre todo alarmas tecnicas y posiciones de seguimiento, algunas alarmas de
+ * usuario y de dispositivo, mensajes vacios, ACK y tramas erroneas.
+ *
+ * {@link #processAlertMessage()} recorre {@link DeviceConnectorImpl} completo salvo la escritura de
+ * la trama y la cola de procesado, que se sustituyen por implementaciones vacias.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasosFrameBenchmark {
+
+    static final String[] FRAMES = {
+            "*$AT2&RK123456&LD20120127&LH113147&LT36.7213&LN-4.4214&PB05&XCUtrack#",
+            "*$AT2&RK123456&LD20120127&LH113147&LN1008052067&LT153052067&PB05PC000#",
+            "*$AT2&RK123456&LD20120127&LH113152&LT36.7220&LN-4.4209&PB05&XCUtrack#",
+            "*$AU11&RK123456&LD20120127&LH104737&LN1008052067&LT153052067#",
+            "*$AT2&RK123456&LD20120127&LH113157&LT36.7228&LN-4.4201&PB04&XCUtrack#",
+            "*$AD31&RK123456&LD20120127&LH113145&LN1008052067&LT153052067&DT55#",
+            "*$AT2&RK123456&LD20120127&LH113202&LT36.7235&LN-4.4195&PB04&XCUtrack#",
+            "*$SR0&RK123456&KO1000#",
+            "",
+            "*$AU11&RK000000#"
+    };
+
+    private final PasosFrame frame = new PasosFrame();
+
+    private DeviceConnectorImpl connector;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // el registro de cada trama no es lo que se quiere medir
+        Logger.getLogger("org.inftel.tms").setLevel(Level.WARNING);
+        AlertRawBatchWriter writer = new AlertRawBatchWriter() {
+
+            @Override
+            public void write(AlertRaw raw, boolean urgent) {
+            }
+        };
+        AlertIngestQueue queue = new AlertIngestQueue() {
+
+            @Override
+            public boolean submit(AlertRaw raw) {
+                return true;
+            }
+        };
+        connector = new DeviceConnectorImpl(writer, queue, new BenchmarkStatisticProcessor());
+    }
+
+    private String nextFrame() {
+        String message = FRAMES[next];
+        next = (next + 1) % FRAMES.length;
+        return message;
+    }
+
+    @Benchmark
+    public PasosFrame.Type classify() {
+        return frame.parse(nextFrame()).getType();
+    }
+
+    @Benchmark
+    public double parse() {
+        frame.parse(nextFrame());
+        double result = frame.getKey() + frame.getBattery();
+        if (frame.hasLatitude()) {
+            result += frame.getLatitude() + frame.getLongitude();
+        }
+        return frame.hasCause() ? result + frame.getCause().length() : result;
+    }
+
+    @Benchmark
+    public Object processAlertMessage() {
+        try {
+            return connector.processAlertMessage("617001100", nextFrame());
+        } catch (RuntimeException e) {
+            // las tramas erroneas se rechazan con una excepcion
+            return e;
+        }
+    }
+}
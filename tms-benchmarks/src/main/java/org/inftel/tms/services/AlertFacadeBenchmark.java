@@ -0,0 +1,140 @@
+package org.inftel.tms.services;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.inftel.tms.domain.Alert;
+import org.inftel.tms.domain.AlertPriority;
+import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.domain.AlertRawState;
+import org.inftel.tms.domain.AlertType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Consultas de {@link AlertFacadeImpl} contra Derby embebido en memoria con {@link #alerts}
+ * alertas alrededor de Malaga: la paginacion del listado, el mapa (alertas y grupos en una zona)
+ * y el recuento por tipo de las estadisticas. Mide sobre todo el coste de la consulta y de la
+ * construccion de las entidades en EclipseLink, no la red ni un servidor de base de datos real.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlertFacadeBenchmark {
+
+    @Param({ "10000" })
+    public int alerts;
+
+    private EntityManagerFactory emf;
+
+    private EntityManager em;
+
+    private AlertFacadeImpl facade;
+
+    private Date from;
+
+    private Date to;
+
+    @Setup
+    public void setUp() {
+        // cada entidad se registra al insertarla, no interesa durante la carga
+        java.util.logging.Logger.getLogger("org.inftel.tms").setLevel(
+                java.util.logging.Level.WARNING);
+        emf = Persistence.createEntityManagerFactory("tms-benchmarks", Collections.singletonMap(
+                "eclipselink.persistencexml", "META-INF/benchmark-persistence.xml"));
+        em = emf.createEntityManager();
+        facade = new AlertFacadeImpl(em);
+
+        Random random = new Random(1);
+        AlertType[] types = AlertType.values();
+        em.getTransaction().begin();
+        for (int i = 0; i < alerts; i++) {
+            AlertRaw raw = new AlertRaw();
+            raw.setOrigin(String.valueOf(600000000 + i % 500));
+            raw.setRawData("*$AT2&RK123456&LD20120127&LH113147#");
+            raw.setState(AlertRawState.PROCESSED);
+            em.persist(raw);
+            Alert alert = new Alert();
+            alert.setRaw(raw);
+            alert.setType(types[i % types.length]);
+            alert.setPriority(AlertPriority.NORMAL);
+            alert.setCause("benchmark");
+            alert.setLatitude(36.5 + random.nextDouble() * 0.5);
+            alert.setLongitude(-4.8 + random.nextDouble() * 0.8);
+            em.persist(alert);
+            if (i % 500 == 499) {
+                em.flush();
+                em.clear();
+            }
+        }
+        em.getTransaction().commit();
+        em.clear();
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, -1);
+        from = calendar.getTime();
+        calendar.add(Calendar.DAY_OF_MONTH, 2);
+        to = calendar.getTime();
+    }
+
+    /** Cada invocacion parte de un contexto de persistencia vacio, como una peticion nueva. */
+    @Setup(Level.Invocation)
+    public void clear() {
+        em.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        em.close();
+        emf.close();
+    }
+
+    @Benchmark
+    public List<Alert> findRangeAfter() {
+        return facade.findRangeAfter(null, 50);
+    }
+
+    @Benchmark
+    public int estimateCount() {
+        return facade.estimateCount();
+    }
+
+    @Benchmark
+    public Long countByType() {
+        return facade.countByType(AlertType.USER, from, to);
+    }
+
+    /** Una ciudad, como el mapa con un zoom intermedio. */
+    @Benchmark
+    public List<Alert> findInBox() {
+        return facade.findInBox(36.65, -4.55, 36.8, -4.35, from, to, 500);
+    }
+
+    /** Toda la provincia, como el mapa con poco zoom. */
+    @Benchmark
+    public List<GeoCluster> findClusters() {
+        return facade.findClusters(36.4, -5.0, 37.1, -3.9, from, to);
+    }
+}
@@ -0,0 +1,68 @@
+package org.inftel.tms.statistics;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link StatisticProcessor} sin contenedor para los benchmarks. Registra las muestras igual que
+ * {@link StatisticProcessorImpl}, acumulandolas en un {@link StatisticListener}, pero nunca las
+ * vuelca a la base de datos, asi que las consultas devuelven resultados vacios.
+ */
+public class BenchmarkStatisticProcessor implements StatisticProcessor {
+
+    private final StatisticListener statisticListener = new StatisticListener(null);
+
+    @Override
+    public void process(String name, Date date) {
+        process(name, date, 1);
+    }
+
+    @Override
+    public void process(String name, Date date, long samples) {
+        process(name, date, null, samples);
+    }
+
+    @Override
+    public void process(String name, Date date, double accumulated) {
+        process(name, date, accumulated, 1l);
+    }
+
+    @Override
+    public void process(String name, Date date, Double accumulated, Long samples) {
+        statisticListener.onMessage(new StatisticDataEntity(name, date, accumulated, samples));
+    }
+
+    @Override
+    public StatisticCounter counter(String name) {
+        return statisticListener.handle(name);
+    }
+
+    @Override
+    public StatisticTimer timer(String name) {
+        return statisticListener.handle(name);
+    }
+
+    @Override
+    public StatisticHistogram histogram(String name) {
+        return statisticListener.histogram(name);
+    }
+
+    @Override
+    public Map<Date, StatisticData> findStatistics(String name, StatisticDataPeriod period,
+            Date fromDate, Date toDate) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<Date, StatisticHistogramData> findHistograms(String name,
+            StatisticDataPeriod period, Date fromDate, Date toDate) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public List<String> findStatisticsNames(String startWith) {
+        return Collections.emptyList();
+    }
+}
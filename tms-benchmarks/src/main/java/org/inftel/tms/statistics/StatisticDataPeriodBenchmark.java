@@ -0,0 +1,69 @@
+package org.inftel.tms.statistics;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Calculo del periodo al que pertenece una fecha, que se realiza en cada muestra estadistica y en
+ * cada consulta de series.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticDataPeriodBenchmark {
+
+    @Param({ "MINUTELY", "HOURLY", "DAYLY", "MONTHLY", "ANNUAL" })
+    public StatisticDataPeriod period;
+
+    /** Fechas de un dia cualquiera separadas 37 segundos, para no repetir siempre la misma. */
+    private final Date[] dates = new Date[1024];
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2012, Calendar.JANUARY, 27, 0, 0, 0);
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = calendar.getTime();
+            calendar.add(Calendar.SECOND, 37);
+        }
+    }
+
+    private Date nextDate() {
+        next = (next + 1) & (dates.length - 1);
+        return dates[next];
+    }
+
+    @Benchmark
+    public Date beginsAt() {
+        return period.beginsAt(nextDate());
+    }
+
+    @Benchmark
+    public Date endsAt() {
+        return period.endsAt(nextDate());
+    }
+
+    @Benchmark
+    public StatisticDataEntity createEntity() {
+        return new StatisticDataEntity("alert.type.user", period, period.beginsAt(nextDate()),
+                1l);
+    }
+}
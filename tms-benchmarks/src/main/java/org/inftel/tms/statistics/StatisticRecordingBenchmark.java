@@ -0,0 +1,70 @@
+package org.inftel.tms.statistics;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Registro de muestras en {@link StatisticProcessor} con muchos hilos enviando la misma
+ * estadistica, el caso del conector en el que todas las peticiones registran su tiempo de proceso.
+ * Se compara el camino con objetos ({@link StatisticProcessor#process(String, Date)}) con los
+ * handles resueltos una vez. Para medir con otro numero de hilos se usa la opcion <code>-t</code>
+ * de JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class StatisticRecordingBenchmark {
+
+    private StatisticProcessor processor;
+
+    private StatisticCounter counter;
+
+    private StatisticTimer timer;
+
+    private StatisticHistogram histogram;
+
+    @Setup
+    public void setUp() {
+        processor = new BenchmarkStatisticProcessor();
+        counter = processor.counter("alert.type.user");
+        timer = processor.timer("alert.reciverProcessTime.mean");
+        histogram = processor.histogram("alert.reciverProcessTime");
+    }
+
+    @Benchmark
+    public void process() {
+        processor.process("alert.type.user", new Date());
+    }
+
+    @Benchmark
+    public void counter() {
+        counter.increment(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public void timer() {
+        timer.record(System.currentTimeMillis(), 12d);
+    }
+
+    @Benchmark
+    public void histogram() {
+        long now = System.currentTimeMillis();
+        histogram.record(now, now & 255);
+    }
+}
@@ -0,0 +1,258 @@
+package org.inftel.tms.devices;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+
+import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.domain.AlertRawState;
+import org.inftel.tms.services.AlertRawFacade;
+
+/**
+ * Cola de entrada de tramas pendientes de procesar. {@link DeviceConnectorImpl} hace persistente
+ * la trama como {@link AlertRaw} en estado {@link AlertRawState#PENDING}, responde al dispositivo
+ * y deja aqui el identificador para que la alerta se genere de forma asincrona.
+ *
+ * La cola esta dividida en particiones segun el origen de la trama. Cada particion se consume por
+ * un unico {@link AlertIngestWorker} a la vez, de forma que las tramas de un mismo dispositivo se
+ * procesan en orden de llegada y el numero de hilos de procesado esta acotado por el numero de
+ * particiones. Las particiones tienen capacidad limitada, si estan llenas el emisor espera un
+ * tiempo maximo y si aun asi no hay hueco la trama se queda pendiente en base de datos hasta que
+ * la recoja {@link #recoverPending()}. Desde ese momento las tramas siguientes de la particion
+ * tambien se quedan pendientes, aunque ya haya hueco, para que no adelanten a la que espera; la
+ * recuperacion las encola todas en orden de llegada y vuelve a abrir la particion.
+ */
+@Singleton
+@ConcurrencyManagement(BEAN)
+public class AlertIngestQueue {
+
+    private static final Logger logger = Logger.getLogger(AlertIngestQueue.class.getName());
+
+    /** Numero de particiones, y por tanto maximo de workers concurrentes. */
+    static final int STRIPES = Integer.getInteger("tms.connector.ingestStripes", 8);
+
+    /** Capacidad de cada particion. */
+    static final int CAPACITY = Integer.getInteger("tms.connector.ingestCapacity", 1024);
+
+    /** Tiempo maximo (ms) que espera el emisor cuando la particion esta llena. */
+    static final long OFFER_TIMEOUT = Long.getLong("tms.connector.ingestOfferTimeout", 200L);
+
+    /** Antiguedad minima (ms) de una trama pendiente para que la recoja la recuperacion. */
+    static final long RECOVERY_AGE = 60 * 1000L;
+
+    /** Maximo de tramas pendientes recuperadas en cada ejecucion. */
+    static final int RECOVERY_BATCH = 500;
+
+    @EJB
+    private AlertIngestWorker alertIngestWorker;
+
+    @EJB
+    private AlertRawFacade alertRawFacade;
+
+    private final BlockingQueue<Long>[] queues;
+
+    private final AtomicBoolean[] draining;
+
+    /** Particiones con tramas esperando a la recuperacion, solo se modifica con su cerrojo. */
+    private final AtomicBoolean[] parked;
+
+    /** Impide que una trama se encole mientras se recuperan las pendientes de su particion. */
+    private final ReentrantLock[] locks;
+
+    public AlertIngestQueue() {
+        this(STRIPES, CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AlertIngestQueue(int stripes, int capacity) {
+        queues = new BlockingQueue[stripes];
+        draining = new AtomicBoolean[stripes];
+        parked = new AtomicBoolean[stripes];
+        locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            queues[i] = new ArrayBlockingQueue<Long>(capacity);
+            draining[i] = new AtomicBoolean();
+            parked[i] = new AtomicBoolean();
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Encola una trama ya persistente para generar su alerta. Si la particion esta llena espera
+     * como maximo {@link #OFFER_TIMEOUT} milisegundos.
+     *
+     * @param raw trama persistente en estado pendiente
+     * @return <code>false</code> si la trama no cabe, o la particion tiene tramas anteriores
+     *         pendientes, y queda a la espera de la recuperacion
+     */
+    public boolean submit(AlertRaw raw) {
+        int stripe = stripeOf(raw.getOrigin());
+        if (parked[stripe].get()) {
+            // espera a que termine la recuperacion en curso, que puede reabrir la particion
+            locks[stripe].lock();
+            try {
+                if (parked[stripe].get()) {
+                    return false;
+                }
+            } finally {
+                locks[stripe].unlock();
+            }
+        }
+        if (enqueue(stripe, raw, OFFER_TIMEOUT)) {
+            return true;
+        }
+        locks[stripe].lock();
+        try {
+            if (parked[stripe].compareAndSet(false, true)) {
+                logger.log(WARNING, "cola de entrada llena, la particion {0} queda pendiente "
+                        + "de la recuperacion desde la trama {1}", new Object[] {
+                        stripe, raw.getId()
+                });
+            }
+        } finally {
+            locks[stripe].unlock();
+        }
+        return false;
+    }
+
+    /**
+     * Vuelve a encolar las tramas que siguen pendientes pasado un tiempo, normalmente porque la
+     * cola estaba llena o porque el servidor se paro antes de procesarlas. De las particiones que
+     * tienen tramas esperando se recuperan todas, sin esperar a que pase el tiempo, y si caben se
+     * vuelven a abrir. Las tramas repetidas no son un problema porque {@link AlertRawProcessor}
+     * ignora las que ya no estan pendientes.
+     */
+    @Schedule(second = "30", minute = "*", hour = "*", persistent = false)
+    public void recoverPending() {
+        List<Integer> held = new ArrayList<Integer>();
+        for (int stripe = 0; stripe < queues.length; stripe++) {
+            if (parked[stripe].get()) {
+                locks[stripe].lock();
+                held.add(stripe);
+            }
+        }
+        try {
+            long now = System.currentTimeMillis();
+            Date recent = new Date(now - RECOVERY_AGE);
+            Date before = held.isEmpty() ? recent : new Date(now);
+            List<AlertRaw> pending = alertRawFacade.findByState(AlertRawState.PENDING, before,
+                    RECOVERY_BATCH);
+            if (!pending.isEmpty()) {
+                logger.log(INFO, "recuperando {0} tramas pendientes", pending.size());
+            }
+            boolean[] full = new boolean[queues.length];
+            for (AlertRaw raw : pending) {
+                int stripe = stripeOf(raw.getOrigin());
+                if (full[stripe] || (!held.contains(stripe) && raw.getCreated() != null
+                        && !raw.getCreated().before(recent))) {
+                    // en el resto de particiones las tramas recientes aun estan en la cola
+                    continue;
+                }
+                // cola llena, se reintentara en la siguiente ejecucion
+                full[stripe] = !enqueue(stripe, raw, 0);
+            }
+            for (int stripe = 0; stripe < queues.length; stripe++) {
+                if (held.contains(stripe)) {
+                    parked[stripe].set(full[stripe] || pending.size() == RECOVERY_BATCH);
+                } else if (full[stripe]) {
+                    // las siguientes tramas tampoco deben adelantar a las que no han cabido
+                    locks[stripe].lock();
+                    try {
+                        parked[stripe].set(true);
+                    } finally {
+                        locks[stripe].unlock();
+                    }
+                }
+            }
+        } finally {
+            for (int stripe : held) {
+                locks[stripe].unlock();
+            }
+        }
+    }
+
+    private boolean enqueue(int stripe, AlertRaw raw, long timeout) {
+        boolean accepted;
+        try {
+            accepted = queues[stripe].offer(raw.getId(), timeout, MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        schedule(stripe);
+        return accepted;
+    }
+
+    /** Lanza un worker para la particion si no hay ninguno consumiendola. */
+    private void schedule(int stripe) {
+        if (draining[stripe].compareAndSet(false, true)) {
+            try {
+                alertIngestWorker.drain(stripe);
+            } catch (RuntimeException e) {
+                draining[stripe].set(false);
+                logger.log(SEVERE, "no se ha podido lanzar el worker de la particion " + stripe, e);
+            }
+        }
+    }
+
+    /**
+     * Siguiente trama de la particion, usado por el worker que la tiene asignada.
+     *
+     * @return identificador de la trama o <code>null</code> si la particion esta vacia
+     */
+    Long poll(int stripe) {
+        return queues[stripe].poll();
+    }
+
+    /**
+     * Pasa a <code>target</code> como maximo <code>max</code> tramas de la particion, usado por el
+     * worker que la tiene asignada para procesarlas en un mismo lote.
+     *
+     * @return numero de tramas obtenidas
+     */
+    int drainTo(int stripe, Collection<Long> target, int max) {
+        return queues[stripe].drainTo(target, max);
+    }
+
+    /**
+     * Libera la particion al terminar de consumirla. Si mientras tanto han llegado nuevas tramas y
+     * ningun otro worker la ha tomado, el worker actual debe continuar.
+     *
+     * @return <code>true</code> si el worker debe seguir consumiendo la particion
+     */
+    boolean release(int stripe) {
+        draining[stripe].set(false);
+        return !queues[stripe].isEmpty() && draining[stripe].compareAndSet(false, true);
+    }
+
+    int stripeOf(String origin) {
+        int h = (origin == null) ? 0 : origin.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % queues.length;
+    }
+
+    // Internal Test Usage
+    AlertIngestQueue(AlertIngestWorker alertIngestWorker, AlertRawFacade alertRawFacade,
+            int stripes, int capacity) {
+        this(stripes, capacity);
+        this.alertIngestWorker = alertIngestWorker;
+        this.alertRawFacade = alertRawFacade;
+    }
+}
@@ -0,0 +1,93 @@
+package org.inftel.tms.devices;
+
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+import static javax.ejb.TransactionAttributeType.NOT_SUPPORTED;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.ejb.Asynchronous;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+
+/**
+ * Consume una particion de {@link AlertIngestQueue}. Las tramas disponibles se procesan en lotes de
+ * hasta {@link #BATCH_SIZE} en una unica transaccion mediante {@link AlertRawProcessor}, de forma
+ * que las inserciones de alertas se agrupan en batch JDBC. No se espera a completar el lote, solo
+ * se toma lo que ya esta encolado. Si el lote falla se procesa cada trama en su propia transaccion
+ * para que un fallo en una trama no afecte al resto.
+ */
+@Stateless
+@LocalBean
+public class AlertIngestWorker {
+
+    private static final Logger logger = Logger.getLogger(AlertIngestWorker.class.getName());
+
+    /** Numero maximo de tramas procesadas en una misma transaccion. */
+    static final int BATCH_SIZE = Integer.getInteger("tms.connector.ingestBatchSize", 50);
+
+    @EJB
+    private AlertIngestQueue alertIngestQueue;
+
+    @EJB
+    private AlertRawProcessor alertRawProcessor;
+
+    /**
+     * Procesa las tramas de la particion hasta vaciarla. Solo puede haber un worker por particion,
+     * lo garantiza {@link AlertIngestQueue}.
+     *
+     * @param stripe particion a consumir
+     */
+    @Asynchronous
+    @TransactionAttribute(NOT_SUPPORTED)
+    public void drain(int stripe) {
+        List<Long> batch = new ArrayList<Long>(BATCH_SIZE);
+        boolean more = true;
+        while (more) {
+            try {
+                while (alertIngestQueue.drainTo(stripe, batch, BATCH_SIZE) > 0) {
+                    try {
+                        process(batch);
+                    } finally {
+                        batch.clear();
+                    }
+                }
+            } finally {
+                more = alertIngestQueue.release(stripe);
+            }
+        }
+    }
+
+    private void process(List<Long> rawIds) {
+        if (rawIds.size() > 1) {
+            try {
+                alertRawProcessor.processAll(rawIds);
+                return;
+            } catch (RuntimeException e) {
+                logger.log(WARNING, "error procesando lote de " + rawIds.size()
+                        + " tramas, se procesan por separado", e);
+            }
+        }
+        for (Long rawId : rawIds) {
+            process(rawId);
+        }
+    }
+
+    private void process(Long rawId) {
+        try {
+            alertRawProcessor.process(rawId);
+        } catch (RuntimeException e) {
+            logger.log(SEVERE, "error procesando la trama " + rawId, e);
+            try {
+                alertRawProcessor.markFailed(rawId);
+            } catch (RuntimeException ex) {
+                // seguira pendiente y la recuperara AlertIngestQueue
+                logger.log(SEVERE, "no se ha podido marcar como fallida la trama " + rawId, ex);
+            }
+        }
+    }
+}
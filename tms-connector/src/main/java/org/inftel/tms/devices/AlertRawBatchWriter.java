@@ -0,0 +1,270 @@
+package org.inftel.tms.devices;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+import static javax.ejb.TransactionAttributeType.NOT_SUPPORTED;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+
+import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.services.AlertRawFacade;
+
+/**
+ * Agrupa las inserciones de {@link AlertRaw} que llegan de forma concurrente para hacerlas en una
+ * unica transaccion (group commit). El primer hilo que llega abre un lote y espera como maximo
+ * {@link #MAX_LATENCY} milisegundos a que se unan otros; despues inserta el lote completo y
+ * despierta al resto. Cada llamada a {@link #write(AlertRaw, boolean)} solo retorna cuando su trama
+ * es persistente, por lo que el dispositivo nunca recibe respuesta de una trama no guardada.
+ *
+ * Las tramas urgentes (alarmas de usuario, prioridad critica) cierran el lote en el momento, de
+ * forma que nunca se retrasan por la espera. Si la insercion del lote falla, cada hilo reintenta
+ * su propia trama de forma individual para que una trama erronea no afecte al resto.
+ */
+@Singleton
+@ConcurrencyManagement(BEAN)
+@TransactionAttribute(NOT_SUPPORTED)
+public class AlertRawBatchWriter {
+
+    private static final Logger logger = Logger.getLogger(AlertRawBatchWriter.class.getName());
+
+    /** Estado SQL de la violacion de una restriccion unica. */
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    /** Espera maxima (ms) de una trama hasta que se inserta su lote, 0 desactiva los lotes. */
+    static final long MAX_LATENCY = Long.getLong("tms.connector.batchMaxLatency", 5L);
+
+    /** Numero maximo de tramas por lote. */
+    static final int MAX_SIZE = Integer.getInteger("tms.connector.batchMaxSize", 50);
+
+    @EJB
+    private AlertRawFacade alertRawFacade;
+
+    private final long maxLatencyNanos;
+
+    private final int maxSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    /** Lote abierto al que se unen las nuevas tramas, <code>null</code> si no hay ninguno. */
+    private Batch current;
+
+    public AlertRawBatchWriter() {
+        this(MAX_LATENCY, MAX_SIZE);
+    }
+
+    private AlertRawBatchWriter(long maxLatency, int maxSize) {
+        this.maxLatencyNanos = MILLISECONDS.toNanos(maxLatency);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Hace persistente la trama, posiblemente junto con otras recibidas al mismo tiempo.
+     *
+     * @param raw trama a insertar
+     * @param urgent si es <code>true</code> el lote se inserta inmediatamente
+     */
+    public void write(AlertRaw raw, boolean urgent) {
+        if (maxLatencyNanos <= 0 || maxSize <= 1) {
+            alertRawFacade.create(raw);
+            return;
+        }
+
+        Batch batch;
+        boolean leader;
+        lock.lock();
+        try {
+            leader = (current == null);
+            if (leader) {
+                current = new Batch();
+            }
+            batch = current;
+            batch.items.add(raw);
+            if (urgent || batch.items.size() >= maxSize) {
+                close(batch);
+            }
+            if (leader) {
+                awaitClose(batch);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (leader) {
+            flush(batch);
+        } else {
+            awaitFlush(batch);
+        }
+
+        if (batch.failure != null) {
+            if (batch.items.size() == 1) {
+                throw batch.failure;
+            }
+            // el lote ha fallado, se reintenta la trama de forma individual
+            alertRawFacade.create(raw);
+        }
+    }
+
+    /**
+     * Hace persistentes varias tramas que ya llegan juntas, en una unica transaccion y sin esperar a
+     * otros hilos. Si la insercion falla se reintenta cada trama por separado, igual que en
+     * {@link #write(AlertRaw, boolean)}, pero las que siguen fallando se devuelven en lugar de
+     * lanzar la excepcion para no perder el resto.
+     *
+     * @param raws tramas a insertar
+     * @return tramas que no se han podido guardar con su error, vacio si todas son persistentes
+     */
+    public Map<AlertRaw, RuntimeException> writeAll(List<AlertRaw> raws) {
+        Map<AlertRaw, RuntimeException> failed = new IdentityHashMap<AlertRaw, RuntimeException>();
+        if (raws.isEmpty()) {
+            return failed;
+        }
+        try {
+            alertRawFacade.createAll(raws);
+            logger.log(FINE, "insertado lote de {0} tramas", raws.size());
+            return failed;
+        } catch (RuntimeException e) {
+            logger.log(WARNING, "error insertando lote de " + raws.size()
+                    + " tramas, se reintentan por separado", e);
+        }
+        for (AlertRaw raw : raws) {
+            try {
+                alertRawFacade.create(raw);
+            } catch (RuntimeException e) {
+                if (isDuplicate(e)) {
+                    logger.log(FINE, "la trama {0} ya estaba guardada", raw.getRawData());
+                } else {
+                    logger.log(WARNING, "error insertando la trama " + raw.getRawData(), e);
+                }
+                failed.put(raw, e);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Si el error se debe a que la huella de la trama ya existe, es decir, la trama es un reintento
+     * de otra ya guardada.
+     */
+    static boolean isDuplicate(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = next(cause)) {
+            if (cause instanceof SQLException
+                    && UNIQUE_VIOLATION.equals(((SQLException) cause).getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Throwable next(Throwable e) {
+        Throwable cause = e.getCause();
+        if (cause == null && e instanceof EJBException) {
+            cause = ((EJBException) e).getCausedByException();
+        }
+        return (cause != e) ? cause : null;
+    }
+
+    /**
+     * El lider espera a que el lote se llene, llegue una trama urgente o venza el plazo. Debe
+     * llamarse con el cerrojo adquirido.
+     */
+    private void awaitClose(Batch batch) {
+        long remaining = maxLatencyNanos;
+        try {
+            while (!batch.closed && remaining > 0) {
+                remaining = changed.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close(batch);
+    }
+
+    private void flush(Batch batch) {
+        RuntimeException failure = null;
+        try {
+            if (batch.items.size() == 1) {
+                alertRawFacade.create(batch.items.get(0));
+            } else {
+                alertRawFacade.createAll(batch.items);
+            }
+            logger.log(FINE, "insertado lote de {0} tramas", batch.items.size());
+        } catch (RuntimeException e) {
+            logger.log(WARNING, "error insertando lote de " + batch.items.size()
+                    + " tramas, se reintentan por separado", e);
+            failure = e;
+        }
+        lock.lock();
+        try {
+            batch.failure = failure;
+            batch.flushed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitFlush(Batch batch) {
+        lock.lock();
+        try {
+            boolean interrupted = false;
+            while (!batch.flushed) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    // la trama ya forma parte del lote, hay que esperar a que se inserte
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Cierra el lote para que no se unan mas tramas. Debe llamarse con el cerrojo adquirido. */
+    private void close(Batch batch) {
+        if (!batch.closed) {
+            batch.closed = true;
+            changed.signalAll();
+        }
+        if (current == batch) {
+            current = null;
+        }
+    }
+
+    /**
+     * Lote de tramas insertadas en una misma transaccion. Los campos se modifican siempre con el
+     * cerrojo adquirido, salvo <code>items</code> que el lider lee una vez cerrado el lote.
+     */
+    private static final class Batch {
+        final List<AlertRaw> items = new ArrayList<AlertRaw>();
+        boolean closed;
+        boolean flushed;
+        RuntimeException failure;
+    }
+
+    // Internal Test Usage
+    AlertRawBatchWriter(AlertRawFacade alertRawFacade, long maxLatency, int maxSize) {
+        this(maxLatency, maxSize);
+        this.alertRawFacade = alertRawFacade;
+    }
+}
@@ -0,0 +1,276 @@
+package org.inftel.tms.devices;
+
+import static java.util.logging.Level.INFO;
+import static javax.ejb.TransactionAttributeType.REQUIRES_NEW;
+import static org.inftel.tms.domain.AlertRawState.DISCARDED;
+import static org.inftel.tms.domain.AlertRawState.FAILED;
+import static org.inftel.tms.domain.AlertRawState.PROCESSED;
+
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+
+import org.inftel.tms.domain.Alert;
+import org.inftel.tms.domain.AlertPriority;
+import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.domain.AlertRawState;
+import org.inftel.tms.domain.AlertType;
+import org.inftel.tms.services.AlertFacade;
+import org.inftel.tms.services.AlertRawFacade;
+import org.inftel.tms.services.DeviceFacade;
+import org.inftel.tms.services.DeviceSnapshot;
+import org.inftel.tms.services.FenceCrossing;
+import org.inftel.tms.services.FenceFacade;
+import org.inftel.tms.services.PeopleFacade;
+import org.inftel.tms.services.TrackStore;
+
+/**
+ * Etapa asincrona del conector. A partir de una trama ya persistente y validada por
+ * {@link DeviceConnectorImpl}, busca el dispositivo de origen y genera la {@link Alert}
+ * correspondiente. Cada llamada se ejecuta en una transaccion independiente, ya sea de una trama
+ * o de un lote de tramas. Las posiciones de seguimiento (causa <code>track</code>) no generan
+ * alerta, se añaden al recorrido del dispositivo en {@link TrackStore}. Todas las posiciones se
+ * comprueban contra las zonas vigiladas del afectado ({@link FenceFacade}), y cada entrada o
+ * salida no permitida genera su propia alerta.
+ */
+@Stateless
+@LocalBean
+public class AlertRawProcessor {
+
+    private static final Logger logger = Logger.getLogger(AlertRawProcessor.class.getName());
+
+    @EJB
+    private DeviceFacade deviceFacade;
+
+    @EJB
+    private PeopleFacade peopleFacade;
+
+    @EJB
+    private AlertFacade alertFacade;
+
+    @EJB
+    private AlertRawFacade alertRawFacade;
+
+    @EJB
+    private TrackStore trackStore;
+
+    @EJB
+    private FenceFacade fenceFacade;
+
+    /** Las instancias stateless no se comparten entre hilos, la vista puede reutilizarse. */
+    private final PasosFrame frame = new PasosFrame();
+
+    public AlertRawProcessor() {
+    }
+
+    /**
+     * Genera la alerta de una trama pendiente. Si la trama ya no esta pendiente (por ejemplo
+     * porque la recuperacion la ha encolado dos veces) no se hace nada.
+     *
+     * @param rawId identificador del {@link AlertRaw}
+     * @return el estado final de la trama o <code>null</code> si no existe
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public AlertRawState process(Long rawId) {
+        return processInternal(rawId);
+    }
+
+    /**
+     * Genera las alertas de varias tramas pendientes en una unica transaccion, de forma que las
+     * inserciones se agrupen. Si alguna falla se deshace el lote completo.
+     *
+     * @param rawIds identificadores de los {@link AlertRaw} en orden de llegada
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void processAll(List<Long> rawIds) {
+        for (Long rawId : rawIds) {
+            processInternal(rawId);
+        }
+    }
+
+    private AlertRawState processInternal(Long rawId) {
+        AlertRaw raw = alertRawFacade.find(rawId);
+        if (raw == null) {
+            logger.log(Level.WARNING, "la trama {0} no existe", rawId);
+            return null;
+        } else if (raw.isProcessed()) {
+            return raw.getState();
+        }
+
+        frame.parse(raw.getRawData());
+        AlertRawState state;
+        if (frame.isTrack()) {
+            state = recordTrack(raw);
+            raw.setState(state);
+            return state;
+        }
+        switch (frame.getType()) {
+        case ACK:
+            state = createAlert(AlertType.TECHNICAL, AlertPriority.INFO,
+                    "Parametros de configuracion recibidos correctamente", raw);
+            break;
+        case USER_ALARM:
+            state = createAlert(AlertType.USER, AlertPriority.CRITICAL, "Alerta de usuario", raw);
+            break;
+        case DEVICE_ALARM:
+            state = createAlert(AlertType.DEVICE, AlertPriority.IMPORTANT, "Alerta dispositivo",
+                    raw);
+            break;
+        case TECHNICAL_ALARM:
+            state = createAlert(AlertType.TECHNICAL, AlertPriority.NORMAL, "Alerta tecnica", raw);
+            break;
+        case EMPTY:
+            // no genera alerta, solo solicitaba los parametros remotos
+            state = PROCESSED;
+            break;
+        default:
+            logger.log(Level.WARNING, "trama no soportada {0}", raw);
+            state = DISCARDED;
+        }
+        raw.setState(state);
+        return state;
+    }
+
+    /**
+     * Marca la trama como fallida para que no vuelva a procesarse de forma automatica.
+     *
+     * @param rawId identificador del {@link AlertRaw}
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void markFailed(Long rawId) {
+        AlertRaw raw = alertRawFacade.find(rawId);
+        if (raw != null && !raw.isProcessed()) {
+            raw.setState(FAILED);
+        }
+    }
+
+    /**
+     * Añade la posicion de {@link #frame} al recorrido del dispositivo. La trama se conserva como
+     * registro de la posicion original.
+     *
+     * @return estado en el que debe quedar la trama
+     */
+    private AlertRawState recordTrack(AlertRaw raw) {
+        DeviceSnapshot device = deviceFacade.findSnapshotByMobile(raw.getOrigin());
+        if (device == null) {
+            logger.log(INFO, "el movil {0} no esta registrado, se descarta la posicion",
+                    new Object[] {
+                        raw.getOrigin()
+                    });
+            return DISCARDED;
+        }
+        Date time = (raw.getCreated() != null) ? raw.getCreated() : new Date();
+        trackStore.record(device.getDeviceId(), time, frame.getLatitude(), frame.getLongitude());
+        checkFences(device, raw);
+        return PROCESSED;
+    }
+
+    /**
+     * Crea una alerta asociada a su alertRaw, persistente en bbdd, usando los datos de
+     * {@link #frame} ya parseados.
+     *
+     * @return estado en el que debe quedar la trama
+     */
+    private AlertRawState createAlert(AlertType type, AlertPriority priority, String cause,
+            AlertRaw raw) {
+        String mobileNumber = raw.getOrigin();
+        // el registro en memoria evita consultar el dispositivo y su propietario en cada trama
+        DeviceSnapshot device = deviceFacade.findSnapshotByMobile(mobileNumber);
+        if (device == null) {
+            logger.log(INFO, "el movil {0} no esta registrado, no se procesará la alarma",
+                    new Object[] {
+                        mobileNumber
+                    });
+            return DISCARDED;
+        } else {
+            logger.log(INFO, "registrando alerta en el movil {0}", new Object[] {
+                    device
+            });
+        }
+
+        logger.log(INFO, "registrando alerta para la persona {0}", new Object[] {
+                device.getPersonId()
+        });
+
+        Alert alert = new Alert();
+        if (device.getPersonId() != null) {
+            alert.setAffected(peopleFacade.getReference(device.getPersonId()));
+        }
+        alert.setCause(cause);
+        alert.setOrigin(deviceFacade.getReference(device.getDeviceId()));
+        alert.setPriority(priority);
+        alert.setType(type);
+        alert.setRaw(raw);
+
+        // Latitude & Longitude
+        if (frame.hasLatitude()) {
+            alert.setLatitude(frame.getLatitude());
+        }
+        if (frame.hasLongitude()) {
+            alert.setLongitude(frame.getLongitude());
+        }
+
+        // Custom cause
+        if (frame.hasCause()) {
+            alert.setCause(frame.getCause());
+        }
+
+        // Save alert and assign raw
+        alertFacade.create(alert);
+        raw.setAlert(alert);
+        checkFences(device, raw);
+        return PROCESSED;
+    }
+
+    /**
+     * Comprueba la posicion de {@link #frame} contra las zonas vigiladas del afectado y crea una
+     * alerta por cada cruce. Cada alerta necesita su propia trama, que se crea ya procesada como
+     * copia de la trama que contenia la posicion.
+     */
+    private void checkFences(DeviceSnapshot device, AlertRaw raw) {
+        if (device.getPersonId() == null || !frame.hasLatitude() || !frame.hasLongitude()) {
+            return;
+        }
+        List<FenceCrossing> crossings = fenceFacade.evaluate(device.getPersonId(),
+                frame.getLatitude(), frame.getLongitude());
+        for (FenceCrossing crossing : crossings) {
+            logger.log(INFO, "cruce de zona {0} del movil {1}", new Object[] {
+                    crossing, raw.getOrigin()
+            });
+            AlertRaw fenceRaw = new AlertRaw();
+            fenceRaw.setOrigin(raw.getOrigin());
+            fenceRaw.setRawData(raw.getRawData());
+            fenceRaw.setState(PROCESSED);
+            alertRawFacade.create(fenceRaw);
+
+            Alert alert = new Alert();
+            alert.setAffected(peopleFacade.getReference(device.getPersonId()));
+            alert.setOrigin(deviceFacade.getReference(device.getDeviceId()));
+            alert.setType(AlertType.DEVICE);
+            alert.setPriority(AlertPriority.IMPORTANT);
+            alert.setCause(crossing.getAlertCause());
+            alert.setLatitude(frame.getLatitude());
+            alert.setLongitude(frame.getLongitude());
+            alert.setRaw(fenceRaw);
+            alertFacade.create(alert);
+        }
+    }
+
+    // Internal Test Usage
+    AlertRawProcessor(AlertFacade alertFacade, AlertRawFacade alertRawFacade,
+            DeviceFacade deviceFacade, PeopleFacade peopleFacade, TrackStore trackStore,
+            FenceFacade fenceFacade) {
+        this.alertFacade = alertFacade;
+        this.alertRawFacade = alertRawFacade;
+        this.deviceFacade = deviceFacade;
+        this.peopleFacade = peopleFacade;
+        this.trackStore = trackStore;
+        this.fenceFacade = fenceFacade;
+    }
+}
@@ -0,0 +1,56 @@
+package org.inftel.tms.devices;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reserva de buffers directos del mismo tamaño. Crear un buffer directo es caro y su memoria no la
+ * libera el recolector hasta mucho despues, asi que el listener TCP los reutiliza para las
+ * lecturas y las respuestas en lugar de crear uno por operacion. Se pueden pedir y devolver desde
+ * varios hilos. Si la reserva esta vacia se crea un buffer nuevo, y al devolverlo solo se guarda
+ * si no se ha llegado al maximo.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+
+    private final int maxPooled;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize tamaño de cada buffer en bytes
+     * @param maxPooled maximo de buffers guardados para reutilizar
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /** Devuelve un buffer vacio en modo escritura. */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Devuelve el buffer a la reserva, no debe usarse despues. */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize && pooled.incrementAndGet() <= maxPooled) {
+            pool.offer(buffer);
+        } else if (buffer.capacity() == bufferSize) {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -1,28 +1,31 @@
 
 package org.inftel.tms.devices;
 
-import static java.util.logging.Level.INFO;
-
+import static javax.ejb.TransactionAttributeType.NOT_SUPPORTED;
+import static org.inftel.tms.devices.PasosFrame.Type.EMPTY;
+import static org.inftel.tms.devices.PasosFrame.Type.USER_ALARM;
+import static org.inftel.tms.domain.AlertRawState.DISCARDED;
+import static org.inftel.tms.domain.AlertRawState.PROCESSED;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
 
 import org.apache.commons.lang3.StringUtils;
-import org.inftel.tms.domain.Alert;
-import org.inftel.tms.domain.AlertPriority;
 import org.inftel.tms.domain.AlertRaw;
-import org.inftel.tms.domain.AlertType;
-import org.inftel.tms.domain.Device;
-import org.inftel.tms.domain.Person;
-import org.inftel.tms.services.AlertFacade;
-import org.inftel.tms.services.AlertRawFacade;
-import org.inftel.tms.services.DeviceFacade;
+import org.inftel.tms.statistics.StatisticCounter;
+import org.inftel.tms.statistics.StatisticHistogram;
 import org.inftel.tms.statistics.StatisticProcessor;
 
 /**
@@ -37,114 +40,71 @@ import org.inftel.tms.statistics.StatisticProcessor;
  * mensaje para decidir como responder. La captura HTTP se realiza en
  * {@link org.inftel.tms.web.DeviceConnectorDelegatorServlet}.
  * 
+ * Actualmente la trama se parsea y valida (clave de acceso y ACK) para construir
+ * la respuesta, se guarda como AlertRaw agrupada con otras tramas concurrentes
+ * mediante {@link AlertRawBatchWriter} y las tramas pendientes se encolan en
+ * {@link AlertIngestQueue}. La busqueda del
+ * dispositivo y la creacion de la alerta las hace {@link AlertRawProcessor} de
+ * forma asincrona, por lo que la latencia de la peticion solo depende de una
+ * insercion.
+ * 
+ * Las peticiones con varias tramas ({@link #processAlertMessages(String, List)}) se validan igual,
+ * pero se guardan todas en una unica transaccion sin pasar por la agrupacion entre hilos, y se
+ * encolan en orden, de modo que el procesado asincrono respeta el orden del terminal.
+ * 
+ * Los reintentos de una trama ya recibida ({@link RecentFrames}) se responden igual que la trama
+ * original pero no se guardan ni se procesan de nuevo. Si un reintento no se reconoce en memoria,
+ * la huella unica de {@link AlertRaw} impide guardarlo y tambien se responde como reintento.
+ * 
  * @author migueqm
  */
 @Stateless
+@TransactionAttribute(NOT_SUPPORTED)
 public class DeviceConnectorImpl implements DeviceConnector {
 
     private static final Logger logger = Logger.getLogger(DeviceConnectorImpl.class.getName());
 
     @EJB
-    private DeviceFacade deviceFacade;
+    private AlertRawBatchWriter alertRawBatchWriter;
 
     @EJB
-    private AlertFacade alertFacade;
+    private AlertIngestQueue alertIngestQueue;
 
     @EJB
-    private AlertRawFacade alertRawFacade;
+    private StatisticProcessor statisticProcessor;
 
     @EJB
-    private StatisticProcessor statisticProcessor;
+    private RecentFrames recentFrames;
 
-    private static final String key = "&RK123456";
+    /** Clave de acceso de los terminales, tambien la comprueba {@link PasosUdpListener}. */
+    static final String key = "&RK123456";
     private static final String call = "&RV1911234567";
     private static final String sms = "&RS1601234567";
     private static final String id = "&KO1000";
     private static final String transport = "&RT2:TCP";
     private static final String ip = "&RI01:12700000000108080";
 
-    /** Crea una nueva instancia de DeviceConnectorImpl */
-    public DeviceConnectorImpl() {
-    }
+    /** Respuesta al mensaje vacio: los parametros remotos del terminal. */
+    private static final String parameters = "*$RP06" + key + key + call + sms + id + transport
+            + ip + "#";
 
-    /**
-     * Comprueba si la trama recibida del terminal es una Alarma técnica
-     * 
-     * @param message el contenido del mensaje en formato paSOS
-     * @return boolean
-     */
-    private boolean isTechnicalAlarm(String message) {
-        return Pattern.matches("^\\*\\$AT.*$", message);
-    }
-
-    /**
-     * Comprueba si la trama recibida del terminal es una Alarma del usuario
-     * 
-     * @param message el contenido del mensaje en formato paSOS
-     * @return boolean
-     */
-    private boolean isUserAlarm(String message) {
-        return Pattern.matches("^\\*\\$AU.*$", message);
-    }
+    /** Resultado de una trama de un lote que no se ha podido guardar. */
+    static final String NOT_SAVED = "ERROR: no se pudo guardar la trama";
 
-    /**
-     * Comprueba si la trama recibida del terminal es una Alarma del dispositivo
-     * 
-     * @param message el contenido del mensaje en formato paSOS
-     * @return boolean
-     */
-    private boolean isDeviceAlarm(String message) {
-        return Pattern.matches("^\\*\\$AD.*$", message);
-    }
+    /** Las instancias stateless no se comparten entre hilos, la vista puede reutilizarse. */
+    private final PasosFrame frame = new PasosFrame();
 
     /**
-     * Comprueba si la trama recibida del terminal es un mensaje Status
-     * Report(SR) con un frame ACK(KO)
-     * 
-     * @param message el contenido del mensaje en formato paSOS
-     * @return boolean
+     * Tiempo de proceso de cada trama, se resuelve una unica vez por instancia. Es un histograma
+     * porque el acuerdo de servicio de las alarmas se define sobre el p99, no sobre la media.
      */
-    private boolean isACK(String message) {
-        boolean isStatusReport = Pattern.matches("^\\*\\$SR0.*$", message);
+    private StatisticHistogram processTime;
 
-        Pattern pattern = Pattern.compile("\\&KO[0-9]{4}");
-        Matcher matcher = pattern.matcher(message);
-        boolean isACK = matcher.find();
-        return ((isStatusReport) && (isACK));
-    }
+    /** Reintentos reconocidos, se resuelve una unica vez por instancia. */
+    private StatisticCounter duplicated;
 
-    /**
-     * Comprueba que la Access Key es correcta, comparándola con la que envío el
-     * servidor en su primer mensaje.
-     * 
-     * @param message el contenido del mensaje en formato paSOS
-     * @return boolean
-     */
-    private boolean checkKey(String message) {
-        Pattern pattern = Pattern.compile("(\\&RK[0-9]{6})");
-        Matcher matcher = pattern.matcher(message);
-        if (matcher.find()) {
-            return matcher.group(1).equals(key);
-        } else {
-            return false;
-        }
-    }
-
-    /**
-     * Comprueba que el ACK que se manda es correcto, comparando el ID de la
-     * trama (RP) con el ID que se quiere enviar en el mensaje envía.
-     * 
-     * @param message el contenido del mensaje en formato paSOS
-     * @return boolean
-     */
-    private boolean checkACK(String message) {
-        Pattern pattern = Pattern.compile("(\\&KO[0-9]{4})");
-        Matcher matcher = pattern.matcher(message);
-        if (matcher.find()) {
-            return matcher.group(1).equals(id);
-        } else {
-            return false;
-        }
+    /** Crea una nueva instancia de DeviceConnectorImpl */
+    public DeviceConnectorImpl() {
     }
 
     /**
@@ -172,136 +132,221 @@ public class DeviceConnectorImpl implements DeviceConnector {
 
         long time = System.currentTimeMillis();
         try {
-            // Primero se guarda el mensaje tal cual llega
-            AlertRaw raw = internalProcessRawAlert(from, message);
+            // Se parsea y valida el mensaje para construir la respuesta y decidir su estado
+            AlertRaw raw = newRaw(from, message);
+            String error = validate(raw);
+            CharSequence response = response();
+            if (error == null && !claim(raw)) {
+                return response;
+            }
+
+            // Las alarmas de usuario son criticas, no esperan a completar el lote
+            try {
+                alertRawBatchWriter.write(raw, frame.getType() == USER_ALARM);
+            } catch (RuntimeException e) {
+                if (raw.getFingerprint() == null) {
+                    throw e;
+                } else if (AlertRawBatchWriter.isDuplicate(e)) {
+                    duplicated();
+                    return response;
+                }
+                recentFrames.release(raw.getFingerprint());
+                throw e;
+            }
+            if (error != null) {
+                throw new RuntimeException(error);
+            }
 
-            // Una vez guardado, se intenta parsear y se contruye la respuesta
-            return internalProcessAlert(from, message, raw);
+            // Una vez guardado, la alerta se genera de forma asincrona
+            if (!raw.isProcessed()) {
+                alertIngestQueue.submit(raw);
+            }
+            return response;
         } finally {
-            time = System.currentTimeMillis() - time;
-            statisticProcessor.process("alert.reciverProcessTime", new Date(), new Double(time));
+            long now = System.currentTimeMillis();
+            processTime().record(now, now - time);
         }
     }
 
-    private CharSequence internalProcessAlert(String from, String message, AlertRaw raw) {
-        if ((message == null) || (message.isEmpty())) {
-            logger.log(Level.INFO, "empty message received");
-            return "*$RP06" + key + key + call + sms + id + transport + ip + "#";
-        } else if (isACK(message)) {
-            logger.log(Level.INFO, "ACK received");
-            if (!checkKey(message)) {
-                throw new RuntimeException("ERROR, 'access key' incorrecta.");
-            } else if (!checkACK(message)) {
-                throw new RuntimeException("ERROR, codigo de 'ACK' incorrecto.");
-            } else {
-                createAlert(AlertType.TECHNICAL, AlertPriority.INFO,
-                        "Parametros de configuracion recibidos correctamente", raw, from);
-            }
-            return null;
-        } else if (isUserAlarm(message)) {
-            logger.log(Level.INFO, "User Alarm received");
-            if (!checkKey(message)) {
-                throw new RuntimeException("ERROR, 'access key' incorrecta.");
-            }
-            createAlert(AlertType.USER, AlertPriority.CRITICAL, "Alerta de usuario", raw, from);
-            return null;
-        } else if (isDeviceAlarm(message)) {
-            logger.log(Level.INFO, "Device Alarm received");
-            if (!checkKey(message)) {
-                throw new RuntimeException("ERROR, 'access key' incorrecta.");
+    /**
+     * Recibe varias tramas de un mismo origen en una unica peticion. Cada trama se valida y
+     * responde igual que en {@link #processAlertMessage(String, String)}, pero los errores se
+     * devuelven como resultado de la trama en lugar de lanzarse. El tiempo de proceso se registra
+     * una vez por peticion.
+     * 
+     * @param from el origen de los mensajes
+     * @param messages los mensajes en formato paSOS, en orden
+     * @return una respuesta por mensaje, en el mismo orden
+     */
+    @Override
+    public List<CharSequence> processAlertMessages(String from, List<String> messages) {
+        logger.log(Level.INFO, "procesando {0} mensajes de {1}", new Object[] {
+                messages.size(), from
+        });
+
+        if (StringUtils.isBlank(from)) {
+            throw new IllegalArgumentException(
+                    "el origen de una alerta no puede ser nulo o cadena vacia");
+        }
+
+        long time = System.currentTimeMillis();
+        try {
+            List<AlertRaw> raws = new ArrayList<AlertRaw>(messages.size());
+            List<AlertRaw> saved = new ArrayList<AlertRaw>(messages.size());
+            Set<AlertRaw> retries = Collections
+                    .newSetFromMap(new IdentityHashMap<AlertRaw, Boolean>());
+            List<CharSequence> results = new ArrayList<CharSequence>(messages.size());
+            for (String message : messages) {
+                AlertRaw raw = newRaw(from, message);
+                String error = validate(raw);
+                raws.add(raw);
+                results.add(error != null ? error : response());
+                // los reintentos solo se responden
+                if (error != null || claim(raw)) {
+                    saved.add(raw);
+                } else {
+                    retries.add(raw);
+                }
             }
-            createAlert(AlertType.DEVICE, AlertPriority.IMPORTANT, "Alerta dispositivo", raw,
-                    from);
-            return null;
-        } else if (isTechnicalAlarm(message)) {
-            logger.log(Level.INFO, "Technical Alarm received");
-            if (!checkKey(message)) {
-                throw new RuntimeException("ERROR, 'access key' incorrecta.");
+
+            // Las tramas ya llegan agrupadas, se guardan juntas incluso si son erroneas
+            Map<AlertRaw, RuntimeException> failed = alertRawBatchWriter.writeAll(saved);
+            for (int i = 0; i < raws.size(); i++) {
+                AlertRaw raw = raws.get(i);
+                RuntimeException failure = failed.get(raw);
+                if (failure != null && raw.getFingerprint() != null) {
+                    if (AlertRawBatchWriter.isDuplicate(failure)) {
+                        duplicated();
+                        continue;
+                    }
+                    recentFrames.release(raw.getFingerprint());
+                }
+                if (failure != null) {
+                    results.set(i, NOT_SAVED);
+                } else if (!raw.isProcessed() && !retries.contains(raw)) {
+                    alertIngestQueue.submit(raw);
+                }
             }
-            createAlert(AlertType.TECHNICAL, AlertPriority.NORMAL, "Alerta tecnica", raw,
-                    from);
-            return null;
-        } else {
-            logger.log(Level.SEVERE, "ERROR: trama no soportada");
-            throw new RuntimeException("ERROR: trama no soporteda");
+            return results;
+        } finally {
+            long now = System.currentTimeMillis();
+            processTime().record(now, now - time);
         }
     }
 
-    private AlertRaw internalProcessRawAlert(String from, String message) {
+    private AlertRaw newRaw(String from, String message) {
         AlertRaw raw = new AlertRaw();
         raw.setOrigin(from);
         raw.setRawData(message);
         raw.setCreated(new Date());
-        alertRawFacade.create(raw);
         return raw;
     }
 
-    private static Pattern latPattern = Pattern.compile("&LT([-]?\\d+[.\\d]*)");
-    private static Pattern lngPattern = Pattern.compile("&LN([-]?\\d+[.\\d]*)");
-    private static Pattern causePattern = Pattern.compile("&XCU([^&#]+)");
-
     /**
-     * Crea una alerta con su alertRaw, persistentes en bbdd
+     * Parsea y valida la trama, y deja su estado inicial en el {@link AlertRaw}: procesada si no
+     * genera alerta, descartada si es erronea o pendiente.
      * 
-     * @param type
-     * @param priority
-     * @param cause
-     * @param raw
-     * @param mobileNumber
+     * @return el error de la trama, <code>null</code> si es correcta
      */
-    public void createAlert(AlertType type, AlertPriority priority, String cause, AlertRaw raw,
-            String mobileNumber) {
-        Device device = deviceFacade.findByMobile(mobileNumber);
-        if (device == null) {
-            logger.log(INFO, "el movil {0} no esta registrado, no se procesará la alarma",
-                    new Object[] {
-                        mobileNumber
-                    });
-            return;
-        } else {
-            logger.log(INFO, "registrando alerta en el movil {0}", new Object[] {
-                    device
-            });
+    private String validate(AlertRaw raw) {
+        String error = null;
+        frame.parse(raw.getRawData());
+        switch (frame.getType()) {
+        case EMPTY:
+            logger.log(Level.INFO, "empty message received");
+            raw.setState(PROCESSED);
+            break;
+        case ACK:
+            logger.log(Level.INFO, "ACK received");
+            if (!frame.matchesKey(key)) {
+                error = "ERROR, 'access key' incorrecta.";
+            } else if (!frame.matchesAck(id)) {
+                error = "ERROR, codigo de 'ACK' incorrecto.";
+            }
+            break;
+        case USER_ALARM:
+            logger.log(Level.INFO, "User Alarm received");
+            error = checkKey();
+            break;
+        case DEVICE_ALARM:
+            logger.log(Level.INFO, "Device Alarm received");
+            error = checkKey();
+            break;
+        case TECHNICAL_ALARM:
+            logger.log(Level.INFO, "Technical Alarm received");
+            error = checkKey();
+            break;
+        default:
+            logger.log(Level.SEVERE, "ERROR: trama no soportada");
+            error = "ERROR: trama no soporteda";
         }
 
-        Person person = device.getOwner().getData();
-        logger.log(INFO, "registrando alerta para la persona {0}", new Object[] {
-                person
-        });
+        // Se guarda el mensaje tal cual llega, incluso si es erroneo
+        if (error != null) {
+            raw.setState(DISCARDED);
+        }
+        return error;
+    }
 
-        Alert alert = new Alert();
-        alert.setAffected(person);
-        alert.setCause(cause);
-        alert.setOrigin(device);
-        alert.setPriority(priority);
-        alert.setType(type);
-        alert.setRaw(raw);
-
-        // Latitude & Longitude
-        Matcher match;
-        if ((match = latPattern.matcher(raw.getRawData())).find()) {
-            alert.setLatitude(Double.parseDouble(match.group(1)));
+    /**
+     * Asigna la huella a una trama correcta. El mensaje vacio no lleva huella, cada peticion de
+     * parametros se responde y se guarda.
+     * 
+     * @return falso si la trama es un reintento de otra recibida recientemente
+     */
+    private boolean claim(AlertRaw raw) {
+        if (!recentFrames.isEnabled() || frame.getType() == EMPTY) {
+            return true;
         }
-        if ((match = lngPattern.matcher(raw.getRawData())).find()) {
-            alert.setLongitude(Double.parseDouble(match.group(1)));
+        String fingerprint = recentFrames.claim(raw.getOrigin(), raw.getRawData(),
+                raw.getCreated().getTime());
+        if (fingerprint == null) {
+            logger.log(Level.INFO, "reintento de {0} ignorado: {1}", new Object[] {
+                    raw.getOrigin(), raw.getRawData()
+            });
+            duplicated();
+            return false;
+        }
+        raw.setFingerprint(fingerprint);
+        return true;
+    }
+
+    private void duplicated() {
+        if (duplicated == null) {
+            duplicated = statisticProcessor.counter("connector.duplicated");
         }
+        duplicated.increment(System.currentTimeMillis());
+    }
 
-        // Custom cause
-        if ((match = causePattern.matcher(raw.getRawData())).find()) {
-            alert.setCause(match.group(1));
+    /** Respuesta a la ultima trama validada, solo el mensaje vacio tiene respuesta. */
+    private CharSequence response() {
+        return frame.getType() == EMPTY ? parameters : null;
+    }
+
+    private StatisticHistogram processTime() {
+        if (processTime == null) {
+            processTime = statisticProcessor.histogram("alert.reciverProcessTime");
         }
+        return processTime;
+    }
 
-        // Save alert and assign raw
-        alertFacade.create(alert);
-        raw.setAlert(alert);
+    private String checkKey() {
+        return frame.matchesKey(key) ? null : "ERROR, 'access key' incorrecta.";
+    }
+
+    // Internal Test Usage
+    DeviceConnectorImpl(AlertRawBatchWriter alertRawBatchWriter,
+            AlertIngestQueue alertIngestQueue, StatisticProcessor statisticProcessor) {
+        this(alertRawBatchWriter, alertIngestQueue, statisticProcessor, new RecentFrames(0));
     }
 
     // Internal Test Usage
-    DeviceConnectorImpl(AlertFacade alertFacade, AlertRawFacade alertRawFacade,
-            DeviceFacade deviceFacade, StatisticProcessor statisticProcessor) {
-        this.alertFacade = alertFacade;
-        this.alertRawFacade = alertRawFacade;
-        this.deviceFacade = deviceFacade;
+    DeviceConnectorImpl(AlertRawBatchWriter alertRawBatchWriter,
+            AlertIngestQueue alertIngestQueue, StatisticProcessor statisticProcessor,
+            RecentFrames recentFrames) {
+        this.alertRawBatchWriter = alertRawBatchWriter;
+        this.alertIngestQueue = alertIngestQueue;
         this.statisticProcessor = statisticProcessor;
+        this.recentFrames = recentFrames;
     }
 }
@@ -0,0 +1,151 @@
+package org.inftel.tms.devices;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Descarta los datagramas repetidos de cada terminal. UDP puede duplicar datagramas y los
+ * terminales reenvian los que no se han confirmado, asi que el mismo datagrama puede llegar varias
+ * veces.
+ *
+ * Si el datagrama lleva numero de secuencia se recuerdan los ultimos {@link #WINDOW} numeros de
+ * cada terminal, como la ventana anti-repeticion de IPsec: se acepta un numero mayor que el ultimo
+ * o uno dentro de la ventana que no se haya visto. Un numero muy anterior a la ventana se toma
+ * como un reinicio del terminal y vuelve a empezar. Sin numero de secuencia solo se descarta un
+ * datagrama identico al ultimo del terminal.
+ *
+ * En ambos casos el estado de un terminal caduca si no se recibe nada suyo durante la ventana de
+ * tiempo, y solo se recuerdan los terminales mas recientes. Un datagrama aceptado que finalmente no
+ * se guarda se olvida con {@link #forget(String, long)}, para aceptar su reenvio. Los metodos
+ * estan sincronizados: acepta el hilo que recibe los datagramas y olvidan los que los procesan.
+ */
+public class DuplicateFilter {
+
+    /** Numeros de secuencia recordados por terminal, los bits de un long. */
+    static final int WINDOW = 64;
+
+    private final long windowMillis;
+
+    private final Map<String, State> states;
+
+    /** Estado de un terminal. */
+    private static final class State {
+        /** Mayor numero de secuencia recibido, o -1 si el terminal no usa secuencia. */
+        long highest = -1;
+        /** Bit i: se ha recibido <code>highest - i</code>. */
+        long seen;
+        /** Ultimo datagrama sin secuencia. */
+        String last;
+        long lastSeen;
+    }
+
+    /**
+     * @param maxOrigins terminales recordados como mucho, se olvidan los menos recientes
+     * @param windowMillis milisegundos sin recibir nada tras los que se olvida un terminal
+     */
+    public DuplicateFilter(final int maxOrigins, long windowMillis) {
+        this.windowMillis = windowMillis;
+        this.states = new LinkedHashMap<String, State>(1024, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, State> eldest) {
+                return size() > maxOrigins;
+            }
+        };
+    }
+
+    /**
+     * Decide si un datagrama con numero de secuencia es nuevo y lo recuerda.
+     *
+     * @param origin numero de movil del terminal
+     * @param sequence numero de secuencia del datagrama, no negativo
+     * @param now instante de recepcion en milisegundos
+     * @return falso si ya se habia recibido
+     */
+    public synchronized boolean accept(String origin, long sequence, long now) {
+        State state = state(origin, now);
+        if (state.highest < 0 || sequence > state.highest) {
+            long shift = sequence - state.highest;
+            state.seen = (state.highest < 0 || shift >= WINDOW) ? 1L : (state.seen << shift) | 1L;
+            state.highest = sequence;
+        } else {
+            long behind = state.highest - sequence;
+            if (behind >= WINDOW) {
+                // el terminal ha vuelto a empezar la secuencia
+                state.highest = sequence;
+                state.seen = 1L;
+            } else if ((state.seen & (1L << behind)) != 0) {
+                return false;
+            } else {
+                state.seen |= 1L << behind;
+            }
+        }
+        state.lastSeen = now;
+        return true;
+    }
+
+    /**
+     * Decide si un datagrama sin numero de secuencia es nuevo, comparandolo con el ultimo del
+     * terminal.
+     *
+     * @param origin numero de movil del terminal
+     * @param payload contenido del datagrama
+     * @param now instante de recepcion en milisegundos
+     * @return falso si es identico al ultimo recibido
+     */
+    public synchronized boolean accept(String origin, String payload, long now) {
+        State state = state(origin, now);
+        if (payload.equals(state.last)) {
+            return false;
+        }
+        state.last = payload;
+        state.lastSeen = now;
+        return true;
+    }
+
+    /**
+     * Olvida un numero de secuencia aceptado, el siguiente datagrama con ese numero sera nuevo.
+     *
+     * @param origin numero de movil del terminal
+     * @param sequence numero de secuencia aceptado por {@link #accept(String, long, long)}
+     */
+    public synchronized void forget(String origin, long sequence) {
+        State state = states.get(origin);
+        if (state == null || state.highest < 0) {
+            return;
+        }
+        long behind = state.highest - sequence;
+        if (behind >= 0 && behind < WINDOW) {
+            state.seen &= ~(1L << behind);
+        }
+    }
+
+    /**
+     * Olvida un datagrama sin numero de secuencia aceptado, si sigue siendo el ultimo del terminal.
+     *
+     * @param origin numero de movil del terminal
+     * @param payload contenido aceptado por {@link #accept(String, String, long)}
+     */
+    public synchronized void forget(String origin, String payload) {
+        State state = states.get(origin);
+        if (state != null && payload.equals(state.last)) {
+            state.last = null;
+        }
+    }
+
+    /** Terminales recordados. */
+    public synchronized int size() {
+        return states.size();
+    }
+
+    private State state(String origin, long now) {
+        State state = states.get(origin);
+        if (state == null || now - state.lastSeen > windowMillis) {
+            state = new State();
+            states.put(origin, state);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,349 @@
+package org.inftel.tms.devices;
+
+/**
+ * Vista tipada de una trama paSOS. Recorre la trama una unica vez y guarda los campos que usa el
+ * conector (tipo, clave de acceso, identificador de ACK, posicion, causa, temperatura y bateria)
+ * sin usar expresiones regulares ni crear objetos intermedios.
+ *
+ * Una misma instancia puede reutilizarse llamando a {@link #parse(String)} con cada nueva trama,
+ * pero no es segura para el uso concurrente. Los valores de texto (por ejemplo la causa) solo se
+ * materializan cuando se piden.
+ *
+ * Formato de ejemplo: <code>*$AU11&RK123456&LD20120127&LH104737&LN1008052067&LT153052067#</code>
+ */
+public final class PasosFrame {
+
+    /** Tipos de trama reconocidos por el conector. */
+    public static enum Type {
+        /** Mensaje vacio, el dispositivo solicita los parametros remotos. */
+        EMPTY,
+        /** Status Report (SR0) con identificador de ACK (KO). */
+        ACK,
+        /** Alarma de usuario (AU). */
+        USER_ALARM,
+        /** Alarma de dispositivo (AD). */
+        DEVICE_ALARM,
+        /** Alarma tecnica (AT). */
+        TECHNICAL_ALARM,
+        /** Trama no soportada. */
+        UNKNOWN
+    }
+
+    /** Valor devuelto por los campos enteros cuando no estan presentes en la trama. */
+    public static final int MISSING = -1;
+
+    private static final int KEY_DIGITS = 6;
+
+    private static final int ACK_DIGITS = 4;
+
+    /** Potencias de 10 exactamente representables como double. */
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1d;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10d;
+        }
+    }
+
+    private String source;
+    private Type type;
+    private int key;
+    private int keyStart;
+    private int ackId;
+    private int ackStart;
+    private boolean hasLatitude;
+    private double latitude;
+    private boolean hasLongitude;
+    private double longitude;
+    private int causeStart;
+    private int causeEnd;
+    private int temperature;
+    private int battery;
+
+    /** Crea una vista vacia, debe llamarse a {@link #parse(String)} antes de consultarla. */
+    public PasosFrame() {
+        reset(null);
+    }
+
+    /**
+     * Crea una nueva vista a partir de la trama pasada.
+     *
+     * @param message trama paSOS, puede ser nula o vacia
+     * @return la trama parseada
+     */
+    public static PasosFrame of(String message) {
+        return new PasosFrame().parse(message);
+    }
+
+    /**
+     * Analiza la trama pasada sobrescribiendo el estado previo de esta instancia.
+     *
+     * @param message trama paSOS, puede ser nula o vacia
+     * @return esta misma instancia, para encadenar llamadas
+     */
+    public PasosFrame parse(String message) {
+        reset(message);
+        if (message == null || message.length() == 0) {
+            type = Type.EMPTY;
+            return this;
+        }
+
+        final int length = message.length();
+        boolean statusReport = false;
+        if (length >= 4 && message.charAt(0) == '*' && message.charAt(1) == '$') {
+            char c2 = message.charAt(2), c3 = message.charAt(3);
+            if (c2 == 'A' && c3 == 'U') {
+                type = Type.USER_ALARM;
+            } else if (c2 == 'A' && c3 == 'D') {
+                type = Type.DEVICE_ALARM;
+            } else if (c2 == 'A' && c3 == 'T') {
+                type = Type.TECHNICAL_ALARM;
+            } else if (c2 == 'S' && c3 == 'R' && length >= 5 && message.charAt(4) == '0') {
+                statusReport = true;
+            }
+        }
+
+        // Unica pasada por los campos, cada campo empieza por '&' seguido de su etiqueta
+        int i = message.indexOf('&');
+        while (i >= 0 && i + 2 < length) {
+            char t0 = message.charAt(i + 1), t1 = message.charAt(i + 2);
+            int value = i + 3;
+            if (t0 == 'R' && t1 == 'K') {
+                if (keyStart < 0 && digitsAt(message, value, KEY_DIGITS)) {
+                    keyStart = i;
+                    key = (int) readLong(message, value, value + KEY_DIGITS);
+                }
+            } else if (t0 == 'K' && t1 == 'O') {
+                if (ackStart < 0 && digitsAt(message, value, ACK_DIGITS)) {
+                    ackStart = i;
+                    ackId = (int) readLong(message, value, value + ACK_DIGITS);
+                }
+            } else if (t0 == 'L' && t1 == 'T') {
+                if (!hasLatitude) {
+                    hasLatitude = parseCoordinate(message, value, true);
+                }
+            } else if (t0 == 'L' && t1 == 'N') {
+                if (!hasLongitude) {
+                    hasLongitude = parseCoordinate(message, value, false);
+                }
+            } else if (t0 == 'D' && t1 == 'T') {
+                if (temperature == MISSING) {
+                    temperature = readInt(message, value);
+                }
+            } else if (t0 == 'P' && t1 == 'B') {
+                if (battery == MISSING) {
+                    battery = readInt(message, value);
+                }
+            } else if (t0 == 'X' && t1 == 'C' && value < length && message.charAt(value) == 'U') {
+                if (causeStart < 0) {
+                    int start = value + 1, end = start;
+                    while (end < length && message.charAt(end) != '&' && message.charAt(end) != '#') {
+                        end++;
+                    }
+                    if (end > start) {
+                        causeStart = start;
+                        causeEnd = end;
+                    }
+                }
+            }
+            i = message.indexOf('&', i + 1);
+        }
+
+        if (statusReport && ackStart >= 0) {
+            type = Type.ACK;
+        }
+        return this;
+    }
+
+    private void reset(String message) {
+        source = message;
+        type = Type.UNKNOWN;
+        key = MISSING;
+        keyStart = -1;
+        ackId = MISSING;
+        ackStart = -1;
+        hasLatitude = false;
+        latitude = 0d;
+        hasLongitude = false;
+        longitude = 0d;
+        causeStart = -1;
+        causeEnd = -1;
+        temperature = MISSING;
+        battery = MISSING;
+    }
+
+    /**
+     * Parsea una coordenada con el formato <code>[-]digitos[.digitos]</code> a partir de
+     * <code>start</code>. Devuelve falso si no hay ningun digito.
+     */
+    private boolean parseCoordinate(String s, int start, boolean isLatitude) {
+        final int length = s.length();
+        int i = start;
+        boolean negative = false;
+        if (i < length && s.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+        int digitsStart = i;
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean dot = false;
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (dot) {
+                    decimals++;
+                }
+            } else if (c == '.' && !dot && i > digitsStart) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        double value;
+        if (digits <= 15 && decimals < POW10.length) {
+            // mantisa exacta y potencia exacta, la division da el resultado correctamente redondeado
+            value = mantissa / POW10[decimals];
+        } else {
+            // caso raro, se delega en el parser estandar
+            value = Double.parseDouble(s.substring(digitsStart, i));
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (isLatitude) {
+            latitude = value;
+        } else {
+            longitude = value;
+        }
+        return true;
+    }
+
+    private static boolean digitsAt(String s, int start, int count) {
+        if (start + count > s.length()) {
+            return false;
+        }
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long readLong(String s, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static int readInt(String s, int start) {
+        int end = start;
+        while (end < s.length() && end - start < 9 && s.charAt(end) >= '0' && s.charAt(end) <= '9') {
+            end++;
+        }
+        return (end == start) ? MISSING : (int) readLong(s, start, end);
+    }
+
+    /** Trama original analizada. */
+    public String getSource() {
+        return source;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** @return la clave de acceso (&RK) o {@link #MISSING} si no esta presente */
+    public int getKey() {
+        return key;
+    }
+
+    public boolean hasKey() {
+        return keyStart >= 0;
+    }
+
+    /**
+     * Compara la clave de la trama con la esperada sin crear cadenas intermedias.
+     *
+     * @param expected clave incluyendo la etiqueta, por ejemplo <code>&RK123456</code>
+     */
+    public boolean matchesKey(String expected) {
+        return keyStart >= 0 && expected.length() == KEY_DIGITS + 3
+                && source.regionMatches(keyStart, expected, 0, expected.length());
+    }
+
+    /** @return el identificador de ACK (&KO) o {@link #MISSING} si no esta presente */
+    public int getAckId() {
+        return ackId;
+    }
+
+    /**
+     * Compara el identificador de ACK de la trama con el esperado.
+     *
+     * @param expected identificador incluyendo la etiqueta, por ejemplo <code>&KO1000</code>
+     */
+    public boolean matchesAck(String expected) {
+        return ackStart >= 0 && expected.length() == ACK_DIGITS + 3
+                && source.regionMatches(ackStart, expected, 0, expected.length());
+    }
+
+    public boolean hasLatitude() {
+        return hasLatitude;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public boolean hasLongitude() {
+        return hasLongitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public boolean hasCause() {
+        return causeStart >= 0;
+    }
+
+    /** @return la causa personalizada (&XCU) o <code>null</code> si no esta presente */
+    public String getCause() {
+        return (causeStart >= 0) ? source.substring(causeStart, causeEnd) : null;
+    }
+
+    /**
+     * Si la trama es una posicion de seguimiento: causa <code>track</code> con latitud y longitud.
+     * Las alarmas de usuario nunca lo son.
+     */
+    public boolean isTrack() {
+        return type != Type.USER_ALARM && causeStart >= 0
+                && source.startsWith("track", causeStart) && hasLatitude && hasLongitude;
+    }
+
+    /** @return la temperatura (&DT) o {@link #MISSING} si no esta presente */
+    public int getTemperature() {
+        return temperature;
+    }
+
+    /** @return el nivel de bateria (&PB) o {@link #MISSING} si no esta presente */
+    public int getBattery() {
+        return battery;
+    }
+
+    @Override
+    public String toString() {
+        return "PasosFrame[type=" + type + ", key=" + key + ", ack=" + ackId + "]";
+    }
+}
@@ -0,0 +1,64 @@
+package org.inftel.tms.devices;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Separa las tramas paSOS de un flujo TCP. Cada trama empieza por <code>*$</code> y termina en
+ * <code>#</code>; los bytes entre tramas (saltos de linea, ruido) se ignoran. Una trama puede
+ * llegar repartida en varias lecturas, por lo que el decodificador guarda la parte recibida hasta
+ * que llega el final.
+ *
+ * Si aparece un <code>*</code> dentro de una trama, la trama anterior estaba cortada y se descarta
+ * para sincronizarse con la nueva. Las tramas mas largas que el maximo tambien se descartan. Hay
+ * un decodificador por conexion y no es seguro para el uso concurrente.
+ */
+public class PasosFrameDecoder {
+
+    private final int maxLength;
+
+    /** Trama en curso, <code>null</code> si se esta entre tramas. */
+    private StringBuilder current;
+
+    private long discarded;
+
+    /**
+     * @param maxLength longitud maxima de una trama, incluidos los delimitadores
+     */
+    public PasosFrameDecoder(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Consume todos los bytes disponibles en el buffer y añade las tramas completas.
+     *
+     * @param in bytes leidos, en modo lectura; queda vacio al terminar
+     * @param frames donde se añaden las tramas completas, con sus delimitadores
+     */
+    public void decode(ByteBuffer in, List<String> frames) {
+        while (in.hasRemaining()) {
+            char c = (char) (in.get() & 0xff);
+            if (c == '*') {
+                if (current != null) {
+                    discarded++;
+                }
+                current = new StringBuilder(64);
+                current.append(c);
+            } else if (current != null) {
+                current.append(c);
+                if (c == '#') {
+                    frames.add(current.toString());
+                    current = null;
+                } else if (current.length() >= maxLength) {
+                    discarded++;
+                    current = null;
+                }
+            }
+        }
+    }
+
+    /** Tramas cortadas o demasiado largas descartadas desde que se creo el decodificador. */
+    public long getDiscarded() {
+        return discarded;
+    }
+}
@@ -0,0 +1,531 @@
+package org.inftel.tms.devices;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * Recibe tramas paSOS por TCP, el transporte que anuncian los parametros remotos (
+ * <code>&RT2:TCP</code>), ademas de por HTTP. Los terminales mantienen la conexion abierta y
+ * envian las tramas seguidas, separadas por sus delimitadores <code>*$ ... #</code> (
+ * {@link PasosFrameDecoder}), sin cabeceras HTTP ni una conexion nueva por trama.
+ *
+ * Como TCP no lleva la cabecera <code>sender-mobile-number</code> que añade la pasarela HTTP, la
+ * primera trama de cada conexion identifica al terminal: <code>*$ID617001100#</code>. El mensaje
+ * vacio de peticion de parametros es <code>*$#</code>. Cada trama recibe una linea de respuesta,
+ * en orden: la respuesta paSOS, una linea vacia si no tiene respuesta, o el error. Las respuestas
+ * se envian en ASCII y sin saltos de linea internos, para que cada una ocupe exactamente una linea;
+ * los errores inesperados se responden con {@link DeviceConnectorImpl#NOT_SAVED} y se registran.
+ *
+ * Un unico hilo atiende todas las conexiones con un {@link Selector} y lee en un buffer directo de
+ * la {@link BufferPool}. Las tramas se procesan con {@link DeviceConnector} en un grupo de hilos
+ * acotado, en orden y de una en una por conexion; si se acumulan varias tramas de una conexion se
+ * procesan juntas con {@link DeviceConnector#processAlertMessages(String, List)}. Si una conexion
+ * tiene demasiadas tramas pendientes se deja de leer de ella hasta que se procesan, y si el grupo
+ * de hilos esta saturado se responde a las tramas con {@link #BUSY}.
+ *
+ * Se configura con <code>tms.connector.tcpPort</code> (0 lo desactiva),
+ * <code>tms.connector.tcpWorkers</code>, <code>tms.connector.tcpQueue</code> y
+ * <code>tms.connector.tcpIdleTimeout</code> (milisegundos sin recibir nada antes de cerrar la
+ * conexion).
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(BEAN)
+public class PasosTcpListener {
+
+    private static final Logger logger = Logger.getLogger(PasosTcpListener.class.getName());
+
+    static final int PORT = Integer.getInteger("tms.connector.tcpPort", 9090);
+
+    static final int WORKERS = Integer.getInteger("tms.connector.tcpWorkers", 16);
+
+    static final int QUEUE = Integer.getInteger("tms.connector.tcpQueue", 1000);
+
+    static final long IDLE_TIMEOUT = Long.getLong("tms.connector.tcpIdleTimeout", 600000L);
+
+    /** Longitud maxima de una trama. */
+    static final int MAX_FRAME = 1024;
+
+    /** Tramas pendientes de una conexion a partir de las que se deja de leer de ella. */
+    static final int MAX_PENDING = 500;
+
+    /** Prefijo de la trama de identificacion, seguido del numero de movil. */
+    static final String IDENTIFY = "*$ID";
+
+    /** Mensaje vacio, peticion de parametros remotos. */
+    static final String EMPTY = "*$#";
+
+    static final String BUSY = "ERROR: servidor ocupado, reintentar";
+
+    static final String NOT_IDENTIFIED = "ERROR: terminal no identificado";
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @EJB
+    private DeviceConnector deviceConnector;
+
+    private final BufferPool buffers = new BufferPool(4096, 256);
+
+    /** Conexiones cuyo interes en el selector debe recalcularse desde el hilo del selector. */
+    private final Queue<Connection> updates = new ConcurrentLinkedQueue<Connection>();
+
+    private Selector selector;
+
+    private ServerSocketChannel server;
+
+    private ThreadPoolExecutor executor;
+
+    private Thread thread;
+
+    private volatile boolean running;
+
+    public PasosTcpListener() {
+    }
+
+    @PostConstruct
+    void start() {
+        if (PORT <= 0) {
+            logger.log(INFO, "listener TCP paSOS desactivado");
+            return;
+        }
+        try {
+            open(PORT);
+        } catch (IOException e) {
+            logger.log(SEVERE, "no se pudo abrir el listener TCP paSOS en el puerto " + PORT, e);
+        }
+    }
+
+    private void open(int port) throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE), new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread worker = new Thread(runnable, "tms-tcp-worker-"
+                                + count.incrementAndGet());
+                        worker.setDaemon(true);
+                        return worker;
+                    }
+                });
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.socket().setReuseAddress(true);
+        server.socket().bind(new InetSocketAddress(port));
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "tms-tcp-selector");
+        thread.setDaemon(true);
+        thread.start();
+        logger.log(INFO, "listener TCP paSOS en el puerto " + getLocalPort());
+    }
+
+    @PreDestroy
+    void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdown();
+    }
+
+    /** Puerto en el que escucha, util cuando se abre en un puerto libre cualquiera. */
+    int getLocalPort() {
+        return server.socket().getLocalPort();
+    }
+
+    private void loop() {
+        ByteBuffer input = buffers.acquire();
+        long lastIdleCheck = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(1000);
+                for (Connection connection; (connection = updates.poll()) != null;) {
+                    connection.updateInterest();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read(input);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                        connection.updateInterest();
+                    } catch (IOException e) {
+                        logger.log(FINE, "conexion cerrada por error", e);
+                        connection.close();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= 1000) {
+                    closeIdle(now);
+                    lastIdleCheck = now;
+                }
+            }
+        } catch (IOException e) {
+            logger.log(SEVERE, "el listener TCP paSOS ha fallado", e);
+        } finally {
+            buffers.release(input);
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                logger.log(WARNING, "error cerrando el listener TCP paSOS", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setKeepAlive(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+        logger.log(FINE, "conexion TCP desde {0}", channel.socket().getRemoteSocketAddress());
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                Connection connection = (Connection) key.attachment();
+                if (now - connection.lastActivity > IDLE_TIMEOUT && connection.isIdle()) {
+                    logger.log(FINE, "cerrando conexion inactiva de {0}", connection.origin);
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Conexion de un terminal. La lectura, la decodificacion y el interes en el selector solo los
+     * maneja el hilo del selector; el proceso de las tramas, de una en una, un hilo del grupo. Las
+     * respuestas las escribe directamente el hilo que procesa y, si el socket no admite mas, el
+     * hilo del selector cuando vuelve a estar disponible.
+     */
+    private final class Connection implements Runnable {
+
+        private final SocketChannel channel;
+
+        private final SelectionKey key;
+
+        private final PasosFrameDecoder decoder = new PasosFrameDecoder(MAX_FRAME);
+
+        private final List<String> decoded = new ArrayList<String>();
+
+        /** Tramas recibidas pendientes de procesar, protegidas por el monitor de la conexion. */
+        private final Queue<String> pending = new ArrayDeque<String>();
+
+        /** Si hay un hilo del grupo procesando la conexion. */
+        private boolean scheduled;
+
+        /** Respuestas pendientes de escribir, protegidas por su propio monitor. */
+        private final Queue<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+
+        /** Numero de movil del terminal, solo lo usa el hilo que procesa. */
+        private String origin;
+
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read(ByteBuffer input) throws IOException {
+            input.clear();
+            int read = channel.read(input);
+            if (read < 0) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            input.flip();
+            decoder.decode(input, decoded);
+            if (!decoded.isEmpty()) {
+                enqueue(decoded);
+                decoded.clear();
+            }
+        }
+
+        private synchronized void enqueue(List<String> frames) {
+            pending.addAll(frames);
+            if (scheduled) {
+                return;
+            }
+            try {
+                executor.execute(this);
+                scheduled = true;
+            } catch (RejectedExecutionException e) {
+                // no hay nada en proceso, las respuestas siguen en orden
+                List<String> replies = new ArrayList<String>(pending.size());
+                for (int i = pending.size(); i > 0; i--) {
+                    replies.add(BUSY);
+                }
+                pending.clear();
+                send(replies);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                List<String> frames;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                    frames = new ArrayList<String>(pending);
+                    pending.clear();
+                }
+                // si se habia dejado de leer por exceso de tramas, se vuelve a leer
+                requestUpdate();
+                send(process(frames));
+            }
+        }
+
+        /** Procesa las tramas en orden, agrupando las seguidas del mismo terminal. */
+        private List<String> process(List<String> frames) {
+            List<String> replies = new ArrayList<String>(frames.size());
+            List<String> messages = new ArrayList<String>();
+            for (String frame : frames) {
+                if (frame.startsWith(IDENTIFY)) {
+                    dispatch(messages, replies);
+                    origin = frame.substring(IDENTIFY.length(), frame.length() - 1);
+                    replies.add("");
+                } else if (origin == null) {
+                    dispatch(messages, replies);
+                    replies.add(NOT_IDENTIFIED);
+                } else {
+                    messages.add(EMPTY.equals(frame) ? "" : frame);
+                }
+            }
+            dispatch(messages, replies);
+            return replies;
+        }
+
+        /** Entrega al conector las tramas acumuladas del terminal actual. */
+        private void dispatch(List<String> messages, List<String> replies) {
+            if (messages.isEmpty()) {
+                return;
+            }
+            if (messages.size() == 1) {
+                try {
+                    replies.add(reply(deviceConnector.processAlertMessage(origin, messages.get(0))));
+                } catch (EJBException e) {
+                    replies.add(error(e.getCausedByException() != null ? e.getCausedByException()
+                            : e));
+                } catch (RuntimeException e) {
+                    replies.add(error(e));
+                }
+            } else {
+                try {
+                    for (CharSequence result : deviceConnector.processAlertMessages(origin,
+                            messages)) {
+                        replies.add(reply(result));
+                    }
+                } catch (RuntimeException e) {
+                    // solo falla entero si no se ha podido procesar ninguna trama
+                    for (int i = messages.size(); i > 0; i--) {
+                        replies.add(error(e));
+                    }
+                }
+            }
+            messages.clear();
+        }
+
+        /** Escribe las respuestas, una por linea, en buffers de la reserva. */
+        private void send(List<String> replies) {
+            if (closed) {
+                return;
+            }
+            List<ByteBuffer> encoded = new ArrayList<ByteBuffer>();
+            ByteBuffer buffer = buffers.acquire();
+            for (String reply : replies) {
+                // los caracteres que no son ASCII se sustituyen por '?'
+                byte[] bytes = reply.getBytes(ASCII);
+                for (int i = 0, length = bytes.length; i <= length; i++) {
+                    if (!buffer.hasRemaining()) {
+                        buffer.flip();
+                        encoded.add(buffer);
+                        buffer = buffers.acquire();
+                    }
+                    buffer.put(i < length ? bytes[i] : (byte) '\n');
+                }
+            }
+            buffer.flip();
+            encoded.add(buffer);
+            boolean blocked;
+            synchronized (output) {
+                output.addAll(encoded);
+                try {
+                    blocked = !flush();
+                } catch (IOException e) {
+                    logger.log(FINE, "no se pudo responder a " + origin, e);
+                    blocked = false;
+                }
+            }
+            if (blocked) {
+                requestUpdate();
+            }
+        }
+
+        /** Escribe lo pendiente hasta que el socket no admite mas. Con el monitor de output. */
+        private boolean flush() throws IOException {
+            while (!output.isEmpty()) {
+                ByteBuffer buffer = output.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return false;
+                }
+                buffers.release(output.poll());
+            }
+            return true;
+        }
+
+        void write() throws IOException {
+            synchronized (output) {
+                flush();
+            }
+        }
+
+        /** Recalcula el interes en el selector, solo desde el hilo del selector. */
+        void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            synchronized (this) {
+                if (pending.size() < MAX_PENDING) {
+                    ops |= SelectionKey.OP_READ;
+                }
+            }
+            synchronized (output) {
+                if (!output.isEmpty()) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+            }
+            key.interestOps(ops);
+        }
+
+        private void requestUpdate() {
+            updates.offer(this);
+            selector.wakeup();
+        }
+
+        synchronized boolean isIdle() {
+            return !scheduled && pending.isEmpty();
+        }
+
+        void close() {
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(FINE, "error cerrando la conexion", e);
+            }
+            synchronized (output) {
+                for (ByteBuffer buffer; (buffer = output.poll()) != null;) {
+                    buffers.release(buffer);
+                }
+            }
+        }
+    }
+
+    private static String reply(CharSequence response) {
+        return response == null ? "" : singleLine(response.toString());
+    }
+
+    /**
+     * Los errores de validacion del conector ya son una respuesta para el terminal, el resto se
+     * registran y se responden con {@link DeviceConnectorImpl#NOT_SAVED}.
+     */
+    private static String error(Throwable e) {
+        String message = e.getMessage();
+        if (message != null && message.startsWith("ERROR")) {
+            return singleLine(message);
+        }
+        logger.log(WARNING, "no se pudo procesar la trama TCP", e);
+        return DeviceConnectorImpl.NOT_SAVED;
+    }
+
+    private static String singleLine(String reply) {
+        return reply.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    // Internal Test Usage
+    PasosTcpListener(DeviceConnector deviceConnector, int port) throws IOException {
+        this.deviceConnector = deviceConnector;
+        open(port); // Imitate PostConstruct
+    }
+}
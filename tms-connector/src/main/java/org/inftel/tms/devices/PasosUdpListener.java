@@ -0,0 +1,480 @@
+package org.inftel.tms.devices;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import org.inftel.tms.statistics.StatisticCounter;
+import org.inftel.tms.statistics.StatisticProcessor;
+
+/**
+ * Recibe posiciones de seguimiento por UDP, para los terminales de bajo consumo que no necesitan
+ * confirmar cada posicion y no pueden permitirse una peticion HTTP por trama. Solo admite tramas
+ * de seguimiento (causa <code>track</code>, ver {@link PasosFrame#isTrack()}); las alarmas deben
+ * enviarse por HTTP o TCP, donde tienen respuesta.
+ *
+ * Cada datagrama empieza por una cabecera que identifica al terminal, como en
+ * {@link PasosTcpListener}, seguida de una o varias tramas:
+ * <code>*$ID617001100&SQ42&AK1#*$AT2&RK123456&XCUtrack&LT36.72&LN-4.42#...</code>. El numero de
+ * secuencia (<code>&SQ</code>) es opcional y sirve para descartar los datagramas repetidos (
+ * {@link DuplicateFilter}). Con <code>&AK1</code> el terminal pide confirmacion: se le envian
+ * agrupadas, como mucho cada <code>tms.connector.udpAckInterval</code> milisegundos, en un
+ * datagrama <code>*$AK&SQ41&SQ42#</code> con las secuencias guardadas o repetidas. Una secuencia
+ * solo se confirma despues de guardar todas sus tramas; si no se pueden guardar no se confirma y se
+ * olvida, para procesar el reenvio del terminal. Un repetido que llega mientras se procesa el
+ * original tampoco se confirma, lo hara el original si se guarda.
+ *
+ * Las tramas sin la clave de acceso (<code>&RK</code>) correcta o que no son de seguimiento se
+ * descartan antes de llegar al conector, y si alguna lo es se descarta el datagrama entero sin
+ * confirmarlo. Los datagramas validos se entregan a
+ * {@link DeviceConnector#processAlertMessages(String, List)} en un grupo de hilos acotado, el mismo
+ * camino que las peticiones HTTP con varias tramas. Si el grupo esta saturado el datagrama se
+ * descarta sin confirmar, para que el terminal lo reenvie.
+ *
+ * Se configura con <code>tms.connector.udpPort</code> (0 lo desactiva),
+ * <code>tms.connector.udpWorkers</code>, <code>tms.connector.udpQueue</code>,
+ * <code>tms.connector.udpDuplicateWindow</code> (milisegundos que se recuerda un terminal) y
+ * <code>tms.connector.udpAckInterval</code>.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(BEAN)
+public class PasosUdpListener {
+
+    private static final Logger logger = Logger.getLogger(PasosUdpListener.class.getName());
+
+    static final int PORT = Integer.getInteger("tms.connector.udpPort", 9091);
+
+    static final int WORKERS = Integer.getInteger("tms.connector.udpWorkers", 4);
+
+    static final int QUEUE = Integer.getInteger("tms.connector.udpQueue", 1000);
+
+    static final long DUPLICATE_WINDOW = Long.getLong("tms.connector.udpDuplicateWindow", 300000L);
+
+    static final long ACK_INTERVAL = Long.getLong("tms.connector.udpAckInterval", 1000L);
+
+    /** Terminales recordados para descartar repetidos. */
+    static final int MAX_ORIGINS = 100000;
+
+    /** Tamaño maximo de un datagrama, los mayores llegan truncados y se descartan. */
+    static final int MAX_DATAGRAM = 8192;
+
+    /** Secuencias por datagrama de confirmacion. */
+    static final int MAX_ACKS = 32;
+
+    static final String ACK = "*$AK";
+
+    private static final String SEQUENCE = "&SQ";
+
+    private static final String ACK_REQUEST = "&AK1";
+
+    @EJB
+    private DeviceConnector deviceConnector;
+
+    @EJB
+    private StatisticProcessor statisticProcessor;
+
+    private final DuplicateFilter duplicates = new DuplicateFilter(MAX_ORIGINS, DUPLICATE_WINDOW);
+
+    /** Confirmaciones pendientes, las añaden los hilos que guardan y las envia el que recibe. */
+    private final Queue<Ack> acks = new ConcurrentLinkedQueue<Ack>();
+
+    /** Secuencias aceptadas que aun se estan guardando, como <code>origen&SQsecuencia</code>. */
+    private final Set<String> inFlight = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Vista de la trama que se valida, solo la usa el hilo que recibe. */
+    private final PasosFrame frame = new PasosFrame();
+
+    private final List<String> frames = new ArrayList<String>();
+
+    private StatisticCounter received;
+
+    private StatisticCounter duplicated;
+
+    private StatisticCounter rejected;
+
+    private StatisticCounter dropped;
+
+    private Selector selector;
+
+    private DatagramChannel channel;
+
+    private ThreadPoolExecutor executor;
+
+    private Thread thread;
+
+    private volatile boolean running;
+
+    public PasosUdpListener() {
+    }
+
+    @PostConstruct
+    void start() {
+        if (PORT <= 0) {
+            logger.log(INFO, "listener UDP paSOS desactivado");
+            return;
+        }
+        try {
+            open(PORT);
+        } catch (IOException e) {
+            logger.log(SEVERE, "no se pudo abrir el listener UDP paSOS en el puerto " + PORT, e);
+        }
+    }
+
+    private void open(int port) throws IOException {
+        received = statisticProcessor.counter("connector.udp.received");
+        duplicated = statisticProcessor.counter("connector.udp.duplicated");
+        rejected = statisticProcessor.counter("connector.udp.rejected");
+        dropped = statisticProcessor.counter("connector.udp.dropped");
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE), new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread worker = new Thread(runnable, "tms-udp-worker-"
+                                + count.incrementAndGet());
+                        worker.setDaemon(true);
+                        return worker;
+                    }
+                });
+        selector = Selector.open();
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setReceiveBufferSize(1 << 20);
+        channel.socket().bind(new InetSocketAddress(port));
+        channel.register(selector, SelectionKey.OP_READ);
+        running = true;
+        thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "tms-udp-receiver");
+        thread.setDaemon(true);
+        thread.start();
+        logger.log(INFO, "listener UDP paSOS en el puerto " + getLocalPort());
+    }
+
+    @PreDestroy
+    void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdown();
+    }
+
+    /** Puerto en el que escucha, util cuando se abre en un puerto libre cualquiera. */
+    int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    private void loop() {
+        ByteBuffer input = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        ByteBuffer output = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        long lastAck = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(ACK_INTERVAL);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                    // se vacia el socket antes de volver a esperar
+                    for (SocketAddress sender; (sender = receive(input)) != null;) {
+                        input.flip();
+                        handle(sender, input);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastAck >= ACK_INTERVAL) {
+                    sendAcks(output);
+                    lastAck = now;
+                }
+            }
+        } catch (IOException e) {
+            logger.log(SEVERE, "el listener UDP paSOS ha fallado", e);
+        } finally {
+            try {
+                channel.close();
+                selector.close();
+            } catch (IOException e) {
+                logger.log(WARNING, "error cerrando el listener UDP paSOS", e);
+            }
+        }
+    }
+
+    private SocketAddress receive(ByteBuffer input) throws IOException {
+        input.clear();
+        return channel.receive(input);
+    }
+
+    /** Valida un datagrama y, si es nuevo, lo entrega al conector. */
+    private void handle(SocketAddress sender, ByteBuffer input) {
+        long now = System.currentTimeMillis();
+        received.increment(now);
+        if (input.limit() == MAX_DATAGRAM) {
+            logger.log(FINE, "datagrama truncado de {0}", sender);
+            rejected.increment(now);
+            return;
+        }
+        frames.clear();
+        new PasosFrameDecoder(MAX_DATAGRAM).decode(input, frames);
+        if (frames.size() < 2 || !frames.get(0).startsWith(PasosTcpListener.IDENTIFY)) {
+            logger.log(FINE, "datagrama sin identificar de {0}", sender);
+            rejected.increment(now);
+            return;
+        }
+        String header = frames.get(0);
+        String origin = field(header, PasosTcpListener.IDENTIFY);
+        String sequence = field(header, SEQUENCE);
+        if (origin == null || origin.length() == 0) {
+            rejected.increment(now);
+            return;
+        }
+        final List<String> messages = new ArrayList<String>(frames.subList(1, frames.size()));
+        for (String message : messages) {
+            frame.parse(message);
+            if (!frame.isTrack() || !frame.matchesKey(DeviceConnectorImpl.key)) {
+                logger.log(FINE, "trama no admitida por UDP de {0}: {1}", new Object[] {
+                        origin, message
+                });
+                rejected.increment(now);
+                return;
+            }
+        }
+
+        // con el grupo saturado no se recuerda el datagrama, el terminal puede reenviarlo
+        if (executor.getQueue().remainingCapacity() == 0) {
+            dropped.increment(now);
+            return;
+        }
+        long number = -1;
+        String content = null;
+        boolean fresh;
+        if (sequence != null) {
+            try {
+                number = Long.parseLong(sequence);
+            } catch (NumberFormatException e) {
+                rejected.increment(now);
+                return;
+            }
+            fresh = duplicates.accept(origin, number, now);
+        } else {
+            StringBuilder payload = new StringBuilder();
+            for (String message : messages) {
+                payload.append(message);
+            }
+            content = payload.toString();
+            fresh = duplicates.accept(origin, content, now);
+        }
+        boolean ack = number >= 0 && header.contains(ACK_REQUEST);
+        String key = origin + SEQUENCE + number;
+        if (!fresh) {
+            duplicated.increment(now);
+            // se confirma si ya esta guardado, la confirmacion anterior pudo perderse
+            if (ack && !inFlight.contains(key)) {
+                acks.add(new Ack(sender, number));
+            }
+            return;
+        }
+        Delivery delivery = new Delivery(sender, origin, messages, number, content, ack);
+        if (number >= 0) {
+            inFlight.add(key);
+        }
+        try {
+            executor.execute(delivery);
+        } catch (RejectedExecutionException e) {
+            delivery.failed();
+            dropped.increment(now);
+        }
+    }
+
+    /** Entrega de un datagrama aceptado al conector, en un hilo del grupo. */
+    private final class Delivery implements Runnable {
+        final SocketAddress sender;
+        final String origin;
+        final List<String> messages;
+        /** Numero de secuencia, o -1 si no tiene. */
+        final long sequence;
+        /** Contenido del datagrama si no tiene numero de secuencia. */
+        final String content;
+        final boolean ack;
+
+        Delivery(SocketAddress sender, String origin, List<String> messages, long sequence,
+                String content, boolean ack) {
+            this.sender = sender;
+            this.origin = origin;
+            this.messages = messages;
+            this.sequence = sequence;
+            this.content = content;
+            this.ack = ack;
+        }
+
+        @Override
+        public void run() {
+            if (!dispatch(origin, messages)) {
+                failed();
+                return;
+            }
+            if (ack) {
+                acks.add(new Ack(sender, sequence));
+            }
+            if (sequence >= 0) {
+                inFlight.remove(origin + SEQUENCE + sequence);
+            }
+        }
+
+        /** Olvida el datagrama para que su reenvio vuelva a procesarse. */
+        void failed() {
+            if (sequence >= 0) {
+                duplicates.forget(origin, sequence);
+                inFlight.remove(origin + SEQUENCE + sequence);
+            } else {
+                duplicates.forget(origin, content);
+            }
+        }
+    }
+
+    /**
+     * Entrega las tramas al conector.
+     *
+     * @return si se han guardado todas
+     */
+    private boolean dispatch(String origin, List<String> messages) {
+        try {
+            List<CharSequence> results = deviceConnector.processAlertMessages(origin, messages);
+            for (CharSequence result : results) {
+                if (result != null && DeviceConnectorImpl.NOT_SAVED.contentEquals(result)) {
+                    logger.log(WARNING, "no se pudieron guardar las posiciones UDP de {0}",
+                            origin);
+                    return false;
+                }
+                if (result != null && result.length() > 0) {
+                    logger.log(FINE, "posicion UDP de {0}: {1}", new Object[] {
+                            origin, result
+                    });
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            logger.log(WARNING, "no se pudieron procesar las posiciones UDP de " + origin, e);
+            return false;
+        }
+    }
+
+    /** Secuencia guardada pendiente de confirmar. */
+    private static final class Ack {
+        final SocketAddress sender;
+        final long sequence;
+
+        Ack(SocketAddress sender, long sequence) {
+            this.sender = sender;
+            this.sequence = sequence;
+        }
+    }
+
+    /** Envia las confirmaciones pendientes, varias secuencias por datagrama. */
+    private void sendAcks(ByteBuffer output) {
+        // se agrupan por direccion en el orden en que se guardaron
+        Map<SocketAddress, List<Long>> pending = new LinkedHashMap<SocketAddress, List<Long>>();
+        for (Ack ack; (ack = acks.poll()) != null;) {
+            List<Long> sequences = pending.get(ack.sender);
+            if (sequences == null) {
+                sequences = new ArrayList<Long>();
+                pending.put(ack.sender, sequences);
+            }
+            sequences.add(ack.sequence);
+        }
+        for (Map.Entry<SocketAddress, List<Long>> entry : pending.entrySet()) {
+            List<Long> sequences = entry.getValue();
+            for (int from = 0; from < sequences.size(); from += MAX_ACKS) {
+                StringBuilder ack = new StringBuilder(ACK);
+                for (int i = from; i < Math.min(from + MAX_ACKS, sequences.size()); i++) {
+                    ack.append(SEQUENCE).append(sequences.get(i));
+                }
+                ack.append('#');
+                output.clear();
+                for (int i = 0; i < ack.length(); i++) {
+                    output.put((byte) ack.charAt(i));
+                }
+                output.flip();
+                try {
+                    channel.send(output, entry.getKey());
+                } catch (IOException e) {
+                    logger.log(FINE, "no se pudo confirmar a " + entry.getKey(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Valor de un campo de la cabecera, hasta el siguiente <code>&</code> o <code>#</code>.
+     *
+     * @return el valor o <code>null</code> si no esta presente
+     */
+    private static String field(String header, String name) {
+        int start = header.indexOf(name);
+        if (start < 0) {
+            return null;
+        }
+        start += name.length();
+        int end = start;
+        while (end < header.length() && header.charAt(end) != '&' && header.charAt(end) != '#') {
+            end++;
+        }
+        return header.substring(start, end);
+    }
+
+    // Internal Test Usage
+    PasosUdpListener(DeviceConnector deviceConnector, StatisticProcessor statisticProcessor,
+            int port) throws IOException {
+        this.deviceConnector = deviceConnector;
+        this.statisticProcessor = statisticProcessor;
+        // Imitate PostConstruct
+        open(port);
+    }
+}
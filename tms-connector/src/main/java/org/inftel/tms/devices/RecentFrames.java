@@ -0,0 +1,134 @@
+package org.inftel.tms.devices;
+
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.Singleton;
+
+/**
+ * Recuerda las tramas recibidas recientemente para reconocer los reintentos. Cuando un terminal no
+ * recibe respuesta a tiempo vuelve a enviar la misma trama, y sin esta comprobacion cada reintento
+ * seria un {@link org.inftel.tms.domain.AlertRaw} nuevo y, en el caso de las alarmas, una alerta
+ * repetida para los operadores.
+ *
+ * Una trama se identifica por su origen y una huella de 64 bits de su contenido. Las huellas se
+ * guardan en intervalos de {@link #WINDOW} milisegundos: se consulta el intervalo actual y el
+ * anterior, y al empezar uno nuevo se olvida el mas antiguo, por lo que una trama se recuerda
+ * entre una y dos ventanas. La huella que se guarda en la trama ({@link #claim}) incluye el
+ * intervalo, y la columna unica de la base de datos detecta los reintentos que ya no estan en
+ * memoria, por ejemplo despues de reiniciar el servidor, siempre que lleguen en el mismo
+ * intervalo.
+ *
+ * La ventana se configura con <code>tms.connector.duplicateWindow</code>, 0 desactiva la deteccion.
+ */
+@Singleton
+@ConcurrencyManagement(BEAN)
+public class RecentFrames {
+
+    static final long WINDOW = Long.getLong("tms.connector.duplicateWindow", 30000L);
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long window;
+
+    /** Intervalo actual y anterior, se sustituyen juntos al cambiar de intervalo. */
+    private volatile Buckets buckets;
+
+    private static final class Buckets {
+        final long index;
+        final Set<String> current = newSet();
+        final Set<String> previous;
+
+        Buckets(long index, Set<String> previous) {
+            this.index = index;
+            this.previous = previous;
+        }
+    }
+
+    public RecentFrames() {
+        this(WINDOW);
+    }
+
+    /**
+     * @param window duracion en milisegundos de cada intervalo, 0 desactiva la deteccion
+     */
+    RecentFrames(long window) {
+        this.window = window;
+    }
+
+    /** Si la deteccion esta activa, si no las tramas no llevan huella. */
+    public boolean isEnabled() {
+        return window > 0;
+    }
+
+    /**
+     * Reserva la trama si no se ha recibido recientemente. Solo debe llamarse si la deteccion esta
+     * activa.
+     *
+     * @param origin el origen de la trama
+     * @param message la trama en formato paSOS
+     * @param time instante de recepcion en milisegundos
+     * @return la huella a guardar con la trama, o <code>null</code> si es un reintento
+     */
+    public String claim(String origin, String message, long time) {
+        Buckets current = rotate(time / window);
+        String key = origin + ':' + Long.toHexString(hash(message));
+        if (current.previous.contains(key) || !current.current.add(key)) {
+            return null;
+        }
+        return key + ':' + current.index;
+    }
+
+    /**
+     * Olvida una trama reservada que finalmente no se ha guardado, para que su reintento se
+     * procese con normalidad.
+     *
+     * @param fingerprint la huella devuelta por {@link #claim}
+     */
+    public void release(String fingerprint) {
+        String key = fingerprint.substring(0, fingerprint.lastIndexOf(':'));
+        Buckets current = buckets;
+        if (current != null) {
+            current.current.remove(key);
+            current.previous.remove(key);
+        }
+    }
+
+    private Buckets rotate(long index) {
+        Buckets current = buckets;
+        if (current != null && current.index >= index) {
+            return current;
+        }
+        synchronized (this) {
+            current = buckets;
+            if (current == null || current.index < index) {
+                // solo se conserva el anterior si es el inmediatamente previo
+                Set<String> previous = (current != null && current.index == index - 1)
+                        ? current.current : Collections.<String> emptySet();
+                current = new Buckets(index, previous);
+                buckets = current;
+            }
+            return current;
+        }
+    }
+
+    /** FNV-1a de 64 bits sobre los caracteres de la trama. */
+    static long hash(CharSequence message) {
+        long hash = FNV_OFFSET;
+        for (int i = 0, length = message.length(); i < length; i++) {
+            hash ^= message.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static Set<String> newSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+}
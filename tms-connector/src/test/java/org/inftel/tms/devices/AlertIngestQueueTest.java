@@ -0,0 +1,121 @@
+package org.inftel.tms.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.domain.AlertRawState;
+import org.inftel.tms.services.AlertRawFacade;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class AlertIngestQueueTest {
+
+	AlertIngestWorker workerMocked;
+	AlertRawFacade rawMocked;
+	AlertIngestQueue queue;
+
+	@Before
+	public void setUp() {
+		workerMocked = mock(AlertIngestWorker.class);
+		rawMocked = mock(AlertRawFacade.class);
+		queue = new AlertIngestQueue(workerMocked, rawMocked, 4, 2);
+	}
+
+	@Test
+	public void testSubmitKeepsDeviceOrder() {
+		String origin = "617001100";
+		int stripe = queue.stripeOf(origin);
+		assertTrue(queue.submit(createRaw(1L, origin)));
+		assertTrue(queue.submit(createRaw(2L, origin)));
+
+		// Solo se lanza un worker por particion mientras este consumiendola
+		verify(workerMocked, times(1)).drain(stripe);
+		assertEquals(Long.valueOf(1L), queue.poll(stripe));
+		assertEquals(Long.valueOf(2L), queue.poll(stripe));
+		assertNull(queue.poll(stripe));
+		assertFalse(queue.release(stripe));
+
+		// Liberada la particion, una nueva trama lanza otro worker
+		queue.submit(createRaw(3L, origin));
+		verify(workerMocked, times(2)).drain(stripe);
+	}
+
+	@Test
+	public void testReleaseWithPendingFrames() {
+		String origin = "617001100";
+		int stripe = queue.stripeOf(origin);
+		queue.submit(createRaw(1L, origin));
+		queue.poll(stripe);
+		// llega una trama mientras el worker termina, debe continuar el mismo worker
+		queue.submit(createRaw(2L, origin));
+		assertTrue(queue.release(stripe));
+		assertEquals(Long.valueOf(2L), queue.poll(stripe));
+		verify(workerMocked, times(1)).drain(stripe);
+	}
+
+	@Test
+	public void testSubmitFullQueue() {
+		String origin = "617001100";
+		assertTrue(queue.submit(createRaw(1L, origin)));
+		assertTrue(queue.submit(createRaw(2L, origin)));
+		// Capacidad 2, la tercera se queda pendiente para la recuperacion
+		assertFalse(queue.submit(createRaw(3L, origin)));
+	}
+
+	@Test
+	public void testFullStripeKeepsLaterFramesPending() {
+		String origin = "617001100";
+		int stripe = queue.stripeOf(origin);
+		assertTrue(queue.submit(createRaw(1L, origin)));
+		assertTrue(queue.submit(createRaw(2L, origin)));
+		assertFalse(queue.submit(createRaw(3L, origin)));
+		queue.poll(stripe);
+		queue.poll(stripe);
+		// Aunque ya hay hueco, la 4 no puede adelantar a la 3
+		assertFalse(queue.submit(createRaw(4L, origin)));
+
+		when(rawMocked.findByState(eq(AlertRawState.PENDING), any(Date.class), anyInt()))
+				.thenReturn(Arrays.asList(createRaw(3L, origin), createRaw(4L, origin)));
+		queue.recoverPending();
+		assertEquals(Long.valueOf(3L), queue.poll(stripe));
+		assertEquals(Long.valueOf(4L), queue.poll(stripe));
+		// Recuperadas todas, la particion vuelve a admitir tramas
+		assertTrue(queue.submit(createRaw(5L, origin)));
+		assertEquals(Long.valueOf(5L), queue.poll(stripe));
+	}
+
+	@Test
+	public void testRecoverPending() {
+		String origin = "617001100";
+		int stripe = queue.stripeOf(origin);
+		when(rawMocked.findByState(eq(AlertRawState.PENDING), any(Date.class), anyInt()))
+				.thenReturn(Arrays.asList(createRaw(7L, origin)));
+
+		queue.recoverPending();
+		assertEquals(Long.valueOf(7L), queue.poll(stripe));
+	}
+
+	private AlertRaw createRaw(Long id, String origin) {
+		AlertRaw raw = new AlertRaw();
+		raw.setId(id);
+		raw.setOrigin(origin);
+		raw.setRawData("*$AU11&RK123456#");
+		return raw;
+	}
+}
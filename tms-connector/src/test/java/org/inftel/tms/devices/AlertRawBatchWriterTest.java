@@ -0,0 +1,133 @@
+package org.inftel.tms.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.ejb.EJBException;
+import javax.persistence.PersistenceException;
+
+import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.services.AlertRawFacade;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ *
+ */
+public class AlertRawBatchWriterTest {
+
+	AlertRawFacade rawMocked;
+
+	@Before
+	public void setUp() {
+		rawMocked = mock(AlertRawFacade.class);
+	}
+
+	@Test(timeout = 2000)
+	public void testUrgentIsNotDelayed() {
+		// Con un plazo de 10 segundos, una trama urgente debe insertarse en el momento
+		AlertRawBatchWriter writer = new AlertRawBatchWriter(rawMocked, 10000, 50);
+		AlertRaw raw = createRaw("617001100");
+		writer.write(raw, true);
+		verify(rawMocked).create(raw);
+	}
+
+	@Test(timeout = 2000)
+	public void testLatencyWindow() {
+		// Una trama sola se inserta al vencer el plazo
+		AlertRawBatchWriter writer = new AlertRawBatchWriter(rawMocked, 20, 50);
+		AlertRaw raw = createRaw("617001100");
+		writer.write(raw, false);
+		verify(rawMocked).create(raw);
+	}
+
+	@Test(timeout = 5000)
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testBatchBySize() throws Exception {
+		// El lote se cierra al llegar a 3 tramas sin esperar el plazo de 10 segundos
+		AlertRawBatchWriter writer = new AlertRawBatchWriter(rawMocked, 10000, 3);
+		writeConcurrently(writer, 3);
+
+		ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+		verify(rawMocked).createAll(captor.capture());
+		assertEquals(3, captor.getValue().size());
+		verify(rawMocked, never()).create(any(AlertRaw.class));
+	}
+
+	@Test(timeout = 5000)
+	@SuppressWarnings("unchecked")
+	public void testBatchFailure() throws Exception {
+		// Si el lote falla cada trama se inserta por separado
+		doThrow(new RuntimeException("batch failure")).when(rawMocked).createAll(
+				any(Collection.class));
+		AlertRawBatchWriter writer = new AlertRawBatchWriter(rawMocked, 10000, 2);
+		writeConcurrently(writer, 2);
+
+		verify(rawMocked, times(2)).create(any(AlertRaw.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testWriteAllFailure() {
+		// Si el lote de una peticion falla, solo se devuelven las tramas que no se pueden guardar
+		AlertRaw good = createRaw("617001100");
+		AlertRaw bad = createRaw("617001100");
+		doThrow(new RuntimeException("batch failure")).when(rawMocked).createAll(
+				any(Collection.class));
+		doThrow(new RuntimeException("raw failure")).when(rawMocked).create(bad);
+		AlertRawBatchWriter writer = new AlertRawBatchWriter(rawMocked, 10000, 50);
+
+		Map<AlertRaw, RuntimeException> failed = writer.writeAll(Arrays.asList(good, bad));
+		verify(rawMocked).create(good);
+		assertEquals(1, failed.size());
+		assertTrue(failed.containsKey(bad));
+	}
+
+	@Test
+	public void testIsDuplicate() {
+		SQLException unique = new SQLException("duplicate key", "23505");
+		assertTrue(AlertRawBatchWriter.isDuplicate(new EJBException(new PersistenceException(
+				new RuntimeException(unique)))));
+		assertFalse(AlertRawBatchWriter.isDuplicate(new EJBException(new PersistenceException(
+				new SQLException("not null", "23502")))));
+		assertFalse(AlertRawBatchWriter.isDuplicate(new RuntimeException("raw failure")));
+	}
+
+	private void writeConcurrently(final AlertRawBatchWriter writer, int count) throws Exception {
+		Thread[] threads = new Thread[count];
+		for (int i = 0; i < count; i++) {
+			final AlertRaw raw = createRaw("61700110" + i);
+			threads[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					writer.write(raw, false);
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	private AlertRaw createRaw(String origin) {
+		AlertRaw raw = new AlertRaw();
+		raw.setOrigin(origin);
+		raw.setRawData("*$AD31&RK123456#");
+		return raw;
+	}
+}
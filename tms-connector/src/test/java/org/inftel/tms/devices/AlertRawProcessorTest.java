@@ -0,0 +1,195 @@
+package org.inftel.tms.devices;
+
+import static org.inftel.tms.domain.AlertRawState.DISCARDED;
+import static org.inftel.tms.domain.AlertRawState.FAILED;
+import static org.inftel.tms.domain.AlertRawState.PENDING;
+import static org.inftel.tms.domain.AlertRawState.PROCESSED;
+import static org.inftel.tms.domain.AlertType.DEVICE;
+import static org.inftel.tms.domain.AlertType.USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.inftel.tms.domain.Alert;
+import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.domain.Device;
+import org.inftel.tms.domain.Person;
+import org.inftel.tms.services.AlertFacade;
+import org.inftel.tms.services.AlertRawFacade;
+import org.inftel.tms.services.DeviceFacade;
+import org.inftel.tms.services.DeviceSnapshot;
+import org.inftel.tms.services.FenceCrossing;
+import org.inftel.tms.services.FenceFacade;
+import org.inftel.tms.services.PeopleFacade;
+import org.inftel.tms.services.TrackStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ *
+ */
+public class AlertRawProcessorTest {
+
+	AlertFacade alertMocked;
+	AlertRawFacade rawMocked;
+	DeviceFacade devMocked;
+	PeopleFacade peopleMocked;
+	TrackStore trackMocked;
+	FenceFacade fenceMocked;
+	AlertRawProcessor processor;
+
+	@Before
+	public void setUp() {
+		alertMocked = mock(AlertFacade.class);
+		rawMocked = mock(AlertRawFacade.class);
+		devMocked = mock(DeviceFacade.class);
+		peopleMocked = mock(PeopleFacade.class);
+		trackMocked = mock(TrackStore.class);
+		fenceMocked = mock(FenceFacade.class);
+		processor = new AlertRawProcessor(alertMocked, rawMocked, devMocked, peopleMocked,
+				trackMocked, fenceMocked);
+	}
+
+	@Test
+	public void testProcessUserAlarm() {
+		String origin = "617001100";
+		AlertRaw raw = createRaw(1L, origin,
+				"*$AU11&RK123456&LD20120127&LH104737&LN-4.42&LT36.72&XCUclick#");
+		when(rawMocked.find(eq(1L))).thenReturn(raw);
+		mockDevice(origin);
+		ArgumentCaptor<Alert> alertCaptor = ArgumentCaptor.forClass(Alert.class);
+
+		assertEquals(PROCESSED, processor.process(1L));
+
+		// Se asegura que la alerta creada esta bien definida y asociada a su raw
+		verify(alertMocked).create(alertCaptor.capture());
+		Alert alert = alertCaptor.getValue();
+		assertEquals(origin, alert.getOrigin().getMobileNumber());
+		assertEquals(Long.valueOf(7L), alert.getAffected().getId());
+		assertEquals(USER, alert.getType());
+		assertEquals(36.72, alert.getLatitude(), 0d);
+		assertEquals(-4.42, alert.getLongitude(), 0d);
+		assertEquals("click", alert.getCause());
+		assertSame(raw, alert.getRaw());
+		assertSame(alert, raw.getAlert());
+		assertEquals(PROCESSED, raw.getState());
+	}
+
+	@Test
+	public void testProcessDeviceAlarm() {
+		String origin = "617001100";
+		AlertRaw raw = createRaw(2L, origin, "*$AD31&RK123456&LD20120127&LH113145&DT55#");
+		when(rawMocked.find(eq(2L))).thenReturn(raw);
+		mockDevice(origin);
+		ArgumentCaptor<Alert> alertCaptor = ArgumentCaptor.forClass(Alert.class);
+
+		assertEquals(PROCESSED, processor.process(2L));
+		verify(alertMocked).create(alertCaptor.capture());
+		assertEquals(DEVICE, alertCaptor.getValue().getType());
+	}
+
+	@Test
+	public void testProcessTrack() {
+		String origin = "617001100";
+		AlertRaw raw = createRaw(6L, origin,
+				"*$AT2&RK123456&LD20120127&LH113147&LT36.7213&LN-4.4214&PB05&DT38&XCUtrack#");
+		when(rawMocked.find(eq(6L))).thenReturn(raw);
+		mockDevice(origin);
+
+		// Las posiciones de seguimiento van al recorrido, no generan alerta
+		assertEquals(PROCESSED, processor.process(6L));
+		verify(trackMocked).record(eq(1L), isA(Date.class), eq(36.7213), eq(-4.4214));
+		verify(alertMocked, never()).create(any(Alert.class));
+		assertEquals(PROCESSED, raw.getState());
+	}
+
+	@Test
+	public void testProcessFenceCrossing() {
+		String origin = "617001100";
+		AlertRaw raw = createRaw(7L, origin,
+				"*$AT2&RK123456&LD20120127&LH113147&LT36.7213&LN-4.4214&PB05&DT38&XCUtrack#");
+		when(rawMocked.find(eq(7L))).thenReturn(raw);
+		mockDevice(origin);
+		when(fenceMocked.evaluate(eq(7L), eq(36.7213), eq(-4.4214))).thenReturn(
+				Arrays.asList(new FenceCrossing(11L, "casa", false)));
+		ArgumentCaptor<Alert> alertCaptor = ArgumentCaptor.forClass(Alert.class);
+
+		// La posicion sale de una zona de inclusion, se genera una alerta con su propia trama
+		assertEquals(PROCESSED, processor.process(7L));
+		verify(rawMocked).create(any(AlertRaw.class));
+		verify(alertMocked).create(alertCaptor.capture());
+		Alert alert = alertCaptor.getValue();
+		assertEquals(DEVICE, alert.getType());
+		assertEquals("fence out: casa", alert.getCause());
+		assertEquals(PROCESSED, alert.getRaw().getState());
+		assertEquals(36.7213, alert.getLatitude(), 0d);
+	}
+
+	@Test
+	public void testProcessUnknownDevice() {
+		AlertRaw raw = createRaw(3L, "600000000", "*$AU11&RK123456#");
+		when(rawMocked.find(eq(3L))).thenReturn(raw);
+
+		// El movil no esta registrado, la trama se descarta sin crear alerta
+		assertEquals(DISCARDED, processor.process(3L));
+		assertEquals(DISCARDED, raw.getState());
+		verify(alertMocked, never()).create(any(Alert.class));
+	}
+
+	@Test
+	public void testProcessAlreadyProcessed() {
+		AlertRaw raw = createRaw(4L, "617001100", "*$AU11&RK123456#");
+		raw.setState(PROCESSED);
+		when(rawMocked.find(eq(4L))).thenReturn(raw);
+
+		// Una trama repetida en la cola no debe generar una segunda alerta
+		assertEquals(PROCESSED, processor.process(4L));
+		verify(devMocked, never()).findSnapshotByMobile(anyString());
+		verify(alertMocked, never()).create(any(Alert.class));
+	}
+
+	@Test
+	public void testMarkFailed() {
+		AlertRaw raw = createRaw(5L, "617001100", "*$AU11&RK123456#");
+		when(rawMocked.find(eq(5L))).thenReturn(raw);
+
+		processor.markFailed(5L);
+		assertEquals(FAILED, raw.getState());
+	}
+
+	private AlertRaw createRaw(Long id, String origin, String message) {
+		AlertRaw raw = new AlertRaw();
+		raw.setId(id);
+		raw.setOrigin(origin);
+		raw.setRawData(message);
+		assertEquals(PENDING, raw.getState());
+		return raw;
+	}
+
+	private void mockDevice(String mobileNumber) {
+		// Registry entry and references of the device and its owner
+		when(devMocked.findSnapshotByMobile(eq(mobileNumber))).thenReturn(
+				new DeviceSnapshot(mobileNumber, 1L, 3L, 7L));
+
+		Device device = new Device();
+		device.setBatery(50);
+		device.setId(1l);
+		device.setMobileNumber(mobileNumber);
+		when(devMocked.getReference(eq(1L))).thenReturn(device);
+
+		Person person = new Person();
+		person.setId(7L);
+		when(peopleMocked.getReference(eq(7L))).thenReturn(person);
+	}
+}
@@ -1,18 +1,30 @@
 package org.inftel.tms.devices;
 
-import static org.inftel.tms.domain.AlertType.DEVICE;
-import static org.inftel.tms.domain.AlertType.TECHNICAL;
-import static org.inftel.tms.domain.AlertType.USER;
+import static org.inftel.tms.domain.AlertRawState.DISCARDED;
+import static org.inftel.tms.domain.AlertRawState.PENDING;
+import static org.inftel.tms.domain.AlertRawState.PROCESSED;
 import static org.junit.Assert.assertEquals;
-import static org.mockito.Matchers.eq;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
 
 import org.dbunit.database.DatabaseConnection;
 import org.dbunit.database.IDatabaseConnection;
@@ -20,14 +32,10 @@ import org.dbunit.dataset.IDataSet;
 import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
 import org.dbunit.operation.DatabaseOperation;
 import org.eclipse.persistence.internal.jpa.EntityManagerImpl;
-import org.inftel.tms.domain.Affected;
-import org.inftel.tms.domain.Alert;
 import org.inftel.tms.domain.AlertRaw;
-import org.inftel.tms.domain.Device;
-import org.inftel.tms.domain.Person;
-import org.inftel.tms.services.AlertFacade;
 import org.inftel.tms.services.AlertRawFacade;
-import org.inftel.tms.services.DeviceFacade;
+import org.inftel.tms.statistics.StatisticCounter;
+import org.inftel.tms.statistics.StatisticHistogram;
 import org.inftel.tms.statistics.StatisticProcessor;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -82,135 +90,213 @@ public class DeviceConnectorImplTest {
 
 	@Test(expected = IllegalArgumentException.class)
 	public void testProcessAlertMessageNullOrign() throws Exception {
-		AlertFacade alertMocked = Mockito.mock(AlertFacade.class);
 		AlertRawFacade rawMocked = Mockito.mock(AlertRawFacade.class);
-		StatisticProcessor statMocked = Mockito.mock(StatisticProcessor.class);
-		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(alertMocked, rawMocked, null,
-				statMocked);
+		AlertIngestQueue queueMocked = Mockito.mock(AlertIngestQueue.class);
+		StatisticProcessor statMocked = mockStatistics();
+		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(
+				new AlertRawBatchWriter(rawMocked, 0, 1), queueMocked, statMocked);
 		// No debe permitir procesar mensajes con origen nulo
 		deviceService.processAlertMessage(null, "THIS_MESSAGE_MUST_NOT_BE_PARSED");
 	}
 
 	@Test
 	public void testProcessAlertTypeUser() throws Exception {
-		AlertFacade alertMocked = mock(AlertFacade.class);
-		AlertRawFacade rawMocked = mock(AlertRawFacade.class);
-		DeviceFacade devMocked = mock(DeviceFacade.class);
-		StatisticProcessor statMocked = Mockito.mock(StatisticProcessor.class);
-		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(alertMocked, rawMocked,
-				devMocked, statMocked);
-
-		// Configuramos el metodo AlertRawFacade.create para que capture lo que le pasen
-		ArgumentCaptor<AlertRaw> rawCaptor = ArgumentCaptor.forClass(AlertRaw.class);
-		ArgumentCaptor<Alert> alertCaptor = ArgumentCaptor.forClass(Alert.class);
-
-		// Valores esperaados
-		String expectedOrigin = "617001100"; // example user alert message --v
 		String expectedMessage = "*$AU11&RK123456&LD20120127&LH104737&LN1008052067&LT153052067#";
+		assertAlertEnqueued(expectedMessage);
+	}
 
-		// Configuramos deviceFacade para que devuelve un device
-		when(devMocked.findByMobile(eq(expectedOrigin))).thenReturn(createDevice(expectedOrigin));
-
-		// Se lanza el metodo
-		deviceService.processAlertMessage(expectedOrigin, expectedMessage);
+	@Test
+	public void testProcessAlertTypeDevice() throws Exception {
+		String expectedMessage = "*$AD31&RK123456&LD20120127&LH113145&LN1008052067&LT153052067&DT55#";
+		assertAlertEnqueued(expectedMessage);
+	}
 
-		// Aseguramos que se haya llamado al metodo y se captura el parameto pasado
-		verify(rawMocked).create(rawCaptor.capture());
-		verify(alertMocked).create(alertCaptor.capture());
+	@Test
+	public void testProcessAlertTypeTechnical() throws Exception {
+		String expectedMessage = "*$AT2&RK123456&LD20120127&LH113147&LN1008052067&LT153052067&PB05PC000#";
+		assertAlertEnqueued(expectedMessage);
+	}
 
-		// Se asegura que el objeto que se paso esta bien definido (raw alert)
-		assertEquals(expectedOrigin, rawCaptor.getValue().getOrigin());
-		assertEquals(expectedMessage, rawCaptor.getValue().getRawData());
+	@Test
+	public void testProcessEmptyMessage() throws Exception {
+		AlertRawFacade rawMocked = mock(AlertRawFacade.class);
+		AlertIngestQueue queueMocked = mock(AlertIngestQueue.class);
+		StatisticProcessor statMocked = mockStatistics();
+		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(
+				new AlertRawBatchWriter(rawMocked, 0, 1), queueMocked, statMocked);
+		ArgumentCaptor<AlertRaw> rawCaptor = ArgumentCaptor.forClass(AlertRaw.class);
 
-		// Se asegura que el objeto que se paso esta bien definido (alert)
-		assertEquals(expectedOrigin, alertCaptor.getValue().getOrigin().getMobileNumber());
-		assertEquals(USER, alertCaptor.getValue().getType());
+		// El mensaje vacio se responde con los parametros remotos y no se encola
+		CharSequence response = deviceService.processAlertMessage("617001100", "");
+		assertTrue(response.toString().startsWith("*$RP06"));
+		verify(rawMocked).create(rawCaptor.capture());
+		assertEquals(PROCESSED, rawCaptor.getValue().getState());
+		verify(queueMocked, never()).submit(any(AlertRaw.class));
 	}
 
 	@Test
-	public void testProcessAlertTypeDevice() throws Exception {
-		AlertFacade alertMocked = mock(AlertFacade.class);
+	public void testProcessAlertWrongKey() throws Exception {
 		AlertRawFacade rawMocked = mock(AlertRawFacade.class);
-		DeviceFacade devMocked = mock(DeviceFacade.class);
-		StatisticProcessor statMocked = Mockito.mock(StatisticProcessor.class);
-		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(alertMocked, rawMocked,
-				devMocked, statMocked);
-
-		// Configuramos el metodo AlertRawFacade.create para que capture lo que le pasen
+		AlertIngestQueue queueMocked = mock(AlertIngestQueue.class);
+		StatisticProcessor statMocked = mockStatistics();
+		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(
+				new AlertRawBatchWriter(rawMocked, 0, 1), queueMocked, statMocked);
 		ArgumentCaptor<AlertRaw> rawCaptor = ArgumentCaptor.forClass(AlertRaw.class);
-		ArgumentCaptor<Alert> alertCaptor = ArgumentCaptor.forClass(Alert.class);
 
-		// Valores esperaados
-		String expectedOrigin = "617001100"; // example user alert message --v
-		String expectedMessage = "*$AD31&RK123456&LD20120127&LH113145&LN1008052067&LT153052067&DT55#";
+		try {
+			deviceService.processAlertMessage("617001100", "*$AU11&RK000000#");
+		} catch (RuntimeException expected) {
+			// la trama se guarda como descartada y no se encola
+			verify(rawMocked).create(rawCaptor.capture());
+			assertEquals(DISCARDED, rawCaptor.getValue().getState());
+			verify(queueMocked, never()).submit(any(AlertRaw.class));
+			return;
+		}
+		throw new AssertionError("se esperaba un error por clave de acceso incorrecta");
+	}
 
-		// Configuramos deviceFacade para que devuelve un device
-		when(devMocked.findByMobile(eq(expectedOrigin))).thenReturn(createDevice(expectedOrigin));
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testProcessAlertMessages() throws Exception {
+		AlertRawFacade rawMocked = mock(AlertRawFacade.class);
+		AlertIngestQueue queueMocked = mock(AlertIngestQueue.class);
+		StatisticProcessor statMocked = mockStatistics();
+		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(
+				new AlertRawBatchWriter(rawMocked, 0, 1), queueMocked, statMocked);
+		ArgumentCaptor<Collection> rawsCaptor = ArgumentCaptor.forClass(Collection.class);
+
+		// Tramas acumuladas sin cobertura: una alarma, una trama erronea y otra alarma
+		String first = "*$AT2&RK123456&LD20120127&LH113147&LN1008052067&LT153052067&PB05PC000#";
+		String wrong = "*$AU11&RK000000#";
+		String last = "*$AU11&RK123456&LD20120127&LH113152&LN1008052067&LT153052067#";
+		List<CharSequence> results = deviceService.processAlertMessages("617001100",
+				Arrays.asList(first, wrong, last));
+
+		// Un resultado por trama, el error no impide procesar las demas
+		assertEquals(3, results.size());
+		assertEquals(null, results.get(0));
+		assertTrue(results.get(1).toString().startsWith("ERROR"));
+		assertEquals(null, results.get(2));
+
+		// Se guardan todas juntas y en orden, y solo se encolan las correctas
+		verify(rawMocked).createAll(rawsCaptor.capture());
+		Iterator<AlertRaw> raws = rawsCaptor.getValue().iterator();
+		AlertRaw firstRaw = raws.next();
+		AlertRaw wrongRaw = raws.next();
+		AlertRaw lastRaw = raws.next();
+		assertEquals(first, firstRaw.getRawData());
+		assertEquals(DISCARDED, wrongRaw.getState());
+		assertEquals(last, lastRaw.getRawData());
+		verify(queueMocked).submit(firstRaw);
+		verify(queueMocked).submit(lastRaw);
+		verify(queueMocked, never()).submit(wrongRaw);
+	}
 
-		// Se lanza el metodo
-		deviceService.processAlertMessage(expectedOrigin, expectedMessage);
+	@Test
+	public void testProcessAlertRetry() throws Exception {
+		AlertRawFacade rawMocked = mock(AlertRawFacade.class);
+		AlertIngestQueue queueMocked = mock(AlertIngestQueue.class);
+		StatisticProcessor statMocked = mockStatistics();
+		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(
+				new AlertRawBatchWriter(rawMocked, 0, 1), queueMocked, statMocked,
+				new RecentFrames(60000));
+		ArgumentCaptor<AlertRaw> rawCaptor = ArgumentCaptor.forClass(AlertRaw.class);
 
-		// Aseguramos que se haya llamado al metodo y se captura el parameto pasado
+		// El reintento se responde igual pero solo se guarda y encola la primera trama
+		String message = "*$AU11&RK123456&LD20120127&LH104737&LN1008052067&LT153052067#";
+		assertEquals(null, deviceService.processAlertMessage("617001100", message));
+		assertEquals(null, deviceService.processAlertMessage("617001100", message));
 		verify(rawMocked).create(rawCaptor.capture());
-		verify(alertMocked).create(alertCaptor.capture());
-
-		// Se asegura que el objeto que se paso esta bien definido (raw alert)
-		assertEquals(expectedOrigin, rawCaptor.getValue().getOrigin());
-		assertEquals(expectedMessage, rawCaptor.getValue().getRawData());
+		verify(queueMocked).submit(rawCaptor.getValue());
+		assertTrue(rawCaptor.getValue().getFingerprint().startsWith("617001100:"));
+
+		// La misma trama de otro terminal no es un reintento
+		deviceService.processAlertMessage("617001101", message);
+		verify(rawMocked, times(2)).create(any(AlertRaw.class));
+
+		// Las peticiones de parametros nunca se consideran reintentos
+		assertTrue(deviceService.processAlertMessage("617001100", "").toString()
+				.startsWith("*$RP06"));
+		assertTrue(deviceService.processAlertMessage("617001100", "").toString()
+				.startsWith("*$RP06"));
+		verify(rawMocked, times(4)).create(any(AlertRaw.class));
+	}
 
-		// Se asegura que el objeto que se paso esta bien definido (alert)
-		assertEquals(expectedOrigin, alertCaptor.getValue().getOrigin().getMobileNumber());
-		assertEquals(DEVICE, alertCaptor.getValue().getType());
+	@Test
+	public void testProcessAlertStoredRetry() throws Exception {
+		AlertRawFacade rawMocked = mock(AlertRawFacade.class);
+		AlertIngestQueue queueMocked = mock(AlertIngestQueue.class);
+		StatisticProcessor statMocked = mockStatistics();
+		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(
+				new AlertRawBatchWriter(rawMocked, 0, 1), queueMocked, statMocked,
+				new RecentFrames(60000));
+
+		// La huella ya existe en la base de datos, por ejemplo tras reiniciar el servidor
+		doThrow(new PersistenceException(new SQLException("duplicate key", "23505"))).when(
+				rawMocked).create(any(AlertRaw.class));
+		String message = "*$AD31&RK123456&LD20120127&LH113145&LN1008052067&LT153052067&DT55#";
+		assertEquals(null, deviceService.processAlertMessage("617001100", message));
+		verify(queueMocked, never()).submit(any(AlertRaw.class));
 	}
 
 	@Test
-	public void testProcessAlertTypeTechnical() throws Exception {
-		AlertFacade alertMocked = mock(AlertFacade.class);
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testProcessAlertMessagesRetry() throws Exception {
 		AlertRawFacade rawMocked = mock(AlertRawFacade.class);
-		DeviceFacade devMocked = mock(DeviceFacade.class);
-		StatisticProcessor statMocked = Mockito.mock(StatisticProcessor.class);
-		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(alertMocked, rawMocked,
-				devMocked, statMocked);
+		AlertIngestQueue queueMocked = mock(AlertIngestQueue.class);
+		StatisticProcessor statMocked = mockStatistics();
+		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(
+				new AlertRawBatchWriter(rawMocked, 0, 1), queueMocked, statMocked,
+				new RecentFrames(60000));
+		ArgumentCaptor<Collection> rawsCaptor = ArgumentCaptor.forClass(Collection.class);
+
+		// La primera trama ya se recibio en una peticion anterior que no obtuvo respuesta
+		String first = "*$AT2&RK123456&LD20120127&LH113147&LN1008052067&LT153052067&PB05PC000#";
+		String last = "*$AU11&RK123456&LD20120127&LH113152&LN1008052067&LT153052067#";
+		deviceService.processAlertMessage("617001100", first);
+		List<CharSequence> results = deviceService.processAlertMessages("617001100",
+				Arrays.asList(first, last, last));
+
+		// Todas se responden, pero solo se guarda y encola la nueva
+		assertEquals(Arrays.asList(null, null, null), results);
+		verify(rawMocked).createAll(rawsCaptor.capture());
+		assertEquals(1, rawsCaptor.getValue().size());
+		AlertRaw lastRaw = (AlertRaw) rawsCaptor.getValue().iterator().next();
+		assertEquals(last, lastRaw.getRawData());
+		verify(queueMocked).submit(lastRaw);
+		verify(queueMocked, times(2)).submit(any(AlertRaw.class));
+	}
+
+	private StatisticProcessor mockStatistics() {
+		StatisticProcessor statMocked = mock(StatisticProcessor.class);
+		when(statMocked.histogram(anyString())).thenReturn(mock(StatisticHistogram.class));
+		when(statMocked.counter(anyString())).thenReturn(mock(StatisticCounter.class));
+		return statMocked;
+	}
+
+	private void assertAlertEnqueued(String expectedMessage) {
+		AlertRawFacade rawMocked = mock(AlertRawFacade.class);
+		AlertIngestQueue queueMocked = mock(AlertIngestQueue.class);
+		StatisticProcessor statMocked = mockStatistics();
+		DeviceConnectorImpl deviceService = new DeviceConnectorImpl(
+				new AlertRawBatchWriter(rawMocked, 0, 1), queueMocked, statMocked);
 
 		// Configuramos el metodo AlertRawFacade.create para que capture lo que le pasen
 		ArgumentCaptor<AlertRaw> rawCaptor = ArgumentCaptor.forClass(AlertRaw.class);
-		ArgumentCaptor<Alert> alertCaptor = ArgumentCaptor.forClass(Alert.class);
 
 		// Valores esperaados
-		String expectedOrigin = "617001100"; // example user alert message --v
-		String expectedMessage = "*$AT2&RK123456&LD20120127&LH113147&LN1008052067&LT153052067&PB05PC000#";
-
-		// Configuramos deviceFacade para que devuelve un device
-		when(devMocked.findByMobile(eq(expectedOrigin))).thenReturn(createDevice(expectedOrigin));
+		String expectedOrigin = "617001100";
 
 		// Se lanza el metodo
 		deviceService.processAlertMessage(expectedOrigin, expectedMessage);
 
-		// Aseguramos que se haya llamado al metodo y se captura el parameto pasado
+		// Aseguramos que se haya guardado el raw y que se encole para procesarlo despues
 		verify(rawMocked).create(rawCaptor.capture());
-		verify(alertMocked).create(alertCaptor.capture());
+		verify(queueMocked).submit(rawCaptor.getValue());
 
 		// Se asegura que el objeto que se paso esta bien definido (raw alert)
 		assertEquals(expectedOrigin, rawCaptor.getValue().getOrigin());
 		assertEquals(expectedMessage, rawCaptor.getValue().getRawData());
-
-		// Se asegura que el objeto que se paso esta bien definido (alert)
-		assertEquals(expectedOrigin, alertCaptor.getValue().getOrigin().getMobileNumber());
-		assertEquals(TECHNICAL, alertCaptor.getValue().getType());
-	}
-
-	private Device createDevice(String mobileNumber) {
-		// Affected associated whit device
-		Affected affected = new Affected();
-		Person person = new Person();
-		affected.setData(person);
-
-		// Example deviced
-		Device device = new Device();
-		device.setBatery(50);
-		device.setId(1l);
-		device.setMobileNumber(mobileNumber);
-		device.setOwner(affected);
-		return device;
+		assertEquals(PENDING, rawCaptor.getValue().getState());
 	}
 }
@@ -0,0 +1,73 @@
+package org.inftel.tms.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class DuplicateFilterTest {
+
+	@Test
+	public void testSequenceWindow() {
+		DuplicateFilter filter = new DuplicateFilter(10, 60000);
+		assertTrue(filter.accept("617001100", 10, 1000));
+		assertFalse(filter.accept("617001100", 10, 1001));
+		// Desordenados dentro de la ventana
+		assertTrue(filter.accept("617001100", 12, 1002));
+		assertTrue(filter.accept("617001100", 11, 1003));
+		assertFalse(filter.accept("617001100", 11, 1004));
+		assertFalse(filter.accept("617001100", 12, 1005));
+		// Otro terminal con la misma secuencia
+		assertTrue(filter.accept("617001101", 10, 1006));
+		// Un salto mayor que la ventana no recuerda los anteriores
+		assertTrue(filter.accept("617001100", 12 + DuplicateFilter.WINDOW, 1007));
+		assertFalse(filter.accept("617001100", 12 + DuplicateFilter.WINDOW, 1008));
+		// Muy por detras de la ventana, el terminal se ha reiniciado
+		assertTrue(filter.accept("617001100", 1, 1009));
+		assertTrue(filter.accept("617001100", 2, 1010));
+	}
+
+	@Test
+	public void testTimeWindowAndPayload() {
+		DuplicateFilter filter = new DuplicateFilter(10, 60000);
+		assertTrue(filter.accept("617001100", 5, 1000));
+		assertFalse(filter.accept("617001100", 5, 2000));
+		// Pasada la ventana de tiempo se olvida el terminal
+		assertTrue(filter.accept("617001100", 5, 70000));
+
+		assertTrue(filter.accept("617001102", "*$AT2&RK123456&XCUtrack#", 1000));
+		assertFalse(filter.accept("617001102", "*$AT2&RK123456&XCUtrack#", 2000));
+		assertTrue(filter.accept("617001102", "*$AT2&RK123456&XCUtrack&LT1#", 3000));
+	}
+
+	@Test
+	public void testForget() {
+		DuplicateFilter filter = new DuplicateFilter(10, 60000);
+		assertTrue(filter.accept("617001100", 7, 1000));
+		assertTrue(filter.accept("617001100", 8, 1001));
+		// No se ha podido guardar el 7, su reenvio se acepta
+		filter.forget("617001100", 7);
+		assertFalse(filter.accept("617001100", 8, 1002));
+		assertTrue(filter.accept("617001100", 7, 1003));
+		assertFalse(filter.accept("617001100", 7, 1004));
+
+		assertTrue(filter.accept("617001102", "*$AT2&RK123456&XCUtrack#", 1000));
+		filter.forget("617001102", "*$AT2&RK123456&XCUtrack#");
+		assertTrue(filter.accept("617001102", "*$AT2&RK123456&XCUtrack#", 2000));
+	}
+
+	@Test
+	public void testMaxOrigins() {
+		DuplicateFilter filter = new DuplicateFilter(2, 60000);
+		assertTrue(filter.accept("1", 1, 1000));
+		assertTrue(filter.accept("2", 1, 1000));
+		assertTrue(filter.accept("3", 1, 1000));
+		assertEquals(2, filter.size());
+		// el primero se ha olvidado
+		assertTrue(filter.accept("1", 1, 1000));
+	}
+}
@@ -0,0 +1,58 @@
+package org.inftel.tms.devices;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class PasosFrameDecoderTest {
+
+	@Test
+	public void testSeveralFramesInOneRead() {
+		PasosFrameDecoder decoder = new PasosFrameDecoder(1024);
+		List<String> frames = new ArrayList<String>();
+		decoder.decode(bytes("*$ID617001100#\r\n*$AU11&RK123456#*$#\n"), frames);
+		assertEquals(3, frames.size());
+		assertEquals("*$ID617001100#", frames.get(0));
+		assertEquals("*$AU11&RK123456#", frames.get(1));
+		assertEquals("*$#", frames.get(2));
+	}
+
+	@Test
+	public void testFrameSplitAcrossReads() {
+		PasosFrameDecoder decoder = new PasosFrameDecoder(1024);
+		List<String> frames = new ArrayList<String>();
+		decoder.decode(bytes("*$AT2&RK1234"), frames);
+		assertEquals(0, frames.size());
+		decoder.decode(bytes("56&PB05#"), frames);
+		assertEquals(1, frames.size());
+		assertEquals("*$AT2&RK123456&PB05#", frames.get(0));
+	}
+
+	@Test
+	public void testTruncatedAndOversizedFramesAreDiscarded() {
+		PasosFrameDecoder decoder = new PasosFrameDecoder(16);
+		List<String> frames = new ArrayList<String>();
+		// una trama cortada por el inicio de otra, y otra demasiado larga
+		decoder.decode(bytes("*$AU11&RK*$SR0#*$AT2&RK123456&LD20120127#*$#"), frames);
+		assertEquals(2, frames.size());
+		assertEquals("*$SR0#", frames.get(0));
+		assertEquals("*$#", frames.get(1));
+		assertEquals(2, decoder.getDiscarded());
+	}
+
+	private static ByteBuffer bytes(String text) {
+		ByteBuffer buffer = ByteBuffer.allocate(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			buffer.put((byte) text.charAt(i));
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
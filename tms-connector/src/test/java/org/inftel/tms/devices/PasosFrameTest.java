@@ -0,0 +1,75 @@
+package org.inftel.tms.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.inftel.tms.devices.PasosFrame.Type;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class PasosFrameTest {
+
+	@Test
+	public void testClassification() {
+		assertEquals(Type.EMPTY, PasosFrame.of(null).getType());
+		assertEquals(Type.EMPTY, PasosFrame.of("").getType());
+		assertEquals(Type.USER_ALARM, PasosFrame.of("*$AU11&RK123456#").getType());
+		assertEquals(Type.DEVICE_ALARM, PasosFrame.of("*$AD31&RK123456&DT55#").getType());
+		assertEquals(Type.TECHNICAL_ALARM, PasosFrame.of("*$AT2&RK123456&PB05#").getType());
+		assertEquals(Type.ACK, PasosFrame.of("*$SR0&RK123456&KO1000#").getType());
+		// Un status report sin identificador de ACK no se considera ACK
+		assertEquals(Type.UNKNOWN, PasosFrame.of("*$SR0&RK123456#").getType());
+		assertEquals(Type.UNKNOWN, PasosFrame.of("$AU11&RK123456#").getType());
+	}
+
+	@Test
+	public void testKeyAndAck() {
+		PasosFrame frame = PasosFrame.of("*$SR0&RK12345&RK123456&KO10&KO1000#");
+		// Se usa la primera clave y el primer ACK con el numero de digitos correcto
+		assertEquals(123456, frame.getKey());
+		assertTrue(frame.matchesKey("&RK123456"));
+		assertFalse(frame.matchesKey("&RK654321"));
+		assertEquals(1000, frame.getAckId());
+		assertTrue(frame.matchesAck("&KO1000"));
+		assertFalse(frame.matchesAck("&KO2000"));
+	}
+
+	@Test
+	public void testLocationAndValues() {
+		PasosFrame frame = PasosFrame
+				.of("*$AT2&RK123456&LD20120127&LH113147&LT-36.7213&LN-4.4214&PB05&DT38&XCUtrack#");
+		assertTrue(frame.hasLatitude());
+		assertEquals(-36.7213, frame.getLatitude(), 0d);
+		assertTrue(frame.hasLongitude());
+		assertEquals(-4.4214, frame.getLongitude(), 0d);
+		assertEquals(5, frame.getBattery());
+		assertEquals(38, frame.getTemperature());
+		assertEquals("track", frame.getCause());
+	}
+
+	@Test
+	public void testTrack() {
+		assertTrue(PasosFrame.of("*$AT2&RK123456&LT36.7&LN-4.4&XCUtrack#").isTrack());
+		assertTrue(PasosFrame.of("*$AD31&RK123456&LT36.7&LN-4.4&XCUtrack-low#").isTrack());
+		// Sin posicion, o alarma de usuario, no es una posicion de seguimiento
+		assertFalse(PasosFrame.of("*$AT2&RK123456&LT36.7&XCUtrack#").isTrack());
+		assertFalse(PasosFrame.of("*$AU11&RK123456&LT36.7&LN-4.4&XCUtrack#").isTrack());
+		assertFalse(PasosFrame.of("*$AT2&RK123456&LT36.7&LN-4.4&XCUfall#").isTrack());
+	}
+
+	@Test
+	public void testReuse() {
+		PasosFrame frame = new PasosFrame();
+		frame.parse("*$AU11&RK123456&LT1.5&LN2.5&XCUclick#");
+		frame.parse("*$AD31&RK123456#");
+		assertEquals(Type.DEVICE_ALARM, frame.getType());
+		assertFalse(frame.hasLatitude());
+		assertFalse(frame.hasLongitude());
+		assertNull(frame.getCause());
+		assertEquals(PasosFrame.MISSING, frame.getTemperature());
+	}
+}
@@ -0,0 +1,121 @@
+package org.inftel.tms.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class PasosTcpListenerTest {
+
+	/** Conector falso que registra el origen de cada trama y responde como el real. */
+	final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+	PasosTcpListener listener;
+
+	@Before
+	public void setUp() throws Exception {
+		DeviceConnector connector = new DeviceConnector() {
+
+			@Override
+			public CharSequence processAlertMessage(String from, String message) {
+				received.add(from + " " + message);
+				if (message.length() == 0) {
+					return "*$RP06&RK123456#";
+				}
+				if (message.contains("RK000000")) {
+					throw new RuntimeException("ERROR, 'access key' incorrecta.");
+				}
+				if (message.contains("RK999999")) {
+					throw new IllegalStateException("fallo en la\nbase de datos: conexion perdida");
+				}
+				return null;
+			}
+
+			@Override
+			public List<CharSequence> processAlertMessages(String from, List<String> messages) {
+				List<CharSequence> results = new ArrayList<CharSequence>();
+				for (String message : messages) {
+					try {
+						results.add(processAlertMessage(from, message));
+					} catch (RuntimeException e) {
+						results.add(e.getMessage());
+					}
+				}
+				return results;
+			}
+		};
+		listener = new PasosTcpListener(connector, 0);
+	}
+
+	@After
+	public void tearDown() {
+		listener.stop();
+	}
+
+	@Test(timeout = 5000)
+	public void testFramesOverLongLivedConnection() throws Exception {
+		Socket socket = new Socket("localhost", listener.getLocalPort());
+		try {
+			OutputStream out = socket.getOutputStream();
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+					"ISO-8859-1"));
+
+			// Antes de identificarse no se procesa ninguna trama
+			out.write("*$AU11&RK123456#\n".getBytes("ISO-8859-1"));
+			assertEquals(PasosTcpListener.NOT_IDENTIFIED, in.readLine());
+
+			// Identificacion y peticion de parametros en la misma escritura
+			out.write("*$ID617001100#*$#".getBytes("ISO-8859-1"));
+			assertEquals("", in.readLine());
+			assertEquals("*$RP06&RK123456#", in.readLine());
+
+			// Una trama partida en dos escrituras y despues una trama erronea
+			out.write("*$AU11&RK12".getBytes("ISO-8859-1"));
+			out.flush();
+			Thread.sleep(50);
+			out.write("3456#*$AU11&RK000000#".getBytes("ISO-8859-1"));
+			assertEquals("", in.readLine());
+			assertTrue(in.readLine().startsWith("ERROR"));
+
+			assertEquals("617001100 ", received.get(0));
+			assertEquals("617001100 *$AU11&RK123456#", received.get(1));
+			assertEquals(3, received.size());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void testUnexpectedErrorIsSingleLine() throws Exception {
+		Socket socket = new Socket("localhost", listener.getLocalPort());
+		try {
+			OutputStream out = socket.getOutputStream();
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+					"ISO-8859-1"));
+
+			out.write("*$ID617001100#".getBytes("ISO-8859-1"));
+			assertEquals("", in.readLine());
+
+			// El mensaje de la excepcion no llega al terminal ni desplaza las respuestas
+			out.write("*$AU11&RK999999#".getBytes("ISO-8859-1"));
+			assertEquals(DeviceConnectorImpl.NOT_SAVED, in.readLine());
+			out.write("*$AU11&RK123456#".getBytes("ISO-8859-1"));
+			assertEquals("", in.readLine());
+		} finally {
+			socket.close();
+		}
+	}
+}
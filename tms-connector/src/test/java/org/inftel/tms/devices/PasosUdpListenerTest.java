@@ -0,0 +1,143 @@
+package org.inftel.tms.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.inftel.tms.statistics.StatisticCounter;
+import org.inftel.tms.statistics.StatisticProcessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class PasosUdpListenerTest {
+
+	static final String TRACK = "*$AT2&RK123456&LT36.72&LN-4.42&XCUtrack#";
+
+	DeviceConnector connectorMocked;
+	StatisticCounter duplicatedMocked;
+	StatisticCounter rejectedMocked;
+	PasosUdpListener listener;
+	DatagramSocket socket;
+
+	@Before
+	public void setUp() throws Exception {
+		connectorMocked = mock(DeviceConnector.class);
+		StatisticProcessor statisticMocked = mock(StatisticProcessor.class);
+		duplicatedMocked = mock(StatisticCounter.class);
+		rejectedMocked = mock(StatisticCounter.class);
+		when(statisticMocked.counter(anyString())).thenReturn(mock(StatisticCounter.class));
+		when(statisticMocked.counter("connector.udp.duplicated")).thenReturn(duplicatedMocked);
+		when(statisticMocked.counter("connector.udp.rejected")).thenReturn(rejectedMocked);
+		listener = new PasosUdpListener(connectorMocked, statisticMocked, 0);
+		socket = new DatagramSocket();
+		socket.setSoTimeout(5000);
+	}
+
+	@After
+	public void tearDown() {
+		socket.close();
+		listener.stop();
+	}
+
+	@Test
+	public void testTrackFramesAndBatchAck() throws Exception {
+		send("*$ID617001100&SQ1&AK1#" + TRACK + TRACK);
+		send("*$ID617001100&SQ2&AK1#" + TRACK);
+
+		verify(connectorMocked, timeout(5000)).processAlertMessages("617001100",
+				Arrays.asList(TRACK, TRACK));
+		verify(connectorMocked, timeout(5000)).processAlertMessages("617001100",
+				Arrays.asList(TRACK));
+
+		// se confirman al guardarse, en cualquier orden y quiza en dos intervalos
+		Set<String> acked = new HashSet<String>();
+		while (acked.size() < 2) {
+			acked.addAll(Arrays.asList(receiveAck().split("(?=&SQ)")));
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("&SQ1", "&SQ2")), acked);
+
+		// repetido de uno ya guardado, se confirma pero no se procesa otra vez
+		send("*$ID617001100&SQ1&AK1#" + TRACK + TRACK);
+		verify(duplicatedMocked, timeout(5000)).increment(anyLong());
+		assertEquals("&SQ1", receiveAck());
+		verify(connectorMocked, times(2)).processAlertMessages(eq("617001100"),
+				anyListOf(String.class));
+	}
+
+	@Test
+	public void testNotSavedIsNotAcked() throws Exception {
+		List<CharSequence> notSaved = Arrays.<CharSequence> asList(DeviceConnectorImpl.NOT_SAVED);
+		when(connectorMocked.processAlertMessages(eq("617001100"), anyListOf(String.class)))
+				.thenReturn(notSaved);
+		send("*$ID617001100&SQ5&AK1#" + TRACK);
+		verify(connectorMocked, timeout(5000)).processAlertMessages("617001100",
+				Arrays.asList(TRACK));
+
+		// el reenvio no es un repetido, se procesa y al guardarse se confirma una unica vez
+		List<CharSequence> saved = Arrays.<CharSequence> asList("");
+		when(connectorMocked.processAlertMessages(eq("617001100"), anyListOf(String.class)))
+				.thenReturn(saved);
+		send("*$ID617001100&SQ5&AK1#" + TRACK);
+		verify(connectorMocked, timeout(5000).times(2)).processAlertMessages("617001100",
+				Arrays.asList(TRACK));
+		assertEquals("&SQ5", receiveAck());
+		socket.setSoTimeout((int) (3 * PasosUdpListener.ACK_INTERVAL));
+		try {
+			fail("confirmacion inesperada: " + receiveAck());
+		} catch (SocketTimeoutException e) {
+			// ninguna confirmacion del intento fallido
+		}
+		verify(duplicatedMocked, never()).increment(anyLong());
+	}
+
+	@Test
+	public void testRejected() throws Exception {
+		// sin identificar, clave incorrecta y alarma que no es de seguimiento
+		send(TRACK);
+		send("*$ID617001100&SQ1#*$AT2&RK000000&LT36.72&LN-4.42&XCUtrack#");
+		send("*$ID617001100&SQ2#*$AU11&RK123456#");
+		send("*$ID617001100&SQ3#" + TRACK);
+
+		verify(connectorMocked, timeout(5000)).processAlertMessages(eq("617001100"),
+				anyListOf(String.class));
+		verify(rejectedMocked, timeout(5000).times(3)).increment(anyLong());
+	}
+
+	/** Secuencias del siguiente datagrama de confirmacion. */
+	private String receiveAck() throws Exception {
+		DatagramPacket ack = new DatagramPacket(new byte[1024], 1024);
+		socket.receive(ack);
+		String text = new String(ack.getData(), 0, ack.getLength(), "ISO-8859-1");
+		assertTrue(text.startsWith(PasosUdpListener.ACK) && text.endsWith("#"));
+		return text.substring(PasosUdpListener.ACK.length(), text.length() - 1);
+	}
+
+	private void send(String datagram) throws Exception {
+		byte[] data = datagram.getBytes("ISO-8859-1");
+		socket.send(new DatagramPacket(data, data.length, InetAddress.getByName("localhost"),
+				listener.getLocalPort()));
+	}
+}
@@ -0,0 +1,50 @@
+package org.inftel.tms.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class RecentFramesTest {
+
+	static final String FRAME = "*$AU11&RK123456#";
+
+	@Test
+	public void testClaim() {
+		RecentFrames recent = new RecentFrames(1000);
+		assertTrue(recent.isEnabled());
+		String fingerprint = recent.claim("617001100", FRAME, 10500);
+		assertEquals("617001100:" + Long.toHexString(RecentFrames.hash(FRAME)) + ":10",
+				fingerprint);
+		// Reintento en el mismo intervalo y en el siguiente
+		assertNull(recent.claim("617001100", FRAME, 10900));
+		assertNull(recent.claim("617001100", FRAME, 11200));
+		// Otro origen u otra trama no son reintentos
+		assertNotNull(recent.claim("617001101", FRAME, 11300));
+		assertNotNull(recent.claim("617001100", "*$AU11&RK123456&LH104737#", 11400));
+		// Dos intervalos despues se ha olvidado
+		assertNotNull(recent.claim("617001100", FRAME, 12100));
+		// Tras un salto de varios intervalos no se conserva nada
+		assertNotNull(recent.claim("617001101", FRAME, 20000));
+	}
+
+	@Test
+	public void testRelease() {
+		RecentFrames recent = new RecentFrames(1000);
+		String fingerprint = recent.claim("617001100", FRAME, 10500);
+		recent.release(fingerprint);
+		// Si la trama no se llego a guardar su reintento se procesa
+		assertNotNull(recent.claim("617001100", FRAME, 10600));
+	}
+
+	@Test
+	public void testDisabled() {
+		assertFalse(new RecentFrames(0).isEnabled());
+	}
+}
@@ -1,5 +1,9 @@
 package org.inftel.tms;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -8,6 +12,7 @@ import javax.ejb.Singleton;
 import javax.ejb.LocalBean;
 import javax.ejb.Startup;
 import javax.persistence.*;
+import org.dbunit.database.DatabaseConfig;
 import org.dbunit.database.DatabaseConnection;
 import org.dbunit.database.IDatabaseConnection;
 import org.dbunit.dataset.IDataSet;
@@ -33,7 +38,12 @@ public class StartupApplication {
   @PersistenceContext(unitName = "tms-persistence")
   private EntityManager em;
   
-  private String dataSet = "sample-dataset.xml";
+  /**
+   * Datos iniciales: un recurso del classpath o un fichero. Por defecto los datos de ejemplo, pero
+   * con la propiedad <code>tms.core.dataSet</code> se pueden cargar otros, como los que genera el
+   * banco de pruebas de extremo a extremo.
+   */
+  private String dataSet = System.getProperty("tms.core.dataSet", "sample-dataset.xml");
 
   public StartupApplication() {
   }
@@ -48,9 +58,19 @@ public class StartupApplication {
         wrap = ((EntityManagerImpl) (em.getDelegate())).getServerSession().getAccessor().getConnection();
       }
       IDatabaseConnection connection = new DatabaseConnection(wrap);
+      // los conjuntos generados pueden tener cientos de miles de filas
+      connection.getConfig().setProperty(DatabaseConfig.FEATURE_BATCHED_STATEMENTS, true);
       FlatXmlDataSetBuilder builder = new FlatXmlDataSetBuilder();
-      IDataSet dataset = builder.build(Thread.currentThread().getContextClassLoader().getResourceAsStream(getDataSet()));
-      DatabaseOperation.CLEAN_INSERT.execute(connection, dataset);
+      InputStream input = openDataSet();
+      if (input == null) {
+        throw new IOException("no se encuentran los datos iniciales " + getDataSet());
+      }
+      try {
+        IDataSet dataset = builder.build(input);
+        DatabaseOperation.CLEAN_INSERT.execute(connection, dataset);
+      } finally {
+        input.close();
+      }
     } catch (Exception e) {
       log.log(Level.WARNING, "fallo mientras se intentaba añadir datos iniciales al modelo", e);
     }
@@ -60,6 +80,14 @@ public class StartupApplication {
     return dataSet;
 }
 
+  private InputStream openDataSet() throws IOException {
+    File file = new File(getDataSet());
+    if (file.isFile()) {
+      return new FileInputStream(file);
+    }
+    return Thread.currentThread().getContextClassLoader().getResourceAsStream(getDataSet());
+  }
+
 /**
    * Constructor interno usado en los test.
    *
@@ -1,12 +1,29 @@
 package org.inftel.tms.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.queries.ScrollableCursor;
 
 /**
  * 
@@ -14,8 +31,20 @@ import javax.persistence.criteria.Root;
  */
 public abstract class AbstractFacade<T> {
 
+	/** Tiempo (ms) durante el que se reutiliza el resultado de {@link #estimateCount()}. */
+	static final long COUNT_TTL = Long.getLong("tms.core.countCacheTtl", 30000L);
+
+	/** Filas que se leen de cada vez en los recorridos con cursor. */
+	static final int FETCH_SIZE = Integer.getInteger("tms.core.fetchSize", 500);
+
+	/** Ultimo recuento de cada entidad, compartido por todas las instancias del servidor. */
+	private static final ConcurrentMap<Class<?>, CachedCount> counts = new ConcurrentHashMap<Class<?>, CachedCount>();
+
 	private Class<T> entityClass;
 
+	@Resource
+	private TransactionSynchronizationRegistry txRegistry;
+
 	public AbstractFacade(Class<T> entityClass) {
 		this.entityClass = entityClass;
 	}
@@ -24,6 +53,19 @@ public abstract class AbstractFacade<T> {
 
 	public void create(T entity) {
 		getEntityManager().persist(entity);
+		adjustCount(1);
+	}
+
+	/**
+	 * Hace persistentes todas las entidades en la transaccion actual. Con identificadores
+	 * pre-asignados y batch-writing activo el proveedor agrupa las inserciones en un unico batch.
+	 */
+	public void createAll(Collection<T> entities) {
+		EntityManager em = getEntityManager();
+		for (T entity : entities) {
+			em.persist(entity);
+		}
+		adjustCount(entities.size());
 	}
 
 	public void edit(T entity) {
@@ -32,12 +74,17 @@ public abstract class AbstractFacade<T> {
 
 	public void remove(T entity) {
 		getEntityManager().remove(getEntityManager().merge(entity));
+		adjustCount(-1);
 	}
 
 	public T find(Object id) {
 		return getEntityManager().find(entityClass, id);
 	}
 
+	public T getReference(Object id) {
+		return getEntityManager().getReference(entityClass, id);
+	}
+
 	public List<T> findAll() {
 		CriteriaQuery<T> cq = getEntityManager().getCriteriaBuilder().createQuery(entityClass);
 		cq.select(cq.from(entityClass));
@@ -60,4 +107,236 @@ public abstract class AbstractFacade<T> {
 		Query q = getEntityManager().createQuery(cq);
 		return ((Long) q.getSingleResult()).intValue();
 	}
+
+	/**
+	 * Pagina siguiente a la entidad con identificador <code>id</code>, ordenada por identificador.
+	 * Al buscar por clave en lugar de por posicion el coste no depende de la profundidad de la
+	 * pagina y los resultados son estables aunque se inserten o eliminen filas. Los identificadores
+	 * se asignan de forma creciente, por lo que el orden coincide con el de creacion.
+	 *
+	 * @param id identificador de la ultima entidad de la pagina anterior, o <code>null</code> para
+	 *            obtener la primera pagina
+	 * @param maxResults tamaño maximo de la pagina
+	 * @return entidades en orden ascendente de identificador
+	 */
+	public List<T> findRangeAfter(Long id, int maxResults) {
+		return findRangeByKey(id, maxResults, true);
+	}
+
+	/**
+	 * Pagina anterior a la entidad con identificador <code>id</code>, complementaria de
+	 * {@link #findRangeAfter(Long, int)}.
+	 *
+	 * @param id identificador de la primera entidad de la pagina actual, o <code>null</code> para
+	 *            obtener la ultima pagina
+	 * @param maxResults tamaño maximo de la pagina
+	 * @return entidades en orden ascendente de identificador
+	 */
+	public List<T> findRangeBefore(Long id, int maxResults) {
+		List<T> result = findRangeByKey(id, maxResults, false);
+		Collections.reverse(result);
+		return result;
+	}
+
+	private List<T> findRangeByKey(Long id, int maxResults, boolean forward) {
+		CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+		CriteriaQuery<T> cq = cb.createQuery(entityClass);
+		Root<T> rt = cq.from(entityClass);
+		Path<Long> key = rt.get("id");
+		cq.select(rt);
+		if (id != null) {
+			cq.where(forward ? cb.greaterThan(key, id) : cb.lessThan(key, id));
+		}
+		cq.orderBy(forward ? cb.asc(key) : cb.desc(key));
+		TypedQuery<T> q = getEntityManager().createQuery(cq);
+		q.setMaxResults(maxResults);
+		return q.getResultList();
+	}
+
+	/**
+	 * Numero aproximado de entidades, pensado para mostrarse en listados. El recuento se reutiliza
+	 * durante {@link #COUNT_TTL} milisegundos, y mientras tanto se ajusta con las entidades creadas
+	 * o eliminadas desde este servidor.
+	 */
+	public int estimateCount() {
+		CachedCount cached = counts.get(entityClass);
+		long now = System.currentTimeMillis();
+		if (cached == null || cached.expires < now) {
+			cached = new CachedCount(count(), now + COUNT_TTL);
+			counts.put(entityClass, cached);
+		}
+		return cached.value;
+	}
+
+	/**
+	 * Suma al recuento en cache las entidades creadas o eliminadas al confirmar la transaccion. No
+	 * se descarta, en las tablas con inserciones continuas se recalcularia en cada consulta.
+	 */
+	private void adjustCount(final int delta) {
+		if (!counts.containsKey(entityClass)) {
+			return;
+		}
+		afterCommit(new Runnable() {
+
+			@Override
+			public void run() {
+				CachedCount cached;
+				do {
+					cached = counts.get(entityClass);
+					if (cached == null) {
+						return;
+					}
+				} while (!counts.replace(entityClass, cached, new CachedCount(Math.max(0,
+						cached.value + delta), cached.expires)));
+			}
+		});
+	}
+
+	/**
+	 * Recorre las entidades creadas en el intervalo <code>[from, to)</code> en orden de
+	 * identificador usando un cursor de base de datos. Las filas se leen en bloques de
+	 * {@link #FETCH_SIZE} y el contexto de persistencia se vacia despues de cada bloque, de forma que
+	 * la memoria usada no depende del numero de entidades. Por ese motivo no debe llamarse con
+	 * cambios pendientes en el contexto de persistencia actual.
+	 *
+	 * @param from fecha de creacion minima, o <code>null</code>
+	 * @param to fecha de creacion maxima (excluida), o <code>null</code>
+	 * @param handler receptor de cada entidad, puede detener el recorrido
+	 * @return numero de entidades tratadas
+	 */
+	@SuppressWarnings("unchecked")
+	public int forEach(Date from, Date to, EntityHandler<T> handler) {
+		EntityManager em = getEntityManager();
+		CriteriaBuilder cb = em.getCriteriaBuilder();
+		CriteriaQuery<T> cq = cb.createQuery(entityClass);
+		Root<T> rt = cq.from(entityClass);
+		Path<Date> created = rt.get("created");
+		List<Predicate> where = new ArrayList<Predicate>();
+		if (from != null) {
+			where.add(cb.greaterThanOrEqualTo(created, from));
+		}
+		if (to != null) {
+			where.add(cb.lessThan(created, to));
+		}
+		cq.select(rt).where(where.toArray(new Predicate[where.size()]));
+		cq.orderBy(cb.asc(rt.get("id")));
+		TypedQuery<T> q = em.createQuery(cq);
+		q.setHint(QueryHints.SCROLLABLE_CURSOR, HintValues.TRUE);
+		q.setHint(QueryHints.JDBC_FETCH_SIZE, FETCH_SIZE);
+
+		int count = 0;
+		ScrollableCursor cursor = (ScrollableCursor) q.getSingleResult();
+		try {
+			while (cursor.hasNext()) {
+				count++;
+				if (!handler.handle((T) cursor.next())) {
+					break;
+				}
+				if (count % FETCH_SIZE == 0) {
+					cursor.clear();
+					em.clear();
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Recorre con un cursor las filas de una consulta de proyeccion creadas en el intervalo, en
+	 * orden de identificador. Las filas no son entidades, no ocupan el contexto de persistencia ni
+	 * provocan consultas adicionales al leer sus relaciones.
+	 *
+	 * @param select consulta sin condiciones, con <code>e</code> como alias de la entidad
+	 * @see #forEach(Date, Date, EntityHandler)
+	 */
+	protected int scroll(String select, Date from, Date to, EntityHandler<Object[]> handler) {
+		StringBuilder jpql = new StringBuilder(select);
+		if (from != null) {
+			jpql.append(" WHERE e.created >= :fromDate");
+		}
+		if (to != null) {
+			jpql.append(from != null ? " AND" : " WHERE").append(" e.created < :toDate");
+		}
+		Query q = getEntityManager().createQuery(jpql.append(" ORDER BY e.id").toString());
+		if (from != null) {
+			q.setParameter("fromDate", from);
+		}
+		if (to != null) {
+			q.setParameter("toDate", to);
+		}
+		q.setHint(QueryHints.SCROLLABLE_CURSOR, HintValues.TRUE);
+		q.setHint(QueryHints.JDBC_FETCH_SIZE, FETCH_SIZE);
+
+		int count = 0;
+		ScrollableCursor cursor = (ScrollableCursor) q.getSingleResult();
+		try {
+			while (cursor.hasNext()) {
+				count++;
+				if (!handler.handle((Object[]) cursor.next())) {
+					break;
+				}
+				if (count % FETCH_SIZE == 0) {
+					cursor.clear();
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Ejecuta la accion cuando se confirma la transaccion actual, o en el momento si no hay
+	 * ninguna. Sirve para actualizar los registros en memoria solo con datos ya confirmados; si la
+	 * transaccion se deshace la accion no se ejecuta.
+	 */
+	protected void afterCommit(final Runnable action) {
+		if (isTransactionActive()) {
+			txRegistry.registerInterposedSynchronization(new Synchronization() {
+
+				@Override
+				public void beforeCompletion() {
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					if (status == Status.STATUS_COMMITTED) {
+						action.run();
+					}
+				}
+			});
+		} else {
+			action.run();
+		}
+	}
+
+	/** Si hay una transaccion activa. */
+	protected boolean isTransactionActive() {
+		return txRegistry != null && txRegistry.getTransactionStatus() == Status.STATUS_ACTIVE;
+	}
+
+	/**
+	 * Valor asociado a la transaccion actual, compartido por todos los componentes que participan
+	 * en ella. Solo debe llamarse si {@link #isTransactionActive()}.
+	 */
+	protected Object getTransactionResource(Object key) {
+		return txRegistry.getResource(key);
+	}
+
+	/** Asocia un valor a la transaccion actual, ver {@link #getTransactionResource(Object)}. */
+	protected void putTransactionResource(Object key, Object value) {
+		txRegistry.putResource(key, value);
+	}
+
+	private static final class CachedCount {
+		final int value;
+		final long expires;
+
+		CachedCount(int value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
 }
@@ -0,0 +1,136 @@
+package org.inftel.tms.services;
+
+import static java.util.logging.Level.INFO;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+import static org.inftel.tms.domain.Alert.FIND_ACTIVED;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.DependsOn;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.eclipse.persistence.config.QueryHints;
+import org.inftel.tms.domain.Alert;
+
+/**
+ * Implementacion de {@link ActiveAlertBoard}. Las alertas activas se cargan al arrancar y despues
+ * se mantienen con los avisos de {@link AlertFacadeImpl} e {@link InterventionFacadeImpl}. Las
+ * consultas no usan bloqueos; los cambios se serializan para que el orden de las versiones
+ * coincida con el del registro de cambios, que guarda los ultimos
+ * {@value #LOG_SIZE_DEFAULT} cambios por defecto.
+ */
+@Singleton
+@Startup
+@DependsOn("StartupApplication")
+@ConcurrencyManagement(BEAN)
+public class ActiveAlertBoardImpl implements ActiveAlertBoard {
+
+    private static final Logger log = Logger.getLogger(ActiveAlertBoardImpl.class.getName());
+
+    static final int LOG_SIZE_DEFAULT = 1024;
+
+    /** Numero de cambios que se conservan para las actualizaciones incrementales. */
+    static final int LOG_SIZE = Integer.getInteger("tms.core.alertBoardLogSize", LOG_SIZE_DEFAULT);
+
+    @PersistenceContext(unitName = "tms-persistence")
+    private EntityManager em;
+
+    private final ConcurrentSkipListMap<Long, ActiveAlert> alerts = new ConcurrentSkipListMap<Long, ActiveAlert>();
+
+    /** Registro circular de cambios, la posicion de cada cambio es su version modulo el tamaño. */
+    private final ActiveAlertChange[] changes;
+
+    private volatile long version;
+
+    public ActiveAlertBoardImpl() {
+        this(LOG_SIZE);
+    }
+
+    private ActiveAlertBoardImpl(int logSize) {
+        this.changes = new ActiveAlertChange[logSize];
+    }
+
+    @PostConstruct
+    void preload() {
+        TypedQuery<Alert> query = em.createNamedQuery(FIND_ACTIVED, Alert.class);
+        query.setHint(QueryHints.BATCH, "a.affected");
+        for (Alert alert : query.getResultList()) {
+            ActiveAlert active = snapshot(alert);
+            alerts.put(active.getId(), active);
+        }
+        log.log(INFO, "cargadas {0} alertas activas", alerts.size());
+    }
+
+    /** Crea la vista de una alerta, debe llamarse con la alerta aun gestionada. */
+    static ActiveAlert snapshot(Alert alert) {
+        String affected = (alert.getAffected() == null) ? null : alert.getAffected()
+                .getSimpleName();
+        return new ActiveAlert(alert.getId(), alert.getCreated(), alert.getType(),
+                alert.getPriority(), alert.getCause(), affected, alert.getLatitude(),
+                alert.getLongitude());
+    }
+
+    @Override
+    public List<ActiveAlert> findActiveAlerts() {
+        return new ArrayList<ActiveAlert>(alerts.values());
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public synchronized List<ActiveAlertChange> findChangesSince(long since) {
+        if (since > version || version - since > changes.length) {
+            return null;
+        }
+        List<ActiveAlertChange> result = new ArrayList<ActiveAlertChange>((int) (version - since));
+        for (long v = since + 1; v <= version; v++) {
+            result.add(changes[(int) (v % changes.length)]);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void alertCreated(ActiveAlert alert) {
+        if (alerts.putIfAbsent(alert.getId(), alert) == null) {
+            record(true, alert);
+        }
+    }
+
+    @Override
+    public synchronized void alertClosed(Long alertId) {
+        ActiveAlert removed = alerts.remove(alertId);
+        if (removed != null) {
+            record(false, removed);
+        }
+    }
+
+    private void record(boolean added, ActiveAlert alert) {
+        long next = version + 1;
+        changes[(int) (next % changes.length)] = new ActiveAlertChange(next, added, alert);
+        version = next;
+    }
+
+    /**
+     * Constructor interno usado en los test.
+     *
+     * @param em gestor de entidades
+     * @param logSize numero de cambios que se conservan
+     */
+    ActiveAlertBoardImpl(EntityManager em, int logSize) {
+        this(logSize);
+        this.em = em;
+        preload(); // Imitate PostConstruct
+    }
+}
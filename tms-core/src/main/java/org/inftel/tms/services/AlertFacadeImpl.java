@@ -2,10 +2,12 @@ package org.inftel.tms.services;
 
 import static java.util.logging.Level.INFO;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
 
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -13,6 +15,7 @@ import javax.persistence.TypedQuery;
 
 import org.inftel.tms.domain.Alert;
 import org.inftel.tms.domain.AlertType;
+import org.inftel.tms.domain.GeoCells;
 import org.inftel.tms.domain.Person;
 
 /**
@@ -24,9 +27,15 @@ public class AlertFacadeImpl extends AbstractFacade<Alert> implements AlertFacad
 
 	private final static Logger log = Logger.getLogger(AlertFacadeImpl.class.getName());
 
+	/** Numero maximo de geoceldas con las que se recubre el rectangulo de una busqueda. */
+	static final int MAX_COVER_CELLS = 16;
+
 	@PersistenceContext(unitName = "tms-persistence")
 	private EntityManager em;
 
+	@EJB
+	private ActiveAlertBoard activeAlertBoard;
+
 	@Override
 	protected EntityManager getEntityManager() {
 		return em;
@@ -36,6 +45,41 @@ public class AlertFacadeImpl extends AbstractFacade<Alert> implements AlertFacad
 		super(Alert.class);
 	}
 
+	/**
+	 * Ademas de guardar la alerta, la añade a {@link ActiveAlertBoard} cuando se confirma la
+	 * transaccion. Es el camino que siguen las alertas generadas por el conector.
+	 */
+	@Override
+	public void create(Alert entity) {
+		super.create(entity);
+		if (activeAlertBoard != null && entity.getClosedIntervention() == null) {
+			// la vista se crea ahora, con la alerta aun gestionada
+			final ActiveAlert active = ActiveAlertBoardImpl.snapshot(entity);
+			afterCommit(new Runnable() {
+
+				@Override
+				public void run() {
+					activeAlertBoard.alertCreated(active);
+				}
+			});
+		}
+	}
+
+	@Override
+	public void remove(Alert entity) {
+		super.remove(entity);
+		if (activeAlertBoard != null) {
+			final Long id = entity.getId();
+			afterCommit(new Runnable() {
+
+				@Override
+				public void run() {
+					activeAlertBoard.alertClosed(id);
+				}
+			});
+		}
+	}
+
 	@Override
 	public List<Alert> findActiveAlerts() {
 		log.info("buscando alertas activas");
@@ -60,6 +104,83 @@ public class AlertFacadeImpl extends AbstractFacade<Alert> implements AlertFacad
 		return query.getSingleResult();
 	}
 
+	@Override
+	public int forEachRow(Date from, Date to, EntityHandler<Object[]> handler) {
+		// los LEFT JOIN evitan que se descarten las alertas sin origen o sin afectado
+		return scroll("SELECT e.id, e.created, e.type, e.priority, e.cause, e.latitude, e.longitude,"
+				+ " o.mobileNumber, p.id, r.id FROM Alert e LEFT JOIN e.origin o"
+				+ " LEFT JOIN e.affected p LEFT JOIN e.raw r", from, to, handler);
+	}
+
+	@Override
+	public List<Alert> findInBox(double south, double west, double north, double east, Date from,
+			Date to, int maxResults) {
+		int resolution = GeoCells.resolutionFor(south, west, north, east, MAX_COVER_CELLS);
+		TypedQuery<Alert> query = boxQuery("SELECT a FROM Alert a", " ORDER BY a.created DESC",
+				Alert.class, resolution, south, west, north, east, from, to);
+		query.setMaxResults(maxResults);
+		return query.getResultList();
+	}
+
+	@Override
+	public List<GeoCluster> findClusters(double south, double west, double north, double east,
+			Date from, Date to) {
+		int resolution = GeoCells.resolutionFor(south, west, north, east, MAX_COVER_CELLS);
+		// cada celda del recubrimiento se divide en como mucho 4x4 grupos
+		int clusterResolution = Math.min(resolution + 1, GeoCells.MAX_RESOLUTION);
+		String cell = "SUBSTRING(a.geocell, 1, " + clusterResolution + ")";
+		TypedQuery<Object[]> query = boxQuery("SELECT " + cell
+				+ ", COUNT(a), AVG(a.latitude), AVG(a.longitude) FROM Alert a", " GROUP BY " + cell,
+				Object[].class, resolution, south, west, north, east, from, to);
+		List<GeoCluster> result = new ArrayList<GeoCluster>();
+		for (Object[] row : query.getResultList()) {
+			result.add(new GeoCluster((String) row[0], ((Number) row[1]).longValue(),
+					((Number) row[2]).doubleValue(), ((Number) row[3]).doubleValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Consulta de las alertas de un rectangulo. Las geoceldas que lo recubren acotan la busqueda
+	 * sobre el indice, y las coordenadas descartan las alertas de las celdas que quedan fuera.
+	 */
+	private <T> TypedQuery<T> boxQuery(String select, String suffix, Class<T> type,
+			int resolution, double south, double west, double north, double east, Date from,
+			Date to) {
+		List<String> cells = GeoCells.cover(south, west, north, east, resolution);
+		StringBuilder jpql = new StringBuilder(select).append(" WHERE (");
+		for (int i = 0; i < cells.size(); i++) {
+			jpql.append((i > 0) ? " OR " : "").append("a.geocell LIKE :cell").append(i);
+		}
+		jpql.append(") AND a.latitude BETWEEN :south AND :north");
+		if (west <= east) {
+			jpql.append(" AND a.longitude BETWEEN :west AND :east");
+		} else {
+			jpql.append(" AND (a.longitude >= :west OR a.longitude <= :east)");
+		}
+		if (from != null) {
+			jpql.append(" AND a.created >= :fromDate");
+		}
+		if (to != null) {
+			jpql.append(" AND a.created < :toDate");
+		}
+		TypedQuery<T> query = em.createQuery(jpql.append(suffix).toString(), type);
+		for (int i = 0; i < cells.size(); i++) {
+			query.setParameter("cell" + i, cells.get(i) + "%");
+		}
+		query.setParameter("south", south);
+		query.setParameter("north", north);
+		query.setParameter("west", west);
+		query.setParameter("east", east);
+		if (from != null) {
+			query.setParameter("fromDate", from);
+		}
+		if (to != null) {
+			query.setParameter("toDate", to);
+		}
+		return query;
+	}
+
 	// Internal test usage
 	AlertFacadeImpl(EntityManager em) {
 		super(Alert.class);
@@ -1,9 +1,17 @@
 package org.inftel.tms.services;
 
+import static org.inftel.tms.domain.AlertRaw.FIND_BY_STATE;
+
+import java.util.Date;
+import java.util.List;
+
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
 import org.inftel.tms.domain.AlertRaw;
+import org.inftel.tms.domain.AlertRawState;
 
 /**
  *
@@ -23,4 +31,19 @@ public class AlertRawFacadeImpl extends AbstractFacade<AlertRaw> implements Aler
   public AlertRawFacadeImpl() {
     super(AlertRaw.class);
   }
+
+  @Override
+  public List<AlertRaw> findByState(AlertRawState state, Date before, int maxResults) {
+    TypedQuery<AlertRaw> query = em.createNamedQuery(FIND_BY_STATE, AlertRaw.class);
+    query.setParameter("state", state);
+    query.setParameter("before", before);
+    query.setMaxResults(maxResults);
+    return query.getResultList();
+  }
+
+  @Override
+  public int forEachRow(Date from, Date to, EntityHandler<Object[]> handler) {
+    return scroll("SELECT e.id, e.created, e.origin, e.state, e.rawData, a.id, a.type, a.priority,"
+        + " a.cause FROM AlertRaw e LEFT JOIN e.alert a", from, to, handler);
+  }
 }
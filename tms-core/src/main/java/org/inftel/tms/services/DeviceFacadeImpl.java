@@ -4,6 +4,7 @@ import static org.inftel.tms.domain.Device.FIND_BY_MOBILE;
 
 import java.util.List;
 
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -21,6 +22,9 @@ public class DeviceFacadeImpl extends AbstractFacade<Device> implements DeviceFa
     @PersistenceContext(unitName = "tms-persistence")
     private EntityManager em;
 
+    @EJB
+    private DeviceRegistry deviceRegistry;
+
     @Override
     protected EntityManager getEntityManager() {
         return em;
@@ -38,4 +42,47 @@ public class DeviceFacadeImpl extends AbstractFacade<Device> implements DeviceFa
         List<Device> result = query.getResultList();
         return (result.size() > 0) ? result.get(0) : null;
     }
+
+    @Override
+    public DeviceSnapshot findSnapshotByMobile(String mobile) {
+        return deviceRegistry.findByMobile(mobile);
+    }
+
+    @Override
+    public void create(Device entity) {
+        super.create(entity);
+        invalidate(entity);
+    }
+
+    @Override
+    public void edit(Device entity) {
+        super.edit(entity);
+        invalidate(entity);
+    }
+
+    @Override
+    public void remove(Device entity) {
+        super.remove(entity);
+        invalidate(entity);
+    }
+
+    /**
+     * Invalida el dispositivo en el registro en memoria. Se invalida en el momento y de nuevo al
+     * confirmar la transaccion, para que ninguna lectura concurrente deje en cache datos anteriores
+     * al commit. Si se deshace, lo que se haya leido mientras tanto sigue siendo valido.
+     */
+    private void invalidate(final Device device) {
+        final String mobile = device.getMobileNumber();
+        final Long id = device.getId();
+        deviceRegistry.invalidate(mobile);
+        deviceRegistry.invalidateDevice(id);
+        afterCommit(new Runnable() {
+
+            @Override
+            public void run() {
+                deviceRegistry.invalidate(mobile);
+                deviceRegistry.invalidateDevice(id);
+            }
+        });
+    }
 }
@@ -0,0 +1,235 @@
+package org.inftel.tms.services;
+
+import static java.util.logging.Level.INFO;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+import static org.inftel.tms.domain.Device.FIND_SNAPSHOTS;
+import static org.inftel.tms.domain.Device.FIND_SNAPSHOT_BY_MOBILE;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.DependsOn;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+/**
+ * Cache en memoria de los dispositivos registrados, indexada por numero de movil. Cada trama
+ * recibida necesita resolver su dispositivo y afectado, y esta cache evita una consulta y varias
+ * cargas perezosas por trama. Guarda solo los identificadores ({@link DeviceSnapshot}).
+ *
+ * La cache se precarga al arrancar, se rellena bajo demanda (read-through) y tiene un tamaño
+ * maximo con expulsion LRU. Esta dividida en segmentos independientes para reducir la contencion
+ * entre hilos. Los moviles no registrados tambien se recuerdan para que un emisor desconocido no
+ * provoque una consulta en cada trama. {@link DeviceFacadeImpl} invalida las entradas al crear,
+ * modificar o eliminar dispositivos.
+ */
+@Singleton
+@Startup
+@DependsOn("StartupApplication")
+@ConcurrencyManagement(BEAN)
+@LocalBean
+public class DeviceRegistry {
+
+    private static final Logger log = Logger.getLogger(DeviceRegistry.class.getName());
+
+    /** Numero maximo de moviles en cache. */
+    static final int CAPACITY = Integer.getInteger("tms.core.deviceCacheSize", 10000);
+
+    private static final int SEGMENTS = 16;
+
+    /** Marca de movil no registrado (entrada negativa). */
+    private static final DeviceSnapshot UNKNOWN = new DeviceSnapshot(null, null, null, null);
+
+    @PersistenceContext(unitName = "tms-persistence")
+    private EntityManager em;
+
+    private final Segment[] segments;
+
+    private final int capacity;
+
+    public DeviceRegistry() {
+        this(CAPACITY);
+    }
+
+    private DeviceRegistry(int capacity) {
+        this.capacity = capacity;
+        this.segments = new Segment[SEGMENTS];
+        int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /** Precarga los dispositivos conectados mas recientemente. */
+    @PostConstruct
+    void preload() {
+        TypedQuery<Object[]> query = em.createNamedQuery(FIND_SNAPSHOTS, Object[].class);
+        query.setMaxResults(capacity);
+        List<Object[]> rows = query.getResultList();
+        // se insertan en orden inverso para que los mas recientes queden como mas usados
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            DeviceSnapshot snapshot = toSnapshot(rows.get(i));
+            String mobile = snapshot.getMobileNumber();
+            if (mobile != null) {
+                Segment segment = segmentFor(mobile);
+                segment.put(mobile, snapshot, segment.version());
+            }
+        }
+        log.log(INFO, "precargados {0} dispositivos", rows.size());
+    }
+
+    /**
+     * Busca el dispositivo con el movil indicado, consultando la base de datos solo si no esta en
+     * cache.
+     *
+     * @param mobile numero de movil
+     * @return vista del dispositivo o <code>null</code> si no esta registrado
+     */
+    public DeviceSnapshot findByMobile(String mobile) {
+        if (mobile == null) {
+            return null;
+        }
+        Segment segment = segmentFor(mobile);
+        DeviceSnapshot snapshot = segment.get(mobile);
+        if (snapshot == null) {
+            // la version evita guardar datos leidos antes de una invalidacion concurrente
+            long version = segment.version();
+            snapshot = load(mobile);
+            segment.put(mobile, snapshot, version);
+        }
+        return (snapshot == UNKNOWN) ? null : snapshot;
+    }
+
+    /** Elimina de la cache el movil indicado, incluida su entrada negativa si la hubiera. */
+    public void invalidate(String mobile) {
+        if (mobile != null) {
+            segmentFor(mobile).remove(mobile);
+        }
+    }
+
+    /**
+     * Elimina de la cache las entradas del dispositivo indicado. Recorre toda la cache, pero solo
+     * se usa al modificar o eliminar dispositivos, que es poco frecuente.
+     */
+    public void invalidateDevice(Long deviceId) {
+        if (deviceId != null) {
+            for (Segment segment : segments) {
+                segment.removeDevice(deviceId);
+            }
+        }
+    }
+
+    /** Vacia la cache completa. */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private DeviceSnapshot load(String mobile) {
+        TypedQuery<Object[]> query = em.createNamedQuery(FIND_SNAPSHOT_BY_MOBILE, Object[].class);
+        query.setParameter("mobile", mobile);
+        query.setMaxResults(1);
+        List<Object[]> rows = query.getResultList();
+        return rows.isEmpty() ? UNKNOWN : toSnapshot(rows.get(0));
+    }
+
+    private static DeviceSnapshot toSnapshot(Object[] row) {
+        return new DeviceSnapshot((String) row[0], (Long) row[1], (Long) row[2], (Long) row[3]);
+    }
+
+    private Segment segmentFor(String mobile) {
+        int h = mobile.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /** Segmento LRU protegido por su propio monitor. */
+    private static final class Segment {
+
+        private final LinkedHashMap<String, DeviceSnapshot> map;
+
+        /** Se incrementa en cada invalidacion. */
+        private long version;
+
+        Segment(final int capacity) {
+            map = new LinkedHashMap<String, DeviceSnapshot>(capacity * 4 / 3 + 1, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DeviceSnapshot> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized DeviceSnapshot get(String mobile) {
+            return map.get(mobile);
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        /** Guarda la entrada solo si no ha habido invalidaciones desde <code>version</code>. */
+        synchronized void put(String mobile, DeviceSnapshot snapshot, long version) {
+            if (this.version == version) {
+                map.put(mobile, snapshot);
+            }
+        }
+
+        synchronized void remove(String mobile) {
+            version++;
+            map.remove(mobile);
+        }
+
+        synchronized void removeDevice(Long deviceId) {
+            version++;
+            Iterator<DeviceSnapshot> it = map.values().iterator();
+            while (it.hasNext()) {
+                if (deviceId.equals(it.next().getDeviceId())) {
+                    it.remove();
+                }
+            }
+        }
+
+        synchronized void clear() {
+            version++;
+            map.clear();
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+
+    /**
+     * Constructor interno usado en los test.
+     *
+     * @param em gestor de entidades
+     * @param capacity numero maximo de moviles en cache
+     */
+    DeviceRegistry(EntityManager em, int capacity) {
+        this(capacity);
+        this.em = em;
+        preload(); // Imitate PostConstruct
+    }
+}
@@ -0,0 +1,125 @@
+package org.inftel.tms.services;
+
+import static org.inftel.tms.domain.Fence.FIND_BY_AFFECTED;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.inftel.tms.domain.Fence;
+import org.inftel.tms.domain.Person;
+
+/**
+ *
+ */
+@Stateless
+public class FenceFacadeImpl extends AbstractFacade<Fence> implements FenceFacade {
+
+    /** Clave de las posiciones evaluadas en la transaccion actual. */
+    private static final String POSITIONS = FenceFacadeImpl.class.getName() + ".positions";
+
+    @PersistenceContext(unitName = "tms-persistence")
+    private EntityManager em;
+
+    @EJB
+    private FenceRegistry fenceRegistry;
+
+    @Override
+    protected EntityManager getEntityManager() {
+        return em;
+    }
+
+    public FenceFacadeImpl() {
+        super(Fence.class);
+    }
+
+    @Override
+    public List<Fence> findByAffected(Person affected) {
+        TypedQuery<Fence> query = em.createNamedQuery(FIND_BY_AFFECTED, Fence.class);
+        query.setParameter("affected", affected);
+        return query.getResultList();
+    }
+
+    /**
+     * Evalua la posicion sin modificar el registro hasta que se confirma la transaccion. Si se
+     * deshace, el reintento de la trama vuelve a encontrar los mismos cruces. Las posiciones de la
+     * misma persona dentro de una transaccion se comparan con la anterior de esa transaccion.
+     */
+    @Override
+    public List<FenceCrossing> evaluate(Long personId, double latitude, double longitude) {
+        if (!isTransactionActive()) {
+            return fenceRegistry.evaluate(personId, latitude, longitude);
+        }
+        Map<Long, Set<Long>> positions = positions();
+        Set<Long> now = fenceRegistry.locate(personId, latitude, longitude);
+        Set<Long> previous = positions.containsKey(personId) ? positions.get(personId)
+                : fenceRegistry.inside(personId);
+        positions.put(personId, now);
+        return fenceRegistry.crossings(previous, now);
+    }
+
+    /** Zonas de cada persona evaluada en la transaccion, se registran al confirmarla. */
+    private Map<Long, Set<Long>> positions() {
+        @SuppressWarnings("unchecked")
+        Map<Long, Set<Long>> positions = (Map<Long, Set<Long>>) getTransactionResource(POSITIONS);
+        if (positions == null) {
+            final Map<Long, Set<Long>> created = new HashMap<Long, Set<Long>>();
+            putTransactionResource(POSITIONS, created);
+            afterCommit(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (Map.Entry<Long, Set<Long>> position : created.entrySet()) {
+                        fenceRegistry.moved(position.getKey(), position.getValue());
+                    }
+                }
+            });
+            positions = created;
+        }
+        return positions;
+    }
+
+    @Override
+    public void create(Fence entity) {
+        super.create(entity);
+        update(entity, false);
+    }
+
+    @Override
+    public void edit(Fence entity) {
+        super.edit(entity);
+        update(entity, false);
+    }
+
+    @Override
+    public void remove(Fence entity) {
+        super.remove(entity);
+        update(entity, true);
+    }
+
+    /** Actualiza el registro en memoria cuando se confirma la transaccion. */
+    private void update(final Fence fence, final boolean removed) {
+        afterCommit(new Runnable() {
+
+            @Override
+            public void run() {
+                apply(fence, removed);
+            }
+        });
+    }
+
+    private void apply(Fence fence, boolean removed) {
+        if (removed) {
+            fenceRegistry.remove(fence.getId());
+        } else {
+            fenceRegistry.put(fence);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.inftel.tms.services;
+
+import static java.util.logging.Level.INFO;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+import static org.inftel.tms.domain.Fence.FIND_SNAPSHOTS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.DependsOn;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.inftel.tms.domain.Fence;
+import org.inftel.tms.domain.GeoCells;
+
+/**
+ * Zonas vigiladas en memoria, con un indice espacial por geoceldas. Cada zona se registra en las
+ * (como mucho {@value #MAX_CELLS}) geoceldas que recubren su circulo, con la resolucion que mejor
+ * se ajusta a su tamaño. Para evaluar una posicion basta con calcular su geocelda de maxima
+ * resolucion y buscar cada uno de sus prefijos, {@link GeoCells#MAX_RESOLUTION} busquedas en un
+ * mapa sea cual sea el numero de zonas.
+ *
+ * Para detectar las salidas se recuerda en que zonas estaba cada persona en su ultima posicion.
+ * Este estado no se guarda, por lo que tras el arranque la salida de una zona de inclusion solo se
+ * detecta si la persona ya se ha visto dentro. Dentro de una transaccion se consulta con
+ * {@link #locate}, {@link #inside} y {@link #crossings} sin modificarlo, y se actualiza con
+ * {@link #moved} al confirmarla, para que un reintento de la misma posicion vuelva a ver el cruce.
+ * {@link FenceFacadeImpl} actualiza el registro al crear, modificar o eliminar zonas.
+ */
+@Singleton
+@Startup
+@DependsOn("StartupApplication")
+@ConcurrencyManagement(BEAN)
+@LocalBean
+public class FenceRegistry {
+
+    private static final Logger log = Logger.getLogger(FenceRegistry.class.getName());
+
+    /** Numero maximo de geoceldas en las que se registra una zona. */
+    static final int MAX_CELLS = 16;
+
+    private static final double EARTH_RADIUS = 6371000d;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS;
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    @PersistenceContext(unitName = "tms-persistence")
+    private EntityManager em;
+
+    private final ConcurrentMap<Long, Entry> fences = new ConcurrentHashMap<Long, Entry>();
+
+    /** Zonas de cada geocelda, los arrays se reemplazan en lugar de modificarse. */
+    private final ConcurrentMap<String, Entry[]> cells = new ConcurrentHashMap<String, Entry[]>();
+
+    /** Zonas en las que estaba cada persona en su ultima posicion, conjuntos inmutables. */
+    private final ConcurrentMap<Long, Set<Long>> inside = new ConcurrentHashMap<Long, Set<Long>>();
+
+    public FenceRegistry() {
+    }
+
+    @PostConstruct
+    void preload() {
+        List<Object[]> rows = em.createNamedQuery(FIND_SNAPSHOTS, Object[].class).getResultList();
+        for (Object[] row : rows) {
+            put((Long) row[0], (Long) row[1], (String) row[2], (Double) row[3], (Double) row[4],
+                    (Double) row[5], (Boolean) row[6]);
+        }
+        log.log(INFO, "cargadas {0} zonas vigiladas", fences.size());
+    }
+
+    /** Registra o reemplaza una zona. */
+    public void put(Fence fence) {
+        put(fence.getId(), fence.getAffected().getId(), fence.getName(), fence.getLatitude(),
+                fence.getLongitude(), fence.getRadius(), fence.isInclusionZone());
+    }
+
+    synchronized void put(Long id, Long personId, String name, double latitude,
+            double longitude, double radius, boolean inclusionZone) {
+        remove(id);
+        Entry entry = new Entry(id, personId, name, latitude, longitude, radius, inclusionZone);
+        fences.put(id, entry);
+        for (String cell : entry.cells) {
+            Entry[] previous = cells.get(cell);
+            previous = (previous == null) ? EMPTY : previous;
+            Entry[] updated = new Entry[previous.length + 1];
+            System.arraycopy(previous, 0, updated, 0, previous.length);
+            updated[previous.length] = entry;
+            cells.put(cell, updated);
+        }
+    }
+
+    /** Elimina una zona, si existe. */
+    public synchronized void remove(Long id) {
+        Entry entry = fences.remove(id);
+        if (entry == null) {
+            return;
+        }
+        for (String cell : entry.cells) {
+            Entry[] previous = cells.get(cell);
+            List<Entry> updated = new ArrayList<Entry>(previous.length);
+            for (Entry other : previous) {
+                if (other != entry) {
+                    updated.add(other);
+                }
+            }
+            if (updated.isEmpty()) {
+                cells.remove(cell);
+            } else {
+                cells.put(cell, updated.toArray(EMPTY));
+            }
+        }
+    }
+
+    /** Numero de zonas registradas. */
+    public int size() {
+        return fences.size();
+    }
+
+    /**
+     * Evalua una posicion y la recuerda como la ultima de la persona, ver
+     * {@link FenceFacade#evaluate(Long, double, double)}.
+     */
+    public List<FenceCrossing> evaluate(Long personId, double latitude, double longitude) {
+        Set<Long> now = locate(personId, latitude, longitude);
+        List<FenceCrossing> crossings = crossings(inside(personId), now);
+        moved(personId, now);
+        return crossings;
+    }
+
+    /**
+     * Zonas de la persona que contienen la posicion, sin modificar el registro.
+     *
+     * @return identificadores de las zonas, conjunto vacio si no esta en ninguna
+     */
+    public Set<Long> locate(Long personId, double latitude, double longitude) {
+        Set<Long> now = Collections.emptySet();
+        String cell = GeoCells.compute(latitude, longitude, GeoCells.MAX_RESOLUTION);
+        for (int length = 1; length <= cell.length(); length++) {
+            Entry[] candidates = cells.get(cell.substring(0, length));
+            if (candidates == null) {
+                continue;
+            }
+            for (Entry entry : candidates) {
+                if (entry.personId.equals(personId) && entry.contains(latitude, longitude)) {
+                    if (now.isEmpty()) {
+                        now = new HashSet<Long>();
+                    }
+                    now.add(entry.id);
+                }
+            }
+        }
+        return now;
+    }
+
+    /** Zonas en las que estaba la persona en su ultima posicion confirmada. */
+    public Set<Long> inside(Long personId) {
+        Set<Long> previous = inside.get(personId);
+        return (previous == null) ? Collections.<Long> emptySet() : previous;
+    }
+
+    /**
+     * Recuerda las zonas de la ultima posicion de la persona.
+     *
+     * @param now zonas devueltas por {@link #locate}
+     */
+    public void moved(Long personId, Set<Long> now) {
+        // las personas fuera de toda zona no ocupan memoria
+        if (now.isEmpty()) {
+            inside.remove(personId);
+        } else {
+            inside.put(personId, now);
+        }
+    }
+
+    /**
+     * Cruces entre dos posiciones consecutivas: entradas en zonas de exclusion y salidas de zonas
+     * de inclusion.
+     *
+     * @param previous zonas de la posicion anterior
+     * @param now zonas de la posicion actual
+     */
+    public List<FenceCrossing> crossings(Set<Long> previous, Set<Long> now) {
+        if (previous.isEmpty() && now.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<FenceCrossing> crossings = new ArrayList<FenceCrossing>(0);
+        for (Long id : now) {
+            Entry entry = fences.get(id);
+            if (entry != null && !entry.inclusionZone && !previous.contains(id)) {
+                crossings.add(new FenceCrossing(id, entry.name, true));
+            }
+        }
+        for (Long id : previous) {
+            Entry entry = fences.get(id);
+            if (entry != null && entry.inclusionZone && !now.contains(id)) {
+                crossings.add(new FenceCrossing(id, entry.name, false));
+            }
+        }
+        return crossings;
+    }
+
+    /** Zona en memoria, con las geoceldas en las que esta registrada. */
+    private static final class Entry {
+        final Long id;
+        final Long personId;
+        final String name;
+        final double latitude;
+        final double longitude;
+        final double radius;
+        final boolean inclusionZone;
+        final List<String> cells;
+
+        Entry(Long id, Long personId, String name, double latitude, double longitude,
+                double radius, boolean inclusionZone) {
+            this.id = id;
+            this.personId = personId;
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+            this.inclusionZone = inclusionZone;
+            double dLat = radius / METERS_PER_DEGREE;
+            double dLng = Math.min(180, dLat / Math.max(Math.cos(Math.toRadians(latitude)), 1e-6));
+            double south = Math.max(-90, latitude - dLat);
+            double north = Math.min(90, latitude + dLat);
+            double west = wrap(longitude - dLng);
+            double east = wrap(longitude + dLng);
+            int resolution = GeoCells.resolutionFor(south, west, north, east, MAX_CELLS);
+            this.cells = GeoCells.cover(south, west, north, east, resolution);
+        }
+
+        private static double wrap(double longitude) {
+            return (longitude < -180) ? longitude + 360 : (longitude > 180) ? longitude - 360
+                    : longitude;
+        }
+
+        /** Si el punto esta dentro del circulo, por la formula del haversine. */
+        boolean contains(double lat, double lng) {
+            double dLat = Math.toRadians(lat - latitude);
+            double dLng = Math.toRadians(lng - longitude);
+            double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                    + Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(lat))
+                    * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+            return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(1, a))) <= radius;
+        }
+    }
+
+    /**
+     * Constructor interno usado en los test.
+     *
+     * @param em gestor de entidades
+     */
+    FenceRegistry(EntityManager em) {
+        this.em = em;
+        preload(); // Imitate PostConstruct
+    }
+}
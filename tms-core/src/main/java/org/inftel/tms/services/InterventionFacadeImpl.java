@@ -4,6 +4,7 @@ import static org.inftel.tms.domain.Intervention.COUNT_BY_TYPE;
 
 import java.util.Date;
 
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -23,6 +24,9 @@ public class InterventionFacadeImpl extends AbstractFacade<Intervention> impleme
     @PersistenceContext(unitName = "tms-persistence")
     private EntityManager em;
 
+    @EJB
+    private ActiveAlertBoard activeAlertBoard;
+
     @Override
     protected EntityManager getEntityManager() {
         return em;
@@ -44,12 +48,24 @@ public class InterventionFacadeImpl extends AbstractFacade<Intervention> impleme
         return query.setParameter("user", user).getSingleResult();
     }
     
+    /**
+     * Guarda la intervencion y cierra su alerta, que se retira de {@link ActiveAlertBoard} al
+     * confirmarse la transaccion.
+     */
     @Override
     public void create(Intervention entity) {
         super.create(entity);
         if (entity.getAlert() != null) {
             em.merge(entity.getAlert());
             entity.getAlert().setClosedIntervention(entity);
+            final Long alertId = entity.getAlert().getId();
+            afterCommit(new Runnable() {
+
+                @Override
+                public void run() {
+                    activeAlertBoard.alertClosed(alertId);
+                }
+            });
         }
     }
 }
@@ -0,0 +1,156 @@
+package org.inftel.tms.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.inftel.tms.domain.TrackPoint;
+
+/**
+ * Simplificacion del recorrido de un dispositivo segun se reciben las posiciones, con una ventana
+ * que se abre desde el ultimo punto guardado (el ancla). Mientras todas las posiciones de la
+ * ventana esten a menos de <code>tolerance</code> metros del segmento entre el ancla y la ultima
+ * posicion, el recorrido puede reconstruirse con esos dos puntos y las intermedias se descartan.
+ * Cuando alguna se desvia, la posicion anterior pasa a ser el nuevo ancla y se guarda. La ventana
+ * tambien se cierra al llegar a <code>maxPending</code> posiciones o <code>maxInterval</code>
+ * milisegundos desde el ancla, de forma que un dispositivo parado sigue dejando rastro.
+ *
+ * No es seguro para varios hilos, {@link TrackStoreImpl} sincroniza cada recorrido.
+ */
+final class TrackSimplifier {
+
+    private static final double EARTH_RADIUS = 6371000d;
+
+    private final double tolerance;
+    private final int maxPending;
+    private final long maxInterval;
+
+    /** Ultimo punto guardado. */
+    private TrackPoint anchor;
+
+    /** Posiciones recibidas desde el ancla, que aun no se han guardado. */
+    private final List<TrackPoint> pending = new ArrayList<TrackPoint>();
+
+    TrackSimplifier(double tolerance, int maxPending, long maxInterval) {
+        this.tolerance = tolerance;
+        this.maxPending = maxPending;
+        this.maxInterval = maxInterval;
+    }
+
+    /**
+     * Añade una posicion al recorrido.
+     *
+     * @return el punto que debe guardarse o <code>null</code> si ninguno
+     */
+    TrackPoint offer(TrackPoint point) {
+        TrackPoint last = last();
+        if (last != null && point.getTime().before(last.getTime())) {
+            // posicion atrasada, se guarda tal cual sin alterar la ventana
+            return point;
+        }
+        if (anchor == null) {
+            anchor = point;
+            return point;
+        }
+        TrackPoint stored = null;
+        if (!pending.isEmpty()
+                && (pending.size() >= maxPending
+                        || point.getTime().getTime() - anchor.getTime().getTime() > maxInterval
+                        || deviates(point))) {
+            stored = pending.get(pending.size() - 1);
+            anchor = stored;
+            pending.clear();
+        }
+        pending.add(point);
+        return stored;
+    }
+
+    /**
+     * Copia del estado actual, para recuperarlo si no llega a guardarse el punto devuelto por
+     * {@link #offer}.
+     */
+    TrackSimplifier copy() {
+        TrackSimplifier copy = new TrackSimplifier(tolerance, maxPending, maxInterval);
+        copy.anchor = anchor;
+        copy.pending.addAll(pending);
+        return copy;
+    }
+
+    /** Ultima posicion recibida, guardada o no. */
+    TrackPoint last() {
+        return pending.isEmpty() ? anchor : pending.get(pending.size() - 1);
+    }
+
+    /** Si alguna posicion de la ventana se aleja del segmento entre el ancla y la nueva posicion. */
+    private boolean deviates(TrackPoint point) {
+        for (TrackPoint candidate : pending) {
+            if (distance(candidate, anchor, point) > tolerance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Simplifica un recorrido completo con el algoritmo de Douglas-Peucker.
+     *
+     * @return los puntos que se conservan, en el mismo orden
+     */
+    static List<TrackPoint> simplify(List<TrackPoint> points, double tolerance) {
+        if (points.size() < 3 || tolerance <= 0) {
+            return points;
+        }
+        boolean[] keep = new boolean[points.size()];
+        keep[0] = true;
+        keep[points.size() - 1] = true;
+        // pila de tramos [inicio, fin] pendientes, sin recursion para recorridos largos
+        int[] stack = new int[2 * points.size()];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = points.size() - 1;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            double max = 0;
+            int farthest = -1;
+            for (int i = start + 1; i < end; i++) {
+                double d = distance(points.get(i), points.get(start), points.get(end));
+                if (d > max) {
+                    max = d;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0 && max > tolerance) {
+                keep[farthest] = true;
+                stack[top++] = start;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = end;
+            }
+        }
+        List<TrackPoint> result = new ArrayList<TrackPoint>();
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                result.add(points.get(i));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Distancia en metros de un punto al segmento <code>a</code>-<code>b</code>. Se proyecta sobre
+     * un plano tangente en <code>a</code>, suficiente para las distancias de un recorrido.
+     */
+    static double distance(TrackPoint point, TrackPoint a, TrackPoint b) {
+        double scale = Math.cos(Math.toRadians(a.getLatitude()));
+        double bx = Math.toRadians(b.getLongitude() - a.getLongitude()) * scale * EARTH_RADIUS;
+        double by = Math.toRadians(b.getLatitude() - a.getLatitude()) * EARTH_RADIUS;
+        double px = Math.toRadians(point.getLongitude() - a.getLongitude()) * scale * EARTH_RADIUS;
+        double py = Math.toRadians(point.getLatitude() - a.getLatitude()) * EARTH_RADIUS;
+        double length = bx * bx + by * by;
+        double t = (length == 0) ? 0 : Math.max(0, Math.min(1, (px * bx + py * by) / length));
+        double dx = px - t * bx;
+        double dy = py - t * by;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,238 @@
+package org.inftel.tms.services;
+
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.inftel.tms.domain.GeoCells;
+import org.inftel.tms.domain.TrackPoint;
+
+/**
+ * Implementacion de {@link TrackStore}. Cada dispositivo tiene en memoria un
+ * {@link TrackSimplifier} con la ventana de posiciones aun no guardadas, que se pierde al reiniciar
+ * (la primera posicion tras el arranque siempre se guarda). La tolerancia se configura en metros
+ * con <code>tms.core.trackTolerance</code>, y la ventana se cierra como mucho cada
+ * <code>tms.core.trackMaxPending</code> posiciones o <code>tms.core.trackMaxInterval</code>
+ * minutos.
+ *
+ * Si la transaccion que guarda las posiciones se deshace, cada recorrido vuelve al estado que tenia
+ * antes de ella, para que el reintento de las tramas no duplique ni pierda puntos. Las posiciones
+ * de un dispositivo se reciben en orden, por lo que no hay otra transaccion que haya modificado el
+ * recorrido mientras tanto.
+ */
+@Singleton
+@ConcurrencyManagement(BEAN)
+public class TrackStoreImpl implements TrackStore {
+
+    static final int TOLERANCE = Integer.getInteger("tms.core.trackTolerance", 25);
+
+    static final int MAX_PENDING = Integer.getInteger("tms.core.trackMaxPending", 64);
+
+    static final int MAX_INTERVAL = Integer.getInteger("tms.core.trackMaxInterval", 15);
+
+    /** Numero maximo de geoceldas con las que se recubre el rectangulo de una busqueda. */
+    static final int MAX_COVER_CELLS = 16;
+
+    /** Clave de los recorridos previos a la transaccion actual. */
+    private static final String SAVED = TrackStoreImpl.class.getName() + ".saved";
+
+    @PersistenceContext(unitName = "tms-persistence")
+    private EntityManager em;
+
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+
+    private final ConcurrentMap<Long, TrackSimplifier> tracks = new ConcurrentHashMap<Long, TrackSimplifier>();
+
+    public TrackStoreImpl() {
+    }
+
+    @Override
+    public void record(Long deviceId, Date time, double latitude, double longitude) {
+        TrackSimplifier track = tracks.get(deviceId);
+        if (track == null) {
+            TrackSimplifier created = new TrackSimplifier(TOLERANCE, MAX_PENDING,
+                    TimeUnit.MINUTES.toMillis(MAX_INTERVAL));
+            track = tracks.putIfAbsent(deviceId, created);
+            if (track == null) {
+                track = created;
+            }
+        }
+        TrackPoint stored;
+        synchronized (track) {
+            Map<Long, TrackSimplifier> saved = saved();
+            if (saved != null && !saved.containsKey(deviceId)) {
+                saved.put(deviceId, track.copy());
+            }
+            stored = track.offer(new TrackPoint(deviceId, time, latitude, longitude));
+        }
+        if (stored != null) {
+            em.persist(stored);
+        }
+    }
+
+    /**
+     * Estado de los recorridos modificados en la transaccion actual antes de modificarlos, que se
+     * recupera si se deshace.
+     *
+     * @return <code>null</code> si no hay transaccion
+     */
+    private Map<Long, TrackSimplifier> saved() {
+        if (txRegistry == null || txRegistry.getTransactionStatus() != Status.STATUS_ACTIVE) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<Long, TrackSimplifier> saved = (Map<Long, TrackSimplifier>) txRegistry
+                .getResource(SAVED);
+        if (saved == null) {
+            final Map<Long, TrackSimplifier> created = new HashMap<Long, TrackSimplifier>();
+            txRegistry.putResource(SAVED, created);
+            txRegistry.registerInterposedSynchronization(new Synchronization() {
+
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != Status.STATUS_COMMITTED) {
+                        tracks.putAll(created);
+                    }
+                }
+            });
+            saved = created;
+        }
+        return saved;
+    }
+
+    /**
+     * Las geoceldas que recubren el rectangulo acotan la busqueda de los dispositivos sobre el
+     * indice, como en {@link AlertFacadeImpl#findInBox}. Despues se leen los puntos de cada
+     * dispositivo empezando por los mas recientes, para que el limite descarte los mas antiguos sin
+     * que un dispositivo con muchas posiciones deje sin puntos al resto.
+     */
+    @Override
+    public List<Track> findTracks(double south, double west, double north, double east,
+            Date from, Date to, double tolerance, int maxPoints) {
+        int resolution = GeoCells.resolutionFor(south, west, north, east, MAX_COVER_CELLS);
+        List<String> cells = GeoCells.cover(south, west, north, east, resolution);
+        TypedQuery<Long> devices = em.createQuery(
+                inBox("SELECT DISTINCT p.deviceId FROM TrackPoint p WHERE ", cells.size(),
+                        west > east, from, to), Long.class);
+        bind(devices, cells, south, west, north, east, from, to);
+        TypedQuery<TrackPoint> query = em.createQuery(
+                inBox("SELECT p FROM TrackPoint p WHERE p.deviceId = :deviceId AND ",
+                        cells.size(), west > east, from, to) + " ORDER BY p.time DESC",
+                TrackPoint.class);
+        bind(query, cells, south, west, north, east, from, to);
+        query.setMaxResults(maxPoints);
+
+        Map<Long, List<TrackPoint>> points = new TreeMap<Long, List<TrackPoint>>();
+        for (Long deviceId : devices.getResultList()) {
+            List<TrackPoint> list = new ArrayList<TrackPoint>(query.setParameter("deviceId",
+                    deviceId).getResultList());
+            Collections.reverse(list);
+            // la ultima posicion del dispositivo aun puede no estar guardada
+            TrackSimplifier track = tracks.get(deviceId);
+            if (track != null) {
+                TrackPoint last;
+                synchronized (track) {
+                    last = track.last();
+                }
+                if (last != null && last.getId() == null
+                        && inside(last, south, west, north, east, from, to)) {
+                    list.add(last);
+                }
+            }
+            points.put(deviceId, list);
+        }
+
+        List<Track> result = new ArrayList<Track>(points.size());
+        for (Map.Entry<Long, List<TrackPoint>> entry : points.entrySet()) {
+            result.add(new Track(entry.getKey(), TrackSimplifier.simplify(entry.getValue(),
+                    tolerance)));
+        }
+        return result;
+    }
+
+    /**
+     * Condiciones de los puntos dentro del rectangulo, los parametros se asignan con bind.
+     *
+     * @param wraps si el rectangulo cruza el antimeridiano
+     */
+    private static String inBox(String select, int cells, boolean wraps, Date from, Date to) {
+        StringBuilder jpql = new StringBuilder(select).append('(');
+        for (int i = 0; i < cells; i++) {
+            jpql.append((i > 0) ? " OR " : "").append("p.geocell LIKE :cell").append(i);
+        }
+        jpql.append(") AND p.latitude BETWEEN :south AND :north");
+        if (!wraps) {
+            jpql.append(" AND p.longitude BETWEEN :west AND :east");
+        } else {
+            jpql.append(" AND (p.longitude >= :west OR p.longitude <= :east)");
+        }
+        if (from != null) {
+            jpql.append(" AND p.time >= :fromDate");
+        }
+        if (to != null) {
+            jpql.append(" AND p.time < :toDate");
+        }
+        return jpql.toString();
+    }
+
+    private static void bind(Query query, List<String> cells, double south, double west,
+            double north, double east, Date from, Date to) {
+        for (int i = 0; i < cells.size(); i++) {
+            query.setParameter("cell" + i, cells.get(i) + "%");
+        }
+        query.setParameter("south", south);
+        query.setParameter("north", north);
+        query.setParameter("west", west);
+        query.setParameter("east", east);
+        if (from != null) {
+            query.setParameter("fromDate", from);
+        }
+        if (to != null) {
+            query.setParameter("toDate", to);
+        }
+    }
+
+    private static boolean inside(TrackPoint point, double south, double west, double north,
+            double east, Date from, Date to) {
+        double lng = point.getLongitude();
+        boolean longitude = (west <= east) ? lng >= west && lng <= east : lng >= west
+                || lng <= east;
+        return longitude && point.getLatitude() >= south && point.getLatitude() <= north
+                && (from == null || !point.getTime().before(from))
+                && (to == null || point.getTime().before(to));
+    }
+
+    /**
+     * Constructor interno usado en los test.
+     *
+     * @param em gestor de entidades
+     */
+    TrackStoreImpl(EntityManager em) {
+        this.em = em;
+    }
+}
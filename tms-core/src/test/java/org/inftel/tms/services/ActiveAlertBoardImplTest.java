@@ -0,0 +1,92 @@
+package org.inftel.tms.services;
+
+import java.util.Date;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+import org.dbunit.operation.DatabaseOperation;
+import org.eclipse.persistence.internal.jpa.EntityManagerImpl;
+import org.inftel.tms.domain.AlertPriority;
+import org.inftel.tms.domain.AlertType;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ */
+public class ActiveAlertBoardImplTest {
+
+  static EntityManagerFactory emf;
+  static EntityManager em;
+  static IDatabaseConnection connection;
+  static IDataSet dataset;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    emf = Persistence.createEntityManagerFactory("tms-persistence-mocked");
+    em = emf.createEntityManager();
+    connection = new DatabaseConnection(
+            ((EntityManagerImpl) (em.getDelegate())).getServerSession().getAccessor().getConnection());
+    FlatXmlDataSetBuilder builder = new FlatXmlDataSetBuilder();
+    dataset = builder.build(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream("alert-test-dataset.xml"));
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    em.close();
+    emf.close();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    DatabaseOperation.CLEAN_INSERT.execute(connection, dataset);
+    em.clear();
+  }
+
+  @Test
+  public void testPreload() throws Exception {
+    ActiveAlertBoardImpl board = new ActiveAlertBoardImpl(em, 4);
+    // las alertas del dataset no tienen intervencion de cierre
+    assertEquals(5, board.findActiveAlerts().size());
+    assertEquals(0, board.getVersion());
+    assertTrue(board.findChangesSince(0).isEmpty());
+  }
+
+  @Test
+  public void testChangesSince() throws Exception {
+    ActiveAlertBoardImpl board = new ActiveAlertBoardImpl(em, 4);
+    board.alertCreated(alert(1l));
+    board.alertClosed(-1000l);
+    board.alertClosed(-1000l); // ya cerrada, no genera cambio
+    assertEquals(2, board.getVersion());
+    assertEquals(5, board.findActiveAlerts().size());
+
+    List<ActiveAlertChange> changes = board.findChangesSince(0);
+    assertEquals(2, changes.size());
+    assertTrue(changes.get(0).isAdded());
+    assertEquals(Long.valueOf(1), changes.get(0).getAlert().getId());
+    assertFalse(changes.get(1).isAdded());
+    assertEquals(Long.valueOf(-1000), changes.get(1).getAlert().getId());
+    assertEquals(1, board.findChangesSince(1).size());
+
+    // el registro solo conserva los ultimos 4 cambios
+    board.alertCreated(alert(2l));
+    board.alertCreated(alert(3l));
+    board.alertCreated(alert(4l));
+    assertEquals(5, board.getVersion());
+    assertNull(board.findChangesSince(0));
+    assertEquals(4, board.findChangesSince(1).size());
+    assertNull(board.findChangesSince(6));
+  }
+
+  private static ActiveAlert alert(Long id) {
+    return new ActiveAlert(id, new Date(), AlertType.DEVICE, AlertPriority.NORMAL, "test",
+            "affected", null, null);
+  }
+}
@@ -1,6 +1,9 @@
 package org.inftel.tms.services;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
@@ -11,6 +14,7 @@ import org.dbunit.dataset.IDataSet;
 import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
 import org.dbunit.operation.DatabaseOperation;
 import org.eclipse.persistence.internal.jpa.EntityManagerImpl;
+import org.inftel.tms.domain.Alert;
 import org.inftel.tms.domain.AlertType;
 import static org.junit.Assert.*;
 import org.junit.*;
@@ -65,7 +69,60 @@ public class AlertFacadeImplTest {
     int count = service.count();
     assertEquals(5, count);
   }
+
+  @Test
+  public void testFindRangeByKey() throws Exception {
+    AlertFacade service = new AlertFacadeImpl(em);
+    List<Alert> first = service.findRangeAfter(null, 2);
+    assertEquals(2, first.size());
+    assertEquals(Long.valueOf(-1004), first.get(0).getId());
+    assertEquals(Long.valueOf(-1003), first.get(1).getId());
+
+    List<Alert> second = service.findRangeAfter(first.get(1).getId(), 2);
+    assertEquals(Long.valueOf(-1002), second.get(0).getId());
+    assertEquals(Long.valueOf(-1001), second.get(1).getId());
+
+    List<Alert> last = service.findRangeAfter(second.get(1).getId(), 2);
+    assertEquals(1, last.size());
+    assertEquals(Long.valueOf(-1000), last.get(0).getId());
+
+    // la pagina anterior se devuelve en el mismo orden ascendente
+    List<Alert> previous = service.findRangeBefore(second.get(0).getId(), 2);
+    assertEquals(first.size(), previous.size());
+    assertEquals(first.get(0).getId(), previous.get(0).getId());
+    assertEquals(first.get(1).getId(), previous.get(1).getId());
+  }
   
+  @Test
+  public void testForEach() throws Exception {
+    AlertFacade service = new AlertFacadeImpl(em);
+    final List<Long> visited = new ArrayList<Long>();
+    EntityHandler<Alert> handler = new EntityHandler<Alert>() {
+
+      @Override
+      public boolean handle(Alert alert) {
+        visited.add(alert.getId());
+        return true;
+      }
+    };
+    assertEquals(5, service.forEach(null, null, handler));
+    assertEquals(Long.valueOf(-1004), visited.get(0));
+    assertEquals(Long.valueOf(-1000), visited.get(4));
+
+    // fuera del intervalo de creacion
+    assertEquals(0, service.forEach(null, new GregorianCalendar(2012, 0, 15).getTime(), handler));
+
+    // el receptor puede detener el recorrido
+    int count = service.forEach(null, null, new EntityHandler<Alert>() {
+
+      @Override
+      public boolean handle(Alert alert) {
+        return false;
+      }
+    });
+    assertEquals(1, count);
+  }
+
   @Test
   public void testCountByType() throws Exception {
     AlertFacade service = new AlertFacadeImpl(em);
@@ -84,4 +141,26 @@ public class AlertFacadeImplTest {
     tx.commit();
     assertEquals(0, count);
   }
+
+  @Test
+  public void testFindInBox() throws Exception {
+    AlertFacade service = new AlertFacadeImpl(em);
+    // alrededor de Malaga, la alerta de Madrid queda fuera
+    List<Alert> found = service.findInBox(36.5, -4.8, 37.0, -4.0, null, null, 10);
+    assertEquals(2, found.size());
+    assertEquals(1, service.findInBox(36.5, -4.8, 37.0, -4.0, null, null, 1).size());
+
+    // fuera del intervalo de creacion
+    Date after = new GregorianCalendar(2012, 0, 16).getTime();
+    assertTrue(service.findInBox(36.5, -4.8, 37.0, -4.0, after, null, 10).isEmpty());
+
+    // las dos alertas de Malaga forman un unico grupo
+    List<GeoCluster> clusters = service.findClusters(36.0, -6.0, 41.0, -3.0, null, null);
+    assertEquals(2, clusters.size());
+    long total = 0;
+    for (GeoCluster cluster : clusters) {
+      total += cluster.getCount();
+    }
+    assertEquals(3, total);
+  }
 }
@@ -0,0 +1,96 @@
+package org.inftel.tms.services;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+import org.dbunit.operation.DatabaseOperation;
+import org.eclipse.persistence.internal.jpa.EntityManagerImpl;
+import org.inftel.tms.domain.Device;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ */
+public class DeviceRegistryTest {
+
+  static EntityManagerFactory emf;
+  static EntityManager em;
+  static IDatabaseConnection connection;
+  static IDataSet dataset;
+  static EntityTransaction tx;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    emf = Persistence.createEntityManagerFactory("tms-persistence-mocked");
+    em = emf.createEntityManager();
+    connection = new DatabaseConnection(
+            ((EntityManagerImpl) (em.getDelegate())).getServerSession().getAccessor().getConnection());
+    FlatXmlDataSetBuilder builder = new FlatXmlDataSetBuilder();
+    dataset = builder.build(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream("startup-test-dataset.xml"));
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    em.close();
+    emf.close();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    DatabaseOperation.CLEAN_INSERT.execute(connection, dataset);
+    em.clear();
+    tx = em.getTransaction();
+  }
+
+  @Test
+  public void testFindByMobile() throws Exception {
+    DeviceRegistry registry = new DeviceRegistry(em, 100);
+    // el dispositivo del dataset se carga al arrancar
+    assertEquals(1, registry.size());
+
+    DeviceSnapshot snapshot = registry.findByMobile("666123123");
+    assertNotNull(snapshot);
+    assertEquals(Long.valueOf(-1), snapshot.getDeviceId());
+    assertEquals(Long.valueOf(-1), snapshot.getAffectedId());
+    assertEquals(Long.valueOf(-1), snapshot.getPersonId());
+  }
+
+  @Test
+  public void testUnknownMobileIsCachedUntilInvalidated() throws Exception {
+    DeviceRegistry registry = new DeviceRegistry(em, 100);
+    assertNull(registry.findByMobile("600000000"));
+
+    Device device = new Device();
+    device.setMobileNumber("600000000");
+    tx.begin();
+    em.persist(device);
+    tx.commit();
+
+    // la entrada negativa sigue en cache hasta que se invalida
+    assertNull(registry.findByMobile("600000000"));
+    registry.invalidate("600000000");
+    DeviceSnapshot snapshot = registry.findByMobile("600000000");
+    assertNotNull(snapshot);
+    assertEquals(device.getId(), snapshot.getDeviceId());
+    assertNull(snapshot.getAffectedId());
+
+    registry.invalidateDevice(device.getId());
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void testCapacityIsBounded() throws Exception {
+    DeviceRegistry registry = new DeviceRegistry(em, 16);
+    for (int i = 0; i < 100; i++) {
+      assertNull(registry.findByMobile("6000000" + i));
+    }
+    assertTrue(registry.size() <= 16);
+  }
+}
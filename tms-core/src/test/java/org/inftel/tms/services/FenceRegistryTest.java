@@ -0,0 +1,77 @@
+package org.inftel.tms.services;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ */
+public class FenceRegistryTest {
+
+  FenceRegistry registry;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    EntityManager em = mock(EntityManager.class);
+    TypedQuery<Object[]> query = mock(TypedQuery.class);
+    when(em.createNamedQuery(anyString(), eq(Object[].class))).thenReturn(query);
+    when(query.getResultList()).thenReturn(Collections.<Object[]>emptyList());
+    registry = new FenceRegistry(em);
+    // casa de la persona 7, 200 metros, y zona prohibida de la persona 7 a 1 km al norte
+    registry.put(1L, 7L, "casa", 36.7213, -4.4214, 200, true);
+    registry.put(2L, 7L, "puerto", 36.7303, -4.4214, 300, false);
+  }
+
+  @Test
+  public void testInclusionExit() throws Exception {
+    assertTrue(registry.evaluate(7L, 36.7214, -4.4215).isEmpty());
+    // a unos 500 metros de casa
+    List<FenceCrossing> crossings = registry.evaluate(7L, 36.7258, -4.4214);
+    assertEquals(1, crossings.size());
+    assertEquals(Long.valueOf(1L), crossings.get(0).getFenceId());
+    assertFalse(crossings.get(0).isEntered());
+    // ya estaba fuera
+    assertTrue(registry.evaluate(7L, 36.7258, -4.4214).isEmpty());
+  }
+
+  @Test
+  public void testExclusionEntry() throws Exception {
+    List<FenceCrossing> crossings = registry.evaluate(7L, 36.7300, -4.4210);
+    assertEquals(1, crossings.size());
+    assertEquals("puerto", crossings.get(0).getName());
+    assertTrue(crossings.get(0).isEntered());
+    // sigue dentro, no se repite la alerta
+    assertTrue(registry.evaluate(7L, 36.7301, -4.4212).isEmpty());
+  }
+
+  @Test
+  public void testCrossingsWithoutMoved() throws Exception {
+    Set<Long> now = registry.locate(7L, 36.7300, -4.4210);
+    assertEquals(1, registry.crossings(registry.inside(7L), now).size());
+    // sin confirmar la posicion el reintento vuelve a encontrar el cruce
+    assertTrue(registry.inside(7L).isEmpty());
+    assertEquals(1, registry.crossings(registry.inside(7L), now).size());
+    registry.moved(7L, now);
+    assertTrue(registry.crossings(registry.inside(7L), now).isEmpty());
+  }
+
+  @Test
+  public void testOtherPerson() throws Exception {
+    assertTrue(registry.evaluate(8L, 36.7300, -4.4210).isEmpty());
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    registry.remove(2L);
+    assertEquals(1, registry.size());
+    assertTrue(registry.evaluate(7L, 36.7300, -4.4210).isEmpty());
+  }
+}
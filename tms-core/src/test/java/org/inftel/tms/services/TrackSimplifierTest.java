@@ -0,0 +1,96 @@
+package org.inftel.tms.services;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.inftel.tms.domain.TrackPoint;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ */
+public class TrackSimplifierTest {
+
+  /** Unos 11 metros de latitud. */
+  static final double STEP = 0.0001;
+
+  @Test
+  public void testStraightLineKeepsEnds() throws Exception {
+    TrackSimplifier track = new TrackSimplifier(25, 64, 60 * 60 * 1000l);
+    List<TrackPoint> stored = new ArrayList<TrackPoint>();
+    for (int i = 0; i < 50; i++) {
+      offer(track, stored, point(i, 36.7 + i * STEP, -4.4));
+    }
+    // solo se guarda el primer punto, el ultimo sigue pendiente
+    assertEquals(1, stored.size());
+    assertEquals(36.7 + 49 * STEP, track.last().getLatitude(), 1e-9);
+  }
+
+  @Test
+  public void testTurnStoresCorner() throws Exception {
+    TrackSimplifier track = new TrackSimplifier(25, 64, 60 * 60 * 1000l);
+    List<TrackPoint> stored = new ArrayList<TrackPoint>();
+    for (int i = 0; i < 20; i++) {
+      offer(track, stored, point(i, 36.7 + i * STEP, -4.4));
+    }
+    // giro de 90 grados, se guarda un punto a menos de la tolerancia de la esquina
+    TrackPoint corner = point(19, 36.7 + 19 * STEP, -4.4);
+    for (int i = 1; i < 20; i++) {
+      offer(track, stored, point(20 + i, 36.7 + 19 * STEP, -4.4 + i * STEP));
+    }
+    assertEquals(2, stored.size());
+    assertTrue(TrackSimplifier.distance(corner, stored.get(1), stored.get(1)) <= 25);
+  }
+
+  @Test
+  public void testStoppedDeviceLeavesTrace() throws Exception {
+    TrackSimplifier track = new TrackSimplifier(25, 10, 60 * 60 * 1000l);
+    List<TrackPoint> stored = new ArrayList<TrackPoint>();
+    for (int i = 0; i < 30; i++) {
+      offer(track, stored, point(i, 36.7, -4.4));
+    }
+    // el primero y uno cada 10 posiciones
+    assertEquals(3, stored.size());
+    assertEquals(10000l, stored.get(1).getTime().getTime());
+  }
+
+  @Test
+  public void testCopyRepeatsOffer() throws Exception {
+    TrackSimplifier track = new TrackSimplifier(25, 10, 60 * 60 * 1000l);
+    List<TrackPoint> stored = new ArrayList<TrackPoint>();
+    for (int i = 0; i < 11; i++) {
+      offer(track, stored, point(i, 36.7, -4.4));
+    }
+    TrackSimplifier saved = track.copy();
+    TrackPoint first = track.offer(point(11, 36.7, -4.4));
+    assertEquals(10000l, first.getTime().getTime());
+    // la copia no ve la posicion ofrecida despues, el reintento guarda el mismo punto
+    assertSame(first, saved.offer(point(11, 36.7, -4.4)));
+    assertEquals(11000l, saved.last().getTime().getTime());
+  }
+
+  @Test
+  public void testSimplify() throws Exception {
+    List<TrackPoint> points = new ArrayList<TrackPoint>();
+    for (int i = 0; i < 20; i++) {
+      points.add(point(i, 36.7 + i * STEP, -4.4));
+    }
+    points.add(point(20, 36.7 + 19 * STEP, -4.4 + 10 * STEP));
+    List<TrackPoint> simplified = TrackSimplifier.simplify(points, 25);
+    assertEquals(3, simplified.size());
+    assertSame(points.get(19), simplified.get(1));
+    assertSame(points, TrackSimplifier.simplify(points, 0));
+  }
+
+  private static void offer(TrackSimplifier track, List<TrackPoint> stored, TrackPoint point) {
+    TrackPoint result = track.offer(point);
+    if (result != null) {
+      stored.add(result);
+    }
+  }
+
+  private static TrackPoint point(int second, double latitude, double longitude) {
+    return new TrackPoint(1l, new Date(second * 1000l), latitude, longitude);
+  }
+}
@@ -7,11 +7,15 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.StringTokenizer;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.inftel.tms.services.UserFacade;
 import org.inftel.tms.simulator.model.Parameters;
 
@@ -34,6 +38,26 @@ public class Fachada {
      * JNDI de USER_FACADE
      */
     public static final String USER_FACADE_JNDI = "java:global/org.inftel.tms_tms-bundle_ear_1.0-SNAPSHOT/tms-core-1.0-SNAPSHOT/UserFacade!org.inftel.tms.services.UserFacadeRemote";  
+
+    /**
+     * Conexiones simultaneas con el servidor, compartidas por todas las fachadas. Se configura con
+     * la propiedad del sistema <code>tms.simulator.maxConnections</code>.
+     */
+    public static final int MAX_CONNECTIONS = Integer.getInteger("tms.simulator.maxConnections", 20);
+
+    /**
+     * Cliente HTTP compartido. Las conexiones se mantienen abiertas (keep-alive) y se reutilizan
+     * entre peticiones, en lugar de abrir una conexion TCP por cada trama.
+     */
+    private static final CloseableHttpClient client;
+
+    static {
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(MAX_CONNECTIONS);
+        connections.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+        client = HttpClients.custom().setConnectionManager(connections).build();
+    }
+
     /**
      * Parametros de la trama
      */
@@ -82,12 +106,11 @@ public class Fachada {
      * @throws IOException
      */
     public HttpResponse sendEmptyMessage() throws URISyntaxException, IOException{    
-        HttpClient client = new DefaultHttpClient();
         HttpPost post = new HttpPost();    
         post.setHeader("sender-mobile-number", parameters.getSenderMobileNumber());
         URI uri = new URI(parameters.getURLservlet());
         post.setURI(uri);
-        return client.execute(post);
+        return execute(post);
   }  
   
   /**
@@ -119,6 +142,37 @@ public class Fachada {
         }
     }
   
+    /**
+     * Envia la peticion con el cliente compartido. La respuesta se lee completa antes de
+     * devolverla, de modo que la conexion vuelve al pool aunque quien llama no consuma la
+     * respuesta.
+     * @param post peticion
+     * @return HttpResponse con el contenido ya leido
+     * @throws IOException
+     */
+    protected HttpResponse execute(HttpPost post) throws IOException {
+        CloseableHttpResponse response = client.execute(post);
+        try {
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                response.setEntity(new BufferedHttpEntity(entity));
+            }
+            return response;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Cierra las conexiones del cliente compartido. Tras llamarlo no se pueden enviar mas tramas.
+     */
+    public static void shutdown() {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+    }
+
     // Parsea una trama y guarda sus parametros en el atributo Parameters de la fachada
     private void parseTrama(String trama) {
         StringTokenizer tokens = new StringTokenizer(trama.trim(), "&#*$");                
@@ -144,13 +198,12 @@ public class Fachada {
      * @throws IOException
      */
     public HttpResponse enviarACK() throws URISyntaxException, IOException {
-        HttpClient client = new DefaultHttpClient();
         HttpPost post = new HttpPost();    
         post.setHeader("sender-mobile-number", parameters.getSenderMobileNumber());
         URI uri = new URI(parameters.getURLservlet());
         post.setURI(uri);
         post.setEntity(new StringEntity("*$SR0&"+parameters.getKey()+"&"+parameters.getId()+"#"));
-        return client.execute(post);
+        return execute(post);
     }
 
     /**
@@ -160,7 +213,6 @@ public class Fachada {
      * @throws IOException
      */
     public HttpResponse enviarUserAlarm() throws URISyntaxException, IOException {                
-        HttpClient client = new DefaultHttpClient();
         HttpPost post = new HttpPost();    
         post.setHeader("sender-mobile-number", parameters.getSenderMobileNumber());
         URI uri = new URI(parameters.getURLservlet());
@@ -172,7 +224,7 @@ public class Fachada {
                 +parameters.getTime()
                 +parameters.getLocation()                
                 +"#"));
-        return client.execute(post);        
+        return execute(post);        
     }
     
     /**
@@ -184,7 +236,6 @@ public class Fachada {
      * @throws IOException
      */
     public HttpResponse enviarDeviceAlarm() throws URISyntaxException, UnsupportedEncodingException, IOException {
-        HttpClient client = new DefaultHttpClient();
         HttpPost post = new HttpPost();    
         post.setHeader("sender-mobile-number", parameters.getSenderMobileNumber());
         URI uri = new URI(parameters.getURLservlet());
@@ -196,7 +247,7 @@ public class Fachada {
                 +parameters.getTime()
                 +parameters.getLocation()                
                 +"&DT"+parameters.getTemperature()+"#"));
-        return client.execute(post);  
+        return execute(post);  
     }
     
     /**
@@ -209,7 +260,6 @@ public class Fachada {
      * @throws IOException
      */
     public HttpResponse enviarTechnicalAlarm() throws URISyntaxException, UnsupportedEncodingException, IOException {
-        HttpClient client = new DefaultHttpClient();
         HttpPost post = new HttpPost();    
         post.setHeader("sender-mobile-number", parameters.getSenderMobileNumber());
         URI uri = new URI(parameters.getURLservlet());
@@ -222,7 +272,48 @@ public class Fachada {
                 +parameters.getLocation()                
                 +"&PB"+parameters.getBattery()
                 +"&PC000#"));
-        return client.execute(post);  
+        return execute(post);  
+    }
+
+    /**
+     * Envia una posicion de seguimiento: una alarma técnica con la causa personalizada "track",
+     * que el servidor añade al recorrido del terminal sin generar una alerta.
+     * @return HttpResponse
+     * @throws URISyntaxException
+     * @throws UnsupportedEncodingException
+     * @throws IOException
+     */
+    public HttpResponse enviarTrack() throws URISyntaxException, UnsupportedEncodingException, IOException {
+        HttpPost post = new HttpPost();    
+        post.setHeader("sender-mobile-number", parameters.getSenderMobileNumber());
+        URI uri = new URI(parameters.getURLservlet());
+        post.setURI(uri);
+        parameters.setDateandTime();
+        post.setEntity(new StringEntity("*$AT2&"
+                +parameters.getKey()
+                +parameters.getDate()
+                +parameters.getTime()
+                +parameters.getLocation()                
+                +"&PB"+parameters.getBattery()
+                +"&XCUtrack#"));
+        return execute(post);  
+    }
+
+    /**
+     * Envia una trama ya construida, por ejemplo una trama grabada que se reproduce.
+     * @param trama trama paSOS completa
+     * @return HttpResponse
+     * @throws URISyntaxException
+     * @throws UnsupportedEncodingException
+     * @throws IOException
+     */
+    public HttpResponse enviarTrama(String trama) throws URISyntaxException, UnsupportedEncodingException, IOException {
+        HttpPost post = new HttpPost();    
+        post.setHeader("sender-mobile-number", parameters.getSenderMobileNumber());
+        URI uri = new URI(parameters.getURLservlet());
+        post.setURI(uri);
+        post.setEntity(new StringEntity(trama));
+        return execute(post);  
     }
 
     public void setBattery(String battery){
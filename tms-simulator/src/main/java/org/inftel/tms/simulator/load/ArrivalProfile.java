@@ -0,0 +1,55 @@
+package org.inftel.tms.simulator.load;
+
+/**
+ * Perfil de llegada de peticiones del generador de carga. Cada perfil calcula la tasa de
+ * peticiones por segundo en cada instante de la prueba a partir de la tasa base.
+ */
+public enum ArrivalProfile {
+
+    /** Tasa constante durante toda la prueba. */
+    STEADY {
+        @Override
+        public double rate(double base, long elapsed, long duration) {
+            return base;
+        }
+    },
+
+    /**
+     * Rafagas de {@value #BURST_FACTOR} veces la tasa base durante los primeros
+     * {@value #BURST_LENGTH} ms de cada {@value #BURST_PERIOD} ms, como cuando muchos terminales
+     * envian a la vez tras recuperar la cobertura.
+     */
+    BURST {
+        @Override
+        public double rate(double base, long elapsed, long duration) {
+            return (elapsed % BURST_PERIOD < BURST_LENGTH) ? base * BURST_FACTOR : base;
+        }
+    },
+
+    /**
+     * Un dia completo comprimido en la duracion de la prueba: empieza de madrugada con un 20% de
+     * la tasa base, llega al 180% a mitad de la prueba y vuelve a bajar. La tasa media es la base.
+     */
+    DIURNAL {
+        @Override
+        public double rate(double base, long elapsed, long duration) {
+            double day = 2 * Math.PI * elapsed / Math.max(duration, 1);
+            return base * (1 - 0.8 * Math.cos(day));
+        }
+    };
+
+    static final int BURST_FACTOR = 5;
+
+    static final long BURST_LENGTH = 10000;
+
+    static final long BURST_PERIOD = 60000;
+
+    /**
+     * Tasa de llegada en un instante de la prueba.
+     * @param base tasa base en peticiones por segundo
+     * @param elapsed milisegundos desde el inicio de la prueba
+     * @param duration duracion total de la prueba en milisegundos
+     * @return peticiones por segundo
+     */
+    public abstract double rate(double base, long elapsed, long duration);
+}
@@ -0,0 +1,100 @@
+package org.inftel.tms.simulator.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias en microsegundos que se puede registrar desde varios hilos. Usa los
+ * mismos intervalos logaritmicos que los histogramas de estadisticas del servidor: los valores
+ * menores que {@value #LINEAR_BUCKETS} son exactos y a partir de ahi cada potencia de dos se divide
+ * en {@value #SUB_BUCKETS} intervalos, con un error relativo maximo de 1/64.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKETS = 64;
+
+    static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+    static final int BUCKETS = LINEAR_BUCKETS + 56 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Registra una latencia.
+     * @param micros latencia en microsegundos
+     */
+    public void record(long micros) {
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Latencia media.
+     * @return media en microsegundos, 0 si no hay muestras
+     */
+    public double getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Latencia por debajo de la cual quedan el porcentaje indicado de las muestras.
+     * @param percentile entre 0 y 100
+     * @return latencia en microsegundos, 0 si no hay muestras
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= target) {
+                return Math.min(highestValueOf(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** Intervalo que contiene el valor, los valores negativos se tratan como 0. */
+    static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (value < 0) ? 0 : (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        int mantissa = (int) (value >>> shift);
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    /** Mayor valor que pertenece al intervalo. */
+    static long highestValueOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long mantissa = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        long highest = ((mantissa + 1) << shift) - 1;
+        return (highest < 0) ? Long.MAX_VALUE : highest;
+    }
+}
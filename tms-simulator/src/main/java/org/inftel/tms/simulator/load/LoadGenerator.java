@@ -0,0 +1,165 @@
+package org.inftel.tms.simulator.load;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.inftel.tms.simulator.controller.Fachada;
+
+/**
+ * Generador de carga sin interfaz grafica. Simula muchos {@link VirtualTerminal} contra el
+ * conector y al terminar informa del rendimiento y los percentiles de latencia. Se usa para
+ * dimensionar los nodos del conector.
+ *
+ * Las peticiones llegan a la tasa que marca el {@link ArrivalProfile}, independientemente de lo
+ * que tarde el servidor en responder (carga abierta). La latencia se mide desde el instante en que
+ * debia enviarse cada peticion, de modo que si el servidor o el propio generador se saturan el
+ * retraso acumulado aparece en los percentiles en lugar de ocultarse. Cada peticion se envia a un
+ * terminal libre elegido al azar; si no hay ninguno libre se cuenta como perdida.
+ *
+ * Uso: <code>java -jar tms-simulator.jar --url http://host:8080/tms-web/connector
+ * --terminals 5000 --rate 200 --profile diurnal --duration 600</code>. La concurrencia se
+ * configura con la propiedad <code>tms.simulator.maxConnections</code> de {@link Fachada}.
+ */
+public class LoadGenerator {
+
+    /** Cada cuanto se despachan las peticiones pendientes. */
+    private static final long TICK_MILLIS = 10;
+
+    private String url = "http://localhost:8080/tms-web/connector";
+    private int terminals = 1000;
+    private long firstNumber = 600000000L;
+    private double rate = 100;
+    private ArrivalProfile profile = ArrivalProfile.STEADY;
+    private long duration = 60;
+    private long reportInterval = 10;
+    private double tracking = 0.9;
+    private long seed = System.currentTimeMillis();
+
+    /**
+     * Lee las opciones de la linea de comandos.
+     * @param args pares <code>--opcion valor</code>
+     */
+    public LoadGenerator(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("falta el valor de " + args[i]);
+            }
+            String option = args[i], value = args[i + 1];
+            if ("--url".equals(option)) {
+                url = value;
+            } else if ("--terminals".equals(option)) {
+                terminals = Integer.parseInt(value);
+            } else if ("--first-number".equals(option)) {
+                firstNumber = Long.parseLong(value);
+            } else if ("--rate".equals(option)) {
+                rate = Double.parseDouble(value);
+            } else if ("--profile".equals(option)) {
+                profile = ArrivalProfile.valueOf(value.toUpperCase());
+            } else if ("--duration".equals(option)) {
+                duration = Long.parseLong(value);
+            } else if ("--report".equals(option)) {
+                reportInterval = Long.parseLong(value);
+            } else if ("--tracking".equals(option)) {
+                tracking = Double.parseDouble(value);
+            } else if ("--seed".equals(option)) {
+                seed = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("opcion desconocida: " + option);
+            }
+        }
+    }
+
+    /**
+     * Ejecuta la prueba y escribe los resultados por la salida estandar.
+     * @return resultados de la prueba
+     * @throws InterruptedException
+     */
+    public LoadReport run() throws InterruptedException {
+        Random random = new Random(seed);
+        VirtualTerminal[] devices = new VirtualTerminal[terminals];
+        for (int i = 0; i < terminals; i++) {
+            devices[i] = new VirtualTerminal(url, String.valueOf(firstNumber + i), tracking,
+                    new Random(random.nextLong()));
+        }
+        System.out.printf("%d terminales, %.1f peticiones/s, perfil %s, %d s, %d conexiones%n",
+                terminals, rate, profile, duration, Fachada.MAX_CONNECTIONS);
+
+        LoadReport report = new LoadReport();
+        ExecutorService executor = Executors.newFixedThreadPool(Fachada.MAX_CONNECTIONS);
+        long lost = 0;
+        try {
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(duration);
+            long nextReport = start + TimeUnit.SECONDS.toNanos(reportInterval);
+            long durationMillis = TimeUnit.SECONDS.toMillis(duration);
+            double due = 0;
+            long last = start;
+            for (long now = start; now < end; now = System.nanoTime()) {
+                // peticiones que corresponden al tiempo transcurrido segun el perfil
+                double perSecond = profile.rate(rate, (now - start) / 1000000, durationMillis);
+                due += perSecond * (now - last) / 1e9;
+                last = now;
+                for (; due >= 1; due--) {
+                    VirtualTerminal device = pick(devices, random);
+                    if (device == null) {
+                        lost++;
+                    } else {
+                        executor.execute(new Step(device, now, report));
+                    }
+                }
+                if (now >= nextReport) {
+                    report.printInterval(System.out);
+                    nextReport += TimeUnit.SECONDS.toNanos(reportInterval);
+                }
+                Thread.sleep(TICK_MILLIS);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        report.printTotal(System.out);
+        if (lost > 0) {
+            System.out.printf("%d peticiones perdidas por no haber terminales libres%n", lost);
+        }
+        return report;
+    }
+
+    /** Elige un terminal libre al azar, o ninguno si todos estan esperando respuesta. */
+    private static VirtualTerminal pick(VirtualTerminal[] devices, Random random) {
+        int first = random.nextInt(devices.length);
+        for (int i = 0; i < devices.length; i++) {
+            VirtualTerminal device = devices[(first + i) % devices.length];
+            if (device.acquire()) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    private static final class Step implements Runnable {
+        private final VirtualTerminal device;
+        private final long intended;
+        private final LoadReport report;
+
+        Step(VirtualTerminal device, long intended, LoadReport report) {
+            this.device = device;
+            this.intended = intended;
+            this.report = report;
+        }
+
+        @Override
+        public void run() {
+            device.step(intended, report);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        try {
+            new LoadGenerator(args).run();
+        } finally {
+            Fachada.shutdown();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.inftel.tms.simulator.load;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Resultados de una prueba de carga: peticiones correctas y erroneas y percentiles de latencia,
+ * tanto del ultimo intervalo de informe como de toda la prueba.
+ */
+public class LoadReport {
+
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    private final AtomicReference<LatencyHistogram> interval =
+            new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong intervalErrors = new AtomicLong();
+
+    private final long started = System.nanoTime();
+
+    private long intervalStarted = started;
+
+    /**
+     * Registra una peticion terminada.
+     * @param intended instante (System.nanoTime) en el que debia enviarse la peticion
+     * @param ok si el servidor respondio correctamente
+     */
+    public void record(long intended, boolean ok) {
+        long micros = (System.nanoTime() - intended) / 1000;
+        total.record(micros);
+        interval.get().record(micros);
+        if (!ok) {
+            errors.incrementAndGet();
+            intervalErrors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Escribe una linea con los resultados del intervalo transcurrido desde el informe anterior y
+     * empieza un nuevo intervalo.
+     */
+    public synchronized void printInterval(PrintStream out) {
+        long now = System.nanoTime();
+        LatencyHistogram last = interval.getAndSet(new LatencyHistogram());
+        print(out, "t=" + (now - started) / 1000000000L + "s", last,
+                intervalErrors.getAndSet(0), now - intervalStarted);
+        intervalStarted = now;
+    }
+
+    /** Escribe una linea con los resultados de toda la prueba. */
+    public void printTotal(PrintStream out) {
+        print(out, "total", total, errors.get(), System.nanoTime() - started);
+    }
+
+    public long getCount() {
+        return total.getCount();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Latencia de toda la prueba en el percentil indicado.
+     * @param percentile percentil entre 0 y 100
+     * @return latencia en microsegundos
+     */
+    public long getLatencyAtPercentile(double percentile) {
+        return total.getValueAtPercentile(percentile);
+    }
+
+    private static void print(PrintStream out, String label, LatencyHistogram histogram,
+            long errors, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        out.printf("%s requests=%d errors=%d throughput=%.1f/s"
+                + " latency(ms) mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+                label, histogram.getCount(), errors, histogram.getCount() / seconds,
+                histogram.getMean() / 1000, histogram.getValueAtPercentile(50) / 1000d,
+                histogram.getValueAtPercentile(90) / 1000d,
+                histogram.getValueAtPercentile(99) / 1000d,
+                histogram.getValueAtPercentile(99.9) / 1000d, histogram.getMax() / 1000d);
+    }
+}
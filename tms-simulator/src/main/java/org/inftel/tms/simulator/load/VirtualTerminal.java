@@ -0,0 +1,135 @@
+package org.inftel.tms.simulator.load;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpResponse;
+import org.inftel.tms.simulator.controller.Fachada;
+
+/**
+ * Terminal simulado por el generador de carga, con su propio numero de movil, sus parametros y su
+ * propia {@link Fachada}. Sigue la misma secuencia que un terminal real: pide los parametros con
+ * un mensaje vacio, confirma con un ACK y a partir de ahi envia posiciones de seguimiento y, de vez
+ * en cuando, alarmas. Si el servidor rechaza una trama el terminal vuelve a pedir los parametros.
+ *
+ * Cada llamada a {@link #step(long, LoadReport)} envia una sola peticion, y un terminal no envia una
+ * peticion hasta recibir la respuesta de la anterior.
+ */
+public class VirtualTerminal {
+
+    /** Desplazamiento maximo entre dos posiciones, unos 100 metros. */
+    private static final double STEP = 0.001;
+
+    private enum State {
+        NEW, CONFIGURED, READY
+    }
+
+    private final Fachada fachada = new Fachada();
+
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    private final Random random;
+
+    private final double tracking;
+
+    private State state = State.NEW;
+
+    private double latitude;
+
+    private double longitude;
+
+    private int battery = 99;
+
+    /**
+     * Crea un terminal.
+     * @param url URL del conector
+     * @param mobileNumber numero de movil del terminal
+     * @param tracking proporcion de posiciones de seguimiento entre las tramas, el resto son alarmas
+     * @param random generador de la posicion inicial y las alarmas
+     */
+    public VirtualTerminal(String url, String mobileNumber, double tracking, Random random) {
+        this.tracking = tracking;
+        this.random = random;
+        fachada.setURLservlet(url);
+        fachada.setSenderMobileNumber(mobileNumber);
+        fachada.setTemperature("36");
+        // alrededor de Malaga
+        latitude = 36.6 + random.nextDouble() * 0.2;
+        longitude = -4.6 + random.nextDouble() * 0.4;
+    }
+
+    /**
+     * Reserva el terminal para enviar la siguiente peticion.
+     * @return <code>false</code> si el terminal esta esperando una respuesta
+     */
+    public boolean acquire() {
+        return busy.compareAndSet(false, true);
+    }
+
+    /**
+     * Envia la siguiente peticion del terminal y libera la reserva de {@link #acquire()}.
+     * @param intended instante (System.nanoTime) en el que debia enviarse la peticion
+     * @param report donde se registra el resultado
+     */
+    public void step(long intended, LoadReport report) {
+        boolean ok = false;
+        try {
+            ok = send();
+        } catch (Exception e) {
+            ok = false;
+        } finally {
+            report.record(intended, ok);
+            if (!ok) {
+                state = State.NEW;
+            }
+            busy.set(false);
+        }
+    }
+
+    private boolean send() throws Exception {
+        HttpResponse response;
+        switch (state) {
+        case NEW:
+            response = fachada.sendEmptyMessage();
+            if (!isOk(response)) {
+                return false;
+            }
+            fachada.setParameters(fachada.readStreamAsString(response.getEntity().getContent()));
+            state = State.CONFIGURED;
+            return true;
+        case CONFIGURED:
+            response = fachada.enviarACK();
+            state = State.READY;
+            return isOk(response);
+        default:
+            move();
+            double alarm = random.nextDouble();
+            if (alarm < tracking) {
+                response = fachada.enviarTrack();
+            } else if (alarm < tracking + (1 - tracking) / 3) {
+                response = fachada.enviarTechnicalAlarm();
+            } else if (alarm < tracking + 2 * (1 - tracking) / 3) {
+                response = fachada.enviarDeviceAlarm();
+            } else {
+                response = fachada.enviarUserAlarm();
+            }
+            return isOk(response);
+        }
+    }
+
+    /** Avanza la posicion y gasta un poco de bateria. */
+    private void move() {
+        latitude += (random.nextDouble() - 0.5) * STEP;
+        longitude += (random.nextDouble() - 0.5) * STEP;
+        if (random.nextInt(50) == 0) {
+            battery = (battery > 5) ? battery - 1 : 99;
+        }
+        fachada.setBattery(String.valueOf(battery));
+        fachada.setLocation(String.format(Locale.US, "&LT%.5f&LN%.5f", latitude, longitude));
+    }
+
+    private static boolean isOk(HttpResponse response) {
+        return response.getStatusLine().getStatusCode() == 200;
+    }
+}
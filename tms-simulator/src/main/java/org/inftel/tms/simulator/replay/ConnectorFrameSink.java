@@ -0,0 +1,27 @@
+package org.inftel.tms.simulator.replay;
+
+import org.inftel.tms.devices.DeviceConnector;
+
+/**
+ * Envia las tramas directamente a un {@link DeviceConnector} en el mismo proceso, sin pasar por
+ * HTTP. Permite medir el conector aislado, por ejemplo desde un contenedor embebido.
+ */
+public class ConnectorFrameSink implements FrameSink {
+
+    private final DeviceConnector connector;
+
+    public ConnectorFrameSink(DeviceConnector connector) {
+        this.connector = connector;
+    }
+
+    @Override
+    public boolean send(String origin, String rawData) {
+        try {
+            connector.processAlertMessage(origin, rawData.length() == 0 ? null : rawData);
+            return true;
+        } catch (RuntimeException e) {
+            // el conector rechaza las tramas erroneas con una excepcion
+            return false;
+        }
+    }
+}
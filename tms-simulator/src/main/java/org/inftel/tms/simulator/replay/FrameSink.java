@@ -0,0 +1,17 @@
+package org.inftel.tms.simulator.replay;
+
+/**
+ * Destino de las tramas reproducidas por {@link TrafficReplayer}. Debe poder usarse desde varios
+ * hilos a la vez.
+ */
+public interface FrameSink {
+
+    /**
+     * Envia una trama.
+     * @param origin numero de movil que envia la trama
+     * @param rawData contenido de la trama
+     * @return <code>true</code> si el conector acepto la trama
+     * @throws Exception si no se pudo enviar
+     */
+    boolean send(String origin, String rawData) throws Exception;
+}
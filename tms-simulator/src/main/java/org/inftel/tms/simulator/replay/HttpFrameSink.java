@@ -0,0 +1,24 @@
+package org.inftel.tms.simulator.replay;
+
+import org.inftel.tms.simulator.controller.Fachada;
+
+/**
+ * Envia las tramas al servlet del conector con el cliente HTTP compartido de {@link Fachada}.
+ */
+public class HttpFrameSink implements FrameSink {
+
+    private final String url;
+
+    public HttpFrameSink(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public boolean send(String origin, String rawData) throws Exception {
+        // la fachada solo guarda los parametros, las conexiones son compartidas
+        Fachada fachada = new Fachada();
+        fachada.setURLservlet(url);
+        fachada.setSenderMobileNumber(origin);
+        return fachada.enviarTrama(rawData).getStatusLine().getStatusCode() == 200;
+    }
+}
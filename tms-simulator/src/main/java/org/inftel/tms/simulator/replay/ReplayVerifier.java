@@ -0,0 +1,111 @@
+package org.inftel.tms.simulator.replay;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.inftel.tms.devices.RecordedFrame;
+import org.inftel.tms.devices.TrafficRecording;
+
+/**
+ * Compara el resultado de una reproduccion con la grabacion original. Tras reproducir, el servidor
+ * destino exporta las tramas que ha recibido en el mismo formato, con la alerta que ha generado
+ * cada una, y se buscan las tramas (por origen y contenido) cuyo resultado es distinto del grabado
+ * o que faltan en uno de los lados.
+ */
+public class ReplayVerifier {
+
+    private final String recording;
+
+    /**
+     * @param recording fichero con la grabacion original
+     */
+    public ReplayVerifier(String recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Descarga la exportacion del servidor destino y la compara con la grabacion.
+     * @param exportUrl URL de la exportacion de las tramas recibidas durante la reproduccion
+     * @param started inicio de la reproduccion, se ignoran las tramas anteriores
+     * @return numero de diferencias
+     */
+    public int verify(String exportUrl, Date started) throws IOException {
+        InputStream in = new URL(exportUrl).openStream();
+        try {
+            return verify(new TrafficRecording.Reader(in), started.getTime());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compara las tramas recibidas por el destino con la grabacion.
+     * @param replayed tramas exportadas por el servidor destino
+     * @param since se ignoran las tramas recibidas antes de este instante
+     * @return numero de diferencias
+     */
+    int verify(TrafficRecording.Reader replayed, long since) throws IOException {
+        // resultados esperados de cada trama, las tramas repetidas se cuentan por separado
+        Map<String, List<String>> expected = new HashMap<String, List<String>>();
+        int frames = 0;
+        TrafficRecording.Reader original = new TrafficRecording.Reader(new FileInputStream(
+                recording));
+        try {
+            for (RecordedFrame frame = original.read(); frame != null; frame = original.read()) {
+                List<String> outcomes = expected.get(key(frame));
+                if (outcomes == null) {
+                    outcomes = new ArrayList<String>(1);
+                    expected.put(key(frame), outcomes);
+                }
+                outcomes.add(frame.getOutcome());
+                frames++;
+            }
+        } finally {
+            original.close();
+        }
+
+        int differences = 0;
+        for (RecordedFrame frame = replayed.read(); frame != null; frame = replayed.read()) {
+            if (frame.getCreated() < since) {
+                continue;
+            }
+            List<String> outcomes = expected.get(key(frame));
+            if (outcomes != null && outcomes.remove(frame.getOutcome())) {
+                continue;
+            }
+            if (outcomes != null && !outcomes.isEmpty()) {
+                print(++differences, frame.getOrigin() + " " + frame.getRawData() + ": "
+                        + frame.getOutcome() + ", " + outcomes.remove(0) + " en la grabacion");
+            } else {
+                print(++differences, frame.getOrigin() + " " + frame.getRawData()
+                        + ": no esta en la grabacion");
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : expected.entrySet()) {
+            for (String outcome : entry.getValue()) {
+                print(++differences, entry.getKey().replace('\n', ' ') + ": no se ha recibido, "
+                        + outcome + " en la grabacion");
+            }
+        }
+        System.out.printf("%d tramas grabadas, %d diferencias en las alertas generadas%n", frames,
+                differences);
+        return differences;
+    }
+
+    private static String key(RecordedFrame frame) {
+        return frame.getOrigin() + '\n' + frame.getRawData();
+    }
+
+    private static void print(int count, String difference) {
+        if (count <= TrafficReplayer.MAX_PRINTED) {
+            System.out.println("diferencia: " + difference);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package org.inftel.tms.simulator.replay;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.inftel.tms.devices.RecordedFrame;
+import org.inftel.tms.devices.TrafficRecording;
+import org.inftel.tms.simulator.controller.Fachada;
+import org.inftel.tms.simulator.load.LoadReport;
+
+/**
+ * Reproduce una {@link TrafficRecording} contra el conector. Las tramas se envian a la velocidad
+ * original, N veces mas rapido o tan rapido como sea posible, y las de cada origen siempre en el
+ * orden en que se grabaron: cada origen se asigna a uno de los carriles, un hilo que envia sus
+ * tramas una tras otra. La latencia se mide desde el instante en que debia enviarse cada trama.
+ *
+ * Ademas del rendimiento, cuenta las tramas cuya aceptacion no coincide con la grabada. Las
+ * diferencias en las alertas generadas se comprueban despues con {@link ReplayVerifier}.
+ *
+ * Uso desde la linea de comandos (ver {@link #main(String[])}):
+ * <ul>
+ * <li><code>replay record --export http://host:8080/tms-web/export --from 2012-01-27T10:00
+ * --to 2012-01-27T11:00 --file trafico.tmsr</code></li>
+ * <li><code>replay play --file trafico.tmsr --url http://host:8080/tms-web/connector
+ * --speed 10 [--export http://host:8080/tms-web/export --settle 30]</code></li>
+ * </ul>
+ */
+public class TrafficReplayer {
+
+    /** Tramas en espera por carril, limita la memoria usada al reproducir a maxima velocidad. */
+    private static final int LANE_CAPACITY = 1024;
+
+    /** Muestra como mucho este numero de diferencias. */
+    static final int MAX_PRINTED = 20;
+
+    private static final RecordedFrame END = new RecordedFrame("", "", 0, false, null, null,
+            null);
+
+    private final FrameSink sink;
+
+    private final double speed;
+
+    private final int lanes;
+
+    private final AtomicLong divergences = new AtomicLong();
+
+    /**
+     * @param sink destino de las tramas
+     * @param speed factor de velocidad, 1 es la velocidad original y 0 la maxima posible
+     * @param lanes numero de hilos de envio
+     */
+    public TrafficReplayer(FrameSink sink, double speed, int lanes) {
+        this.sink = sink;
+        this.speed = speed;
+        this.lanes = lanes;
+    }
+
+    /**
+     * Reproduce la grabacion y escribe los resultados por la salida estandar.
+     * @return resultados de la reproduccion
+     */
+    public LoadReport replay(TrafficRecording.Reader recording) throws IOException,
+            InterruptedException {
+        LoadReport report = new LoadReport();
+        Lane[] threads = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            threads[i] = new Lane(report);
+            threads[i].start();
+        }
+        try {
+            long start = System.nanoTime();
+            long first = -1;
+            for (RecordedFrame frame = recording.read(); frame != null; frame = recording.read()) {
+                if (first < 0) {
+                    first = frame.getCreated();
+                }
+                long intended = (speed > 0) ? start
+                        + (long) ((frame.getCreated() - first) * 1000000L / speed) : 0;
+                int lane = (frame.getOrigin().hashCode() & Integer.MAX_VALUE) % lanes;
+                threads[lane].queue.put(new Scheduled(frame, intended));
+            }
+        } finally {
+            for (Lane lane : threads) {
+                lane.queue.put(new Scheduled(END, 0));
+            }
+            for (Lane lane : threads) {
+                lane.join();
+            }
+        }
+        report.printTotal(System.out);
+        System.out.printf("%d tramas con distinta aceptacion que en la grabacion%n",
+                divergences.get());
+        return report;
+    }
+
+    /** Numero de tramas cuya aceptacion no coincide con la grabada. */
+    public long getDivergences() {
+        return divergences.get();
+    }
+
+    private static final class Scheduled {
+        final RecordedFrame frame;
+        final long intended;
+
+        Scheduled(RecordedFrame frame, long intended) {
+            this.frame = frame;
+            this.intended = intended;
+        }
+    }
+
+    private final class Lane extends Thread {
+
+        final BlockingQueue<Scheduled> queue = new ArrayBlockingQueue<Scheduled>(LANE_CAPACITY);
+
+        private final LoadReport report;
+
+        Lane(LoadReport report) {
+            super("replay-lane");
+            setDaemon(true);
+            this.report = report;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Scheduled next = queue.take(); next.frame != END; next = queue.take()) {
+                    long intended = next.intended;
+                    if (intended == 0) {
+                        intended = System.nanoTime();
+                    }
+                    for (long wait = intended - System.nanoTime(); wait > 0; wait = intended
+                            - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    send(next.frame, intended);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void send(RecordedFrame frame, long intended) {
+            boolean accepted;
+            boolean sent = true;
+            try {
+                accepted = sink.send(frame.getOrigin(), frame.getRawData());
+            } catch (Exception e) {
+                accepted = false;
+                sent = false;
+            }
+            report.record(intended, sent);
+            if (accepted != frame.isAccepted()
+                    && divergences.incrementAndGet() <= MAX_PRINTED) {
+                System.out.printf("diferencia: %s %s, %s en la grabacion%n", frame.getOrigin(),
+                        accepted ? "aceptada" : "rechazada", frame.getOutcome());
+            }
+        }
+    }
+
+    /**
+     * Graba o reproduce trafico, ver la documentacion de la clase.
+     * @param args <code>record</code> o <code>play</code> seguido de pares <code>--opcion
+     *            valor</code>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || (args.length - 1) % 2 != 0) {
+            throw new IllegalArgumentException("uso: replay record|play --opcion valor ...");
+        }
+        String file = null, url = null, export = null, from = null, to = null;
+        double speed = 1;
+        int lanes = Fachada.MAX_CONNECTIONS;
+        long settle = 10;
+        for (int i = 1; i < args.length; i += 2) {
+            String option = args[i], value = args[i + 1];
+            if ("--file".equals(option)) {
+                file = value;
+            } else if ("--url".equals(option)) {
+                url = value;
+            } else if ("--export".equals(option)) {
+                export = value;
+            } else if ("--from".equals(option)) {
+                from = value;
+            } else if ("--to".equals(option)) {
+                to = value;
+            } else if ("--speed".equals(option)) {
+                speed = "max".equals(value) ? 0 : Double.parseDouble(value);
+            } else if ("--lanes".equals(option)) {
+                lanes = Integer.parseInt(value);
+            } else if ("--settle".equals(option)) {
+                settle = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("opcion desconocida: " + option);
+            }
+        }
+        if (file == null) {
+            throw new IllegalArgumentException("falta --file");
+        }
+
+        try {
+            if ("record".equals(args[0])) {
+                if (export == null) {
+                    throw new IllegalArgumentException("falta --export");
+                }
+                record(exportUrl(export, from, to), file);
+            } else if ("play".equals(args[0])) {
+                if (url == null) {
+                    throw new IllegalArgumentException("falta --url");
+                }
+                Date started = new Date();
+                TrafficRecording.Reader reader = new TrafficRecording.Reader(new FileInputStream(
+                        file));
+                try {
+                    new TrafficReplayer(new HttpFrameSink(url), speed, lanes).replay(reader);
+                } finally {
+                    reader.close();
+                }
+                if (export != null) {
+                    // las alertas se generan de forma asincrona
+                    TimeUnit.SECONDS.sleep(settle);
+                    new ReplayVerifier(file).verify(exportUrl(export, new SimpleDateFormat(
+                            "yyyy-MM-dd'T'HH:mm").format(started), null), started);
+                }
+            } else {
+                throw new IllegalArgumentException("modo desconocido: " + args[0]);
+            }
+        } finally {
+            Fachada.shutdown();
+        }
+    }
+
+    static String exportUrl(String export, String from, String to) {
+        return export + "?type=raw&format=replay" + (from == null ? "" : "&from=" + from)
+                + (to == null ? "" : "&to=" + to);
+    }
+
+    private static void record(String url, String file) throws IOException {
+        InputStream in = new URL(url).openStream();
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        System.out.printf("grabacion guardada en %s%n", file);
+    }
+}
@@ -2,11 +2,14 @@ package org.inftel.tms.simulator.view;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.HttpResponse;
 import org.inftel.tms.simulator.controller.Fachada;
+import org.inftel.tms.simulator.load.LoadGenerator;
+import org.inftel.tms.simulator.replay.TrafficReplayer;
 
 /**
  * 
@@ -377,10 +380,21 @@ public class Main extends javax.swing.JFrame {
 	}// GEN-LAST:event_btnTechnicalAlarmActionPerformed
 
 	/**
+	 * Con argumentos se ejecuta sin interfaz grafica el generador de carga ({@link LoadGenerator})
+	 * o, si el primer argumento es <code>replay</code>, la grabacion y reproduccion de trafico
+	 * ({@link TrafficReplayer}).
+	 * 
 	 * @param args
 	 *            the command line arguments
 	 */
-	public static void main(String args[]) {
+	public static void main(String args[]) throws Exception {
+		if (args.length > 0 && "replay".equals(args[0])) {
+			TrafficReplayer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		} else if (args.length > 0) {
+			LoadGenerator.main(args);
+			return;
+		}
 		/*
 		 * Set the Nimbus look and feel
 		 */
@@ -1,6 +1,7 @@
 package org.inftel.tms.statistics;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -47,30 +48,58 @@ public class StatisticDataFacade extends AbstractFacade<StatisticDataEntity> {
      */
     public Map<String, BigDecimal> sumStatictics(String startWith, StatisticDataPeriod period,
             Date fromDate, Date toDate) {
-        TypedQuery<StatisticDataEntity> query = em.createQuery("SELECT o FROM StatisticDataEntity o "
-                + "WHERE o.name LIKE :name AND o.periodType = :period "
-                + "AND o.periodDate BETWEEN :fromDate AND :toDate", StatisticDataEntity.class);
+        TypedQuery<Object[]> query = em.createQuery("SELECT SUM(o.dataSum), SUM(o.dataCount) "
+                + "FROM StatisticDataEntity o WHERE o.name LIKE :name AND o.periodType = :period "
+                + "AND o.periodDate BETWEEN :fromDate AND :toDate", Object[].class);
         query.setParameter("name", startWith + "%");
         query.setParameter("period", period);
         query.setParameter("fromDate", fromDate);
         query.setParameter("toDate", toDate);
 
-        List<StatisticDataEntity> queryResult = query.getResultList();
+        Object[] row = query.getSingleResult();
         Map<String, BigDecimal> result = new HashMap<String, BigDecimal>(2);
-        // Initialize result
-        result.put("sum", new BigDecimal(0));
-        result.put("count", new BigDecimal(0));
-        for (StatisticDataEntity data : queryResult) {
-            if (data.getDataSum() != null) {
-                result.put("sum", result.get("sum").add(new BigDecimal(data.getDataSum())));
-            }
-            if (data.getDataCount() != null) {
-                result.put("count", result.get("count").add(new BigDecimal(data.getDataCount())));
-            }
+        result.put("sum", toBigDecimal(row[0]));
+        result.put("count", toBigDecimal(row[1]));
+        return result;
+    }
+
+    /**
+     * Suma en la base de datos las estadisticas de un periodo en el intervalo indicado, agrupadas
+     * por nombre. Permite calcular los historicos de todas las estadisticas con una unica consulta.
+     * 
+     * @param period
+     *            periodo de las estadisticas que se suman
+     * @param fromDate
+     *            inicio del intervalo, incluido
+     * @param toDate
+     *            fin del intervalo, excluido
+     * @return una entidad no persistente por nombre con la suma y el numero de muestras, sin
+     *         periodo ni fecha asignados
+     */
+    public List<StatisticDataEntity> sumByName(StatisticDataPeriod period, Date fromDate,
+            Date toDate) {
+        TypedQuery<Object[]> query = em.createQuery("SELECT o.name, SUM(o.dataSum), "
+                + "SUM(o.dataCount) FROM StatisticDataEntity o WHERE o.periodType = :period "
+                + "AND o.periodDate >= :fromDate AND o.periodDate < :toDate GROUP BY o.name",
+                Object[].class);
+        query.setParameter("period", period);
+        query.setParameter("fromDate", fromDate);
+        query.setParameter("toDate", toDate);
+
+        List<Object[]> rows = query.getResultList();
+        List<StatisticDataEntity> result = new ArrayList<StatisticDataEntity>(rows.size());
+        for (Object[] row : rows) {
+            Double sum = (row[1] == null) ? null : ((Number) row[1]).doubleValue();
+            Long count = (row[2] == null) ? 0l : ((Number) row[2]).longValue();
+            result.add(new StatisticDataEntity((String) row[0], null, null, sum, count));
         }
         return result;
     }
 
+    private static BigDecimal toBigDecimal(Object value) {
+        return (value == null) ? BigDecimal.ZERO : new BigDecimal(value.toString());
+    }
+
     /**
      * Busca todos los valores estadisticos que comiencen con el nombre pasado como parametro.
      * 
@@ -24,6 +24,9 @@ public class StatisticEndOfDay {
 
 	@EJB
 	private StatisticProcessorImpl statisticProcessor;
+
+	@EJB
+	private StatisticListener statisticListener;
 	
 	@Inject
 	private Event<StatisticEndOfDayEvent> eodEventTrigger;
@@ -31,7 +34,8 @@ public class StatisticEndOfDay {
 	/**
 	 * Calcula las estadisticas diarias para algunos valores. Y ademas, genera los historicos de
 	 * periodos superiores al diario. Por tanto, es importante que la cola de mensajes este vacia
-	 * para que todos esten procesados previamente. TODO comprobar que la cola esta vacia
+	 * para que todos esten procesados previamente, por eso se vuelcan antes las muestras acumuladas
+	 * en memoria. Por ultimo se eliminan las series por minutos y horas caducadas.
 	 */
 	@Schedule(minute = "0", second = "0", dayOfMonth = "*", month = "*", year = "*", hour = "2", dayOfWeek = "*")
 	public void processDialyStatistics() {
@@ -42,8 +46,10 @@ public class StatisticEndOfDay {
 		Date from = DAYLY.beginsAt(yesterday).getTime();
 		Date to = DAYLY.endsAt(yesterday).getTime();
 
+		statisticListener.flush();
 		generateEndOfDayStatistics(from, to);
 		statisticProcessor.updatePeriodsForAllStatistics();
+		statisticProcessor.purgeExpiredSeries();
 	}
 
 	private void updateDaily(String statName, Date from, Double statSum, Long statCount) {
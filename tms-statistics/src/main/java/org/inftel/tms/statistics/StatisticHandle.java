@@ -0,0 +1,121 @@
+package org.inftel.tms.statistics;
+
+import static org.inftel.tms.statistics.StatisticDataPeriod.MINUTELY;
+
+import java.lang.ref.WeakReference;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementacion de {@link StatisticCounter} y {@link StatisticTimer}. Cada hilo acumula en su
+ * propio buffer para el minuto en curso; el hilo es el unico que escribe en el buffer, por lo que no
+ * necesita bloqueos ni operaciones CAS. {@link StatisticListener} recorre periodicamente los
+ * buffers y traslada a sus acumuladores lo registrado desde el recorrido anterior.
+ */
+final class StatisticHandle implements StatisticCounter, StatisticTimer {
+
+	private final String name;
+
+	/** Todos los buffers con valores que aun pueden no haberse trasladado. */
+	private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<Buffer>();
+
+	private final ThreadLocal<Buffer> local = new ThreadLocal<Buffer>();
+
+	StatisticHandle(String name) {
+		this.name = name;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	@Override
+	public void increment(long timeMillis) {
+		bufferFor(timeMillis).add(0d, 1l);
+	}
+
+	@Override
+	public void add(long timeMillis, long samples) {
+		bufferFor(timeMillis).add(0d, samples);
+	}
+
+	@Override
+	public void record(long timeMillis, double value) {
+		bufferFor(timeMillis).add(value, 1l);
+	}
+
+	private Buffer bufferFor(long timeMillis) {
+		Buffer buffer = local.get();
+		if (buffer == null || timeMillis < buffer.start || timeMillis >= buffer.end) {
+			// primera muestra del hilo o cambio de minuto, una vez por minuto como mucho
+			if (buffer != null) {
+				buffer.retired = true;
+			}
+			Date minute = MINUTELY.beginsAt(new Date(timeMillis));
+			buffer = new Buffer(minute, MINUTELY.endsAt(minute).getTime());
+			buffers.add(buffer);
+			local.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Traslada a <code>target</code> los valores registrados desde la llamada anterior y elimina
+	 * los buffers que ya no pueden recibir muestras. Solo debe llamarse desde un hilo a la vez.
+	 */
+	void drainTo(Target target) {
+		Iterator<Buffer> it = buffers.iterator();
+		while (it.hasNext()) {
+			Buffer buffer = it.next();
+			// se comprueba antes de leer, asi cualquier escritura previa a la retirada es visible
+			boolean finished = buffer.retired || buffer.owner.get() == null
+					|| !buffer.owner.get().isAlive();
+			long count = buffer.count.get();
+			double sum = Double.longBitsToDouble(buffer.sum.get());
+			if (count != buffer.drainedCount || sum != buffer.drainedSum) {
+				target.add(name, buffer.minute, sum - buffer.drainedSum, count - buffer.drainedCount);
+				buffer.drainedCount = count;
+				buffer.drainedSum = sum;
+			}
+			if (finished) {
+				it.remove();
+			}
+		}
+	}
+
+	/** Destino de los valores trasladados. */
+	interface Target {
+		void add(String name, Date minute, double sum, long count);
+	}
+
+	/** Valores de un hilo para un minuto, con un unico escritor. */
+	private static final class Buffer {
+		final Date minute;
+		final long start;
+		final long end;
+		final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong sum = new AtomicLong(Double.doubleToRawLongBits(0d));
+		volatile boolean retired;
+
+		/** Valores ya trasladados, solo los usa el hilo que vuelca. */
+		long drainedCount;
+		double drainedSum;
+
+		Buffer(Date minute, long end) {
+			this.minute = minute;
+			this.start = minute.getTime();
+			this.end = end;
+		}
+
+		void add(double value, long samples) {
+			// un unico escritor, basta con publicar el nuevo valor sin CAS
+			if (value != 0d) {
+				sum.lazySet(Double.doubleToRawLongBits(Double.longBitsToDouble(sum.get()) + value));
+			}
+			count.lazySet(count.get() + samples);
+		}
+	}
+}
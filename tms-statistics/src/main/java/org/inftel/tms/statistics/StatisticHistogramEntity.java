@@ -0,0 +1,246 @@
+package org.inftel.tms.statistics;
+
+import static javax.persistence.GenerationType.IDENTITY;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Histograma persistente de una estadistica para un periodo. Los valores se agrupan en intervalos
+ * logaritmicos al estilo de HdrHistogram: los valores menores que {@value #LINEAR_BUCKETS} tienen
+ * un intervalo propio, y a partir de ahi cada potencia de dos se divide en {@value #SUB_BUCKETS}
+ * intervalos, con lo que el error relativo es como maximo 1/64. Hay {@value #BUCKETS} intervalos
+ * para cualquier valor positivo de tipo long.
+ *
+ * Solo se guardan los intervalos con muestras, como pares de indice (int) y contador (long), ya
+ * que la mayoria de los valores de una estadistica se concentran en unos pocos intervalos.
+ */
+@Entity
+@Table(name = "statistic_histograms")
+public class StatisticHistogramEntity implements Serializable, StatisticHistogramData {
+
+	private static final long serialVersionUID = 1L;
+
+	static final int SUB_BUCKETS = 64;
+
+	static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+	/** Numero de intervalos, suficiente para cualquier valor de tipo long. */
+	static final int BUCKETS = LINEAR_BUCKETS + 56 * SUB_BUCKETS;
+
+	/** Bytes que ocupa cada intervalo con muestras en el bloque. */
+	private static final int PAIR_SIZE = 12;
+
+	@Id
+	@GeneratedValue(strategy = IDENTITY)
+	private Long id;
+
+	@Column(nullable = false)
+	private String name;
+
+	@Column(nullable = false)
+	private StatisticDataPeriod periodType;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(nullable = false)
+	private Date periodDate;
+
+	private long dataCount;
+
+	private double dataSum;
+
+	private long maxValue;
+
+	@Lob
+	@Column(nullable = false)
+	private byte[] buckets = new byte[0];
+
+	public StatisticHistogramEntity() {
+	}
+
+	/**
+	 * Crea un histograma vacio.
+	 *
+	 * @param date
+	 *            se ajusta al inicio del periodo
+	 */
+	public StatisticHistogramEntity(String name, StatisticDataPeriod period, Date date) {
+		this.name = name;
+		this.periodType = period;
+		this.periodDate = period.beginsAt(date);
+	}
+
+	/** Intervalo que contiene el valor, los valores negativos se tratan como 0. */
+	static int bucketOf(long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (value < 0) ? 0 : (int) value;
+		}
+		// desplazamiento que deja el valor entre SUB_BUCKETS y LINEAR_BUCKETS - 1
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+		int mantissa = (int) (value >>> shift);
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+	}
+
+	/** Mayor valor que pertenece al intervalo. */
+	static long highestValueOf(int bucket) {
+		if (bucket < LINEAR_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long mantissa = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		long highest = ((mantissa + 1) << shift) - 1;
+		return (highest < 0) ? Long.MAX_VALUE : highest;
+	}
+
+	/** Contadores de todos los intervalos, indexados por intervalo. */
+	long[] getCounts() {
+		long[] counts = new long[BUCKETS];
+		ByteBuffer buffer = ByteBuffer.wrap(buckets);
+		while (buffer.hasRemaining()) {
+			int bucket = buffer.getInt();
+			counts[bucket] += buffer.getLong();
+		}
+		return counts;
+	}
+
+	/**
+	 * Acumula muestras en el histograma.
+	 *
+	 * @param counts
+	 *            contadores indexados por intervalo, de tamaño {@link #BUCKETS}
+	 * @param sum
+	 *            suma de los valores
+	 * @param max
+	 *            maximo de los valores
+	 */
+	void add(long[] counts, double sum, long max) {
+		long[] merged = getCounts();
+		int used = 0;
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			merged[i] += counts[i];
+			total += counts[i];
+			if (merged[i] != 0) {
+				used++;
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(used * PAIR_SIZE);
+		for (int i = 0; i < BUCKETS; i++) {
+			if (merged[i] != 0) {
+				buffer.putInt(i).putLong(merged[i]);
+			}
+		}
+		// se reemplaza el bloque para que el proveedor de persistencia detecte el cambio
+		buckets = buffer.array();
+		dataCount += total;
+		dataSum += sum;
+		maxValue = Math.max(maxValue, max);
+	}
+
+	/** Acumula las muestras de otro histograma. */
+	public void merge(StatisticHistogramEntity other) {
+		add(other.getCounts(), other.dataSum, other.maxValue);
+	}
+
+	@Override
+	public long getValueAtPercentile(double percentile) {
+		if (dataCount == 0) {
+			return 0;
+		}
+		double ratio = Math.min(Math.max(percentile, 0d), 100d) / 100d;
+		long target = Math.max(1l, (long) Math.ceil(ratio * dataCount));
+		long seen = 0;
+		ByteBuffer buffer = ByteBuffer.wrap(buckets);
+		// los pares estan ordenados por intervalo
+		while (buffer.hasRemaining()) {
+			int bucket = buffer.getInt();
+			seen += buffer.getLong();
+			if (seen >= target) {
+				return Math.min(highestValueOf(bucket), maxValue);
+			}
+		}
+		return maxValue;
+	}
+
+	@Override
+	public long getMaxValue() {
+		return maxValue;
+	}
+
+	@Override
+	public Long getDataCount() {
+		return dataCount;
+	}
+
+	@Override
+	public Double getDataSum() {
+		return dataSum;
+	}
+
+	@Override
+	public BigDecimal getDataValue() {
+		if (dataCount == 0) {
+			return BigDecimal.ZERO;
+		}
+		return new BigDecimal(dataSum).divide(new BigDecimal(dataCount), MathContext.DECIMAL64);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Date getPeriodDate() {
+		return periodDate;
+	}
+
+	public void setPeriodDate(Date periodDate) {
+		this.periodDate = periodDate;
+	}
+
+	@Override
+	public StatisticDataPeriod getPeriodType() {
+		return periodType;
+	}
+
+	public void setPeriodType(StatisticDataPeriod periodType) {
+		this.periodType = periodType;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	@Override
+	public int hashCode() {
+		return (id != null ? id.hashCode() : 0);
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (!(object instanceof StatisticHistogramEntity)) {
+			return false;
+		}
+		StatisticHistogramEntity other = (StatisticHistogramEntity) object;
+		return (this.id == null) ? other.id == null : this.id.equals(other.id);
+	}
+
+	@Override
+	public String toString() {
+		return "StatisticHistogram[ id=" + id + ", name=" + name + ", period=" + periodType
+				+ ", date=" + periodDate + ", count=" + dataCount + ", max=" + maxValue + " ]";
+	}
+}
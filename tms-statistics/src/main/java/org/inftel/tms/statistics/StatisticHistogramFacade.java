@@ -0,0 +1,100 @@
+package org.inftel.tms.statistics;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.ejb.Stateless;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+/**
+ * Acceso a los histogramas estadisticos.
+ */
+@Stateless
+public class StatisticHistogramFacade extends AbstractFacade<StatisticHistogramEntity> {
+
+    @PersistenceContext(unitName = "tms-statistic-unit")
+    private EntityManager em;
+
+    @Override
+    protected EntityManager getEntityManager() {
+        return em;
+    }
+
+    public StatisticHistogramFacade() {
+        super(StatisticHistogramEntity.class);
+    }
+
+    /**
+     * Busca el histograma de una estadistica para un periodo.
+     *
+     * @param date
+     *            inicio del periodo
+     * @return el histograma o <code>null</code> si aun no existe
+     */
+    public StatisticHistogramEntity findByDate(String name, StatisticDataPeriod period, Date date) {
+        TypedQuery<StatisticHistogramEntity> query = em.createQuery("SELECT o "
+                + "FROM StatisticHistogramEntity o WHERE o.name = :name "
+                + "AND o.periodType = :period AND o.periodDate = :date",
+                StatisticHistogramEntity.class);
+        query.setParameter("name", name);
+        query.setParameter("period", period);
+        query.setParameter("date", date);
+        query.setMaxResults(1);
+
+        List<StatisticHistogramEntity> result = query.getResultList();
+        return (result.size() > 0) ? result.get(0) : null;
+    }
+
+    /**
+     * Busca los histogramas de una estadistica en un rango de fechas, que se ajustan al periodo
+     * igual que en {@link StatisticDataFacade#findStatistics(String, StatisticDataPeriod, Date, Date)}.
+     *
+     * @return histogramas indexados por la fecha de inicio de su periodo
+     */
+    public Map<Date, StatisticHistogramData> findHistograms(String name, StatisticDataPeriod period,
+            Date fromDate, Date toDate) {
+        TypedQuery<StatisticHistogramEntity> query = em.createQuery("SELECT o "
+                + "FROM StatisticHistogramEntity o WHERE o.name = :name "
+                + "AND o.periodType = :period AND o.periodDate >= :fromDate "
+                + "AND o.periodDate < :toDate", StatisticHistogramEntity.class);
+        query.setParameter("name", name);
+        query.setParameter("period", period);
+        query.setParameter("fromDate", period.beginsAt(fromDate));
+        query.setParameter("toDate", period.endsAt(toDate));
+
+        Map<Date, StatisticHistogramData> result = new TreeMap<Date, StatisticHistogramData>();
+        for (StatisticHistogramEntity histogram : query.getResultList()) {
+            result.put(histogram.getPeriodDate(), histogram);
+        }
+        return result;
+    }
+
+    /**
+     * Busca los histogramas de todas las estadisticas de un periodo en el intervalo indicado.
+     *
+     * @param fromDate
+     *            inicio del intervalo, incluido
+     * @param toDate
+     *            fin del intervalo, excluido
+     */
+    public List<StatisticHistogramEntity> findByPeriod(StatisticDataPeriod period, Date fromDate,
+            Date toDate) {
+        TypedQuery<StatisticHistogramEntity> query = em.createQuery("SELECT o "
+                + "FROM StatisticHistogramEntity o WHERE o.periodType = :period "
+                + "AND o.periodDate >= :fromDate AND o.periodDate < :toDate",
+                StatisticHistogramEntity.class);
+        query.setParameter("period", period);
+        query.setParameter("fromDate", fromDate);
+        query.setParameter("toDate", toDate);
+        return query.getResultList();
+    }
+
+    StatisticHistogramFacade(EntityManager em) {
+        super(StatisticHistogramEntity.class);
+        this.em = em;
+    }
+}
@@ -0,0 +1,167 @@
+package org.inftel.tms.statistics;
+
+import static org.inftel.tms.statistics.StatisticDataPeriod.DAYLY;
+import static org.inftel.tms.statistics.StatisticHistogramEntity.BUCKETS;
+import static org.inftel.tms.statistics.StatisticHistogramEntity.bucketOf;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Implementacion de {@link StatisticHistogram}. Los valores de cada dia se registran en un
+ * histograma en memoria compartido por todos los hilos, donde cada intervalo es un contador
+ * atomico, y {@link StatisticListener} traslada periodicamente lo registrado a la base de datos.
+ * El acumulado y el numero de muestras se registran ademas en un {@link StatisticTimer} con el
+ * mismo nombre, de forma que la estadistica sigue disponible como media.
+ */
+final class StatisticHistogramHandle implements StatisticHistogram {
+
+	private final String name;
+
+	private final StatisticTimer timer;
+
+	/** Histograma del dia mas reciente, el que reciben casi todas las muestras. */
+	private volatile Recorder current;
+
+	/** Todos los histogramas que aun pueden tener muestras sin trasladar. */
+	private final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+
+	StatisticHistogramHandle(String name, StatisticTimer timer) {
+		this.name = name;
+		this.timer = timer;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	@Override
+	public void record(long timeMillis, long value) {
+		timer.record(timeMillis, value);
+		recorderFor(timeMillis).record(Math.max(value, 0l));
+	}
+
+	private Recorder recorderFor(long timeMillis) {
+		Recorder recorder = current;
+		if (recorder != null && recorder.contains(timeMillis)) {
+			return recorder;
+		}
+		return findOrCreate(timeMillis);
+	}
+
+	/** Cambio de dia o muestra atrasada, caso poco frecuente. */
+	private synchronized Recorder findOrCreate(long timeMillis) {
+		for (Recorder recorder : recorders) {
+			if (recorder.contains(timeMillis)) {
+				return recorder;
+			}
+		}
+		Date day = DAYLY.beginsAt(new Date(timeMillis));
+		Recorder recorder = new Recorder(day, DAYLY.endsAt(day).getTime());
+		recorders.add(recorder);
+		if (current == null || recorder.start > current.start) {
+			current = recorder;
+		}
+		return recorder;
+	}
+
+	/**
+	 * Añade a <code>drained</code> un histograma no persistente por cada dia con muestras desde la
+	 * llamada anterior. Los dias anteriores al actual se descartan tras dos llamadas sin muestras.
+	 * Solo debe llamarse desde un hilo a la vez.
+	 */
+	void drainTo(List<StatisticHistogramEntity> drained) {
+		for (Recorder recorder : recorders) {
+			StatisticHistogramEntity histogram = recorder.drain(name);
+			if (histogram != null) {
+				drained.add(histogram);
+				recorder.idle = false;
+			} else if (recorder != current) {
+				synchronized (this) {
+					if (recorder.idle) {
+						recorders.remove(recorder);
+					} else {
+						recorder.idle = true;
+					}
+				}
+			}
+		}
+	}
+
+	/** Devuelve a memoria un histograma que no se ha podido guardar. */
+	void restore(StatisticHistogramEntity histogram) {
+		recorderFor(histogram.getPeriodDate().getTime()).add(histogram.getCounts(),
+				histogram.getDataSum().longValue(), histogram.getMaxValue());
+	}
+
+	/** Histograma en memoria de un dia. */
+	private static final class Recorder {
+		final Date day;
+		final long start;
+		final long end;
+		final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong max = new AtomicLong();
+
+		/** Sin muestras en el ultimo traslado, solo lo usa el hilo que vuelca. */
+		boolean idle;
+
+		Recorder(Date day, long end) {
+			this.day = day;
+			this.start = day.getTime();
+			this.end = end;
+		}
+
+		boolean contains(long timeMillis) {
+			return timeMillis >= start && timeMillis < end;
+		}
+
+		void record(long value) {
+			counts.incrementAndGet(bucketOf(value));
+			sum.addAndGet(value);
+			updateMax(value);
+		}
+
+		void add(long[] values, long valuesSum, long valuesMax) {
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] != 0) {
+					counts.addAndGet(i, values[i]);
+				}
+			}
+			sum.addAndGet(valuesSum);
+			updateMax(valuesMax);
+		}
+
+		private void updateMax(long value) {
+			long previous = max.get();
+			while (value > previous && !max.compareAndSet(previous, value)) {
+				previous = max.get();
+			}
+		}
+
+		/**
+		 * @return las muestras desde la llamada anterior o <code>null</code> si no hay. El
+		 *         acumulado de una muestra concurrente puede trasladarse en una llamada distinta
+		 *         que su intervalo, pero ninguna muestra se pierde.
+		 */
+		StatisticHistogramEntity drain(String name) {
+			long[] drained = new long[BUCKETS];
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				if (counts.get(i) != 0) {
+					drained[i] = counts.getAndSet(i, 0);
+					total += drained[i];
+				}
+			}
+			if (total == 0) {
+				return null;
+			}
+			StatisticHistogramEntity histogram = new StatisticHistogramEntity(name, DAYLY, day);
+			histogram.add(drained, sum.getAndSet(0), max.getAndSet(0));
+			return histogram;
+		}
+	}
+}
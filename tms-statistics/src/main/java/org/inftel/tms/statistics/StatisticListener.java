@@ -1,28 +1,49 @@
 package org.inftel.tms.statistics;
 
-import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
-import static javax.ejb.ConcurrencyManagementType.CONTAINER;
-import static javax.ejb.LockType.WRITE;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+import static javax.ejb.TransactionAttributeType.NOT_SUPPORTED;
+import static org.inftel.tms.statistics.StatisticDataPeriod.DAYLY;
+import static org.inftel.tms.statistics.StatisticDataPeriod.MINUTELY;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import javax.annotation.PreDestroy;
-import javax.ejb.AccessTimeout;
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.EJB;
-import javax.ejb.Lock;
+import javax.ejb.Schedule;
 import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
 
 /**
- * Se encarga de procesar la cola de estadistiacs e ir acutalizando la tabla de estadistica. El pool
- * de beans esta configurado para tener un maximo de 1, por lo tanto no hay problema de actualizar
- * las filas de la tabla. Ademas, el MessageDriven es no transaccional, y se recomienda usar acceso
- * a las tablas no transaccional.
+ * Acumula en memoria las muestras estadisticas y las vuelca periodicamente a la tabla de
+ * estadisticas (write-behind). Cada estadistica y minuto tiene su propio acumulador, que se
+ * actualiza sin bloqueos, de forma que recibir una muestra no accede a la base de datos ni
+ * serializa a los hilos que envian muestras de estadisticas distintas. En el volcado los minutos
+ * de cada estadistica y dia se agrupan en una serie, a partir de la cual se actualizan las
+ * resoluciones por minutos, por horas y diaria.
+ * 
+ * El volcado se realiza cada pocos segundos, al finalizar el bean y antes de calcular los
+ * historicos del fin de dia. Las muestras recibidas desde el ultimo volcado no son visibles en las
+ * consultas, y se perderian si el servidor se detiene de forma abrupta. Los volcados no se solapan:
+ * la busqueda o creacion de las filas de cada serie no es atomica y dos volcados simultaneos
+ * podrian duplicarlas. El volcado periodico se omite si ya hay uno en curso, y el del fin de dia y
+ * el de la parada esperan a que termine.
  */
 @Singleton
-@ConcurrencyManagement(CONTAINER)
+@ConcurrencyManagement(BEAN)
+@TransactionAttribute(NOT_SUPPORTED)
 public class StatisticListener {
 
 	private static final Logger logger = getLogger(StatisticListener.class.getName());
@@ -30,21 +51,257 @@ public class StatisticListener {
 	@EJB
 	private StatisticProcessorImpl statisticProcessor;
 
-	/** Delega el procesado de los mensajes a StatisticProcessorImpl. */
-	@Lock(WRITE)
-	@AccessTimeout(value = 5, unit = MINUTES)
+	/** Solo un volcado a la vez. */
+	private final ReentrantLock flushLock = new ReentrantLock();
+
+	private final ConcurrentMap<Key, Accumulator> accumulators = new ConcurrentHashMap<Key, Accumulator>();
+
+	private final ConcurrentMap<String, StatisticHandle> handles = new ConcurrentHashMap<String, StatisticHandle>();
+
+	private final ConcurrentMap<String, StatisticHistogramHandle> histograms = new ConcurrentHashMap<String, StatisticHistogramHandle>();
+
+	/** Traslada los valores de los handles a los acumuladores. */
+	private final StatisticHandle.Target handleTarget = new StatisticHandle.Target() {
+
+		@Override
+		public void add(String name, Date minute, double sum, long count) {
+			StatisticListener.this.add(new Key(name, minute), sum, count);
+		}
+	};
+
+	public StatisticListener() {
+	}
+
+	/** Acumula la muestra en memoria, se hara persistente en el siguiente volcado. */
 	public void onMessage(StatisticDataEntity content) {
-		logger.log(FINE, "mensaje recibido: " + content);
-		statisticProcessor.updateDaylyStatistic(content);
+		logger.log(FINE, "mensaje recibido: {0}", content);
+		Key key = new Key(content.getName(), MINUTELY.beginsAt(content.getPeriodDate()));
+		add(key, content.getDataSum(), content.getDataCount());
 	}
 
-	@PreDestroy
+	/**
+	 * Devuelve el handle asociado al nombre, creandolo la primera vez. Los handles no se eliminan,
+	 * estan pensados para un conjunto acotado de estadisticas resueltas una vez.
+	 */
+	public StatisticHandle handle(String name) {
+		StatisticHandle handle = handles.get(name);
+		if (handle == null) {
+			StatisticHandle created = new StatisticHandle(name);
+			handle = handles.putIfAbsent(name, created);
+			if (handle == null) {
+				handle = created;
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Devuelve el histograma asociado al nombre, creandolo la primera vez. Igual que los handles,
+	 * no se eliminan.
+	 */
+	public StatisticHistogramHandle histogram(String name) {
+		StatisticHistogramHandle histogram = histograms.get(name);
+		if (histogram == null) {
+			StatisticHistogramHandle created = new StatisticHistogramHandle(name, handle(name));
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	private void add(Key key, double sum, long count) {
+		while (true) {
+			Accumulator accumulator = accumulators.get(key);
+			if (accumulator == null) {
+				Accumulator created = new Accumulator();
+				accumulator = accumulators.putIfAbsent(key, created);
+				if (accumulator == null) {
+					accumulator = created;
+				}
+			}
+			if (accumulator.add(sum, count)) {
+				return;
+			}
+			// el acumulador se ha retirado mientras tanto, se usa uno nuevo
+		}
+	}
+
+	/** Volcado periodico, se omite si el anterior o el del fin de dia aun no han terminado. */
+	@Schedule(second = "*/10", minute = "*", hour = "*", persistent = false)
+	public void flushPeriodically() {
+		if (!flushLock.tryLock()) {
+			logger.fine("volcado en curso, se omite el volcado periodico");
+			return;
+		}
+		try {
+			drainAll();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Vuelca los acumuladores a la tabla de estadisticas, esperando a que termine el volcado en
+	 * curso si lo hay. Cada estadistica y dia se guarda en una transaccion independiente; si falla,
+	 * sus valores se devuelven a memoria para el siguiente volcado. Los acumuladores sin muestras
+	 * desde el volcado anterior se retiran.
+	 */
 	public void flush() {
-		/*
-		 * Se podrian acumular las estadisticas en queues en memoria, de forma q se acumulasen
-		 * portipo y solo cada cierto tiempo se volcasen a la base de datos, en esta situacion de
-		 * tener mensajes en memoria, deberia asegurarse en este metodo PreDestroy que las colas de
-		 * memoria estan vacia y en caso contrario escribirlas en la tabla.
-		 */
+		flushLock.lock();
+		try {
+			drainAll();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void drainAll() {
+		for (StatisticHandle handle : handles.values()) {
+			handle.drainTo(handleTarget);
+		}
+		// los minutos de cada estadistica y dia se agrupan para volcarlos juntos
+		Map<Key, StatisticSeriesEntity> days = new HashMap<Key, StatisticSeriesEntity>();
+		for (Map.Entry<Key, Accumulator> entry : accumulators.entrySet()) {
+			Key key = entry.getKey();
+			Accumulator accumulator = entry.getValue();
+			Cell drained = accumulator.drain();
+			if (drained == null) {
+				if (accumulator.retire()) {
+					accumulators.remove(key, accumulator);
+				}
+				continue;
+			}
+			Key day = new Key(key.name, DAYLY.beginsAt(key.date));
+			StatisticSeriesEntity series = days.get(day);
+			if (series == null) {
+				series = new StatisticSeriesEntity(key.name, MINUTELY, day.date);
+				days.put(day, series);
+			}
+			series.add(series.slotOf(key.date), drained.sum, drained.count);
+		}
+		for (StatisticSeriesEntity series : days.values()) {
+			try {
+				statisticProcessor.updateStatistics(series);
+			} catch (RuntimeException e) {
+				logger.log(WARNING, "error volcando la estadistica " + series.getName()
+						+ ", se reintentara en el siguiente volcado", e);
+				for (int i = 0; i < series.getSlots(); i++) {
+					if (!series.isEmpty(i)) {
+						add(new Key(series.getName(), series.dateOf(i)), series.getSum(i),
+								series.getCount(i));
+					}
+				}
+			}
+		}
+		flushHistograms();
+	}
+
+	private void flushHistograms() {
+		List<StatisticHistogramEntity> drained = new ArrayList<StatisticHistogramEntity>();
+		for (StatisticHistogramHandle histogram : histograms.values()) {
+			histogram.drainTo(drained);
+		}
+		for (StatisticHistogramEntity histogram : drained) {
+			try {
+				statisticProcessor.updateHistogram(histogram);
+			} catch (RuntimeException e) {
+				logger.log(WARNING, "error volcando el histograma " + histogram.getName()
+						+ ", se reintentara en el siguiente volcado", e);
+				histograms.get(histogram.getName()).restore(histogram);
+			}
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		flush();
+	}
+
+	/** Estadistica e inicio del intervalo (minuto o dia) al que pertenece una muestra. */
+	private static final class Key {
+		final String name;
+		final Date date;
+
+		Key(String name, Date date) {
+			this.name = name;
+			this.date = date;
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode() * 31 + date.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return name.equals(other.name) && date.equals(other.date);
+		}
+	}
+
+	/** Valores acumulados, inmutable para poder reemplazarse de forma atomica. */
+	private static final class Cell {
+		final double sum;
+		final long count;
+
+		Cell(double sum, long count) {
+			this.sum = sum;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Acumulador sin bloqueos. Un acumulador retirado ya no admite muestras, asi se evita perder
+	 * las que llegan mientras se elimina del mapa.
+	 */
+	private static final class Accumulator {
+		private static final Cell EMPTY = new Cell(0d, 0l);
+		private static final Cell RETIRED = new Cell(0d, 0l);
+
+		private final AtomicReference<Cell> cell = new AtomicReference<Cell>(EMPTY);
+
+		boolean add(double sum, long count) {
+			while (true) {
+				Cell current = cell.get();
+				if (current == RETIRED) {
+					return false;
+				}
+				Cell updated = new Cell(current.sum + sum, current.count + count);
+				if (cell.compareAndSet(current, updated)) {
+					return true;
+				}
+			}
+		}
+
+		/** @return valores acumulados desde el ultimo volcado o <code>null</code> si no hay */
+		Cell drain() {
+			while (true) {
+				Cell current = cell.get();
+				if (current == EMPTY || current == RETIRED) {
+					return null;
+				}
+				if (cell.compareAndSet(current, EMPTY)) {
+					return current;
+				}
+			}
+		}
+
+		boolean retire() {
+			return cell.compareAndSet(EMPTY, RETIRED);
+		}
+	}
+
+	/**
+	 * Constructor interno usado en los test.
+	 * 
+	 * @param statisticProcessor destino de los volcados
+	 */
+	StatisticListener(StatisticProcessorImpl statisticProcessor) {
+		this.statisticProcessor = statisticProcessor;
 	}
 }
@@ -7,16 +7,17 @@ import static java.util.logging.Level.INFO;
 import static java.util.logging.Logger.getLogger;
 import static org.inftel.tms.statistics.StatisticDataPeriod.ANNUAL;
 import static org.inftel.tms.statistics.StatisticDataPeriod.DAYLY;
+import static org.inftel.tms.statistics.StatisticDataPeriod.HOURLY;
+import static org.inftel.tms.statistics.StatisticDataPeriod.MINUTELY;
 import static org.inftel.tms.statistics.StatisticDataPeriod.MONTHLY;
 
-import java.math.BigDecimal;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
-import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.LocalBean;
 import javax.ejb.Stateless;
@@ -35,9 +36,21 @@ import javax.ejb.Stateless;
 public class StatisticProcessorImpl implements StatisticProcessor {
 
     private final static Logger logger = getLogger(StatisticProcessorImpl.class.getName());
+
+    /** Dias que se conservan las series por minutos. */
+    static final int MINUTELY_RETENTION = Integer.getInteger("tms.statistics.minutelyRetention", 7);
+
+    /** Dias que se conservan las series por horas. */
+    static final int HOURLY_RETENTION = Integer.getInteger("tms.statistics.hourlyRetention", 90);
     
     @EJB
     private StatisticDataFacade statisticDataFacade;
+
+    @EJB
+    private StatisticSeriesFacade statisticSeriesFacade;
+
+    @EJB
+    private StatisticHistogramFacade statisticHistogramFacade;
     
     @EJB
     private StatisticListener statisticListener;
@@ -57,12 +70,31 @@ public class StatisticProcessorImpl implements StatisticProcessor {
         process(name, date, accumulated, 1l);
     }
 
+    /**
+     * Acumula la muestra en memoria de forma sincrona, el volcado a base de datos lo realiza
+     * {@link StatisticListener}. Para los caminos criticos es preferible usar {@link #counter} o
+     * {@link #timer}, que evitan crear objetos en cada muestra.
+     */
     @Override
-    @Asynchronous
     public void process(String name, Date date, Double accumulated, Long samples) {
     	statisticListener.onMessage(new StatisticDataEntity(name, date, accumulated, samples));
     }
 
+    @Override
+    public StatisticCounter counter(String name) {
+        return statisticListener.handle(name);
+    }
+
+    @Override
+    public StatisticTimer timer(String name) {
+        return statisticListener.handle(name);
+    }
+
+    @Override
+    public StatisticHistogram histogram(String name) {
+        return statisticListener.histogram(name);
+    }
+
     /**
      * Actualización de los diarios, mensuales y anuales en la tabla estadística
      * 
@@ -74,48 +106,126 @@ public class StatisticProcessorImpl implements StatisticProcessor {
      *            valor del acumulado
      */
     public void updatePeriodsForAllStatistics() {
-        // String name, Calendar date, Long value
         // Se calcula el dia de hoy para comparar
         Calendar today = Calendar.getInstance();
         Calendar yesterday = Calendar.getInstance();
         yesterday.add(DAY_OF_MONTH, -1);
 
-        for (String name : statisticDataFacade.findStatisticsNames("")) {
-            // Si ayer fue un mes diferente
-            if (today.get(MONTH) != yesterday.get(MONTH)) {
-                logger.log(INFO, "actualizando perido mensual para estadistica {0}",
-                        new Object[] { name });
-                Date from = ANNUAL.beginsAt(yesterday).getTime();
-                Date to = ANNUAL.endsAt(yesterday).getTime();
-                Map<String, BigDecimal> x = statisticDataFacade
-                        .sumStatictics(name, DAYLY, to, from);
-                Long count = x.get("count").longValue();
-                Double sum = x.get("sum").doubleValue();
-                saveStatisticData(name, MONTHLY, yesterday, count, sum);
-            }
+        // Si ayer fue un mes diferente
+        if (today.get(MONTH) != yesterday.get(MONTH)) {
+            rollup(DAYLY, MONTHLY, yesterday);
+        }
+
+        // Si se ha producido un cambio de año actualizamos históricos anuales
+        if (today.get(YEAR) != yesterday.get(YEAR)) {
+            rollup(MONTHLY, ANNUAL, yesterday);
+        }
+    }
 
-            // Si se ha producido un cambio de año actualizamos históricos anuales
-            if (today.get(YEAR) != yesterday.get(YEAR)) {
-                logger.log(INFO, "actualizando perido anual para estadistica {0}",
-                        new Object[] { name });
-                Date from = ANNUAL.beginsAt(yesterday).getTime();
-                Date to = ANNUAL.endsAt(yesterday).getTime();
-                Map<String, BigDecimal> x = statisticDataFacade.sumStatictics(name, MONTHLY, to,
-                        from);
-                Long count = x.get("count").longValue();
-                Double sum = x.get("sum").doubleValue();
-                saveStatisticData(name, ANNUAL, yesterday, count, sum);
+    /**
+     * Genera el historico del periodo <code>target</code> que contiene la fecha indicada, sumando
+     * las estadisticas del periodo <code>source</code> de todos los nombres con una unica consulta.
+     * Los histogramas no pueden sumarse en la base de datos y se combinan en memoria.
+     * 
+     * @return numero de estadisticas generadas, sin contar los histogramas
+     */
+    int rollup(StatisticDataPeriod source, StatisticDataPeriod target, Calendar date) {
+        Date periodDate = target.beginsAt(date).getTime();
+        // el fin del periodo es el inicio del siguiente, por eso se excluye del intervalo
+        Date from = periodDate;
+        Date to = target.endsAt(date).getTime();
+        List<StatisticDataEntity> sums = statisticDataFacade.sumByName(source, from, to);
+        logger.log(INFO, "actualizando periodo {0} de {1} estadisticas", new Object[] { target,
+                sums.size() });
+        for (StatisticDataEntity data : sums) {
+            data.setPeriodType(target);
+            data.setPeriodDate(periodDate);
+            statisticDataFacade.create(data);
+        }
+
+        Map<String, StatisticHistogramEntity> histograms = new HashMap<String, StatisticHistogramEntity>();
+        for (StatisticHistogramEntity histogram : statisticHistogramFacade.findByPeriod(source,
+                from, to)) {
+            StatisticHistogramEntity merged = histograms.get(histogram.getName());
+            if (merged == null) {
+                merged = new StatisticHistogramEntity(histogram.getName(), target, periodDate);
+                histograms.put(histogram.getName(), merged);
             }
+            merged.merge(histogram);
+        }
+        for (StatisticHistogramEntity histogram : histograms.values()) {
+            statisticHistogramFacade.create(histogram);
+        }
+        return sums.size();
+    }
+
+    /**
+     * Suma un histograma diario a los valores ya guardados.
+     * 
+     * @param samples
+     *            histograma no persistente con las muestras de un dia
+     */
+    public void updateHistogram(StatisticHistogramEntity samples) {
+        StatisticHistogramEntity histogram = statisticHistogramFacade.findByDate(
+                samples.getName(), samples.getPeriodType(), samples.getPeriodDate());
+        if (histogram == null) {
+            statisticHistogramFacade.create(samples);
+        } else {
+            histogram.merge(samples);
         }
     }
 
     /**
-     * Se encarga de actualizar los valores estadisticos para el periodo minimo. Actualmente el
-     * periodo minimo es diario. Los periodos superiores, como mensual o anual, se van actualizando
-     * cuando de forma independiente.
+     * Elimina las series por minutos y por horas que han superado su periodo de retencion. Los
+     * valores siguen disponibles en los periodos superiores.
+     */
+    public void purgeExpiredSeries() {
+        Calendar today = DAYLY.beginsAt(Calendar.getInstance());
+        purgeSeries(MINUTELY, today, MINUTELY_RETENTION);
+        purgeSeries(HOURLY, today, HOURLY_RETENTION);
+    }
+
+    private void purgeSeries(StatisticDataPeriod resolution, Calendar today, int retention) {
+        Calendar limit = (Calendar) today.clone();
+        limit.add(DAY_OF_MONTH, -retention);
+        int removed = statisticSeriesFacade.removeBefore(resolution, limit.getTime());
+        logger.log(INFO, "eliminadas {0} series {1} anteriores a {2}", new Object[] { removed,
+                resolution, limit.getTime() });
+    }
+
+    /**
+     * Actualiza todas las resoluciones de una estadistica a partir de las muestras de un dia
+     * agrupadas por minutos: la serie por minutos, la serie por horas y el valor diario. Los
+     * periodos superiores, como mensual o anual, se calculan en el fin de dia a partir del diario.
+     * 
+     * @param minutes
+     *            serie no persistente con resolucion {@link StatisticDataPeriod#MINUTELY}
+     */
+    public void updateStatistics(StatisticSeriesEntity minutes) {
+        updateSeries(MINUTELY, minutes);
+        updateSeries(HOURLY, minutes);
+        updateDaylyStatistic(new StatisticDataEntity(minutes.getName(), minutes.getPeriodDate(),
+                minutes.getTotalSum(), minutes.getTotalCount()));
+    }
+
+    private void updateSeries(StatisticDataPeriod resolution, StatisticSeriesEntity minutes) {
+        StatisticSeriesEntity series = statisticSeriesFacade.findByDay(minutes.getName(),
+                resolution, minutes.getPeriodDate());
+        if (series == null) {
+            series = new StatisticSeriesEntity(minutes.getName(), resolution,
+                    minutes.getPeriodDate());
+            series.merge(minutes);
+            statisticSeriesFacade.create(series);
+        } else {
+            series.merge(minutes);
+        }
+    }
+
+    /**
+     * Se encarga de actualizar el valor diario de una estadistica, sumando los valores recibidos
+     * a los ya existentes.
      */
     public void updateDaylyStatistic(StatisticDataEntity dataOrigin) {
-        // Actualmente el nivel minimo de periodo es DAILY
         Date processDate = DAYLY.beginsAt(dataOrigin.getPeriodDate());
         StatisticDataEntity data = statisticDataFacade.findByDate(dataOrigin.getName(), processDate);
 
@@ -139,38 +249,24 @@ public class StatisticProcessorImpl implements StatisticProcessor {
         }
     }
 
-    /**
-     * Almacena en la tabla de estadísticas una estadística de acumulado
-     * 
-     * @param name
-     *            nombre asociado a la etiqueta de la alerta
-     * @param period
-     *            DIARY, MONTHLY, ANNUAL
-     * @param date
-     *            fecha de la alerta
-     * @param count
-     *            valor asociado a la alerta
-     */
-    private void saveStatisticData(String name, StatisticDataPeriod period, Calendar date,
-            Long count, Double sum) {
-        StatisticDataEntity data = new StatisticDataEntity();
-        data.setName(name);
-        data.setPeriodType(period);
-        data.setPeriodDate(period.beginsAt(date).getTime());
-        data.setDataCount(count);
-        data.setDataSum(sum);
-        statisticDataFacade.create(data);
-    }
-
     @Override
     public Map<Date, StatisticData> findStatistics(String name, StatisticDataPeriod period, Date fromDate,
             Date toDate) {
         logger.log(INFO, "consultando estadisticas {0} para periodo {1} y fechas entre {2} y {3}",
                 new Object[] { name, period, fromDate, toDate });
+        if (period == MINUTELY || period == HOURLY) {
+            return statisticSeriesFacade.findStatistics(name, period, fromDate, toDate);
+        }
         // Delegate to StatisticDataFacade
         return statisticDataFacade.findStatistics(name, period, fromDate, toDate);
     }
 
+    @Override
+    public Map<Date, StatisticHistogramData> findHistograms(String name,
+            StatisticDataPeriod period, Date fromDate, Date toDate) {
+        return statisticHistogramFacade.findHistograms(name, period, fromDate, toDate);
+    }
+
     @Override
     public List<String> findStatisticsNames(String startWith) {
         return statisticDataFacade.findStatisticsNames(startWith);
@@ -0,0 +1,217 @@
+package org.inftel.tms.statistics;
+
+import static java.util.Calendar.HOUR_OF_DAY;
+import static java.util.Calendar.MINUTE;
+import static javax.persistence.GenerationType.IDENTITY;
+import static org.inftel.tms.statistics.StatisticDataPeriod.DAYLY;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Serie de valores estadisticos de un dia con resolucion de minutos u horas. En lugar de una fila
+ * por intervalo, todos los intervalos del dia se guardan en un unico bloque binario de tamaño fijo,
+ * donde cada intervalo ocupa {@value #SLOT_SIZE} bytes: el sumatorio (double) y el numero de
+ * muestras (long). Un dia con resolucion de minutos ocupa 1440 intervalos, y uno con resolucion de
+ * horas 24.
+ *
+ * Los intervalos se indexan por la hora local del dia, de forma que en los cambios de horario los
+ * intervalos repetidos se acumulan en el mismo.
+ */
+@Entity
+@Table(name = "statistic_series")
+public class StatisticSeriesEntity implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Bytes que ocupa cada intervalo en el bloque. */
+	static final int SLOT_SIZE = 16;
+
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	@Id
+	@GeneratedValue(strategy = IDENTITY)
+	private Long id;
+
+	@Column(nullable = false)
+	private String name;
+
+	/** Resolucion de la serie, {@link StatisticDataPeriod#MINUTELY} o {@link StatisticDataPeriod#HOURLY}. */
+	@Column(nullable = false)
+	private StatisticDataPeriod periodType;
+
+	/** Inicio del dia que contiene la serie. */
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(nullable = false)
+	private Date periodDate;
+
+	@Lob
+	@Column(nullable = false)
+	private byte[] data;
+
+	public StatisticSeriesEntity() {
+	}
+
+	/**
+	 * Crea una serie vacia.
+	 *
+	 * @param name
+	 *            nombre de la estadistica
+	 * @param resolution
+	 *            {@link StatisticDataPeriod#MINUTELY} o {@link StatisticDataPeriod#HOURLY}
+	 * @param date
+	 *            cualquier fecha del dia de la serie
+	 */
+	public StatisticSeriesEntity(String name, StatisticDataPeriod resolution, Date date) {
+		this.name = name;
+		this.periodType = resolution;
+		this.periodDate = DAYLY.beginsAt(date);
+		this.data = new byte[slotsPerDay(resolution) * SLOT_SIZE];
+	}
+
+	/** Numero de intervalos de un dia para la resolucion indicada. */
+	static int slotsPerDay(StatisticDataPeriod resolution) {
+		return MINUTES_PER_DAY / minutesPerSlot(resolution);
+	}
+
+	private static int minutesPerSlot(StatisticDataPeriod resolution) {
+		switch (resolution) {
+		case MINUTELY:
+			return 1;
+		case HOURLY:
+			return 60;
+		default:
+			throw new IllegalArgumentException("las series solo admiten periodos inferiores al dia: "
+					+ resolution);
+		}
+	}
+
+	public int getSlots() {
+		return data.length / SLOT_SIZE;
+	}
+
+	/** Intervalo que contiene la fecha, que debe pertenecer al dia de la serie. */
+	public int slotOf(Date date) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		int minute = calendar.get(HOUR_OF_DAY) * 60 + calendar.get(MINUTE);
+		return minute / minutesPerSlot(periodType);
+	}
+
+	/** Fecha de inicio del intervalo. */
+	public Date dateOf(int slot) {
+		int minute = slot * minutesPerSlot(periodType);
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(periodDate);
+		calendar.set(HOUR_OF_DAY, minute / 60);
+		calendar.set(MINUTE, minute % 60);
+		return calendar.getTime();
+	}
+
+	public double getSum(int slot) {
+		return ByteBuffer.wrap(data).getDouble(slot * SLOT_SIZE);
+	}
+
+	public long getCount(int slot) {
+		return ByteBuffer.wrap(data).getLong(slot * SLOT_SIZE + 8);
+	}
+
+	/** @return <code>true</code> si el intervalo no tiene ninguna muestra ni valor */
+	public boolean isEmpty(int slot) {
+		return getCount(slot) == 0l && getSum(slot) == 0d;
+	}
+
+	/** Acumula valores en un intervalo. */
+	public void add(int slot, double sum, long count) {
+		add(ByteBuffer.wrap(data), slot, sum, count);
+	}
+
+	/**
+	 * Acumula los valores de otra serie de la misma estadistica y dia, que puede tener una
+	 * resolucion menor, por ejemplo para obtener la serie por horas a partir de la de minutos. El
+	 * bloque se reemplaza por una copia para que el proveedor de persistencia detecte el cambio.
+	 */
+	public void merge(StatisticSeriesEntity other) {
+		ByteBuffer target = ByteBuffer.wrap(data.clone());
+		ByteBuffer source = ByteBuffer.wrap(other.data);
+		for (int i = 0; i < other.getSlots(); i++) {
+			double sum = source.getDouble(i * SLOT_SIZE);
+			long count = source.getLong(i * SLOT_SIZE + 8);
+			if (sum != 0d || count != 0l) {
+				add(target, slotOf(other.dateOf(i)), sum, count);
+			}
+		}
+		data = target.array();
+	}
+
+	private static void add(ByteBuffer buffer, int slot, double sum, long count) {
+		int offset = slot * SLOT_SIZE;
+		buffer.putDouble(offset, buffer.getDouble(offset) + sum);
+		buffer.putLong(offset + 8, buffer.getLong(offset + 8) + count);
+	}
+
+	/** Sumatorio de todos los intervalos. */
+	public double getTotalSum() {
+		double total = 0d;
+		for (int i = 0; i < getSlots(); i++) {
+			total += getSum(i);
+		}
+		return total;
+	}
+
+	/** Numero de muestras de todos los intervalos. */
+	public long getTotalCount() {
+		long total = 0l;
+		for (int i = 0; i < getSlots(); i++) {
+			total += getCount(i);
+		}
+		return total;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public StatisticDataPeriod getPeriodType() {
+		return periodType;
+	}
+
+	public Date getPeriodDate() {
+		return periodDate;
+	}
+
+	@Override
+	public int hashCode() {
+		return (id != null ? id.hashCode() : 0);
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (!(object instanceof StatisticSeriesEntity)) {
+			return false;
+		}
+		StatisticSeriesEntity other = (StatisticSeriesEntity) object;
+		return (this.id == null) ? other.id == null : this.id.equals(other.id);
+	}
+
+	@Override
+	public String toString() {
+		return "StatisticSeries[ id=" + id + ", name=" + name + ", period=" + periodType + ", date="
+				+ periodDate + " ]";
+	}
+}
@@ -0,0 +1,108 @@
+package org.inftel.tms.statistics;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.ejb.Stateless;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+/**
+ * Acceso a las series estadisticas con resolucion inferior al dia.
+ */
+@Stateless
+public class StatisticSeriesFacade extends AbstractFacade<StatisticSeriesEntity> {
+
+    @PersistenceContext(unitName = "tms-statistic-unit")
+    private EntityManager em;
+
+    @Override
+    protected EntityManager getEntityManager() {
+        return em;
+    }
+
+    public StatisticSeriesFacade() {
+        super(StatisticSeriesEntity.class);
+    }
+
+    /**
+     * Busca la serie de una estadistica para un dia.
+     *
+     * @param day
+     *            inicio del dia
+     * @return la serie o <code>null</code> si aun no existe
+     */
+    public StatisticSeriesEntity findByDay(String name, StatisticDataPeriod resolution, Date day) {
+        TypedQuery<StatisticSeriesEntity> query = em.createQuery("SELECT o "
+                + "FROM StatisticSeriesEntity o WHERE o.name = :name "
+                + "AND o.periodType = :period AND o.periodDate = :date",
+                StatisticSeriesEntity.class);
+        query.setParameter("name", name);
+        query.setParameter("period", resolution);
+        query.setParameter("date", day);
+        query.setMaxResults(1);
+
+        List<StatisticSeriesEntity> result = query.getResultList();
+        return (result.size() > 0) ? result.get(0) : null;
+    }
+
+    /**
+     * Obtiene los intervalos con muestras de una estadistica. Se lee un unico bloque por dia del
+     * rango, sea cual sea la resolucion.
+     *
+     * @param resolution
+     *            {@link StatisticDataPeriod#MINUTELY} o {@link StatisticDataPeriod#HOURLY}
+     * @param fromDate
+     *            se ajusta al inicio de su intervalo
+     * @param toDate
+     *            se ajusta al final de su intervalo, que queda excluido
+     * @return valores no persistentes indexados por la fecha de inicio de su intervalo
+     */
+    public Map<Date, StatisticData> findStatistics(String name, StatisticDataPeriod resolution,
+            Date fromDate, Date toDate) {
+        fromDate = resolution.beginsAt(fromDate);
+        toDate = resolution.endsAt(toDate);
+
+        TypedQuery<StatisticSeriesEntity> query = em.createQuery("SELECT o "
+                + "FROM StatisticSeriesEntity o WHERE o.name = :name "
+                + "AND o.periodType = :period AND o.periodDate >= :fromDay "
+                + "AND o.periodDate < :toDate", StatisticSeriesEntity.class);
+        query.setParameter("name", name);
+        query.setParameter("period", resolution);
+        query.setParameter("fromDay", StatisticDataPeriod.DAYLY.beginsAt(fromDate));
+        query.setParameter("toDate", toDate);
+
+        Map<Date, StatisticData> result = new TreeMap<Date, StatisticData>();
+        for (StatisticSeriesEntity series : query.getResultList()) {
+            for (int i = 0; i < series.getSlots(); i++) {
+                Date date = series.dateOf(i);
+                if (!series.isEmpty(i) && !date.before(fromDate) && date.before(toDate)) {
+                    // sin sumatorio se trata como contador, igual que en las estadisticas diarias
+                    Double sum = (series.getSum(i) == 0d) ? null : series.getSum(i);
+                    result.put(date, new StatisticDataEntity(name, resolution, date, sum,
+                            series.getCount(i)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Elimina las series de una resolucion anteriores a la fecha indicada.
+     *
+     * @return numero de series eliminadas
+     */
+    public int removeBefore(StatisticDataPeriod resolution, Date date) {
+        return em.createQuery("DELETE FROM StatisticSeriesEntity o "
+                + "WHERE o.periodType = :period AND o.periodDate < :date")
+                .setParameter("period", resolution).setParameter("date", date).executeUpdate();
+    }
+
+    StatisticSeriesFacade(EntityManager em) {
+        super(StatisticSeriesEntity.class);
+        this.em = em;
+    }
+}
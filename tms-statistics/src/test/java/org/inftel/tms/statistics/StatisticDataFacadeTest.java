@@ -6,6 +6,7 @@ import static org.inftel.tms.statistics.StatisticDataPeriod.DAYLY;
 import java.math.BigDecimal;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.persistence.EntityManager;
@@ -143,6 +144,28 @@ public class StatisticDataFacadeTest {
 
 	}
 
+	@Test
+	public void testSumByName() {
+		StatisticDataFacade service = new StatisticDataFacade(em);
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(0);
+		calendar.set(2012, 1, 1, 0, 0, 0);
+		Date from = calendar.getTime();
+		calendar.set(2012, 2, 1, 0, 0, 0);
+		Date to = calendar.getTime();
+
+		Map<String, StatisticDataEntity> result = new HashMap<String, StatisticDataEntity>();
+		for (StatisticDataEntity data : service.sumByName(DAYLY, from, to)) {
+			result.put(data.getName(), data);
+		}
+
+		StatisticDataEntity user = result.get("alert.type." + AlertType.USER.name().toLowerCase());
+		Assert.assertEquals(60, user.getDataCount().longValue());
+		StatisticDataEntity time = result.get("alert.reciverProcessTime");
+		Assert.assertEquals(30, time.getDataCount().longValue());
+		Assert.assertEquals(800, time.getDataSum().doubleValue(), 0.001);
+	}
+
 	@Test
 	public void testFindByDate() {
 		StatisticDataFacade service = new StatisticDataFacade(em);
@@ -0,0 +1,91 @@
+package org.inftel.tms.statistics;
+
+import static org.inftel.tms.statistics.StatisticDataPeriod.DAYLY;
+import static org.inftel.tms.statistics.StatisticDataPeriod.MONTHLY;
+import static org.inftel.tms.statistics.StatisticHistogramEntity.BUCKETS;
+import static org.inftel.tms.statistics.StatisticHistogramEntity.bucketOf;
+import static org.inftel.tms.statistics.StatisticHistogramEntity.highestValueOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class StatisticHistogramEntityTest {
+
+	@Test
+	public void testBuckets() {
+		// los valores pequeños son exactos
+		for (long value = 0; value < 128; value++) {
+			assertEquals(value, highestValueOf(bucketOf(value)));
+		}
+		// el resto tiene un error relativo menor que 1/64
+		for (long value = 128; value < 10000000; value = value * 3 / 2) {
+			long highest = highestValueOf(bucketOf(value));
+			assertTrue(highest >= value);
+			assertTrue(highest - value <= value / 64);
+		}
+		assertEquals(0, bucketOf(-5));
+		assertEquals(BUCKETS - 1, bucketOf(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, highestValueOf(BUCKETS - 1));
+	}
+
+	@Test
+	public void testPercentiles() {
+		Date day = new GregorianCalendar(2012, Calendar.JANUARY, 20).getTime();
+		StatisticHistogramEntity histogram = new StatisticHistogramEntity("alert.time", DAYLY, day);
+		long[] counts = new long[BUCKETS];
+		double sum = 0;
+		for (long value = 1; value <= 10000; value++) {
+			counts[bucketOf(value)]++;
+			sum += value;
+		}
+		histogram.add(counts, sum, 10000);
+
+		assertEquals(Long.valueOf(10000), histogram.getDataCount());
+		assertEquals(5000.5d, histogram.getDataValue().doubleValue(), 0.001d);
+		assertEquals(5000d, histogram.getValueAtPercentile(50), 5000d / 64);
+		assertEquals(9900d, histogram.getValueAtPercentile(99), 9900d / 64);
+		assertEquals(10000, histogram.getValueAtPercentile(100));
+		assertEquals(10000, histogram.getMaxValue());
+	}
+
+	@Test
+	public void testMerge() {
+		Date day = new GregorianCalendar(2012, Calendar.JANUARY, 20).getTime();
+		StatisticHistogramEntity fast = new StatisticHistogramEntity("alert.time", DAYLY, day);
+		long[] counts = new long[BUCKETS];
+		counts[bucketOf(10)] = 99;
+		fast.add(counts, 990, 10);
+		StatisticHistogramEntity slow = new StatisticHistogramEntity("alert.time", DAYLY, day);
+		counts = new long[BUCKETS];
+		counts[bucketOf(5000)] = 1;
+		slow.add(counts, 5000, 5000);
+
+		StatisticHistogramEntity month = new StatisticHistogramEntity("alert.time", MONTHLY, day);
+		month.merge(fast);
+		month.merge(slow);
+		assertEquals(new GregorianCalendar(2012, Calendar.JANUARY, 1).getTime(),
+				month.getPeriodDate());
+		assertEquals(Long.valueOf(100), month.getDataCount());
+		// la media oculta la cola, el percentil no
+		assertEquals(59.9d, month.getDataValue().doubleValue(), 0.001d);
+		assertEquals(10, month.getValueAtPercentile(99));
+		assertEquals(5000, month.getValueAtPercentile(99.5));
+		assertEquals(5000, month.getMaxValue());
+	}
+
+	@Test
+	public void testEmpty() {
+		StatisticHistogramEntity histogram = new StatisticHistogramEntity("alert.time", DAYLY,
+				new Date());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		assertEquals(0d, histogram.getDataValue().doubleValue(), 0d);
+	}
+}
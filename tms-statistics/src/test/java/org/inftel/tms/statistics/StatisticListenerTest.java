@@ -0,0 +1,233 @@
+package org.inftel.tms.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ *
+ */
+public class StatisticListenerTest {
+
+  StatisticProcessorImpl processorMocked;
+  StatisticListener listener;
+
+  @Before
+  public void setUp() {
+    processorMocked = mock(StatisticProcessorImpl.class);
+    listener = new StatisticListener(processorMocked);
+  }
+
+  @Test
+  public void testSamplesAreAggregatedUntilFlush() {
+    Date morning = new GregorianCalendar(2012, Calendar.JANUARY, 20, 9, 0).getTime();
+    Date evening = new GregorianCalendar(2012, Calendar.JANUARY, 20, 21, 0).getTime();
+    listener.onMessage(new StatisticDataEntity("alert.type.user", morning, null, 1l));
+    listener.onMessage(new StatisticDataEntity("alert.type.user", evening, null, 1l));
+    listener.onMessage(new StatisticDataEntity("alert.type.user", evening, 2.5d, 1l));
+
+    // ninguna muestra accede a la base de datos hasta el volcado
+    verify(processorMocked, never()).updateStatistics(any(StatisticSeriesEntity.class));
+
+    listener.flush();
+    ArgumentCaptor<StatisticSeriesEntity> captor = ArgumentCaptor.forClass(StatisticSeriesEntity.class);
+    verify(processorMocked).updateStatistics(captor.capture());
+    StatisticSeriesEntity data = captor.getValue();
+    assertEquals("alert.type.user", data.getName());
+    assertEquals(new GregorianCalendar(2012, Calendar.JANUARY, 20).getTime(), data.getPeriodDate());
+    assertEquals(3, data.getTotalCount());
+    assertEquals(2.5d, data.getTotalSum(), 0d);
+    // cada muestra queda en su minuto
+    assertEquals(1, data.getCount(data.slotOf(morning)));
+    assertEquals(2, data.getCount(data.slotOf(evening)));
+    assertEquals(2.5d, data.getSum(data.slotOf(evening)), 0d);
+
+    // un segundo volcado no repite los valores ya guardados
+    reset(processorMocked);
+    listener.flush();
+    verify(processorMocked, never()).updateStatistics(any(StatisticSeriesEntity.class));
+  }
+
+  @Test
+  public void testEachDayIsFlushedSeparately() {
+    listener.onMessage(new StatisticDataEntity("alert.type.user",
+        new GregorianCalendar(2012, Calendar.JANUARY, 20).getTime(), null, 1l));
+    listener.onMessage(new StatisticDataEntity("alert.type.user",
+        new GregorianCalendar(2012, Calendar.JANUARY, 21).getTime(), null, 1l));
+    listener.onMessage(new StatisticDataEntity("alert.type.device",
+        new GregorianCalendar(2012, Calendar.JANUARY, 21).getTime(), null, 1l));
+    listener.flush();
+    verify(processorMocked, times(3)).updateStatistics(any(StatisticSeriesEntity.class));
+  }
+
+  @Test
+  public void testFailedFlushIsRetried() {
+    Date date = new GregorianCalendar(2012, Calendar.JANUARY, 20).getTime();
+    listener.onMessage(new StatisticDataEntity("alert.type.user", date, null, 2l));
+    doThrow(new RuntimeException("bbdd no disponible")).when(processorMocked)
+        .updateStatistics(any(StatisticSeriesEntity.class));
+    listener.flush();
+
+    // las muestras no se pierden y se acumulan con las nuevas
+    reset(processorMocked);
+    listener.onMessage(new StatisticDataEntity("alert.type.user", date, null, 1l));
+    listener.flush();
+    ArgumentCaptor<StatisticSeriesEntity> captor = ArgumentCaptor.forClass(StatisticSeriesEntity.class);
+    verify(processorMocked).updateStatistics(captor.capture());
+    List<StatisticSeriesEntity> values = captor.getAllValues();
+    assertEquals(3, values.get(0).getTotalCount());
+  }
+
+  @Test
+  public void testHandles() throws Exception {
+    final long day = new GregorianCalendar(2012, Calendar.JANUARY, 20, 10, 0).getTimeInMillis();
+    final StatisticCounter counter = listener.handle("alert.count");
+    final StatisticTimer timer = listener.handle("alert.time");
+    // el mismo nombre siempre resuelve el mismo handle
+    assertSame(counter, listener.handle("alert.count"));
+
+    Thread other = new Thread() {
+
+      @Override
+      public void run() {
+        counter.add(day, 5);
+        timer.record(day, 10d);
+      }
+    };
+    other.start();
+    other.join();
+    counter.increment(day);
+    timer.record(day, 20d);
+    // una muestra de otro dia va a su propio periodo
+    counter.increment(day + 24 * 3600 * 1000l);
+
+    listener.flush();
+    ArgumentCaptor<StatisticSeriesEntity> captor = ArgumentCaptor.forClass(StatisticSeriesEntity.class);
+    verify(processorMocked, times(3)).updateStatistics(captor.capture());
+    long count = 0;
+    for (StatisticSeriesEntity data : captor.getAllValues()) {
+      if (data.getName().equals("alert.time")) {
+        assertEquals(2, data.getTotalCount());
+        assertEquals(30d, data.getTotalSum(), 0d);
+      } else {
+        count += data.getTotalCount();
+      }
+    }
+    assertEquals(7, count);
+
+    // lo ya volcado no se repite
+    reset(processorMocked);
+    listener.flush();
+    verify(processorMocked, never()).updateStatistics(any(StatisticSeriesEntity.class));
+  }
+
+  @Test
+  public void testHistograms() {
+    long time = new GregorianCalendar(2012, Calendar.JANUARY, 20, 10, 0).getTimeInMillis();
+    StatisticHistogram histogram = listener.histogram("alert.time");
+    assertSame(histogram, listener.histogram("alert.time"));
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(time, i);
+    }
+    doThrow(new RuntimeException("bbdd no disponible")).when(processorMocked)
+        .updateHistogram(any(StatisticHistogramEntity.class));
+    listener.flush();
+
+    // el histograma no se pierde si falla el volcado
+    reset(processorMocked);
+    histogram.record(time, 1000);
+    listener.flush();
+    ArgumentCaptor<StatisticHistogramEntity> captor = ArgumentCaptor
+        .forClass(StatisticHistogramEntity.class);
+    verify(processorMocked).updateHistogram(captor.capture());
+    StatisticHistogramEntity data = captor.getValue();
+    assertEquals(Long.valueOf(101), data.getDataCount());
+    assertEquals(99, data.getValueAtPercentile(98));
+    assertEquals(1000, data.getValueAtPercentile(100));
+    // tambien se registra como estadistica de tipo acumulado
+    verify(processorMocked).updateStatistics(any(StatisticSeriesEntity.class));
+  }
+
+  @Test
+  public void testConcurrentSamples() throws Exception {
+    final Date date = new GregorianCalendar(2012, Calendar.JANUARY, 20).getTime();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            listener.onMessage(new StatisticDataEntity("alert.type.user", date, null, 1l));
+          }
+        }
+      };
+      threads[i].start();
+    }
+    // volcados concurrentes con la llegada de muestras
+    long flushed = 0;
+    ArgumentCaptor<StatisticSeriesEntity> captor = ArgumentCaptor.forClass(StatisticSeriesEntity.class);
+    for (Thread thread : threads) {
+      listener.flush();
+      thread.join();
+    }
+    listener.flush();
+    verify(processorMocked, atLeastOnce()).updateStatistics(captor.capture());
+    for (StatisticSeriesEntity data : captor.getAllValues()) {
+      flushed += data.getTotalCount();
+    }
+    assertEquals(40000, flushed);
+  }
+
+  @Test
+  public void testPeriodicFlushSkippedWhileFlushing() throws Exception {
+    final Date date = new GregorianCalendar(2012, Calendar.JANUARY, 20).getTime();
+    final List<StatisticSeriesEntity> updated = new ArrayList<StatisticSeriesEntity>();
+    listener = new StatisticListener(new StatisticProcessorImpl() {
+
+      @Override
+      public void updateStatistics(StatisticSeriesEntity minutes) {
+        updated.add(minutes);
+        // el volcado periodico llega mientras se vuelca, con una muestra nueva
+        listener.onMessage(new StatisticDataEntity("alert.type.user", date, null, 1l));
+        Thread periodic = new Thread() {
+
+          @Override
+          public void run() {
+            listener.flushPeriodically();
+          }
+        };
+        periodic.start();
+        try {
+          periodic.join();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    });
+    listener.onMessage(new StatisticDataEntity("alert.type.user", date, null, 1l));
+    listener.flush();
+    assertEquals(1, updated.size());
+    // la muestra se vuelca en el siguiente volcado
+    listener.flush();
+    assertEquals(2, updated.size());
+    assertEquals(1, updated.get(1).getTotalCount());
+  }
+}
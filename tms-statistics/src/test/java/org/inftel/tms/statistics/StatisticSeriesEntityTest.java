@@ -0,0 +1,62 @@
+package org.inftel.tms.statistics;
+
+import static org.inftel.tms.statistics.StatisticDataPeriod.HOURLY;
+import static org.inftel.tms.statistics.StatisticDataPeriod.MINUTELY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class StatisticSeriesEntityTest {
+
+	@Test
+	public void testSlots() {
+		Date date = new GregorianCalendar(2012, Calendar.JANUARY, 20, 10, 35, 12).getTime();
+		StatisticSeriesEntity minutes = new StatisticSeriesEntity("alert.count", MINUTELY, date);
+		assertEquals(1440, minutes.getSlots());
+		assertEquals(new GregorianCalendar(2012, Calendar.JANUARY, 20).getTime(),
+				minutes.getPeriodDate());
+		assertEquals(10 * 60 + 35, minutes.slotOf(date));
+		assertEquals(new GregorianCalendar(2012, Calendar.JANUARY, 20, 10, 35).getTime(),
+				minutes.dateOf(minutes.slotOf(date)));
+
+		StatisticSeriesEntity hours = new StatisticSeriesEntity("alert.count", HOURLY, date);
+		assertEquals(24, hours.getSlots());
+		assertEquals(10, hours.slotOf(date));
+	}
+
+	@Test
+	public void testMergeDownsamples() {
+		Calendar calendar = new GregorianCalendar(2012, Calendar.JANUARY, 20, 10, 0);
+		StatisticSeriesEntity minutes = new StatisticSeriesEntity("alert.time", MINUTELY,
+				calendar.getTime());
+		minutes.add(minutes.slotOf(calendar.getTime()), 10d, 1l);
+		calendar.set(Calendar.MINUTE, 59);
+		minutes.add(minutes.slotOf(calendar.getTime()), 20d, 2l);
+		calendar.set(Calendar.HOUR_OF_DAY, 23);
+		minutes.add(minutes.slotOf(calendar.getTime()), 5d, 1l);
+
+		StatisticSeriesEntity hours = new StatisticSeriesEntity("alert.time", HOURLY,
+				calendar.getTime());
+		hours.merge(minutes);
+		hours.merge(minutes);
+		assertEquals(60d, hours.getSum(10), 0d);
+		assertEquals(6, hours.getCount(10));
+		assertEquals(2, hours.getCount(23));
+		assertTrue(hours.isEmpty(11));
+		assertEquals(70d, hours.getTotalSum(), 0d);
+		assertEquals(8, hours.getTotalCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDailyResolutionIsRejected() {
+		new StatisticSeriesEntity("alert.count", StatisticDataPeriod.DAYLY, new Date());
+	}
+}
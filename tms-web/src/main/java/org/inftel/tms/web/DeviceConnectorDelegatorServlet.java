@@ -1,9 +1,25 @@
 package org.inftel.tms.web;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -11,22 +27,95 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.inftel.tms.devices.DeviceConnector;
+import org.inftel.tms.statistics.StatisticCounter;
+import org.inftel.tms.statistics.StatisticProcessor;
 
 /**
  * Obtiene los datos de la peticion HTTP y delega el procesado a {@link DeviceConnector}.
  * 
+ * La peticion se procesa de forma asincrona: el hilo del contenedor solo lee la cabecera y entrega
+ * la trama a un grupo de hilos propio con una cola acotada, de modo que durante una avalancha de
+ * alarmas el pool HTTP sigue aceptando conexiones. Si la cola esta llena, o la trama no se procesa
+ * a tiempo, se responde en el momento con {@link #BUSY} y un codigo 503, para que el terminal
+ * reintente mas tarde en lugar de esperar hasta su propio timeout. Los errores de la trama se
+ * siguen respondiendo con un 500 y el mensaje de error del conector.
+ * 
+ * El tamaño del grupo, de la cola y el tiempo maximo de proceso se configuran con las propiedades
+ * <code>tms.web.connectorThreads</code>, <code>tms.web.connectorQueue</code> y
+ * <code>tms.web.connectorTimeout</code> (milisegundos).
+ * 
+ * Un terminal que ha acumulado tramas sin cobertura puede enviarlas todas en una sola peticion, una
+ * por linea y en el orden en que se generaron (las lineas vacias se ignoran). Se procesan con
+ * {@link DeviceConnector#processAlertMessages(String, List)} y se responde una linea por trama en
+ * el mismo orden: la respuesta paSOS, una linea vacia si la trama no tiene respuesta, o el error si
+ * se ha rechazado. El maximo de tramas por peticion se configura con
+ * <code>tms.web.connectorMaxFrames</code>; las peticiones mayores se rechazan enteras con un 413.
+ * 
  * FIXME Solo deberia procesar los POST, pero por ahora dejamos POST y GET para facilitar desarrollo
  * 
  * @author ibaca
  */
-@WebServlet(name = "DeviceConnectorDelegatorServlet", urlPatterns = { "/connector" })
+@WebServlet(name = "DeviceConnectorDelegatorServlet", urlPatterns = { "/connector" }, asyncSupported = true)
 public class DeviceConnectorDelegatorServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
-	
+
+	private static final Logger logger = Logger.getLogger(DeviceConnectorDelegatorServlet.class
+			.getName());
+
+	/** Respuesta cuando el conector esta saturado, en el mismo formato que el resto de errores. */
+	static final String BUSY = "ERROR: servidor ocupado, reintentar";
+
+	/** Segundos que se sugieren al terminal antes de reintentar. */
+	private static final String RETRY_AFTER = "1";
+
+	static final int THREADS = Integer.getInteger("tms.web.connectorThreads", 16);
+
+	static final int QUEUE = Integer.getInteger("tms.web.connectorQueue", 1000);
+
+	static final int TIMEOUT = Integer.getInteger("tms.web.connectorTimeout", 30000);
+
+	static final int MAX_FRAMES = Integer.getInteger("tms.web.connectorMaxFrames", 500);
+
 	@EJB
 	private DeviceConnector deviceConnector;
 
+	@EJB
+	private StatisticProcessor statisticProcessor;
+
+	private transient ThreadPoolExecutor executor;
+
+	private transient StatisticCounter rejected;
+
+	@Override
+	public void init() throws ServletException {
+		final AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE), new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "tms-connector-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		rejected = statisticProcessor.counter("connector.rejected");
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	/**
 	 * Processes requests for both HTTP <code>GET</code> and <code>POST</code> methods.
 	 * 
@@ -41,19 +130,156 @@ public class DeviceConnectorDelegatorServlet extends HttpServlet {
 	 */
 	protected void processRequest(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
-		response.setContentType("text/plain;charset=UTF-8");
-		PrintWriter out = response.getWriter();
+		AsyncContext async = request.startAsync(request, response);
+		async.setTimeout(TIMEOUT);
+		ConnectorTask task = new ConnectorTask(async, request.getHeader("sender-mobile-number"));
+		async.addListener(task);
 		try {
-			String from = request.getHeader("sender-mobile-number");
-			// readLine no es muy seguro, pero paSOS establece que el mensaje esta en la primera
-			// linea
-			// del contenido del POST, y por tanto deberia ser suficiente
-			String message = request.getReader().readLine();
-			// Se delega el procesado y se responde con el mensaje devuelto
-			out.println(deviceConnector.processAlertMessage(from, message));
-		} finally {
-			out.close();
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.busy();
+		}
+	}
+
+	/**
+	 * Procesa una trama en el grupo de hilos del servlet y completa la respuesta asincrona. La
+	 * respuesta la escribe quien llegue primero: la propia tarea, el rechazo por cola llena o el
+	 * timeout del contenedor.
+	 */
+	private final class ConnectorTask implements Runnable, AsyncListener {
+
+		private final AsyncContext async;
+
+		private final String from;
+
+		private final AtomicBoolean responded = new AtomicBoolean();
+
+		ConnectorTask(AsyncContext async, String from) {
+			this.async = async;
+			this.from = from;
+		}
+
+		@Override
+		public void run() {
+			if (responded.get()) {
+				// el terminal ya tiene su respuesta por timeout
+				return;
+			}
+			int status = HttpServletResponse.SC_OK;
+			String result;
+			try {
+				// paSOS establece que el mensaje esta en la primera linea del contenido del POST, si
+				// hay mas lineas es un terminal enviando las tramas acumuladas
+				BufferedReader reader = async.getRequest().getReader();
+				String message = reader.readLine();
+				String next = reader.readLine();
+				if (next == null) {
+					// Se delega el procesado y se responde con el mensaje devuelto
+					result = String.valueOf(deviceConnector.processAlertMessage(from, message));
+				} else {
+					List<String> messages = readMessages(message, next, reader);
+					if (messages.size() > MAX_FRAMES) {
+						status = HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+						result = "ERROR: demasiadas tramas, el maximo es " + MAX_FRAMES;
+					} else {
+						result = join(deviceConnector.processAlertMessages(from, messages));
+					}
+				}
+			} catch (EJBException e) {
+				status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+				result = errorMessage(e.getCausedByException() != null ? e.getCausedByException() : e);
+			} catch (RuntimeException e) {
+				status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+				result = errorMessage(e);
+			} catch (IOException e) {
+				status = HttpServletResponse.SC_BAD_REQUEST;
+				result = errorMessage(e);
+			}
+			respond(status, result);
+		}
+
+		/** Lee el resto de tramas, sin pasar de una mas del maximo para no leer cuerpos enormes. */
+		private List<String> readMessages(String first, String second, BufferedReader reader)
+				throws IOException {
+			List<String> messages = new ArrayList<String>();
+			addMessage(messages, first);
+			addMessage(messages, second);
+			String line;
+			while (messages.size() <= MAX_FRAMES && (line = reader.readLine()) != null) {
+				addMessage(messages, line);
+			}
+			return messages;
+		}
+
+		private void addMessage(List<String> messages, String line) {
+			if (line.length() > 0) {
+				messages.add(line);
+			}
+		}
+
+		/** Rechaza la trama sin procesarla. */
+		void busy() {
+			rejected.increment(System.currentTimeMillis());
+			respond(HttpServletResponse.SC_SERVICE_UNAVAILABLE, BUSY);
+		}
+
+		private void respond(int status, String result) {
+			if (!responded.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				HttpServletResponse response = (HttpServletResponse) async.getResponse();
+				response.setStatus(status);
+				if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+					response.setHeader("Retry-After", RETRY_AFTER);
+				}
+				response.setContentType("text/plain;charset=UTF-8");
+				PrintWriter out = response.getWriter();
+				out.println(result);
+				out.close();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "no se pudo responder al terminal " + from, e);
+			} finally {
+				async.complete();
+			}
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) throws IOException {
+			busy();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) throws IOException {
+			// el terminal ha cerrado la conexion, no hay a quien responder
+			responded.set(true);
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
 		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) throws IOException {
+		}
+	}
+
+	/** Una linea por resultado, vacia para las tramas sin respuesta. */
+	private static String join(List<CharSequence> results) {
+		StringBuilder joined = new StringBuilder();
+		for (int i = 0; i < results.size(); i++) {
+			if (i > 0) {
+				joined.append('\n');
+			}
+			if (results.get(i) != null) {
+				joined.append(results.get(i));
+			}
+		}
+		return joined.toString();
+	}
+
+	private static String errorMessage(Throwable e) {
+		return e.getMessage() != null ? e.getMessage() : e.getClass().getName();
 	}
 
 	// <editor-fold defaultstate="collapsed"
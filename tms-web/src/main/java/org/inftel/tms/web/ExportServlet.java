@@ -0,0 +1,297 @@
+package org.inftel.tms.web;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ejb.EJB;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.inftel.tms.devices.RecordedFrame;
+import org.inftel.tms.devices.TrafficRecording;
+import org.inftel.tms.domain.AlertPriority;
+import org.inftel.tms.domain.AlertRawState;
+import org.inftel.tms.domain.AlertType;
+import org.inftel.tms.services.AlertFacade;
+import org.inftel.tms.services.AlertRawFacade;
+import org.inftel.tms.services.EntityHandler;
+import org.inftel.tms.services.FenceCrossing;
+
+/**
+ * Exporta el historico de alertas o de tramas recibidas en formato CSV o NDJSON (un objeto JSON
+ * por linea). Las filas se escriben a medida que se leen de la base de datos, por lo que pueden
+ * exportarse periodos largos sin cargarlos en memoria. Se leen como proyecciones, con las
+ * relaciones ya resueltas en la misma consulta, en lugar de como entidades.
+ *
+ * Parametros: <code>type</code> (<code>alerts</code> o <code>raw</code>), <code>format</code>
+ * (<code>csv</code>, <code>ndjson</code> o, solo para tramas, <code>replay</code>) y opcionalmente
+ * <code>from</code> y <code>to</code> con formato <code>yyyy-MM-dd</code> o
+ * <code>yyyy-MM-dd'T'HH:mm</code>, siendo <code>to</code> excluido.
+ *
+ * El formato <code>replay</code> es una {@link TrafficRecording} que el simulador puede volver a
+ * enviar al conector. Las tramas creadas en el servidor para las alertas de zonas vigiladas no se
+ * exportan porque no se recibieron de ningun dispositivo.
+ */
+@WebServlet(name = "ExportServlet", urlPatterns = { "/export" })
+public class ExportServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = Logger.getLogger(ExportServlet.class.getName());
+
+	private static final String[] ALERT_COLUMNS = { "id", "created", "type", "priority", "cause",
+			"latitude", "longitude", "origin", "affected", "raw" };
+
+	private static final String[] RAW_COLUMNS = { "id", "created", "origin", "state", "rawData",
+			"alert" };
+
+	@EJB
+	private AlertFacade alertFacade;
+
+	@EJB
+	private AlertRawFacade alertRawFacade;
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		String type = request.getParameter("type");
+		String format = request.getParameter("format");
+		if (format == null || format.length() == 0) {
+			format = "csv";
+		}
+		boolean csv = "csv".equals(format);
+		Date from, to;
+		try {
+			from = parseDate(request.getParameter("from"));
+			to = parseDate(request.getParameter("to"));
+		} catch (ParseException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "fecha no valida, use yyyy-MM-dd");
+			return;
+		}
+		if (!"alerts".equals(type) && !"raw".equals(type)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "type debe ser alerts o raw");
+			return;
+		}
+		if (!csv && !"ndjson".equals(format) && !"replay".equals(format)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"format debe ser csv, ndjson o replay");
+			return;
+		}
+		if ("replay".equals(format)) {
+			if (!"raw".equals(type)) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+						"el formato replay solo admite type raw");
+				return;
+			}
+			exportRecording(from, to, response);
+			return;
+		}
+
+		response.setCharacterEncoding("UTF-8");
+		response.setContentType(csv ? "text/csv" : "application/x-ndjson");
+		response.setHeader("Content-Disposition", "attachment; filename=\"" + type
+				+ (csv ? ".csv" : ".ndjson") + "\"");
+		final PrintWriter out = response.getWriter();
+		final RowWriter rows = csv ? new CsvWriter(out) : new JsonWriter(out);
+
+		int count;
+		if ("alerts".equals(type)) {
+			rows.header(ALERT_COLUMNS);
+			count = alertFacade.forEachRow(from, to, new EntityHandler<Object[]>() {
+
+				@Override
+				public boolean handle(Object[] alert) {
+					// la proyeccion tiene las columnas en el mismo orden
+					rows.row(ALERT_COLUMNS, alert);
+					// si el cliente cierra la conexion se detiene el recorrido
+					return !out.checkError();
+				}
+			});
+		} else {
+			rows.header(RAW_COLUMNS);
+			count = alertRawFacade.forEachRow(from, to, new EntityHandler<Object[]>() {
+
+				@Override
+				public boolean handle(Object[] raw) {
+					rows.row(RAW_COLUMNS, raw);
+					return !out.checkError();
+				}
+			});
+		}
+		out.flush();
+		logger.log(Level.INFO, "exportadas {0} filas de {1}", new Object[] { count, type });
+	}
+
+	private void exportRecording(Date from, Date to, HttpServletResponse response)
+			throws IOException {
+		response.setContentType("application/octet-stream");
+		response.setHeader("Content-Disposition", "attachment; filename=\"raw.tmsr\"");
+		final TrafficRecording.Writer writer = new TrafficRecording.Writer(
+				response.getOutputStream());
+		final IOException[] failure = new IOException[1];
+		alertRawFacade.forEachRow(from, to, new EntityHandler<Object[]>() {
+
+			@Override
+			public boolean handle(Object[] raw) {
+				// id, created, origin, state, rawData y el id, type, priority y cause de la alerta
+				String cause = (String) raw[8];
+				if (raw[5] != null && FenceCrossing.isFenceCause(cause)) {
+					return true;
+				}
+				try {
+					writer.write(new RecordedFrame((String) raw[2], raw[4] == null ? ""
+							: (String) raw[4], ((Date) raw[1]).getTime(),
+							raw[3] != AlertRawState.DISCARDED, (AlertType) raw[6],
+							(AlertPriority) raw[7], cause));
+					return true;
+				} catch (IOException e) {
+					// el cliente ha cerrado la conexion
+					failure[0] = e;
+					return false;
+				}
+			}
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		writer.finish();
+		logger.log(Level.INFO, "grabadas {0} tramas", writer.getCount());
+	}
+
+	private static Date parseDate(String value) throws ParseException {
+		if (value == null || value.length() == 0) {
+			return null;
+		}
+		SimpleDateFormat format = new SimpleDateFormat(value.length() > 10 ? "yyyy-MM-dd'T'HH:mm"
+				: "yyyy-MM-dd");
+		format.setLenient(false);
+		return format.parse(value);
+	}
+
+	/** Formato de salida de las filas exportadas. */
+	private static abstract class RowWriter {
+
+		protected final PrintWriter out;
+
+		/** Formato de las fechas, una instancia por peticion porque no es thread-safe. */
+		protected final SimpleDateFormat dateFormat = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+		RowWriter(PrintWriter out) {
+			this.out = out;
+		}
+
+		abstract void header(String[] columns);
+
+		/**
+		 * @param values valores de las columnas, puede tener valores adicionales que se ignoran
+		 */
+		abstract void row(String[] columns, Object[] values);
+
+		protected String format(Object value) {
+			return (value instanceof Date) ? dateFormat.format((Date) value) : value.toString();
+		}
+	}
+
+	private static final class CsvWriter extends RowWriter {
+
+		CsvWriter(PrintWriter out) {
+			super(out);
+		}
+
+		@Override
+		void header(String[] columns) {
+			row(columns, columns);
+		}
+
+		@Override
+		void row(String[] columns, Object[] values) {
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					line.append(',');
+				}
+				if (values[i] != null) {
+					String value = format(values[i]);
+					if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+							|| value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+						line.append('"').append(value.replace("\"", "\"\"")).append('"');
+					} else {
+						line.append(value);
+					}
+				}
+			}
+			out.print(line.append("\r\n"));
+		}
+	}
+
+	private static final class JsonWriter extends RowWriter {
+
+		JsonWriter(PrintWriter out) {
+			super(out);
+		}
+
+		@Override
+		void header(String[] columns) {
+			// cada linea es autodescriptiva, no hay cabecera
+		}
+
+		@Override
+		void row(String[] columns, Object[] values) {
+			StringBuilder line = new StringBuilder("{");
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					line.append(',');
+				}
+				quote(line, columns[i]).append(':');
+				if (values[i] == null) {
+					line.append("null");
+				} else if (values[i] instanceof Number) {
+					line.append(values[i]);
+				} else {
+					quote(line, format(values[i]));
+				}
+			}
+			out.print(line.append("}\n"));
+		}
+
+		private static StringBuilder quote(StringBuilder sb, String value) {
+			sb.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+				}
+			}
+			return sb.append('"');
+		}
+	}
+}
@@ -1,6 +1,9 @@
 
 package org.inftel.tms.web;
 
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
@@ -11,8 +14,13 @@ import javax.faces.bean.ViewScoped;
 import javax.faces.context.FacesContext;
 
 import org.inftel.tms.domain.Alert;
+import org.inftel.tms.domain.TrackPoint;
 import org.inftel.tms.services.AlertFacade;
+import org.inftel.tms.services.GeoCluster;
+import org.inftel.tms.services.Track;
+import org.inftel.tms.services.TrackStore;
 import org.primefaces.event.map.OverlaySelectEvent;
+import org.primefaces.event.map.StateChangeEvent;
 import org.primefaces.model.map.*;
 
 @ManagedBean
@@ -21,45 +29,111 @@ public class MapBean {
 
     private final static Logger logger = Logger.getLogger(MapBean.class.getName());
 
+    /** Numero maximo de alertas que se pintan una a una, si hay mas se agrupan. */
+    private final static int MAX_MARKERS = Integer.getInteger("tms.web.mapMaxMarkers", 500);
+
+    /**
+     * Numero maximo de puntos que se leen del recorrido de cada dispositivo, si hay mas se pintan
+     * los mas recientes.
+     */
+    private final static int MAX_TRACK_POINTS = Integer.getInteger("tms.web.mapMaxTrackPoints",
+            1000);
+
+    /** Dias de alertas que se muestran en el mapa. */
+    private final static int DAYS = Integer.getInteger("tms.web.mapDays", 7);
+
+    /** Alto aproximado del mapa en pixeles, los recorridos se simplifican a un pixel. */
+    private final static int MAP_HEIGHT = 600;
+
     @EJB
     private AlertFacade alerts;
 
+    @EJB
+    private TrackStore tracks;
+
     private MapModel markers = new DefaultMapModel();
-    private LatLng center = null;
+    private LatLng center = new LatLng(36.730, -4.419);
+    private int zoom = 11;
 
     @PostConstruct
     protected void initialize() {
         logger.info("Inicializando bean");
-        Polyline tracking = new Polyline();
-        for (Alert alert : alerts.findAll()) {
-            if (alert.getLatitude() != null) {
-                LatLng latLng = new LatLng(alert.getLatitude(), alert.getLongitude());
-                Marker marker = new Marker(latLng);
-                marker.setTitle(alert.getCreated().toString() + ": " + alert.getCause());
-                String cause = (alert.getCause() != null) ? alert.getCause() : "sin causa";
-                if (cause.startsWith("track")) {
-                    marker.setIcon("/tms-web/resources/img/footprint.png");
-                    tracking.getPaths().add(latLng);
-                } else if (cause.startsWith("fence")) {
-                    marker.setIcon("/tms-web/resources/img/stop.png");
-                } else if (cause.startsWith("batt")) {
-                    marker.setIcon("/tms-web/resources/img/poweroutage.png");
-                } else if (cause.startsWith("click")) {
-                    marker.setIcon("/tms-web/resources/img/skull.png");
-                } else {
-                    marker.setIcon("/tms-web/resources/img/flag-export.png");
-                }
-                
-                logger.info("Creado marker: " + marker);
-                if (center == null) {
-                    center = latLng;
-                }
+        // hasta que el mapa informa de la zona visible se usa una aproximacion para el zoom inicial
+        loadMarkers(center.getLat() - 0.2, center.getLng() - 0.4, center.getLat() + 0.2,
+                center.getLng() + 0.4);
+    }
+
+    /** Recarga los marcadores de la zona visible cada vez que se mueve o se cambia el zoom. */
+    public void onStateChange(StateChangeEvent event) {
+        LatLng northEast = event.getBounds().getNorthEast();
+        LatLng southWest = event.getBounds().getSouthWest();
+        zoom = event.getZoomLevel();
+        center = new LatLng((northEast.getLat() + southWest.getLat()) / 2,
+                (northEast.getLng() + southWest.getLng()) / 2);
+        loadMarkers(southWest.getLat(), southWest.getLng(), northEast.getLat(), northEast.getLng());
+    }
+
+    /**
+     * Carga las alertas del rectangulo. Primero se agrupan por geocelda en la base de datos, y solo
+     * si son pocas se cargan una a una junto con los recorridos; si no se pinta un marcador por
+     * grupo y ningun recorrido.
+     */
+    private void loadMarkers(double south, double west, double north, double east) {
+        Date from = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(DAYS));
+        List<GeoCluster> clusters = alerts.findClusters(south, west, north, east, from, null);
+        long total = 0;
+        for (GeoCluster cluster : clusters) {
+            total += cluster.getCount();
+        }
+        markers = new DefaultMapModel();
+        if (total > MAX_MARKERS) {
+            for (GeoCluster cluster : clusters) {
+                Marker marker = new Marker(new LatLng(cluster.getLatitude(), cluster.getLongitude()));
+                marker.setTitle(cluster.getCount() + " alertas");
+                marker.setIcon("/tms-web/resources/img/flag-export.png");
                 markers.addOverlay(marker);
             }
+        } else {
+            List<Alert> found = alerts.findInBox(south, west, north, east, from, null, MAX_MARKERS);
+            for (Alert alert : found) {
+                addMarker(alert);
+            }
+            loadTracks(south, west, north, east, from);
+        }
+        logger.fine("Pintadas " + total + " alertas en " + clusters.size() + " grupos");
+    }
+
+    private void loadTracks(double south, double west, double north, double east, Date from) {
+        // los recorridos se simplifican con un error de como mucho un pixel
+        double tolerance = (north - south) * 111320d / MAP_HEIGHT;
+        for (Track track : tracks.findTracks(south, west, north, east, from, null, tolerance,
+                MAX_TRACK_POINTS)) {
+            Polyline tracking = new Polyline();
+            for (TrackPoint point : track.getPoints()) {
+                tracking.getPaths().add(new LatLng(point.getLatitude(), point.getLongitude()));
+            }
+            markers.addOverlay(tracking);
         }
-        markers.addOverlay(tracking);
-        if (center == null) {
-            center = new LatLng(120.0, 34.0);
+    }
+
+    private void addMarker(Alert alert) {
+        if (alert.getLatitude() != null) {
+            LatLng latLng = new LatLng(alert.getLatitude(), alert.getLongitude());
+            Marker marker = new Marker(latLng);
+            marker.setTitle(alert.getCreated().toString() + ": " + alert.getCause());
+            String cause = (alert.getCause() != null) ? alert.getCause() : "sin causa";
+            if (cause.startsWith("track")) {
+                marker.setIcon("/tms-web/resources/img/footprint.png");
+            } else if (cause.startsWith("fence")) {
+                marker.setIcon("/tms-web/resources/img/stop.png");
+            } else if (cause.startsWith("batt")) {
+                marker.setIcon("/tms-web/resources/img/poweroutage.png");
+            } else if (cause.startsWith("click")) {
+                marker.setIcon("/tms-web/resources/img/skull.png");
+            } else {
+                marker.setIcon("/tms-web/resources/img/flag-export.png");
+            }
+            markers.addOverlay(marker);
         }
     }
 
@@ -81,6 +155,10 @@ public class MapBean {
         this.center = center;
     }
 
+    public int getZoom() {
+        return zoom;
+    }
+
     public MapModel getMarkers() {
         return markers;
     }
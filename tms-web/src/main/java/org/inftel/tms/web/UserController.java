@@ -1,6 +1,7 @@
 package org.inftel.tms.web;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.ResourceBundle;
 
 import javax.ejb.EJB;
@@ -11,7 +12,6 @@ import javax.faces.context.FacesContext;
 import javax.faces.convert.Converter;
 import javax.faces.convert.FacesConverter;
 import javax.faces.model.DataModel;
-import javax.faces.model.ListDataModel;
 import javax.faces.model.SelectItem;
 
 import org.inftel.tms.domain.User;
@@ -52,13 +52,22 @@ public class UserController implements Serializable {
 
 				@Override
 				public int getItemsCount() {
-					return getFacade().count();
+					return getFacade().estimateCount();
 				}
 
 				@Override
-				public DataModel<User> createPageDataModel() {
-					return new ListDataModel<User>(getFacade().findRange(
-							new int[] { getPageFirstItem(), getPageFirstItem() + getPageSize() }));
+				protected List<User> findAfter(Long key, int maxResults) {
+					return getFacade().findRangeAfter(key, maxResults);
+				}
+
+				@Override
+				protected List<User> findBefore(Long key, int maxResults) {
+					return getFacade().findRangeBefore(key, maxResults);
+				}
+
+				@Override
+				protected Long getKey(User item) {
+					return item.getId();
 				}
 			};
 		}
@@ -148,18 +157,16 @@ public class UserController implements Serializable {
 	}
 
 	private void updateCurrentItem() {
-		int count = getFacade().count();
-		if (selectedItemIndex >= count) {
-			// selected index cannot be bigger than number of items:
-			selectedItemIndex = count - 1;
-			// go to previous page if last page disappeared:
-			if (pagination.getPageFirstItem() >= count) {
-				pagination.previousPage();
-			}
+		// the next item takes the place of the removed one, or the previous if it was the last
+		List<User> candidates = getFacade().findRangeAfter(current.getId(), 1);
+		if (candidates.isEmpty()) {
+			candidates = getFacade().findRangeBefore(current.getId(), 1);
 		}
-		if (selectedItemIndex >= 0) {
-			current = getFacade().findRange(new int[] { selectedItemIndex, selectedItemIndex + 1 })
-					.get(0);
+		if (candidates.isEmpty()) {
+			// all items were removed
+			selectedItemIndex = -1;
+		} else {
+			current = candidates.get(0);
 		}
 	}
 
@@ -172,6 +179,9 @@ public class UserController implements Serializable {
 
 	private void recreateModel() {
 		items = null;
+		if (pagination != null) {
+			pagination.refresh();
+		}
 	}
 
 	private void recreatePagination() {
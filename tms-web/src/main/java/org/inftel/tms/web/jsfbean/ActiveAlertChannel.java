@@ -0,0 +1,130 @@
+package org.inftel.tms.web.jsfbean;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
+import javax.faces.bean.ApplicationScoped;
+import javax.faces.bean.ManagedBean;
+
+import org.inftel.tms.services.ActiveAlert;
+import org.inftel.tms.services.ActiveAlertBoard;
+import org.inftel.tms.services.ActiveAlertChange;
+import org.primefaces.context.RequestContext;
+
+/**
+ * Canal push de alertas activas, compartido por todas las pantallas de operador. Envia por el
+ * canal {@value #CHANNEL} los cambios de {@link ActiveAlertBoard} que aun no se han enviado, en
+ * formato JSON y con el numero de version de cada cambio, o un aviso de recarga si se han perdido
+ * cambios. Las pantallas añaden y quitan las filas de la lista con cada cambio, y solo vuelven a
+ * pedir la lista al servidor si reciben el aviso de recarga o les falta algun cambio.
+ *
+ * PrimeFaces solo permite hacer push desde una peticion JSF, por lo que el envio se hace al cerrar
+ * una intervencion y desde un sondeo de las propias pantallas, que solo consulta la version en
+ * memoria y nunca accede a la base de datos. Los cambios solo se dan por enviados cuando el envio
+ * termina sin errores, si falla se vuelven a enviar en el siguiente sondeo.
+ */
+@ManagedBean(eager = true)
+@ApplicationScoped
+public class ActiveAlertChannel implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final static String CHANNEL = "alerts";
+
+	@EJB
+	private ActiveAlertBoard activeAlertBoard;
+
+	/** Solo una peticion envia cada vez, el resto no espera y deja el envio al siguiente sondeo. */
+	private final ReentrantLock publishLock = new ReentrantLock();
+
+	/** Ultima version enviada, solo se modifica con el cerrojo. */
+	private volatile long pushed;
+
+	@PostConstruct
+	void initialize() {
+		pushed = activeAlertBoard.getVersion();
+	}
+
+	/** Version actual de las alertas activas, las pantallas ignoran los cambios anteriores. */
+	public long getVersion() {
+		return activeAlertBoard.getVersion();
+	}
+
+	/** Envia los cambios pendientes, si los hay. Solo una peticion envia cada cambio. */
+	public void publish() {
+		if (pushed == activeAlertBoard.getVersion() || !publishLock.tryLock()) {
+			return;
+		}
+		try {
+			long since = pushed;
+			long version = activeAlertBoard.getVersion();
+			RequestContext context = RequestContext.getCurrentInstance();
+			if (version != since && context != null) {
+				context.push(CHANNEL, message(since, version));
+				pushed = version;
+			}
+		} finally {
+			publishLock.unlock();
+		}
+	}
+
+	private String message(long since, long version) {
+		List<ActiveAlertChange> changes = activeAlertBoard.findChangesSince(since);
+		StringBuilder message = new StringBuilder("{\"version\":").append(version);
+		if (changes == null) {
+			message.append(",\"reload\":true");
+		} else {
+			message.append(",\"changes\":[");
+			// los cambios posteriores a la version leida se envian en el siguiente sondeo
+			for (int i = 0; i < changes.size() && changes.get(i).getVersion() <= version; i++) {
+				if (i > 0) {
+					message.append(',');
+				}
+				append(message, changes.get(i));
+			}
+			message.append(']');
+		}
+		return message.append('}').toString();
+	}
+
+	private static void append(StringBuilder json, ActiveAlertChange change) {
+		ActiveAlert alert = change.getAlert();
+		json.append("{\"version\":").append(change.getVersion());
+		json.append(",\"added\":").append(change.isAdded());
+		json.append(",\"id\":").append(alert.getId());
+		if (change.isAdded()) {
+			json.append(",\"type\":");
+			quote(json, alert.getType() == null ? null : alert.getType().toString());
+			json.append(",\"priority\":");
+			quote(json, alert.getPriority() == null ? null : alert.getPriority().toString());
+			json.append(",\"cause\":");
+			quote(json, alert.getCause());
+			json.append(",\"affected\":");
+			quote(json, alert.getAffectedName());
+			// la fecha con el mismo texto que pinta la lista
+			json.append(",\"created\":");
+			quote(json, alert.getCreated() == null ? null : alert.getCreated().toString());
+		}
+		json.append('}');
+	}
+
+	private static void quote(StringBuilder json, String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+}
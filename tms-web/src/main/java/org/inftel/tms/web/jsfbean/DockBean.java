@@ -6,15 +6,19 @@ import java.util.List;
 import javax.ejb.EJB;
 import javax.faces.application.FacesMessage;
 import javax.faces.bean.ManagedBean;
+import javax.faces.bean.ManagedProperty;
 import javax.faces.bean.SessionScoped;
 import javax.faces.context.FacesContext;
 
 import org.inftel.tms.domain.Alert;
 import org.inftel.tms.domain.Intervention;
 import org.inftel.tms.domain.Person;
+import org.inftel.tms.services.ActiveAlert;
+import org.inftel.tms.services.ActiveAlertBoard;
 import org.inftel.tms.services.AlertFacade;
 import org.inftel.tms.services.InterventionFacade;
 import org.inftel.tms.services.UserFacade;
+import org.inftel.tms.web.util.JsfUtil;
 import org.primefaces.model.map.DefaultMapModel;
 import org.primefaces.model.map.LatLng;
 import org.primefaces.model.map.MapModel;
@@ -38,6 +42,10 @@ public class DockBean implements Serializable {
 	private UserFacade userFacade;
 	@EJB
 	private InterventionFacade interFacade;
+	@EJB
+	private ActiveAlertBoard activeAlertBoard;
+	@ManagedProperty("#{activeAlertChannel}")
+	private ActiveAlertChannel activeAlertChannel;
 
 	public String getIntervention() {
 		return intervention;
@@ -71,6 +79,8 @@ public class DockBean implements Serializable {
 				newIntervention.setBy(userFacade.currentUser());
 				newIntervention.setDescription(intervention);
 				interFacade.create(newIntervention);
+				// el resto de operadores ven la alerta cerrada sin esperar al sondeo
+				activeAlertChannel.publish();
 
 				msg = new FacesMessage(FacesMessage.SEVERITY_WARN, "Intervention closed",
 						"Closing...");
@@ -83,8 +93,28 @@ public class DockBean implements Serializable {
 		FacesContext.getCurrentInstance().addMessage(null, msg);
 	}
 
-	public List<Alert> getAlerts() {
-		return alertFacade.findActiveAlerts();
+	/** Alertas activas, se obtienen de memoria sin acceder a la base de datos. */
+	public List<ActiveAlert> getAlerts() {
+		return activeAlertBoard.findActiveAlerts();
+	}
+
+	public Long getSelectedAlertId() {
+		return (selectedAlert == null) ? null : selectedAlert.getId();
+	}
+
+	/** Selecciona una alerta activa, solo se carga la alerta completa al seleccionarla. */
+	public void setSelectedAlertId(Long selectedAlertId) {
+		this.selectedAlert = (selectedAlertId == null) ? null : alertFacade.find(selectedAlertId);
+	}
+
+	/** Selecciona la alerta del parametro <code>alertId</code>, desde la lista de alertas activas. */
+	public void selectAlert() {
+		String alertId = JsfUtil.getRequestParameter("alertId");
+		setSelectedAlertId((alertId == null) ? null : Long.valueOf(alertId));
+	}
+
+	public void setActiveAlertChannel(ActiveAlertChannel activeAlertChannel) {
+		this.activeAlertChannel = activeAlertChannel;
 	}
 
 	public Alert getSelectedAlert() {
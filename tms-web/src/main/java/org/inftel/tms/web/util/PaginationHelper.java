@@ -1,11 +1,24 @@
 package org.inftel.tms.web.util;
 
+import java.util.List;
+
 import javax.faces.model.DataModel;
+import javax.faces.model.ListDataModel;
 
+/**
+ * Paginacion por clave (keyset): cada pagina se obtiene a partir del identificador de la ultima
+ * fila de la anterior, de forma que el coste no crece con la profundidad de la pagina. Se pide una
+ * fila de mas para saber si hay pagina siguiente sin contar, y el total solo se usa para mostrarse,
+ * por lo que puede ser aproximado.
+ */
 public abstract class PaginationHelper<T> {
 
 	private int pageSize;
 	private int page;
+	/** Identificador de la fila anterior a la pagina actual, <code>null</code> en la primera. */
+	private Long after;
+	private List<T> rows;
+	private boolean hasNextPage;
 
 	public PaginationHelper(int pageSize) {
 		this.pageSize = pageSize;
@@ -13,18 +26,40 @@ public abstract class PaginationHelper<T> {
 
 	public abstract int getItemsCount();
 
-	public abstract DataModel<T> createPageDataModel();
+	/** Como maximo <code>maxResults</code> filas posteriores a <code>key</code>, en orden. */
+	protected abstract List<T> findAfter(Long key, int maxResults);
+
+	/** Como maximo <code>maxResults</code> filas anteriores a <code>key</code>, en orden. */
+	protected abstract List<T> findBefore(Long key, int maxResults);
+
+	protected abstract Long getKey(T item);
+
+	public DataModel<T> createPageDataModel() {
+		return new ListDataModel<T>(getRows());
+	}
+
+	/** Descarta la pagina cargada para que se vuelva a consultar manteniendo la posicion. */
+	public void refresh() {
+		rows = null;
+	}
+
+	private List<T> getRows() {
+		if (rows == null) {
+			rows = findAfter(after, pageSize + 1);
+			hasNextPage = rows.size() > pageSize;
+			if (hasNextPage) {
+				rows = rows.subList(0, pageSize);
+			}
+		}
+		return rows;
+	}
 
 	public int getPageFirstItem() {
 		return page * pageSize;
 	}
 
 	public int getPageLastItem() {
-		int i = getPageFirstItem() + pageSize - 1;
-		int count = getItemsCount() - 1;
-		if (i > count) {
-			i = count;
-		}
+		int i = getPageFirstItem() + getRows().size() - 1;
 		if (i < 0) {
 			i = 0;
 		}
@@ -32,12 +67,15 @@ public abstract class PaginationHelper<T> {
 	}
 
 	public boolean isHasNextPage() {
-		return (page + 1) * pageSize + 1 <= getItemsCount();
+		getRows();
+		return hasNextPage;
 	}
 
 	public void nextPage() {
 		if (isHasNextPage()) {
+			after = getKey(rows.get(rows.size() - 1));
 			page++;
+			rows = null;
 		}
 	}
 
@@ -47,7 +85,22 @@ public abstract class PaginationHelper<T> {
 
 	public void previousPage() {
 		if (isHasPreviousPage()) {
-			page--;
+			List<T> current = getRows();
+			if (current.isEmpty()) {
+				// la pagina se ha quedado vacia, se vuelve al principio
+				after = null;
+				page = 0;
+			} else {
+				List<T> previous = findBefore(getKey(current.get(0)), pageSize + 1);
+				if (previous.size() > pageSize) {
+					after = getKey(previous.get(0));
+					page--;
+				} else {
+					after = null;
+					page = 0;
+				}
+			}
+			rows = null;
 		}
 	}
 